@@ -40,6 +40,9 @@ public class BatchInsert {
                 }
             }
 
+            // Create the database; the heap file and its LSH indexes both live in it
+            SystemDefs sysdef = new SystemDefs(dbName, GlobalConst.MINIBASE_DB_SIZE, GlobalConst.NUMBUF, "Clock");
+
             // Create a heap file for the database
             Heapfile heapfile = new Heapfile(dbName);
 
@@ -77,28 +80,20 @@ public class BatchInsert {
             // Create LSH-forest indexes for attrVector100D attributes
             for (int i = 0; i < numAttributes; i++) {
                 if (attrTypes[i].attrType == AttrType.attrVector100D) {
-                    String indexName = dbName + "_attr" + (i + 1) + "_h" + h + "_L" + L;
-                    LSHFIndex index = new LSHFIndex(h, L);
-
-                    // Scan the heap file and insert records into the index
-                    Scan scan = heapfile.openScan();
-                    RID rid = new RID();
-                    Tuple temp = new Tuple();
-                    while ((temp = scan.getNext(rid)) != null) {
-                        temp.setHdr((short) numAttributes, attrTypes, null);
-                        int[] vectorArray = temp.getVectorFld(i + 1);
-                        Vector100Dtype vector = new Vector100Dtype(vectorArray);
-                        Vector100DKey vectorKey = new Vector100DKey(vector);
-                        index.insert(vectorKey, rid);
-                    }
-                    scan.closescan();
-                    
-                    String indexFilePath = indexName + ".ser";
-                    index.saveIndex(indexFilePath);
-                    System.out.println("Index saved to: " + indexFilePath);
+                    // h and L are kept in the index header, so the name only identifies the attribute
+                    String indexName = dbName + "_attr" + (i + 1);
+                    LSHFIndex index = new LSHFIndex(indexName, h, L);
+
+                    // Scan the heap file and hash its vectors into the index in batches
+                    index.bulkLoad(heapfile, attrTypes, null, i + 1, Runtime.getRuntime().availableProcessors());
+
+                    index.close();
+                    System.out.println("Index stored in database as: " + indexName);
                 }
             }
 
+            SystemDefs.JavabaseBM.flushAllPages();
+
             // Output disk page statistics
             System.out.println("Disk pages read: " + PCounter.getRCount());
             System.out.println("Disk pages written: " + PCounter.getWCount());
@@ -42,6 +42,16 @@ public class DBInterface {
     // Constants for buffer management
     private static final int DEFAULT_DB_PAGES = GlobalConst.MINIBASE_DB_SIZE;
     private static final int DEFAULT_BUFFER_PAGES = GlobalConst.NUMBUF;
+
+    // Largest NN outer of a DJOIN that is joined by probing the inner's LSH index
+    private static final int INLJ_MAX_OUTER = 100;
+
+    // Sort buffer pages and page fill used when bulk loading a B-Tree index
+    private static final int BTREE_SORT_PAGES = 64;
+    private static final float BTREE_FILL_FACTOR = 0.9f;
+
+    // Probe budget and parallelism for LSH index scans, changed with the "set" command
+    private static LSHSearchParams lshParams = new LSHSearchParams();
     /**
      * Main method - entry point for the DB interface.
      * Parses commands and dispatches to appropriate handlers.
@@ -110,6 +120,13 @@ public class DBInterface {
                             }
                         }
                         break;
+                    case "set":
+                        if (tokens.length != 3) {
+                            System.out.println("Usage: set probes|candidates|parallelism N");
+                        } else {
+                            setOption(tokens[1].toLowerCase(), tokens[2]);
+                        }
+                        break;
                     case "help":
                         printHelp();
                         break;
@@ -588,61 +605,18 @@ public class DBInterface {
             //  LSHF Index Creation 
             if (indexTypeToCreate.indexType == IndexType.LSHFIndex) {
                 System.out.println("Creating LSH index with " + lValue + " layers and " + hValue + " hash functions per layer...");
-                LSHFIndex lshIndex = new LSHFIndex(hValue, lValue);
-
-                scan = heapFile.openScan();
-                RID rid = new RID();
-                Tuple tuple = null;
-
-                while ((tuple = scan.getNext(rid)) != null) {
-                    RID ridCopy = new RID(rid.pageNo, rid.slotNo);
-                    tuple.setHdr((short) tupleAttrTypes.length, tupleAttrTypes, tupleStrSizes);
-                    try {
-                        int[] vectorData = tuple.getVectorFld(columnId);
-                        Vector100Dtype vectorObj = new Vector100Dtype(vectorData);
-                        Vector100DKey key = new Vector100DKey(vectorObj);
-                        lshIndex.insert(key, ridCopy);
-                        indexedTupleCount++;
-                    } catch (Exception e) {
-                        System.err.println("Warning: Could not index tuple for LSH: " + e.getMessage());
-                    }
+                indexFileName = relationName + columnId + "_L" + lValue + "_h" + hValue;
+                if (LSHFIndex.exists(indexFileName)) {
+                    // Left over from an index whose catalog entry is gone; rebuild it from scratch
+                    new LSHFIndex(indexFileName).destroyIndex();
                 }
-                scan.closescan();
-                scan = null;
-
-                indexFileName = relationName + columnId + "_L" + lValue + "_h" + hValue + ".ser";
+                LSHFIndex lshIndex = new LSHFIndex(indexFileName, hValue, lValue);
 
-                String absolutePathToFile = null; // Store the absolute path
-
-                try {
-                    File testFileRelative = new File(indexFileName);
-                    absolutePathToFile = testFileRelative.getAbsolutePath(); // Get the absolute path
+                indexedTupleCount = lshIndex.bulkLoad(heapFile, tupleAttrTypes, tupleStrSizes, columnId,
+                                                      Runtime.getRuntime().availableProcessors());
 
-
-                    // *** Use the absolute path for subsequent operations ***
-                    File testFileAbsolute = new File(absolutePathToFile);
-
-                    File parentDir = testFileAbsolute.getParentFile();
-                    if (parentDir != null) {
-                    } else {
-                         File cwd = new File(".");
-                    }
-                    if (testFileAbsolute.exists()) {
-                    }
-
-                    if (testFileAbsolute.createNewFile()) {
-                        testFileAbsolute.delete();
-                    } else {
-                    }
-                } catch (IOException e_test) {
-                    e_test.printStackTrace();
-                } catch (SecurityException e_sec) {
-                     e_sec.printStackTrace();
-                }
-
-                String finalPathToSave = (absolutePathToFile != null) ? absolutePathToFile : indexFileName;
-                lshIndex.saveIndex(finalPathToSave); // Use the absolute path
-                System.out.println("LSH index structure saved to file: " + finalPathToSave);
+                lshIndex.close();
+                System.out.println("LSH index stored in database file: " + indexFileName);
 
             //  B-Tree Index  
         } else if (indexTypeToCreate.indexType == IndexType.B_Index) {
@@ -662,50 +636,12 @@ public class DBInterface {
                     btreeKeySize = attrDesc.attrLen;
                 }
 
-                // Create the BTreeFile 
+                // Create the BTreeFile and bulk load it from the sorted keys
                 btreeFile = new BTreeFile(indexFileName, btreeKeyType, btreeKeySize, 0); // 0 for non-delete
-
-
-                // Scan data and insert into BTree
-                scan = heapFile.openScan();
-                RID rid = new RID();
-                Tuple tuple = null;
-
-                while ((tuple = scan.getNext(rid)) != null) {
-                    // Make a copy of RID
-                    RID ridCopy = new RID(rid.pageNo, rid.slotNo);
-                    // Set header
-                    tuple.setHdr((short) tupleAttrTypes.length, tupleAttrTypes, tupleStrSizes);
-
-                    KeyClass key = null;
-                    try {
-                        // Extract key based on type
-                        switch (attrType.attrType) { // Still switch on the original attribute type
-                            case AttrType.attrInteger:
-                                key = new IntegerKey(tuple.getIntFld(columnId));
-                                break;
-                            case AttrType.attrReal:
-                                // Casting float (which is a whole number) to IntegerKey
-                                key = new IntegerKey((int)tuple.getFloFld(columnId)); // <-- CAST HERE
-                                break;
-                            case AttrType.attrString:
-                                key = new StringKey(tuple.getStrFld(columnId));
-                                break;
-                        }
-
-                        // Insert into BTree
-                        if (key != null) {
-                            btreeFile.insert(key, ridCopy); // Use the IntegerKey
-                            indexedTupleCount++;
-                        }
-                    } catch (Exception e) { // Catch potential duplicate key exceptions here if BTree throws them
-                         System.err.println("Warning: Could not insert key for RID [" + ridCopy.pageNo + "," + ridCopy.slotNo + "] into BTree: " + e.getMessage());
-                         e.printStackTrace();
-                         // Optionally re-throw if insertion failure should stop the whole process
-                    }
-                } // End while scan
-                scan.closescan();
-                scan = null;
+                int sortPages = Math.max(3, Math.min(BTREE_SORT_PAGES,
+                                                     SystemDefs.JavabaseBM.getNumUnpinnedBuffers() / 2));
+                indexedTupleCount = BTreeBulkLoader.load(btreeFile, heapFile, tupleAttrTypes, tupleStrSizes,
+                                                         columnId, sortPages, BTREE_FILL_FACTOR);
 
             }  finally {
                 // Ensure BTree file is closed if created
@@ -760,7 +696,7 @@ public class DBInterface {
             if (indexTypeToCreate.indexType == IndexType.LSHFIndex) {
                  System.out.println("Created LSH index on " + relationName + "." + attrName +
                                   " with " + indexedTupleCount + " entries.");
-                 System.out.println("Index structure saved to file: " + indexFileName);
+                 System.out.println("Index stored as: " + indexFileName);
             } else {
                  System.out.println("Created B-Tree index on " + relationName + "." + attrName +
                                   " with " + indexedTupleCount + " entries.");
@@ -897,17 +833,16 @@ public class DBInterface {
                         if (id.accessType.indexType == IndexType.LSHFIndex) {
                             String indexFileName = id.physicalFileName;
                             if (indexFileName != null && !indexFileName.isEmpty()) {
-                                File indexFile = new File(indexFileName);
-                                if (indexFile.exists()) {
+                                if (LSHFIndex.exists(indexFileName)) {
                                     try {
-                                        LSHFIndex lshIndex = LSHFIndex.loadIndex(indexFileName);
+                                        LSHFIndex lshIndex = new LSHFIndex(indexFileName);
                                         loadedLSHIndexes.put(indexFileName, lshIndex);
                                         lshIndexAttrMap.put(indexFileName, indexAttrPos);
                                     } catch (Exception e_load) {
                                         System.err.println("Warning: Failed to pre-load LSH index '" + indexFileName + "': " + e_load.getMessage());
                                     }
                                 } else {
-                                    System.err.println("Warning: LSH index file specified in catalog not found: " + indexFileName);
+                                    System.err.println("Warning: LSH index specified in catalog not found in database: " + indexFileName);
                                 }
                             } else {
                                 System.err.println("Warning: LSH index entry found but physical file name is missing for " + id.attrName);
@@ -1061,20 +996,10 @@ public class DBInterface {
                 // *** END BATCHING UPDATE ***
             } // End while(true) loop for reading file
 
-            // *** BATCHING: Save updated LSH indexes ***
-            System.out.println("Saving updated LSH indexes...");
-            for (Map.Entry<String, LSHFIndex> entry : loadedLSHIndexes.entrySet()) {
-                String filename = entry.getKey();
-                LSHFIndex index = entry.getValue();
-                try {
-                    index.saveIndex(filename);
-                    System.out.println("Saved LSH index: " + filename);
-                } catch (IOException e_save) {
-                    System.err.println("ERROR: Failed to save updated LSH index '" + filename + "': " + e_save.getMessage());
-                    // Decide how critical this is - maybe throw exception?
-                }
+            // LSH index pages were updated in place; just release the open indexes
+            for (LSHFIndex index : loadedLSHIndexes.values()) {
+                index.close();
             }
-            // *** END BATCHING SAVE ***
 
             // Report success and statistics
             System.out.println("Successfully inserted " + insertedCount + " tuples into relation '" + relationName + "'.");
@@ -1220,17 +1145,16 @@ private static void batchDelete(String updateFileName, String relationName) thro
                     if (id.accessType.indexType == IndexType.LSHFIndex) {
                         String indexFileName = id.physicalFileName;
                         if (indexFileName != null && !indexFileName.isEmpty()) {
-                            File indexFile = new File(indexFileName);
-                            if (indexFile.exists()) {
+                            if (LSHFIndex.exists(indexFileName)) {
                                 try {
-                                    LSHFIndex lshIndex = LSHFIndex.loadIndex(indexFileName);
+                                    LSHFIndex lshIndex = new LSHFIndex(indexFileName);
                                     loadedLSHIndexes.put(indexFileName, lshIndex);
                                     lshIndexAttrMap.put(indexFileName, indexAttrPos);
                                 } catch (Exception e_load) {
                                     System.err.println("Warning: Failed to pre-load LSH index '" + indexFileName + "': " + e_load.getMessage());
                                 }
                             } else {
-                                System.err.println("Warning: LSH index file specified in catalog not found: " + indexFileName);
+                                System.err.println("Warning: LSH index specified in catalog not found in database: " + indexFileName);
                             }
                         } else {
                             System.err.println("Warning: LSH index entry found but physical file name is missing for " + id.attrName);
@@ -1448,19 +1372,10 @@ private static void batchDelete(String updateFileName, String relationName) thro
             }
         } // End loop through toDelete RIDs
 
-        // *** BATCHING: Save updated LSH indexes ***
-        System.out.println("Saving updated LSH indexes...");
-        for (Map.Entry<String, LSHFIndex> entry : loadedLSHIndexes.entrySet()) {
-            String filename = entry.getKey();
-            LSHFIndex index = entry.getValue();
-            try {
-                index.saveIndex(filename);
-                System.out.println(" Saved LSH index: " + filename);
-            } catch (IOException e_save) {
-                System.err.println("ERROR: Failed to save updated LSH index '" + filename + "': " + e_save.getMessage());
-            }
+        // LSH index pages were updated in place; just release the open indexes
+        for (LSHFIndex index : loadedLSHIndexes.values()) {
+            index.close();
         }
-        // *** END BATCHING SAVE ***
 
         // Report success and statistics
         System.out.println("Successfully deleted " + deletedCount + " tuples from relation '" + relationName + "'.");
@@ -1512,6 +1427,41 @@ private static class DeletionCondition {
 }
 
     
+    /**
+     * Change a query option for the rest of the session.
+     *
+     * @param name  Option name
+     * @param value New value
+     */
+    private static void setOption(String name, String value) {
+        int n;
+        try {
+            n = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: " + name + " must be an integer.");
+            return;
+        }
+        if (n < 0) {
+            System.err.println("Error: " + name + " must not be negative.");
+            return;
+        }
+        switch (name) {
+            case "probes":
+                lshParams.probes = n;
+                break;
+            case "candidates":
+                lshParams.maxCandidates = n;
+                break;
+            case "parallelism":
+                lshParams.parallelism = n;
+                break;
+            default:
+                System.out.println("Unknown option: " + name);
+                return;
+        }
+        System.out.println(name + " = " + n);
+    }
+
     /**
      * Print help information for all commands
      */
@@ -1524,6 +1474,9 @@ private static class DeletionCondition {
         System.out.println("  batchinsert UPDATEFILENAME RELNAME - Insert data into a table");
         System.out.println("  batchdelete UPDATEFILENAME RELNAME - Delete data from a table");
         System.out.println("  query RELNAME1 RELNAME2 QSNAME NUMBUF - Run a query");
+        System.out.println("  set probes N - Probe at most N buckets per LSH layer (0 = no limit)");
+        System.out.println("  set candidates N - Stop probing an LSH layer after N entries (0 = no limit)");
+        System.out.println("  set parallelism N - Search up to N LSH layers at once (1 = sequential)");
         System.out.println("  help - Display this help message");
         System.out.println("  exit - Exit the database interface");
     }
@@ -2387,7 +2340,8 @@ private static void executeRangeQuery(String queryExpr, String relName, int buff
                     null, // No selection conditions for RSIndexScan itself
                     queryAttrNum,
                     targetVec,
-                    rangeDistance
+                    rangeDistance,
+                    lshParams
                 );
             } else {
                 System.out.println("No suitable LSH index found, using sequential scan");
@@ -2582,7 +2536,8 @@ private static void executeNNQuery(String queryExpr, String relName, int bufferP
                     null,            // No selection conditions for NNIndexScan itself
                     queryAttrNum,
                     targetVec,
-                    k
+                    k,
+                    lshParams
                 );
             } else {
                 System.out.println("No suitable LSH index found, using sequential scan with sorting");
@@ -2716,6 +2671,7 @@ private static void executeDJoinQuery(String queryExpr, String defaultRelName1,
     OuterQueryResult outerResult;
     String outerRelName;
     int queryAttr1; // QA1
+    int outerLimit = -1; // K of an NN outer query, -1 if the outer is unbounded
 
     // Determine if the outer spec is a nested query or just an attribute number
     if (outerSpec.startsWith("Range(") || outerSpec.startsWith("NN(")) {
@@ -2724,6 +2680,9 @@ private static void executeDJoinQuery(String queryExpr, String defaultRelName1,
         if (outerParams.length < 2) throw new Exception("Nested outer query needs at least QA and T parameters");
 
         queryAttr1 = Integer.parseInt(outerParams[0].trim()); // QA1 from nested query
+        if (outerSpec.startsWith("NN(") && outerParams.length > 2) {
+            outerLimit = Integer.parseInt(outerParams[2].trim());
+        }
         // The second parameter of Range/NN is the target vector file, NOT the relation name.
         // The relation name for the outer query must be defaultRelName1.
         outerRelName = defaultRelName1;
@@ -2924,6 +2883,14 @@ private static void executeDJoinQuery(String queryExpr, String defaultRelName1,
         }
     }
 
+    // The index is probed once per outer tuple, which only pays for an
+    // outer of a few tuples; otherwise the partitioned join reads each
+    // relation once or twice instead
+    if (useInnerIndex && (outerLimit < 0 || outerLimit > INLJ_MAX_OUTER)) {
+        System.out.println("Outer may return over " + INLJ_MAX_OUTER + " tuples, not probing the index per tuple.");
+        useInnerIndex = false;
+    }
+
     // --- Create Join Iterator ---
     iterator.Iterator joinIterator = null;
     try {
@@ -2943,15 +2910,16 @@ private static void executeDJoinQuery(String queryExpr, String defaultRelName1,
                 outFldCnt
             );
         } else {
-             System.out.println("Using Nested Loop Join (NLJ)");
-            joinIterator = new NestedLoopsJoins(
+             System.out.println("Using Partitioned Distance Join");
+            joinIterator = new DistanceJoin(
                 outerResult.attrTypes, outerResult.numAttrs, outerResult.strSizes,
                 attrTypes2, relDesc2.attrCnt, strSizes2,
                 bufferPages, // Use bufferPages
                 outerResult.iterator, // The iterator from the outer query
                 relName2,
-                joinExpr,
-                null, // Right filter expression
+                queryAttr1,
+                queryAttr2,
+                distanceThreshold,
                 projListJoin,
                 outFldCnt
             );
@@ -3072,7 +3040,7 @@ private static OuterQueryResult getOuterIteratorAndSchema(String outerQueryExpr,
                 System.out.println("Using LSH index for outer Range query: " + indexName);
                 scan = new RSIndexScan(new IndexType(IndexType.LSHFIndex), baseRelName, indexName,
                                        attrTypes, strSizes, (short)relDesc.attrCnt, (short)projCount, projlist,
-                                       null, queryAttrNum, targetVec, rangeDistance);
+                                       null, queryAttrNum, targetVec, rangeDistance, lshParams);
                 indexFound = true;
             } else {
                  System.out.println("No suitable LSH index found for outer Range query, using sequential scan with filter");
@@ -3118,7 +3086,7 @@ private static OuterQueryResult getOuterIteratorAndSchema(String outerQueryExpr,
                 System.out.println("Using LSH index for outer NN query: " + indexName);
                 scan = new NNIndexScan(new IndexType(IndexType.LSHFIndex), baseRelName, indexName,
                                        attrTypes, strSizes, (short)relDesc.attrCnt, (short)projCount, projlist,
-                                       null, queryAttrNum, targetVec, k);
+                                       null, queryAttrNum, targetVec, k, lshParams);
                 indexFound = true;
             } else {
                  System.out.println("No suitable LSH index found for outer NN query, using sequential scan");
@@ -3163,12 +3131,11 @@ private static String findLSHIndex(String relName, int queryAttrNum, RelDesc rel
                     indexDescs[i].physicalFileName != null &&
                     !indexDescs[i].physicalFileName.isEmpty())
                 {
-                    // Check if the physical file actually exists on disk
-                    File indexFile = new File(indexDescs[i].physicalFileName);
-                    if (indexFile.exists() && indexFile.isFile()) {
+                    // Check that the index is actually registered in the database file
+                    if (LSHFIndex.exists(indexDescs[i].physicalFileName)) {
                         return indexDescs[i].physicalFileName; // <-- RETURN THE STORED NAME
                     } else {
-                        System.err.println("Warning: Catalog entry found for LSH index, but physical file '" + indexDescs[i].physicalFileName + "' does not exist.");
+                        System.err.println("Warning: Catalog entry found for LSH index, but index file '" + indexDescs[i].physicalFileName + "' does not exist in the database.");
                     }
                 }
             }
@@ -4,30 +4,156 @@ import global.*;
 import heap.*; // Assuming RID is here
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represents the overall LSH index structure, composed of multiple layers,
- * each potentially represented by a PrefixTree or similar structure.
+ * each represented by a PrefixTree.
+ *
+ * The index is stored in the Minibase DB file: a header page registered
+ * under the index name holds h, L and the directory page of every layer,
+ * and the layers keep their buckets on pages (see PrefixTree). Opening an
+ * index reads only the header and the bucket directories.
  */
-public class LSHFIndex implements Serializable {
-    @Serial
-    private static final long serialVersionUID = 1L; // Recommended for Serializable classes
+public class LSHFIndex {
 
+    private static final int MAGIC0 = 1996;
+    private static final int BASE_SEED = 12345; // Fixed base seed for reproducibility across runs
+
+    // Records hashed and written per batch of a bulk load
+    private static final int BULK_BATCH = 4096;
+
+    // Shared by every index; a query occupies at most LSHSearchParams.parallelism
+    // of its threads, and a bulk load at most the parallelism it is given
+    private static final ForkJoinPool searchPool =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private String fileName; // Name of the index in the DB file directory
+    private PageId headerPageId; // Page holding h, L and the layer directories
     private int h; // Number of hash functions per layer (or bits for prefix tree)
     private int L; // Number of layers (hash tables/trees)
     private List<PrefixTree> layers; // List of prefix trees (one per layer)
-    // private String relationName; // Optional: Store relation name if needed for Heapfile access within index methods
 
-    // Constructor
-    public LSHFIndex(int h, int L /*, String relationName */) {
+    /**
+     * Opens the index called fileName, creating it with the given
+     * parameters if it does not exist yet.
+     * @param fileName name of the index file
+     * @param h number of hash functions per layer
+     * @param L number of layers
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if the index cannot be created or opened,
+     *         or exists with a different h/L
+     */
+    public LSHFIndex(String fileName, int h, int L) throws IOException, LSHFIndexException {
+        this.fileName = fileName;
+        headerPageId = get_file_entry(fileName);
+        if (headerPageId != null) {
+            open();
+            if (this.h != h || this.L != L) {
+                throw new LSHFIndexException(null, "LSHFIndex.java: index " + fileName
+                        + " already exists with h=" + this.h + ", L=" + this.L);
+            }
+            return;
+        }
+
         this.h = h;
         this.L = L;
-        // this.relationName = relationName; // Store if needed
+        LSHHeaderPage header = new LSHHeaderPage();
+        headerPageId = new PageId(header.getCurPage().pid);
         this.layers = new ArrayList<>();
-        int baseSeed = 12345; // Fixed base seed for reproducibility across runs
-        for (int i = 0; i < L; i++) {
-            // Each layer gets a unique seed derived from the base seed
-            layers.add(new PrefixTree(baseSeed + i, h));
+        boolean registered = false;
+        try {
+            add_file_entry(fileName, headerPageId);
+            registered = true;
+            PageId[] layerDirs = new PageId[L];
+            for (int i = 0; i < L; i++) {
+                // Each layer gets a unique seed derived from the base seed
+                PrefixTree layer = new PrefixTree(BASE_SEED + i, h);
+                layers.add(layer);
+                layerDirs[i] = layer.getDirPageId();
+            }
+            header.set_magic0(MAGIC0);
+            header.set_layout(h, L, BASE_SEED, layerDirs);
+        } catch (Exception e) {
+            abandon(registered, e);
+            throw e;
+        }
+        unpinPage(headerPageId, true);
+    }
+
+    /**
+     * Undoes a create that failed with cause: frees the layers built so
+     * far and the pinned header page, and removes the file entry if it was
+     * added. Whatever fails here is added to cause as suppressed, so the
+     * caller still sees why the create failed.
+     */
+    private void abandon(boolean registered, Exception cause) {
+        try {
+            for (PrefixTree layer : layers) {
+                layer.destroy();
+            }
+        } catch (Exception e) {
+            cause.addSuppressed(e);
+        }
+        layers = null;
+        try {
+            unpinPage(headerPageId, false);
+            freePage(headerPageId);
+        } catch (Exception e) {
+            cause.addSuppressed(e);
+        }
+        if (registered) {
+            try {
+                delete_file_entry(fileName);
+            } catch (Exception e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Opens an existing index.
+     * @param fileName name of the index file
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if no such index exists or it cannot be read
+     */
+    public LSHFIndex(String fileName) throws IOException, LSHFIndexException {
+        this.fileName = fileName;
+        headerPageId = get_file_entry(fileName);
+        if (headerPageId == null) {
+            throw new LSHFIndexException(null, "LSHFIndex.java: no such index: " + fileName);
+        }
+        open();
+    }
+
+    /**
+     * Tells whether an index of this name is registered in the open DB.
+     * @param fileName name of the index file
+     * @return true if the DB has a file entry for fileName
+     */
+    public static boolean exists(String fileName) {
+        try {
+            return SystemDefs.JavabaseDB.get_file_entry(fileName) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void open() throws IOException, LSHFIndexException {
+        LSHHeaderPage header = new LSHHeaderPage(headerPageId);
+        try {
+            if (header.get_magic0() != MAGIC0) {
+                throw new LSHFIndexException(null, "LSHFIndex.java: " + fileName + " is not an LSH index");
+            }
+            this.h = header.get_h();
+            this.L = header.get_L();
+            int baseSeed = header.get_baseSeed();
+            this.layers = new ArrayList<>();
+            for (int i = 0; i < L; i++) {
+                layers.add(new PrefixTree(baseSeed + i, h, header.get_layerDir(i)));
+            }
+        } finally {
+            unpinPage(headerPageId, false);
         }
     }
 
@@ -36,8 +162,9 @@ public class LSHFIndex implements Serializable {
      * @param key The vector key to insert.
      * @param rid The Record ID associated with the key.
      * @throws IOException If an I/O error occurs during insertion in any layer.
+     * @throws LSHFIndexException If a bucket page cannot be read or written.
      */
-    public void insert(Vector100DKey key, RID rid) throws IOException {
+    public void insert(Vector100DKey key, RID rid) throws IOException, LSHFIndexException {
         Vector100Dtype vector = key.getVector();
         for (PrefixTree layer : layers) {
             // Compute hash specific to this layer (using its seed)
@@ -47,14 +174,106 @@ public class LSHFIndex implements Serializable {
         }
     }
 
+    /**
+     * Indexes field fld of every record of rel, as calling insert for
+     * each would, a batch of records at a time. The vectors are copied
+     * from the scanned records straight into bucket entries; the hashes of
+     * a batch in every layer are computed in parallelism tasks on the
+     * shared pool; and each layer then writes the batch grouped by bucket,
+     * pinning the end of each bucket's chain once per batch.
+     * @param rel the relation to index
+     * @param types the types of its fields
+     * @param strSizes the sizes of its string fields
+     * @param fld the vector field, from 1
+     * @param parallelism tasks a batch is hashed in; 0 or 1 hashes on the calling thread
+     * @return the number of records indexed
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if the relation cannot be read or a bucket page written
+     */
+    public int bulkLoad(Heapfile rel, AttrType[] types, short[] strSizes, int fld, int parallelism)
+            throws IOException, LSHFIndexException {
+        byte[] entries = new byte[BULK_BATCH * PrefixTree.ENTRY_SIZE];
+        VectorView vector = new VectorView();
+        int count = 0;
+        int n = 0;
+        Scan scan;
+        try {
+            scan = rel.openScan();
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHFIndex.java: cannot scan the relation");
+        }
+        try {
+            RID rid = new RID();
+            Tuple t;
+            while ((t = scan.getNext(rid)) != null) {
+                t.setHdr((short) types.length, types, strSizes);
+                PrefixTree.putEntry(t.getVectorView(fld, vector), rid, entries, n * PrefixTree.ENTRY_SIZE);
+                if (++n == BULK_BATCH) {
+                    appendBatch(entries, n, parallelism);
+                    count += n;
+                    n = 0;
+                }
+            }
+            appendBatch(entries, n, parallelism);
+            count += n;
+        } catch (LSHFIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHFIndex.java: bulk load failed");
+        } finally {
+            scan.closescan();
+        }
+        return count;
+    }
+
+    // Hashes n entries for every layer and appends them to the layers
+    private void appendBatch(byte[] entries, int n, int parallelism)
+            throws IOException, LSHFIndexException {
+        int[][] hashes = new int[L][n];
+        int tasks = Math.min(parallelism, n / 64);
+        if (tasks <= 1) {
+            hashRange(entries, 0, n, hashes);
+        } else {
+            List<Future<?>> running = new ArrayList<>(tasks);
+            for (int t = 0; t < tasks; t++) {
+                int from = (int) ((long) n * t / tasks);
+                int to = (int) ((long) n * (t + 1) / tasks);
+                running.add(searchPool.submit(() -> hashRange(entries, from, to, hashes)));
+            }
+            for (Future<?> task : running) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new LSHFIndexException(e, "LSHFIndex.java: hashing failed");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new LSHFIndexException(e, "LSHFIndex.java: hashing interrupted");
+                }
+            }
+        }
+        for (int l = 0; l < L; l++) {
+            layers.get(l).appendAll(hashes[l], entries, n);
+        }
+    }
+
+    // Fills in hashes[l][i] for entries from to to-1
+    private void hashRange(byte[] entries, int from, int to, int[][] hashes) {
+        for (int i = from; i < to; i++) {
+            for (int l = 0; l < L; l++) {
+                hashes[l][i] = layers.get(l).computeHash(entries, i * PrefixTree.ENTRY_SIZE);
+            }
+        }
+    }
+
     /**
      * Deletes a key-RID pair from all layers of the index.
      * Note: Assumes the key exists and matches the RID. Error handling might be needed.
      * @param key The vector key to delete.
      * @param rid The Record ID associated with the key to delete.
      * @throws IOException If an I/O error occurs during deletion in any layer.
+     * @throws LSHFIndexException If a bucket page cannot be read or written.
      */
-    public void delete(Vector100DKey key, RID rid) throws IOException {
+    public void delete(Vector100DKey key, RID rid) throws IOException, LSHFIndexException {
         Vector100Dtype vector = key.getVector();
         for (PrefixTree layer : layers) {
             // Compute hash specific to this layer
@@ -71,15 +290,29 @@ public class LSHFIndex implements Serializable {
      * @param distance The maximum distance for the range search (used by layer search).
      * @return A List of unique candidate RIDs found across all layers.
      * @throws IOException If an I/O error occurs during search in any layer.
+     * @throws LSHFIndexException If a bucket page cannot be read.
+     */
+    public List<RID> rangeSearch(Vector100DKey target, int distance) throws IOException, LSHFIndexException {
+        return rangeSearch(target, distance, new LSHSearchParams());
+    }
+
+    /**
+     * Range search with a per-layer probe budget; see LSHSearchParams.
+     * @param target The query vector key.
+     * @param distance The maximum distance for the range search.
+     * @param params Probe and candidate limits applied to every layer.
+     * @return A List of unique candidate RIDs found across all layers.
+     * @throws IOException If an I/O error occurs during search in any layer.
+     * @throws LSHFIndexException If a bucket page cannot be read.
      */
-    public List<RID> rangeSearch(Vector100DKey target, int distance) throws IOException {
+    public List<RID> rangeSearch(Vector100DKey target, int distance, LSHSearchParams params)
+            throws IOException, LSHFIndexException {
         Vector100Dtype vector = target.getVector();
         // Use a HashSet to automatically handle duplicates collected from different layers
         Set<RID> uniqueResults = new HashSet<>();
-        for (PrefixTree layer : layers) {
-            // Add all candidate RIDs found in this layer to the set.
+        for (List<RID> layerResults : searchLayers(params, layer -> layer.rangeSearch(vector, distance, params))) {
             // Duplicates (RIDs already present from other layers) will be ignored by the HashSet.
-            uniqueResults.addAll(layer.rangeSearch(vector, distance));
+            uniqueResults.addAll(layerResults);
         }
         // Convert the set of unique RIDs back to a List for the return type.
         // Note: This list contains *candidates*. The actual distance check
@@ -98,19 +331,35 @@ public class LSHFIndex implements Serializable {
      * @param k The number of nearest neighbors to find (0 means find all candidates).
      * @return A List of RIDDistancePair objects, potentially approximate neighbors.
      * @throws IOException If an I/O error occurs during search in any layer.
+     * @throws LSHFIndexException If a bucket page cannot be read.
+     */
+    public List<RIDDistancePair> nearestNeighborSearch(Vector100DKey target, int k) throws IOException, LSHFIndexException {
+        return nearestNeighborSearch(target, k, new LSHSearchParams());
+    }
+
+    /**
+     * Nearest-neighbor search with a per-layer probe budget; see
+     * LSHSearchParams. With a budget set, each layer reads only the buckets
+     * multi-probe selects instead of scanning the whole layer.
+     * @param target The query vector key.
+     * @param k The number of nearest neighbors to find (0 means find all candidates).
+     * @param params Probe and candidate limits applied to every layer.
+     * @return A List of RIDDistancePair objects, sorted by distance.
+     * @throws IOException If an I/O error occurs during search in any layer.
+     * @throws LSHFIndexException If a bucket page cannot be read.
      */
-    public List<RIDDistancePair> nearestNeighborSearch(Vector100DKey target, int k) throws IOException {
+    public List<RIDDistancePair> nearestNeighborSearch(Vector100DKey target, int k, LSHSearchParams params)
+            throws IOException, LSHFIndexException {
         Vector100Dtype vector = target.getVector();
         // Use a PriorityQueue to store potential neighbors, ordered by distance.
         // Note: Comparator.comparingDouble sorts ascending (smallest distance first).
         PriorityQueue<RIDDistancePair> pq = new PriorityQueue<>(Comparator.comparingDouble(p -> p.distance));
 
-        // Aggregate candidate pairs from all layers
-        for (PrefixTree layer : layers) {
-            // Assuming layer.nearestNeighborSearch returns List<RIDDistancePair>
-            // containing candidates found *within that layer*.
-            // pq.addAll might add pairs with the same RID if found in multiple layers.
-            pq.addAll(layer.nearestNeighborSearch(vector, k));
+        // Aggregate the per-layer top-k lists; each layer fills its own list, so
+        // nothing is shared between the layer tasks and the merge needs no locking.
+        // pq.addAll might add pairs with the same RID if found in multiple layers.
+        for (List<RIDDistancePair> layerResults : searchLayers(params, layer -> layer.nearestNeighborSearch(vector, k, params))) {
+            pq.addAll(layerResults);
         }
 
         // Extract results from the priority queue
@@ -135,28 +384,83 @@ public class LSHFIndex implements Serializable {
     }
 
 
+    /** A search run against one layer. */
+    private interface LayerSearch<T> {
+        T search(PrefixTree layer) throws IOException, LSHFIndexException;
+    }
+
     /**
-     * Saves the current state of the LSH index (including all layers) to a file.
-     * @param filePath The path to the file where the index should be saved.
-     * @throws IOException If an I/O error occurs during serialization.
+     * Runs search on every layer and returns the per-layer results.
+     *
+     * With params.parallelism above 1 the layers are dealt round-robin into
+     * that many groups, and each group is one task on the shared pool, so a
+     * query never has more than parallelism layers in flight no matter how
+     * many other queries are using the pool. Otherwise the layers are
+     * searched one after another on the calling thread.
      */
-    public void saveIndex(String filePath) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            oos.writeObject(this); // Serialize the entire LSHFIndex object
+    private <T> List<T> searchLayers(LSHSearchParams params, LayerSearch<T> search)
+            throws IOException, LSHFIndexException {
+        int groups = Math.min(params.parallelism, layers.size());
+        List<T> results = new ArrayList<>(layers.size());
+        if (groups <= 1) {
+            for (PrefixTree layer : layers) {
+                results.add(search.search(layer));
+            }
+            return results;
+        }
+
+        List<Future<List<T>>> tasks = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++) {
+            final int first = g;
+            tasks.add(searchPool.submit(() -> {
+                List<T> groupResults = new ArrayList<>();
+                for (int i = first; i < layers.size(); i += groups) {
+                    groupResults.add(search.search(layers.get(i)));
+                }
+                return groupResults;
+            }));
+        }
+        for (Future<List<T>> task : tasks) {
+            try {
+                results.addAll(task.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof LSHFIndexException) {
+                    throw (LSHFIndexException) cause;
+                }
+                throw new LSHFIndexException(e, "LSHFIndex.java: layer search failed");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LSHFIndexException(e, "LSHFIndex.java: layer search interrupted");
+            }
         }
+        return results;
+    }
+
+    /**
+     * Closes the index. All pages are unpinned between calls, so this only
+     * drops the in-memory bucket directories; dirty index pages are written
+     * back by the buffer manager like any other page.
+     */
+    public void close() {
+        layers = null;
     }
 
     /**
-     * Loads an LSH index from a previously saved file.
-     * @param filePath The path to the file containing the serialized index.
-     * @return The deserialized LSHFIndex object.
-     * @throws IOException If an I/O error occurs during deserialization.
-     * @throws ClassNotFoundException If the class definition for the serialized object cannot be found.
+     * Frees every page of the index and removes its file entry.
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if a page cannot be freed
      */
-    public static LSHFIndex loadIndex(String filePath) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
-            return (LSHFIndex) ois.readObject(); // Deserialize the object
+    public void destroyIndex() throws IOException, LSHFIndexException {
+        for (PrefixTree layer : layers) {
+            layer.destroy();
         }
+        layers = null;
+        freePage(headerPageId);
+        delete_file_entry(fileName);
     }
 
     // Getters might be useful for debugging or information
@@ -167,4 +471,48 @@ public class LSHFIndex implements Serializable {
     public int getL() {
         return L;
     }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    private PageId get_file_entry(String filename) throws LSHFIndexException {
+        try {
+            return SystemDefs.JavabaseDB.get_file_entry(filename);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHFIndex.java: get_file_entry() failed");
+        }
+    }
+
+    private void add_file_entry(String filename, PageId pageno) throws LSHFIndexException {
+        try {
+            SystemDefs.JavabaseDB.add_file_entry(filename, pageno);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHFIndex.java: add_file_entry() failed");
+        }
+    }
+
+    private void delete_file_entry(String filename) throws LSHFIndexException {
+        try {
+            SystemDefs.JavabaseDB.delete_file_entry(filename);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHFIndex.java: delete_file_entry() failed");
+        }
+    }
+
+    private void unpinPage(PageId pageno, boolean dirty) throws LSHFIndexException {
+        try {
+            SystemDefs.JavabaseBM.unpinPage(pageno, dirty);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHFIndex.java: unpinPage() failed");
+        }
+    }
+
+    private void freePage(PageId pageno) throws LSHFIndexException {
+        try {
+            SystemDefs.JavabaseBM.freePage(pageno);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHFIndex.java: freePage() failed");
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package LSHFIndex;
+import chainexception.*;
+
+public class LSHFIndexException extends ChainException
+{
+  public LSHFIndexException() {super();}
+  public LSHFIndexException(String s) {super(null,s);}
+  public LSHFIndexException(Exception e, String s) {super(e,s);}
+
+}
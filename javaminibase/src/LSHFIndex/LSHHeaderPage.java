@@ -0,0 +1,102 @@
+package LSHFIndex;
+
+import java.io.*;
+import global.*;
+import heap.*;
+import diskmgr.*;
+
+/**
+ * Header page of a disk-resident LSH index. It is an HFPage whose single
+ * record holds the index layout: h, L, the hyperplane base seed, and the
+ * first directory page of every layer. magic0 is kept in the prev-page
+ * field, the same way BTreeHeaderPage does it.
+ */
+class LSHHeaderPage extends HFPage {
+
+    private static final int H_OFFSET = 0;
+    private static final int L_OFFSET = 4;
+    private static final int SEED_OFFSET = 8;
+    private static final int DIRS_OFFSET = 12;
+
+    /**
+     * Pins an existing header page.
+     * @param pageno the header page id
+     * @throws LSHFIndexException if the page cannot be pinned
+     */
+    LSHHeaderPage(PageId pageno) throws LSHFIndexException {
+        super();
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageno, this, false);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHHeaderPage.java: pinPage() failed");
+        }
+    }
+
+    /**
+     * Allocates and pins a new header page.
+     * @throws LSHFIndexException if the page cannot be allocated
+     */
+    LSHHeaderPage() throws LSHFIndexException {
+        super();
+        try {
+            Page apage = new Page();
+            PageId pageId = SystemDefs.JavabaseBM.newPage(apage, 1);
+            if (pageId == null) {
+                throw new LSHFIndexException(null, "LSHHeaderPage.java: newPage() failed");
+            }
+            this.init(pageId, apage);
+        } catch (LSHFIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "LSHHeaderPage.java: construct header page failed");
+        }
+    }
+
+    void set_magic0(int magic) throws IOException {
+        setPrevPage(new PageId(magic));
+    }
+
+    int get_magic0() throws IOException {
+        return getPrevPage().pid;
+    }
+
+    /**
+     * Writes the layout record. Must be called once, on a freshly
+     * initialised header page.
+     * @param h number of hash bits per layer
+     * @param L number of layers
+     * @param baseSeed seed of layer 0; layer i uses baseSeed + i
+     * @param layerDirs first directory page of each layer
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if L layers do not fit on one page
+     */
+    void set_layout(int h, int L, int baseSeed, PageId[] layerDirs)
+            throws IOException, LSHFIndexException {
+        byte[] rec = new byte[DIRS_OFFSET + 4 * L];
+        Convert.setIntValue(h, H_OFFSET, rec);
+        Convert.setIntValue(L, L_OFFSET, rec);
+        Convert.setIntValue(baseSeed, SEED_OFFSET, rec);
+        for (int i = 0; i < L; i++) {
+            Convert.setIntValue(layerDirs[i].pid, DIRS_OFFSET + 4 * i, rec);
+        }
+        if (insertRecord(rec) == null) {
+            throw new LSHFIndexException(null, "LSHHeaderPage.java: too many layers for one header page");
+        }
+    }
+
+    int get_h() throws IOException {
+        return getIntValue(getSlotOffset(0) + H_OFFSET);
+    }
+
+    int get_L() throws IOException {
+        return getIntValue(getSlotOffset(0) + L_OFFSET);
+    }
+
+    int get_baseSeed() throws IOException {
+        return getIntValue(getSlotOffset(0) + SEED_OFFSET);
+    }
+
+    PageId get_layerDir(int layer) throws IOException {
+        return new PageId(getIntValue(getSlotOffset(0) + DIRS_OFFSET + 4 * layer));
+    }
+}
@@ -0,0 +1,47 @@
+package LSHFIndex;
+
+/**
+ * Per-query knobs for LSH searches. A zero field means "no limit".
+ *
+ * With both limits at zero a search behaves as before: range searches
+ * probe every bucket within Hamming distance h/2 of the query, and
+ * nearest-neighbor searches scan the whole layer. Setting either limit
+ * switches to multi-probe mode, where each layer probes its buckets in
+ * increasing Hamming distance from the query's bucket (ties broken by how
+ * close the query lies to the flipped hyperplanes) and stops when a limit
+ * is hit.
+ *
+ * parallelism bounds how many layers of one query are searched at the same
+ * time on the index's shared thread pool; 0 or 1 searches the layers one
+ * after another on the calling thread.
+ */
+public class LSHSearchParams {
+
+    /** Buckets probed per layer in multi-probe mode, 0 for unlimited. */
+    public int probes;
+
+    /** Entries examined per layer before probing stops, 0 for unlimited. */
+    public int maxCandidates;
+
+    /** Layers of one query searched concurrently; 0 or 1 means sequential. */
+    public int parallelism;
+
+    public LSHSearchParams() {
+        this(0, 0, 1);
+    }
+
+    public LSHSearchParams(int probes, int maxCandidates) {
+        this(probes, maxCandidates, 1);
+    }
+
+    public LSHSearchParams(int probes, int maxCandidates, int parallelism) {
+        this.probes = probes;
+        this.maxCandidates = maxCandidates;
+        this.parallelism = parallelism;
+    }
+
+    /** @return true if either limit is set */
+    public boolean isMultiProbe() {
+        return probes > 0 || maxCandidates > 0;
+    }
+}
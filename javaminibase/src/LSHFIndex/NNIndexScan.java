@@ -10,12 +10,14 @@ import iterator.Iterator; // Explicit import for clarity
 /**
  * NNIndexScan retrieves tuples in nearest neighbor order using an LSHFIndex.
  * It fetches the top K candidates from the index and then retrieves the
- * corresponding tuples from the heap file one by one.
+ * corresponding tuples from the heap file together, each data page once,
+ * and hands them back in distance order.
  */
 public class NNIndexScan extends Iterator {
     private LSHFIndex index; // The LSH index structure
     private Heapfile heapfile; // The heap file containing the actual tuples
     private List<RIDDistancePair> sortedPairs; // Stores the sorted pairs (RID, distance) from LSHFIndex
+    private List<Tuple> sortedTuples; // The tuples of sortedPairs, in the same order (null if not found)
     private int currentIndex; // Tracks the current position in the sortedPairs list
     private double lastDistance; // Stores the distance of the last tuple returned by get_next()
     private AttrType[] schemaTypes; // Stores the full schema types for setting tuple headers
@@ -26,7 +28,7 @@ public class NNIndexScan extends Iterator {
      *
      * @param indexType The type of index (should be LSHFIndex).
      * @param relName The name of the relation (heap file).
-     * @param indName The name of the index file (.ser file).
+     * @param indName The name of the LSH index file in the database.
      * @param types The attribute types of the relation schema.
      * @param str_sizes The string sizes for string attributes in the relation schema.
      * @param noInFlds Number of fields in the input tuple (relation schema).
@@ -42,7 +44,6 @@ public class NNIndexScan extends Iterator {
      * @throws HFDiskMgrException Disk manager exception.
      * @throws InvalidSlotNumberException Invalid slot number during tuple retrieval.
      * @throws InvalidTupleSizeException Invalid tuple size during tuple retrieval.
-     * @throws ClassNotFoundException If the LSHFIndex class definition is not found during deserialization.
      */
     public NNIndexScan(IndexType indexType,
                        String relName,
@@ -55,7 +56,28 @@ public class NNIndexScan extends Iterator {
                        CondExpr[] selects, // Not directly used here, but part of signature
                        int fldNum, // Not directly used here, but part of signature
                        Vector100Dtype query,
-                       int count) throws IOException, HFException, HFBufMgrException, HFDiskMgrException, InvalidSlotNumberException, InvalidTupleSizeException, ClassNotFoundException {
+                       int count) throws IOException, HFException, HFBufMgrException, HFDiskMgrException, InvalidSlotNumberException, InvalidTupleSizeException {
+        this(indexType, relName, indName, types, str_sizes, noInFlds, noOutFlds, outFlds, selects, fldNum, query, count, new LSHSearchParams());
+    }
+
+    /**
+     * Same as above, with a probe budget for the LSH search.
+     *
+     * @param params Probe and candidate limits for the index search.
+     */
+    public NNIndexScan(IndexType indexType,
+                       String relName,
+                       String indName,
+                       AttrType[] types,
+                       short[] str_sizes,
+                       int noInFlds, // Not directly used here, but part of signature
+                       int noOutFlds, // Not directly used here, but part of signature
+                       FldSpec[] outFlds, // Not directly used here, but part of signature
+                       CondExpr[] selects, // Not directly used here, but part of signature
+                       int fldNum, // Not directly used here, but part of signature
+                       Vector100Dtype query,
+                       int count,
+                       LSHSearchParams params) throws IOException, HFException, HFBufMgrException, HFDiskMgrException, InvalidSlotNumberException, InvalidTupleSizeException {
 
         // Store schema information needed for setting tuple headers later
         this.schemaTypes = types;
@@ -65,24 +87,27 @@ public class NNIndexScan extends Iterator {
             // Prepare the query key
             Vector100DKey queryKey = new Vector100DKey(query);
 
-            // Load the LSHFIndex from the specified file
-            String indexFilePath = indName.endsWith(".ser") ? indName : indName + ".ser";
-            index = LSHFIndex.loadIndex(indexFilePath);
+            // Open the LSHFIndex; only its header and bucket directories are read here
+            index = new LSHFIndex(indName);
 
             // Open the heap file containing the relation data
             heapfile = new Heapfile(relName);
 
             // Perform the nearest neighbor search using the LSH index.
             // This method is expected to return a list sorted by distance.
-            sortedPairs = index.nearestNeighborSearch(queryKey, count);
+            sortedPairs = index.nearestNeighborSearch(queryKey, count, params);
+
+            // Fetch all their tuples at once, in page order, then put them back in distance order
+            List<RID> rids = new ArrayList<>(sortedPairs.size());
+            for (RIDDistancePair pair : sortedPairs) {
+                rids.add(pair.rid);
+            }
+            sortedTuples = heapfile.getRecords(rids, true);
 
             // Initialize the index for iterating through the sorted results
             currentIndex = 0;
             lastDistance = -1.0; // Initialize distance to an invalid value
 
-        } catch (ClassNotFoundException e) {
-             // Specific handling for class not found during deserialization
-             throw new IOException("Error initializing NNIndexScan: Could not find class definition for index file.", e);
         } catch (Exception e) {
             // Catch other potential exceptions (IO, Heapfile, LSHFIndex internal errors)
             throw new IOException("Error initializing NNIndexScan", e);
@@ -91,7 +116,7 @@ public class NNIndexScan extends Iterator {
 
     /**
      * Retrieves the next tuple in the nearest neighbor order.
-     * Fetches the tuple corresponding to the next RID in the sorted list
+     * Returns the tuple fetched for the next RID in the sorted list
      * obtained from the LSH index.
      *
      * @return The next Tuple in NN order, or null if no more tuples exist.
@@ -112,8 +137,8 @@ public class NNIndexScan extends Iterator {
         Tuple tuple = null;
 
         try {
-            // Fetch the actual tuple data from the heap file using the RID
-            tuple = heapfile.getRecord(pair.rid);
+            // The tuple fetched from the heap file for the RID
+            tuple = sortedTuples.get(currentIndex);
 
             if (tuple != null) {
                 // Set the header on the retrieved tuple using the stored schema info
@@ -176,7 +201,12 @@ public class NNIndexScan extends Iterator {
         // Reset internal state to allow garbage collection and prevent reuse
         currentIndex = 0;
         sortedPairs = null; // Clear the list of pairs
+        sortedTuples = null;
         lastDistance = -1.0;
+        if (index != null) {
+            index.close();
+            index = null;
+        }
         // Note: We don't close the heapfile here as it's likely shared/managed elsewhere.
     }
 }
\ No newline at end of file
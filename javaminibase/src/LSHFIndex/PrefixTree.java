@@ -2,23 +2,75 @@ package LSHFIndex;
 
 import global.*;
 import heap.*;
-import java.io.Serializable;
+import diskmgr.*;
+import java.io.IOException;
 import java.util.*;
 
-public class PrefixTree implements Serializable {
-    private static final long serialVersionUID = 1L;
-    
+/**
+ * One layer of the LSH index. The hyperplanes are regenerated from the
+ * layer seed; the buckets themselves live on pages in the Minibase DB.
+ *
+ * A layer owns a chain of directory pages whose records map a bucket hash
+ * to the first page of that bucket. Each bucket is a chain of HFPages whose
+ * records are (vector, rid.pageNo, rid.slotNo). Only the directory is held
+ * in memory, as an open-addressing table of plain ints; bucket pages are
+ * pinned while they are being probed.
+ */
+public class PrefixTree {
+
+    // On-page record layouts
+    private static final int VECTOR_SIZE = 400;
+    static final int ENTRY_SIZE = VECTOR_SIZE + 8;         // vector + rid.pageNo + rid.slotNo
+    private static final int DIR_ENTRY_SIZE = 8;           // hash + first bucket page
+
     // Key structures
-    private Map<Integer, Map<Vector100Dtype, List<RID>>> tree; // Maps hash values to vectors to RIDs
     private int[][] hyperplanes; // Random hyperplanes for hash computation
     private int h; // Number of hash functions to use
-    
-    // Constructor with seed and h parameter
-    public PrefixTree(int seed, int h) {
+    private PageId dirPageId; // First directory page of this layer
+
+    // The bucket directory, by slot: the hash of the bucket, its first page
+    // and the last page of its chain seen so far (a hint for appends).
+    // Linear probing; firstPages[i] is INVALID_PAGE in an empty slot, and
+    // the length is a power of two at least twice bucketCount.
+    private int[] hashes;
+    private int[] firstPages;
+    private int[] lastPages;
+    private int bucketCount;
+
+    /**
+     * Creates a new, empty layer and allocates its first directory page.
+     * @param seed seed for the hyperplanes of this layer
+     * @param h number of hash functions
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if the directory page cannot be allocated
+     */
+    public PrefixTree(int seed, int h) throws IOException, LSHFIndexException {
         this.h = h;
-        this.tree = new HashMap<>();
+        initHyperplanes(seed);
+        clearDirectory(16);
+        HFPage dirPage = newHFPage();
+        this.dirPageId = new PageId(dirPage.getCurPage().pid);
+        unpinPage(dirPageId, true);
+    }
+
+    /**
+     * Opens an existing layer and reads its bucket directory.
+     * @param seed seed the layer was created with
+     * @param h number of hash functions
+     * @param dirPageId first directory page of the layer
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if a directory page cannot be read
+     */
+    public PrefixTree(int seed, int h, PageId dirPageId) throws IOException, LSHFIndexException {
+        this.h = h;
+        initHyperplanes(seed);
+        this.dirPageId = new PageId(dirPageId.pid);
+        readDirectory();
+    }
+
+    private void initHyperplanes(int seed) {
         this.hyperplanes = new int[h][100]; // h hash functions for 100 dimensions
-        
+
         // Initialize hyperplanes with random values
         Random random = new Random(seed);
         for (int i = 0; i < h; i++) {
@@ -27,143 +79,278 @@ public class PrefixTree implements Serializable {
             }
         }
     }
-    
-    // Constructor with just seed (default h=8)
-    public PrefixTree(int seed) {
-        this(seed, 8); // Default to 8 hash functions if not specified
+
+    public PageId getDirPageId() {
+        return dirPageId;
     }
 
     // Compute the hash value for a key
     public int computeHash(Vector100Dtype key) {
-        int[] vector = key.getValues();
+        return computeHash(key.getValues());
+    }
+
+    // Compute the hash value for a vector given as its components
+    public int computeHash(int[] values) {
+        return hashOf(margins(values));
+    }
+
+    // Compute the hash value for a vector stored at data[off], as a tuple or entry holds it
+    int computeHash(byte[] data, int off) {
         int hashValue = 0;
-        
-        // Use all h hyperplanes to generate an h-bit hash value
         for (int i = 0; i < h; i++) {
-            long dotProduct = 0;
-            for (int j = 0; j < vector.length; j++) {
-                dotProduct += (long) vector[j] * hyperplanes[i][j];
+            if (VectorKernel.dot(data, off, hyperplanes[i], VectorView.DIMENSION) >= 0) {
+                hashValue |= (1 << i);
             }
-            
-            // Set the i-th bit of the hash value based on hyperplane i
-            if (dotProduct >= 0) {
-                hashValue |= (1 << i); // Set bit if positive side of hyperplane
+        }
+        return hashValue;
+    }
+
+    // Signed dot product of the vector with each hyperplane
+    private long[] margins(int[] vector) {
+        long[] dots = new long[h];
+        for (int i = 0; i < h; i++) {
+            dots[i] = VectorKernel.dot(vector, hyperplanes[i]);
+        }
+        return dots;
+    }
+
+    // Set the i-th bit of the hash if the vector is on the positive side of hyperplane i
+    private int hashOf(long[] dots) {
+        int hashValue = 0;
+        for (int i = 0; i < h; i++) {
+            if (dots[i] >= 0) {
+                hashValue |= (1 << i);
             }
         }
-        
         return hashValue;
     }
 
-    // Insert a key-RID pair into the prefix tree
-    public void insert(int hashValue, Vector100Dtype key, RID rid) {
-        // Get or create the map for this hash value
-        Map<Vector100Dtype, List<RID>> vectorMap = tree.computeIfAbsent(hashValue, k -> new HashMap<>());
-        
-        // Get or create the list of RIDs for this vector
-        List<RID> ridList = vectorMap.computeIfAbsent(key, k -> new ArrayList<>());
-        
-        // Add the RID to the list
-        ridList.add(rid);
-    }
-
-    // Delete a key-RID pair from the prefix tree
-    public void delete(int hashValue, Vector100Dtype key, RID rid) {
-        Map<Vector100Dtype, List<RID>> vectorMap = tree.get(hashValue);
-        if (vectorMap != null) {
-            List<RID> ridList = vectorMap.get(key);
-            if (ridList != null) {
-                ridList.remove(rid);
-                if (ridList.isEmpty()) {
-                    vectorMap.remove(key);
-                    if (vectorMap.isEmpty()) {
-                        tree.remove(hashValue);
+    // Insert a key-RID pair into the bucket for hashValue
+    public void insert(int hashValue, Vector100Dtype key, RID rid) throws IOException, LSHFIndexException {
+        byte[] entry = encodeEntry(key, rid);
+
+        int slot = findSlot(hashValue);
+        if (firstPages[slot] == GlobalConst.INVALID_PAGE) {
+            PageId bucketPid = newChainPage(new PageId(GlobalConst.INVALID_PAGE), entry);
+            addDirectoryEntry(hashValue, bucketPid);
+            addBucket(hashValue, bucketPid.pid);
+            return;
+        }
+
+        PageId newPid = insertIntoChain(new PageId(firstPages[slot]), entry);
+        if (newPid != null) {
+            lastPages[slot] = newPid.pid;
+        }
+    }
+
+    /**
+     * Adds a batch of entries during a bulk load. entries holds n entries
+     * of ENTRY_SIZE bytes back to back (see putEntry), and hashes[i] is
+     * the bucket of entry i in this layer. The batch is sorted by bucket,
+     * and each bucket's run is appended at the end of its chain with the
+     * last page pinned once, instead of walking the chain per entry.
+     */
+    void appendAll(int[] hashes, byte[] entries, int n) throws IOException, LSHFIndexException {
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = ((long) hashes[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        byte[] entry = new byte[ENTRY_SIZE];
+        int i = 0;
+        while (i < n) {
+            int hashValue = (int) (order[i] >>> 32);
+            HFPage page = pinLastPage(hashValue);
+            PageId curPid = new PageId(page.getCurPage().pid);
+            try {
+                for (; i < n && (int) (order[i] >>> 32) == hashValue; i++) {
+                    System.arraycopy(entries, (int) order[i] * ENTRY_SIZE, entry, 0, ENTRY_SIZE);
+                    if (page.insertRecord(entry) == null) {
+                        // From here on the outer finally unpins the new page,
+                        // and the inner one the page it is linked after
+                        HFPage newPage = newHFPage();
+                        PageId prevPid = curPid;
+                        curPid = new PageId(newPage.getCurPage().pid);
+                        try {
+                            newPage.setPrevPage(prevPid);
+                            newPage.insertRecord(entry);
+                            page.setNextPage(curPid);
+                        } finally {
+                            unpinPage(prevPid, true);
+                        }
+                        page = newPage;
+                    }
+                }
+            } finally {
+                unpinPage(curPid, true);
+            }
+            lastPages[findSlot(hashValue)] = curPid.pid;
+        }
+    }
+
+    /**
+     * Encodes an entry of a vector stored in a tuple and its rid into dst,
+     * in the layout the bucket pages use.
+     */
+    static void putEntry(VectorView vector, RID rid, byte[] dst, int off) throws IOException {
+        vector.copyBytesTo(dst, off);
+        Convert.setIntValue(rid.pageNo.pid, off + VECTOR_SIZE, dst);
+        Convert.setIntValue(rid.slotNo, off + VECTOR_SIZE + 4, dst);
+    }
+
+    /**
+     * Pins the last page of the bucket for hashValue, starting the bucket
+     * if there is none. The walk starts from the last page the directory
+     * knows of, which is only the first page until the chain has been
+     * appended to since the layer was opened.
+     */
+    private HFPage pinLastPage(int hashValue) throws IOException, LSHFIndexException {
+        int slot = findSlot(hashValue);
+        if (firstPages[slot] == GlobalConst.INVALID_PAGE) {
+            HFPage bucketPage = newHFPage();
+            PageId bucketPid = new PageId(bucketPage.getCurPage().pid);
+            boolean added = false;
+            try {
+                addDirectoryEntry(hashValue, bucketPid);
+                added = true;
+            } finally {
+                // Left pinned for the caller only once the bucket exists
+                if (!added) {
+                    unpinPage(bucketPid, true);
+                }
+            }
+            addBucket(hashValue, bucketPid.pid);
+            return bucketPage;
+        }
+        PageId curPid = new PageId(lastPages[slot]);
+        while (true) {
+            HFPage page = new HFPage();
+            pinPage(curPid, page);
+            PageId nextPid;
+            boolean last = false;
+            try {
+                nextPid = page.getNextPage();
+                last = nextPid.pid == GlobalConst.INVALID_PAGE;
+            } finally {
+                if (!last) {
+                    unpinPage(curPid, false);
+                }
+            }
+            if (last) {
+                return page;
+            }
+            curPid = nextPid;
+        }
+    }
+
+    // Delete a key-RID pair from the bucket for hashValue. Emptied pages stay in the chain.
+    public void delete(int hashValue, Vector100Dtype key, RID rid) throws IOException, LSHFIndexException {
+        int first = firstPages[findSlot(hashValue)];
+        if (first == GlobalConst.INVALID_PAGE) {
+            return;
+        }
+        byte[] entry = encodeEntry(key, rid);
+        byte[] rec = new byte[ENTRY_SIZE];
+
+        PageId curPid = new PageId(first);
+        while (curPid.pid != GlobalConst.INVALID_PAGE) {
+            HFPage page = new HFPage();
+            pinPage(curPid, page);
+            boolean dirty = false;
+            PageId nextPid;
+            try {
+                for (RID slot = page.firstRecord(); slot != null; slot = page.nextRecord(slot)) {
+                    page.copyRecord(slot, rec, 0);
+                    if (Arrays.equals(rec, entry)) {
+                        page.deleteRecord(slot);
+                        dirty = true;
+                        return;
                     }
                 }
+                nextPid = page.getNextPage();
+            } catch (InvalidSlotNumberException e) {
+                throw new LSHFIndexException(e, "PrefixTree.java: delete() failed");
+            } finally {
+                // Unpinned however the page is left, with whether it changed
+                unpinPage(curPid, dirty);
             }
+            curPid = nextPid;
         }
     }
 
     // Perform a range search - compare actual vector distances, not hash differences
-    public List<RID> rangeSearch(Vector100Dtype target, int distance) {
+    public List<RID> rangeSearch(Vector100Dtype target, int distance) throws IOException, LSHFIndexException {
+        return rangeSearch(target, distance, new LSHSearchParams());
+    }
+
+    /**
+     * Range search with a probe budget. Without limits in params, every
+     * bucket within Hamming distance h/2 of the query's bucket is probed;
+     * otherwise buckets are probed in multi-probe order until a limit is hit.
+     */
+    public List<RID> rangeSearch(Vector100Dtype target, int distance, LSHSearchParams params)
+            throws IOException, LSHFIndexException {
         List<RID> results = new ArrayList<>();
+        int[] targetValues = target.getValues();
+        BucketVisitor collect = (rid, actualDistance) -> {
+            if (actualDistance <= distance) {
+                results.add(rid);
+            }
+        };
+
+        if (params.isMultiProbe()) {
+            multiProbe(targetValues, params, collect);
+            return results;
+        }
+
         int targetHash = computeHash(target);
-        
-        // First, collect candidates with potential matches (using hamming distance)
-        Set<Integer> candidateHashes = new HashSet<>();
-        for (Integer hashValue : tree.keySet()) {
-            // Use hamming distance between hash codes as initial filter 
-            // (much faster than checking every vector)
-            if (hammingDistance(hashValue, targetHash) <= h/2) {
-                candidateHashes.add(hashValue);
-            }
-        }
-        
-        // Process candidate hashes
-        for (Integer hashValue : candidateHashes) {
-            Map<Vector100Dtype, List<RID>> vectorMap = tree.get(hashValue);
-            if (vectorMap != null) {
-                for (Map.Entry<Vector100Dtype, List<RID>> entry : vectorMap.entrySet()) {
-                    Vector100Dtype vector = entry.getKey();
-                    // Use actual vector distance for accurate filtering
-                    double actualDistance = vector.distanceTo(target);
-                    if (actualDistance <= distance) {
-                        results.addAll(entry.getValue());
-                    }
-                }
+        for (int slot = 0; slot < firstPages.length; slot++) {
+            // Use hamming distance between hash codes as initial filter;
+            // only the buckets that pass are read from disk
+            if (firstPages[slot] != GlobalConst.INVALID_PAGE
+                    && hammingDistance(hashes[slot], targetHash) <= h/2) {
+                scanBucket(firstPages[slot], targetValues, collect);
             }
         }
-        
+
         return results;
     }
 
     // Perform a nearest-neighbor search using actual vector distances
-    public List<RIDDistancePair> nearestNeighborSearch(Vector100Dtype target, int k) {
+    public List<RIDDistancePair> nearestNeighborSearch(Vector100Dtype target, int k) throws IOException, LSHFIndexException {
+        return nearestNeighborSearch(target, k, new LSHSearchParams());
+    }
+
+    /**
+     * Nearest-neighbor search with a probe budget. Without limits in params
+     * the whole layer is scanned; otherwise only the buckets chosen by
+     * multi-probe are read.
+     */
+    public List<RIDDistancePair> nearestNeighborSearch(Vector100Dtype target, int k, LSHSearchParams params)
+            throws IOException, LSHFIndexException {
         // Use a Max Heap based on distance. Stores the k *smallest* distances found so far.
         // The largest of these k smallest distances will be at the top (peek).
         PriorityQueue<RIDDistancePair> pq = new PriorityQueue<>(
             Comparator.comparingDouble((RIDDistancePair p) -> p.distance).reversed() // Max heap based on distance
         );
+        int[] targetValues = target.getValues();
+        BucketVisitor keepBest = (rid, actualDistance) -> {
+            if (k == 0 || pq.size() < k) {
+                pq.add(new RIDDistancePair(rid, actualDistance));
+            } else if (actualDistance < pq.peek().distance) {
+                // Replace the largest of the k smallest distances seen so far
+                pq.poll();
+                pq.add(new RIDDistancePair(rid, actualDistance));
+            }
+        };
 
-        int targetHash = computeHash(target);
-
-        // Iterate through potential candidate buckets based on hash proximity (optional optimization)
-        // For simplicity and correctness, we can iterate through all entries if needed,
-        // but filtering by Hamming distance is a common LSH strategy.
-        for (Map.Entry<Integer, Map<Vector100Dtype, List<RID>>> entry : tree.entrySet()) {
-            int hashValue = entry.getKey();
-
-            // Optional: Filter buckets by Hamming distance (adjust threshold as needed)
-            // if (hammingDistance(hashValue, targetHash) > h / 2) { // Example threshold
-            //     continue; // Skip buckets likely too far
-            // }
-
-            // Process vectors within the candidate bucket
-            for (Map.Entry<Vector100Dtype, List<RID>> vectorEntry : entry.getValue().entrySet()) {
-                Vector100Dtype vector = vectorEntry.getKey();
-                // Calculate the actual Euclidean distance
-                double actualDistance = vector.distanceTo(target);
-
-                for (RID rid : vectorEntry.getValue()) {
-                    if (k == 0) {
-                        // If k=0, add all candidates found in this layer
-                        pq.add(new RIDDistancePair(rid, actualDistance));
-                    } else {
-                        // If k > 0, maintain only the k smallest distances
-                        if (pq.size() < k) {
-                            // If the heap isn't full, just add the new pair
-                            pq.add(new RIDDistancePair(rid, actualDistance));
-                        } else {
-                            // If the heap is full, check if the new distance is smaller
-                            // than the largest distance currently in the heap (pq.peek()).
-                            if (actualDistance < pq.peek().distance) {
-                                // If smaller, remove the largest element and add the new one.
-                                pq.poll(); // Remove the largest
-                                pq.add(new RIDDistancePair(rid, actualDistance)); // Add the new smaller one
-                            }
-                            // Otherwise, the new distance is larger than all k elements currently
-                            // in the heap, so we discard it.
-                        }
-                    }
+        if (params.isMultiProbe()) {
+            multiProbe(targetValues, params, keepBest);
+        } else {
+            for (int first : firstPages) {
+                if (first != GlobalConst.INVALID_PAGE) {
+                    scanBucket(first, targetValues, keepBest);
                 }
             }
         }
@@ -178,26 +365,416 @@ public class PrefixTree implements Serializable {
 
         return results;
     }
-    
+
+    /**
+     * Probes buckets in multi-probe order until the probe budget or the
+     * candidate budget in params is used up.
+     *
+     * Buckets are ranked by Hamming distance from the query's own bucket;
+     * among buckets at the same distance, the one whose flipped bits belong
+     * to hyperplanes the query lies closest to (smallest |dot product|)
+     * comes first, since the query was most likely to land there. The
+     * ranking runs over the in-memory directory, so no probes are wasted
+     * on empty buckets and only the chosen buckets are read from disk.
+     *
+     * With a probe budget only the best probes buckets are kept, in a
+     * bounded heap; with only a candidate budget every bucket goes into a
+     * heap that is drained until the budget is used up. Either way the
+     * directory is never sorted as a whole.
+     */
+    private void multiProbe(int[] targetValues, LSHSearchParams params, BucketVisitor visitor)
+            throws IOException, LSHFIndexException {
+        long[] dots = margins(targetValues);
+        int targetHash = hashOf(dots);
+
+        // Heap key: Hamming distance in the top byte, summed margins below.
+        // |dot| <= 100 * 10000 * 10000, so h of them fit well under 2^56.
+        ProbeHeap heap;
+        if (params.probes > 0) {
+            // Max-heap of the best buckets so far; the worst is on top
+            heap = new ProbeHeap(Math.min(params.probes, bucketCount));
+            for (int slot = 0; slot < firstPages.length; slot++) {
+                if (firstPages[slot] == GlobalConst.INVALID_PAGE) {
+                    continue;
+                }
+                long key = probeKey(hashes[slot] ^ targetHash, dots);
+                if (heap.size < heap.keys.length) {
+                    heap.push(key, firstPages[slot]);
+                } else if (key < heap.keys[0]) {
+                    heap.replaceTop(key, firstPages[slot]);
+                }
+            }
+            // Turned around, so that the best bucket comes out first
+            heap.negate();
+        } else {
+            heap = new ProbeHeap(bucketCount);
+            for (int slot = 0; slot < firstPages.length; slot++) {
+                if (firstPages[slot] != GlobalConst.INVALID_PAGE) {
+                    heap.push(-probeKey(hashes[slot] ^ targetHash, dots), firstPages[slot]);
+                }
+            }
+        }
+
+        int[] examined = new int[1];
+        BucketVisitor counting = (rid, d) -> {
+            examined[0]++;
+            visitor.visit(rid, d);
+        };
+        while (heap.size > 0) {
+            if (params.maxCandidates > 0 && examined[0] >= params.maxCandidates) {
+                break;
+            }
+            int first = heap.pages[0];
+            heap.pop();
+            scanBucket(first, targetValues, counting);
+        }
+    }
+
+    // Rank of a bucket whose hash differs from the query's in the bits of flipped
+    private static long probeKey(int flipped, long[] dots) {
+        long score = 0;
+        for (int bits = flipped; bits != 0; bits &= bits - 1) {
+            score += Math.abs(dots[Integer.numberOfTrailingZeros(bits)]);
+        }
+        return ((long) Integer.bitCount(flipped) << 56) | score;
+    }
+
+    /**
+     * A binary max-heap of (key, first bucket page) pairs, kept in two
+     * parallel arrays so a query allocates nothing per bucket.
+     */
+    private static final class ProbeHeap {
+        final long[] keys;
+        final int[] pages;
+        int size;
+
+        ProbeHeap(int capacity) {
+            keys = new long[capacity];
+            pages = new int[capacity];
+        }
+
+        void push(long key, int page) {
+            int i = size++;
+            while (i > 0 && keys[(i - 1) >> 1] < key) {
+                int parent = (i - 1) >> 1;
+                keys[i] = keys[parent];
+                pages[i] = pages[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            pages[i] = page;
+        }
+
+        void replaceTop(long key, int page) {
+            siftDown(0, key, page);
+        }
+
+        void pop() {
+            size--;
+            if (size > 0) {
+                siftDown(0, keys[size], pages[size]);
+            }
+        }
+
+        // Negates every key and restores the heap order, in linear time
+        void negate() {
+            for (int i = 0; i < size; i++) {
+                keys[i] = -keys[i];
+            }
+            for (int i = (size >> 1) - 1; i >= 0; i--) {
+                siftDown(i, keys[i], pages[i]);
+            }
+        }
+
+        private void siftDown(int i, long key, int page) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] > keys[child]) {
+                    child++;
+                }
+                if (keys[child] <= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                pages[i] = pages[child];
+                i = child;
+            }
+            keys[i] = key;
+            pages[i] = page;
+        }
+    }
+
+    // Get number of entries in the layer (for debugging/stats)
+    public int size() throws IOException, LSHFIndexException {
+        int[] count = new int[1];
+        for (int first : firstPages) {
+            if (first != GlobalConst.INVALID_PAGE) {
+                scanBucket(first, null, (rid, d) -> count[0]++);
+            }
+        }
+        return count[0];
+    }
+
+    /**
+     * Frees every bucket and directory page of this layer.
+     * @throws IOException I/O errors
+     * @throws LSHFIndexException if a page cannot be freed
+     */
+    public void destroy() throws IOException, LSHFIndexException {
+        for (int first : firstPages) {
+            if (first != GlobalConst.INVALID_PAGE) {
+                freeChain(new PageId(first));
+            }
+        }
+        clearDirectory(16);
+        freeChain(dirPageId);
+    }
+
+    /** Receives the entries of a bucket while its page is pinned. */
+    private interface BucketVisitor {
+        void visit(RID rid, double distance);
+    }
+
+    /**
+     * Walks one bucket chain, pinning one page at a time, and reports every
+     * entry with its distance to target (0 if target is null).
+     */
+    private void scanBucket(int first, int[] target, BucketVisitor visitor)
+            throws IOException, LSHFIndexException {
+        byte[] entry = new byte[ENTRY_SIZE];
+        PageId curPid = new PageId(first);
+        while (curPid.pid != GlobalConst.INVALID_PAGE) {
+            HFPage page = new HFPage();
+            pinPage(curPid, page);
+            PageId nextPid;
+            try {
+                for (RID slot = page.firstRecord(); slot != null; slot = page.nextRecord(slot)) {
+                    page.copyRecord(slot, entry, 0);
+                    RID rid = new RID(new PageId(Convert.getIntValue(VECTOR_SIZE, entry)),
+                                      Convert.getIntValue(VECTOR_SIZE + 4, entry));
+                    visitor.visit(rid, target == null ? 0 : Math.sqrt(
+                        VectorKernel.squaredDistance(entry, 0, target, VectorView.DIMENSION)));
+                }
+                nextPid = page.getNextPage();
+            } catch (InvalidSlotNumberException e) {
+                throw new LSHFIndexException(e, "PrefixTree.java: scanBucket() failed");
+            } finally {
+                // Also when the visitor throws
+                unpinPage(curPid, false);
+            }
+            curPid = nextPid;
+        }
+    }
+
+    private static byte[] encodeEntry(Vector100Dtype key, RID rid) throws IOException {
+        byte[] entry = new byte[ENTRY_SIZE];
+        Convert.setVector100DtypeValue(key, 0, entry);
+        Convert.setIntValue(rid.pageNo.pid, VECTOR_SIZE, entry);
+        Convert.setIntValue(rid.slotNo, VECTOR_SIZE + 4, entry);
+        return entry;
+    }
+
+    private void readDirectory() throws IOException, LSHFIndexException {
+        clearDirectory(16);
+        byte[] entry = new byte[DIR_ENTRY_SIZE];
+        PageId curPid = new PageId(dirPageId.pid);
+        while (curPid.pid != GlobalConst.INVALID_PAGE) {
+            HFPage page = new HFPage();
+            pinPage(curPid, page);
+            PageId nextPid;
+            try {
+                for (RID slot = page.firstRecord(); slot != null; slot = page.nextRecord(slot)) {
+                    page.copyRecord(slot, entry, 0);
+                    addBucket(Convert.getIntValue(0, entry), Convert.getIntValue(4, entry));
+                }
+                nextPid = page.getNextPage();
+            } catch (InvalidSlotNumberException e) {
+                throw new LSHFIndexException(e, "PrefixTree.java: readDirectory() failed");
+            } finally {
+                unpinPage(curPid, false);
+            }
+            curPid = nextPid;
+        }
+    }
+
+    // Empties the in-memory directory, sized for expected buckets
+    private void clearDirectory(int expected) {
+        int capacity = 2;
+        while (capacity < 2 * expected) {
+            capacity <<= 1;
+        }
+        hashes = new int[capacity];
+        firstPages = new int[capacity];
+        lastPages = new int[capacity];
+        Arrays.fill(firstPages, GlobalConst.INVALID_PAGE);
+        bucketCount = 0;
+    }
+
+    // The slot holding the bucket for hashValue, or the empty slot it would go in
+    private int findSlot(int hashValue) {
+        int mask = firstPages.length - 1;
+        int i = (hashValue * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
+        while (firstPages[i] != GlobalConst.INVALID_PAGE && hashes[i] != hashValue) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Records a new bucket in the in-memory directory, growing it if it is half full
+    private void addBucket(int hashValue, int firstPid) {
+        if (2 * (bucketCount + 1) > firstPages.length) {
+            int[] oldHashes = hashes;
+            int[] oldFirst = firstPages;
+            int[] oldLast = lastPages;
+            int count = bucketCount;
+            clearDirectory(oldFirst.length);
+            for (int i = 0; i < oldFirst.length; i++) {
+                if (oldFirst[i] != GlobalConst.INVALID_PAGE) {
+                    int slot = findSlot(oldHashes[i]);
+                    hashes[slot] = oldHashes[i];
+                    firstPages[slot] = oldFirst[i];
+                    lastPages[slot] = oldLast[i];
+                }
+            }
+            bucketCount = count;
+        }
+        int slot = findSlot(hashValue);
+        hashes[slot] = hashValue;
+        firstPages[slot] = firstPid;
+        lastPages[slot] = firstPid;
+        bucketCount++;
+    }
+
+    private void addDirectoryEntry(int hashValue, PageId bucketPid) throws IOException, LSHFIndexException {
+        byte[] entry = new byte[DIR_ENTRY_SIZE];
+        Convert.setIntValue(hashValue, 0, entry);
+        Convert.setIntValue(bucketPid.pid, 4, entry);
+
+        insertIntoChain(dirPageId, entry);
+    }
+
+    /**
+     * Inserts entry on the first page of the chain starting at first that
+     * has room for it, appending a page at the end if none has.
+     * @return the page appended for it, or null if it fit on a page the
+     *         chain already had
+     */
+    private PageId insertIntoChain(PageId first, byte[] entry) throws IOException, LSHFIndexException {
+        PageId curPid = new PageId(first.pid);
+        while (true) {
+            HFPage page = new HFPage();
+            pinPage(curPid, page);
+            boolean dirty = false;
+            PageId nextPid;
+            try {
+                if (page.insertRecord(entry) != null) {
+                    dirty = true;
+                    return null;
+                }
+                nextPid = page.getNextPage();
+                if (nextPid.pid == GlobalConst.INVALID_PAGE) {
+                    PageId newPid = newChainPage(curPid, entry);
+                    page.setNextPage(newPid);
+                    dirty = true;
+                    return newPid;
+                }
+            } finally {
+                unpinPage(curPid, dirty);
+            }
+            curPid = nextPid;
+        }
+    }
+
+    /**
+     * Allocates a page holding only entry, linked back to prevPid (which
+     * may be INVALID_PAGE), and returns it unpinned. Linking prevPid to
+     * it is up to the caller.
+     */
+    private PageId newChainPage(PageId prevPid, byte[] entry) throws IOException, LSHFIndexException {
+        HFPage newPage = newHFPage();
+        PageId newPid = new PageId(newPage.getCurPage().pid);
+        try {
+            newPage.setPrevPage(prevPid);
+            newPage.insertRecord(entry);
+        } finally {
+            unpinPage(newPid, true);
+        }
+        return newPid;
+    }
+
+    private void freeChain(PageId first) throws IOException, LSHFIndexException {
+        PageId curPid = new PageId(first.pid);
+        while (curPid.pid != GlobalConst.INVALID_PAGE) {
+            HFPage page = new HFPage();
+            pinPage(curPid, page);
+            PageId nextPid;
+            try {
+                nextPid = page.getNextPage();
+            } finally {
+                unpinPage(curPid, false);
+            }
+            freePage(curPid);
+            curPid = nextPid;
+        }
+    }
+
     // Helper method: compute Hamming distance between two integers
     private int hammingDistance(int x, int y) {
-        int xor = x ^ y;
-        int distance = 0;
-        while (xor != 0) {
-            distance += xor & 1;
-            xor >>= 1;
+        return Integer.bitCount(x ^ y);
+    }
+
+    /**
+     * Allocates a page and formats it as an empty HFPage. The page is
+     * returned pinned.
+     */
+    private HFPage newHFPage() throws IOException, LSHFIndexException {
+        Page apage = new Page();
+        PageId pageId = newPage(apage, 1);
+        HFPage hfpage = new HFPage();
+        hfpage.init(pageId, apage);
+        return hfpage;
+    }
+
+    // Layers of one index may be searched from several threads (see
+    // LSHFIndex.searchLayers); the buffer manager is thread safe.
+    private void pinPage(PageId pageno, Page page) throws LSHFIndexException {
+        try {
+            SystemDefs.JavabaseBM.pinPage(pageno, page, false);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "PrefixTree.java: pinPage() failed");
+        }
+    }
+
+    private void unpinPage(PageId pageno, boolean dirty) throws LSHFIndexException {
+        try {
+            SystemDefs.JavabaseBM.unpinPage(pageno, dirty);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "PrefixTree.java: unpinPage() failed");
         }
-        return distance;
     }
-    
-    // Get number of entries in the tree (for debugging/stats)
-    public int size() {
-        int count = 0;
-        for (Map<Vector100Dtype, List<RID>> vectorMap : tree.values()) {
-            for (List<RID> ridList : vectorMap.values()) {
-                count += ridList.size();
+
+    private PageId newPage(Page page, int num) throws LSHFIndexException {
+        try {
+            PageId pageId = SystemDefs.JavabaseBM.newPage(page, num);
+            if (pageId == null) {
+                throw new LSHFIndexException(null, "PrefixTree.java: newPage() returned null");
             }
+            return pageId;
+        } catch (LSHFIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "PrefixTree.java: newPage() failed");
+        }
+    }
+
+    private void freePage(PageId pageno) throws LSHFIndexException {
+        try {
+            SystemDefs.JavabaseBM.freePage(pageno);
+        } catch (Exception e) {
+            throw new LSHFIndexException(e, "PrefixTree.java: freePage() failed");
         }
-        return count;
     }
-}
\ No newline at end of file
+}
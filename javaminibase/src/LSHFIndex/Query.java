@@ -229,9 +229,15 @@ public class Query {
             results.add(0, pair); // Add at front to reverse order
         }
 
-        // Print the results
+        // Print the results, fetching the records together
+        List<RID> resultRids = new ArrayList<>();
         for (RIDDistancePair pair : results) {
-            tuple = heapfile.getRecord(pair.rid);
+            resultRids.add(pair.rid);
+        }
+        List<Tuple> resultTuples = heapfile.getRecords(resultRids, true);
+        for (int r = 0; r < results.size(); r++) {
+            RIDDistancePair pair = results.get(r);
+            tuple = resultTuples.get(r);
             tuple.setHdr((short) types.length, types, str_sizes);
             
             // Create a new tuple with only the specified output fields
@@ -377,18 +383,8 @@ public class Query {
     }
 
     private static String findIndexFile(String dbName, int attributeNumber) {
-        File directory = new File(".");
-        String prefix = dbName + "_attr" + attributeNumber;
-        
-        // Look for files matching the pattern: dbName_attrX_h*_L*.ser
-        File[] files = directory.listFiles((dir, name) -> 
-            name.startsWith(prefix) && name.contains("_h") && name.contains("_L") && name.endsWith(".ser"));
-        
-        if (files == null || files.length == 0) {
-            return null;
-        }
-        
-        // Return just the filename without .ser extension
-        return files[0].getName().substring(0, files[0].getName().length() - 4);
+        // BatchInsert registers one LSH index per vector attribute under this name
+        String indexName = dbName + "_attr" + attributeNumber;
+        return LSHFIndex.exists(indexName) ? indexName : null;
     }
 }
\ No newline at end of file
@@ -12,7 +12,7 @@ import java.util.*;
 /**
  * RSIndexScan scans the LSHFIndex for records within a specified distance.
  * It retrieves candidate RIDs from the index and then fetches the corresponding tuples
- * from the heap file, ensuring uniqueness.
+ * from the heap file, ensuring uniqueness. The tuples come back in heap file order.
  */
 public class RSIndexScan extends Iterator {
     private LSHFIndex index;
@@ -56,6 +56,27 @@ public class RSIndexScan extends Iterator {
                        int fldNum,
                        Vector100Dtype query,
                        int distance) throws IOException, HFException, HFBufMgrException, HFDiskMgrException, InvalidSlotNumberException, InvalidTupleSizeException, Exception {
+        this(indexType, relName, indName, types, str_sizes, noInFlds, noOutFlds, outFlds, selects, fldNum, query, distance, new LSHSearchParams());
+    }
+
+    /**
+     * Same as above, with a probe budget for the LSH search.
+     *
+     * @param params Probe and candidate limits for the index search.
+     */
+    public RSIndexScan(IndexType indexType,
+                       String relName,
+                       String indName,
+                       AttrType[] types,
+                       short[] str_sizes,
+                       int noInFlds,
+                       int noOutFlds,
+                       FldSpec[] outFlds,
+                       CondExpr[] selects,
+                       int fldNum,
+                       Vector100Dtype query,
+                       int distance,
+                       LSHSearchParams params) throws IOException, HFException, HFBufMgrException, HFDiskMgrException, InvalidSlotNumberException, InvalidTupleSizeException, Exception {
 
         if (indexType.indexType != IndexType.LSHFIndex) {
             throw new IllegalArgumentException("RSIndexScan only supports LSHFIndex type.");
@@ -66,40 +87,32 @@ public class RSIndexScan extends Iterator {
 
         try {
             Vector100DKey queryKey = new Vector100DKey(query);
-            // Load the LSHFIndex from disk
-            String indexFilePath = indName.endsWith(".ser") ? indName : indName + ".ser";
-            index = LSHFIndex.loadIndex(indexFilePath);
+            // Open the LSHFIndex; only the probed buckets are read from disk
+            index = new LSHFIndex(indName);
             // Open the heap file for the relation
             heapfile = new Heapfile(relName);
             // Perform the range search - This might return duplicate RIDs
-            List<RID> rids = index.rangeSearch(queryKey, distance);
-
-            // Fetch tuples corresponding to the UNIQUE RIDs
-            List<Tuple> tuples = new ArrayList<>();
-            Set<RID> processedRIDs = new HashSet<>(); // Keep track of processed RIDs to ensure uniqueness
+            List<RID> rids = index.rangeSearch(queryKey, distance, params);
 
-            for (RID rid : rids) {
-                // Only process if the RID hasn't been processed yet
-                if (processedRIDs.add(rid)) {
-                    try {
-                        Tuple tuple = heapfile.getRecord(rid);
-                        if (tuple != null) {
-                            //  Set the header on the tuple after fetching
-                            tuple.setHdr((short) types.length, types, str_sizes);
-                            tuples.add(tuple);
-                        } else {
-                             System.err.println("Warning: getRecord returned null for RID: " + rid);
-                        }
-                    } catch (InvalidSlotNumberException | InvalidTupleSizeException e) {
-                        System.err.println("Error fetching record for RID " + rid + ": " + e.getMessage());
-                        throw e; // Re-throw specific exceptions
-                    } catch (Exception e) {
-                         System.err.println("General error fetching record for RID " + rid + ": " + e.getMessage());
-                        // Wrap other exceptions in IOException or a more specific custom exception if needed
-                        throw new IOException("Error fetching record from heapfile for RID: " + rid, e);
-                    }
-                } else {
-                }
+            // Fetch the tuples of the UNIQUE RIDs, each data page once, in page order
+            List<RID> unique = new ArrayList<>(new LinkedHashSet<>(rids));
+            List<Tuple> tuples;
+            try {
+                tuples = heapfile.getRecords(unique, false);
+            } catch (InvalidSlotNumberException | InvalidTupleSizeException e) {
+                System.err.println("Error fetching records: " + e.getMessage());
+                throw e; // Re-throw specific exceptions
+            } catch (Exception e) {
+                System.err.println("General error fetching records: " + e.getMessage());
+                throw new IOException("Error fetching records from heapfile", e);
+            }
+            if (tuples.size() < unique.size()) {
+                System.err.println("Warning: " + (unique.size() - tuples.size())
+                                   + " RIDs from the index have no record");
+            }
+            for (Tuple tuple : tuples) {
+                //  Set the header on the tuple after fetching
+                tuple.setHdr((short) types.length, types, str_sizes);
             }
 
             // Initialize an iterator over the fetched unique tuples
@@ -152,6 +165,9 @@ public class RSIndexScan extends Iterator {
         // Note: We don't explicitly close the heapfile here as it might be shared
         // or managed by a higher-level component (like the SystemDefs buffer manager).
         // Closing it here could cause issues if other scans are using it.
-        // The LSHFIndex object loaded from disk also doesn't typically require explicit closing unless it holds file handles.
+        if (index != null) {
+            index.close();
+            index = null;
+        }
     }
 }
\ No newline at end of file
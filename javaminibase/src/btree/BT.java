@@ -184,6 +184,37 @@ public class BT  implements GlobalConst{
     } 
   
   
+  /** It gets an keyDataEntry from a page and position. A page in an
+   * off-heap frame has no byte array, so the entry is copied out of it.
+   *@param from  the page where KeyDataEntry will come from. 
+   * Input parameter.
+   *@param offset the offset in the page. Input parameter.
+   *@param length  The length of (key, data) in the page.
+   *               Input parameter.
+   *@param keyType It specifies the type of key. Input parameter. 
+   *@param nodeType It specifes NodeType.LEAF or NodeType.INDEX. 
+   *                Input parameter.
+   *@return return a KeyDataEntry object
+   *@exception KeyNotMatchException  key is neither StringKey nor  IntegerKey
+   *@exception NodeNotMatchException  nodeType is neither NodeType.LEAF 
+   *  nor NodeType.INDEX.
+   *@exception ConvertException  error from the lower layer 
+   */
+  protected final static 
+      KeyDataEntry getEntryFromBytes( Page from, int offset,  
+				      int length, int keyType, short nodeType )
+    throws KeyNotMatchException, 
+	   NodeNotMatchException, 
+	   ConvertException
+    {
+      if (from.getpage() != null)
+	return getEntryFromBytes(from.getpage(), offset, length, keyType, nodeType);
+      byte[] entry = new byte[length];
+      from.getBytes(offset, entry, 0, length);
+      return getEntryFromBytes(entry, 0, length, keyType, nodeType);
+    } 
+  
+  
   /** It convert a keyDataEntry to byte[].
    *@param  entry specify  the data entry. Input parameter.
    *@return return a byte array with size equal to the size of (key,data). 
@@ -72,6 +72,24 @@ public class BTIndexPage extends BTSortedPage{
       setType(NodeType.INDEX);
     }    
   
+  /* new a page taken from extent, associate the BTIndexPage instance
+   * with the Page instance, also it sets the type of node to be
+   * NodeType.INDEX.
+   *@param keyType either AttrType.attrInteger or AttrType.attrString.
+   *  Input parameter.    
+   *@param extent the run of pages the index takes its pages from.
+   *  Input parameter.
+   *@exception IOException  error from the lower layer
+   *@exception ConstructPageException error when BTIndexpage constructor
+   */
+  public BTIndexPage(int keyType, PageExtent extent) 
+    throws IOException, 
+	   ConstructPageException
+    {
+      super(keyType, extent);
+      setType(NodeType.INDEX);
+    }    
+  
   
   /** It inserts a <key, pageNo> value into the index page,
    *@key  the key value in <key, pageNO>. Input parameter. 
@@ -162,7 +180,7 @@ public class BTIndexPage extends BTSortedPage{
       try {
 	
 	for (i=getSlotCnt()-1; i >= 0; i--) {
-	  entry= BT.getEntryFromBytes( getpage(),getSlotOffset(i), 
+	  entry= BT.getEntryFromBytes( this,getSlotOffset(i), 
 				       getSlotLength(i), keyType, NodeType.INDEX);
 	  
 	  if (BT.keyCompare(key, entry.key) >= 0)
@@ -204,7 +222,7 @@ public class BTIndexPage extends BTSortedPage{
 	  return null;
 	}
 	
-	entry=BT.getEntryFromBytes( getpage(),getSlotOffset(0), 
+	entry=BT.getEntryFromBytes( this,getSlotOffset(0), 
 				    getSlotLength(0),
 				    keyType, NodeType.INDEX);
 	
@@ -240,7 +258,7 @@ public class BTIndexPage extends BTSortedPage{
 	    return null;
 	  }
 	
-	entry=BT.getEntryFromBytes(getpage(),getSlotOffset(i), 
+	entry=BT.getEntryFromBytes(this,getSlotOffset(i), 
 				   getSlotLength(i),
 				   keyType, NodeType.INDEX);
 	
@@ -300,11 +318,11 @@ public class BTIndexPage extends BTSortedPage{
 	int i;
 	KeyDataEntry entry;
 	for (i=getSlotCnt()-1; i >= 0; i--) {
-	  entry=BT.getEntryFromBytes(getpage(), getSlotOffset(i),
+	  entry=BT.getEntryFromBytes(this, getSlotOffset(i),
 				     getSlotLength(i), keyType , NodeType.INDEX);
 	  if (BT.keyCompare(key, entry.key)>=0) {
 	    if (i != 0) { 
-              entry=BT.getEntryFromBytes(getpage(), getSlotOffset(i-1),
+              entry=BT.getEntryFromBytes(this, getSlotOffset(i-1),
 					 getSlotLength(i-1), keyType, NodeType.INDEX);
               pageNo.pid=  ((IndexData)entry.data).getData().pid;
               return -1; //left sibling
@@ -315,7 +333,7 @@ public class BTIndexPage extends BTSortedPage{
 	    }
 	  }
 	}
-	entry=BT.getEntryFromBytes(getpage(), getSlotOffset(0),
+	entry=BT.getEntryFromBytes(this, getSlotOffset(0),
 				   getSlotLength(0), keyType, NodeType.INDEX);    
 	pageNo.pid=  ((IndexData)entry.data).getData().pid; 
 	return 1;  //right sibling
@@ -374,7 +392,7 @@ public class BTIndexPage extends BTSortedPage{
       try {  
 	
         for (int i = getSlotCnt()-1; i >= 0; i--) {
-	  entry=BT.getEntryFromBytes(getpage(),getSlotOffset(i), 
+	  entry=BT.getEntryFromBytes(this,getSlotOffset(i), 
 				     getSlotLength(i), keyType, NodeType.INDEX);
 	  
 	  if (BT.keyCompare(key, entry.key) >= 0) {
@@ -423,7 +441,7 @@ public class BTIndexPage extends BTSortedPage{
 	boolean st;
 	if (direction==-1) { // 'this' is the left sibling of indexPage
 	  if (( getSlotLength(getSlotCnt()-1) + available_space()) > 
-	      ( (MAX_SPACE-DPFIXED)/2) ) {
+	      ( (SystemDefs.JavabasePageSize-DPFIXED)/2) ) {
             // cannot spare a record for its underflow sibling
             return false;
 	  }
@@ -444,7 +462,7 @@ public class BTIndexPage extends BTSortedPage{
             indexPage.insertKey( splitKey, leftMostPageId);
 
             // get the last record of itself
-            lastEntry=BT.getEntryFromBytes(getpage(), getSlotOffset(getSlotCnt()-1),     
+            lastEntry=BT.getEntryFromBytes(this, getSlotOffset(getSlotCnt()-1),     
 					   getSlotLength(getSlotCnt()-1), keyType, NodeType.INDEX);
 	    
             // set sibling's leftmostchild to be lastPageId
@@ -470,14 +488,14 @@ public class BTIndexPage extends BTSortedPage{
 	  }
 	}
 	else { // 'this' is the right sibling of indexPage
-	  if ( (getSlotLength(0) + available_space()) > ((MAX_SPACE-DPFIXED)/2) ) {
+	  if ( (getSlotLength(0) + available_space()) > ((SystemDefs.JavabasePageSize-DPFIXED)/2) ) {
             // cannot spare a record for its underflow sibling
             return false;
 	  }
 	  else {
             // get the first record
             KeyDataEntry firstEntry; 
-            firstEntry=BT.getEntryFromBytes( getpage(),
+            firstEntry=BT.getEntryFromBytes( this,
 					     getSlotOffset(0),
 					     getSlotLength(0), keyType, NodeType.INDEX);
 	    
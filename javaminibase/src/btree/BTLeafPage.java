@@ -69,6 +69,23 @@ public class BTLeafPage extends BTSortedPage {
       setType(NodeType.LEAF);
     }  
   
+  /**new a page taken from extent, associate the BTLeafPage instance
+   * with the Page instance, also it sets the type to be NodeType.LEAF. 
+   *@param keyType either AttrType.attrInteger or AttrType.attrString.
+   *  Input parameter.
+   *@param extent the run of pages the index takes its pages from.
+   *  Input parameter.
+   *@exception IOException  error from the lower layer
+   *@exception ConstructPageException BTLeafPage constructor error
+   */
+  public BTLeafPage(int keyType, PageExtent extent) 
+    throws IOException, 
+	   ConstructPageException
+    {
+      super(keyType, extent);
+      setType(NodeType.LEAF);
+    }  
+  
 
   
   /** insertRecord
@@ -125,7 +142,7 @@ public class BTLeafPage extends BTSortedPage {
           return null;
         }
 
-        entry=BT.getEntryFromBytes(getpage(), getSlotOffset(0), getSlotLength(0),
+        entry=BT.getEntryFromBytes(this, getSlotOffset(0), getSlotLength(0),
 				   keyType, NodeType.LEAF);
 	
         return entry;
@@ -160,7 +177,7 @@ public class BTLeafPage extends BTSortedPage {
 	 return null;
        }
        
-       entry=BT.getEntryFromBytes(getpage(),getSlotOffset(i), getSlotLength(i),
+       entry=BT.getEntryFromBytes(this,getSlotOffset(i), getSlotLength(i),
                   keyType, NodeType.LEAF);
        
        return entry;
@@ -237,7 +254,7 @@ public class BTLeafPage extends BTSortedPage {
       try {
 	if (direction ==-1) { // 'this' is the left sibling of leafPage
 	  if ( (getSlotLength(getSlotCnt()-1) + available_space()+ 8 /*  2*sizeof(slot) */) > 
-	       ((MAX_SPACE-DPFIXED)/2)) {
+	       ((SystemDefs.JavabasePageSize-DPFIXED)/2)) {
             // cannot spare a record for its underflow sibling
             return false;
 	  }
@@ -246,7 +263,7 @@ public class BTLeafPage extends BTSortedPage {
 	    
             // get the last record 
             KeyDataEntry lastEntry;
-            lastEntry=BT.getEntryFromBytes(getpage(),getSlotOffset(getSlotCnt()-1)
+            lastEntry=BT.getEntryFromBytes(this,getSlotOffset(getSlotCnt()-1)
 					   ,getSlotLength(getSlotCnt()-1), keyType, NodeType.LEAF);
 	    
 	    
@@ -278,7 +295,7 @@ public class BTLeafPage extends BTSortedPage {
 	  }
 	}
 	else { // 'this' is the right sibling of pptr
-	  if ( (getSlotLength(0) + available_space()+ 8) > ((MAX_SPACE-DPFIXED)/2)) {
+	  if ( (getSlotLength(0) + available_space()+ 8) > ((SystemDefs.JavabasePageSize-DPFIXED)/2)) {
             // cannot spare a record for its underflow sibling
             return false;
 	  }
@@ -287,7 +304,7 @@ public class BTLeafPage extends BTSortedPage {
 	    
             // get the first record
             KeyDataEntry firstEntry;
-            firstEntry=BT.getEntryFromBytes(getpage(), getSlotOffset(0),
+            firstEntry=BT.getEntryFromBytes(this, getSlotOffset(0),
 					    getSlotLength(0), keyType,
 					    NodeType.LEAF);
 	    
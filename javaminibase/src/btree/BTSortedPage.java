@@ -65,12 +65,28 @@ public class BTSortedPage  extends HFPage{
    *@exception  ConstructPageException error for BTSortedPage constructor
    */ 
   public BTSortedPage(int keyType) 
+    throws ConstructPageException
+    {
+      this(keyType, null);
+    }  
+  
+  /**new a page taken from extent, and associate the SortedPage instance
+   * with the Page instance
+   *@param keyType input parameter. It specifies the type of key. It can be 
+   *               AttrType.attrString or AttrType.attrInteger. 
+   *@param extent input parameter. The run of pages the index takes its
+   *               pages from; null to allocate anywhere.
+   *@exception  ConstructPageException error for BTSortedPage constructor
+   */ 
+  public BTSortedPage(int keyType, PageExtent extent) 
     throws ConstructPageException
     {
       super();
       try{
 	Page apage=new Page();
-	PageId pageId=SystemDefs.JavabaseBM.newPage(apage,1);
+	PageId pageId = extent == null
+	  ? SystemDefs.JavabaseBM.newPage(apage,1)
+	  : SystemDefs.JavabaseBM.newPage(apage, extent);
 	if (pageId==null) 
 	  throw new ConstructPageException(null, "construct new page failed");
 	this.init(pageId, apage);
@@ -126,10 +142,10 @@ public class BTSortedPage  extends HFPage{
 	     
 	     KeyClass key_i, key_iplus1;
 	     
-	     key_i=BT.getEntryFromBytes(getpage(), getSlotOffset(i), 
+	     key_i=BT.getEntryFromBytes(this, getSlotOffset(i), 
 					getSlotLength(i), keyType, nType).key;
 	     
-	     key_iplus1=BT.getEntryFromBytes(getpage(), getSlotOffset(i-1), 
+	     key_iplus1=BT.getEntryFromBytes(this, getSlotOffset(i-1), 
 					     getSlotLength(i-1), keyType, nType).key;
 	     
 	     if (BT.keyCompare(key_i, key_iplus1) < 0)
@@ -0,0 +1,428 @@
+package btree;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import global.*;
+import diskmgr.*;
+import bufmgr.*;
+import heap.*;
+import iterator.*;
+
+/**
+ * Builds a B+ tree bottom up from keys given in ascending order, instead
+ * of inserting them one at a time from the root.
+ *
+ * The leaves are filled left to right up to the fill factor and linked
+ * as they are filled. When a leaf is full the first key of the next one
+ * is put on the index page above it, and so on up: each level keeps
+ * only its rightmost page pinned, and a page full to the fill factor is
+ * ended by moving the key being added up a level, as a split would.
+ * The pages are allocated in the order they are written, so the tree is
+ * written sequentially.
+ *
+ * A leaf is not ended inside a run of equal keys while there is room
+ * on it, since a search for a key starts at the last leaf whose first
+ * key is not greater.
+ *
+ *     BTreeBulkLoader loader = new BTreeBulkLoader(btf, 0.9f);
+ *     for each (key, rid) in key order
+ *         loader.add(key, rid);
+ *     loader.finish();
+ *
+ * If the load fails, abort() frees the pages built so far instead of
+ * finish(), and the tree is left empty.
+ */
+public class BTreeBulkLoader implements GlobalConst {
+
+  private BTreeFile btf;
+  private int keyType;
+  private float fill;
+
+  private BTLeafPage leaf;              // The rightmost leaf, pinned
+  private int leafLimit;                // Space to leave free on a leaf
+  private KeyClass lastKey;
+
+  // The rightmost page of each index level from the bottom, pinned,
+  // and the first page of each level, leaves first
+  private ArrayList<BTIndexPage> index = new ArrayList<BTIndexPage>();
+  private ArrayList<PageId> firstPage = new ArrayList<PageId>();
+  private int indexLimit;
+
+  // Every page allocated, for abort()
+  private int[] built = new int[64];
+  private int numBuilt;
+
+  private int count;
+  private boolean finished;
+
+  /**
+   * Starts loading an empty B+ tree.
+   *@param btf the tree, which must have no root yet
+   *@param fillFactor the share of each page to fill, from 0.5 to 1
+   *@exception InsertException the tree is not empty, or the fill factor
+   *  is out of range
+   */
+  public BTreeBulkLoader(BTreeFile btf, float fillFactor)
+    throws InsertException
+    {
+      if (fillFactor < 0.5f || fillFactor > 1.0f)
+	throw new InsertException(null, "fill factor " + fillFactor + " not in [0.5, 1]");
+      boolean empty;
+      try {
+	empty = btf.getHeaderPage().get_rootId().pid == INVALID_PAGE;
+	keyType = btf.getHeaderPage().get_keyType();
+      }
+      catch (IOException e) {
+	throw new InsertException(e, "reading the header page failed");
+      }
+      if (!empty)
+	throw new InsertException(null, "bulk loading a B+ tree that is not empty");
+      this.btf = btf;
+      fill = fillFactor;
+    }
+
+  /**
+   * Adds the next entry. The keys must come in ascending order; equal
+   * keys may come in any order of RIDs.
+   *@param key the key
+   *@param rid the rid of the record
+   *@exception KeyTooLongException the key is longer than the tree allows
+   *@exception KeyNotMatchException the key is not of the tree's type
+   *@exception InsertException the keys are out of order, or the tree
+   *  could not be extended
+   *@exception IOException error from the lower layer
+   */
+  public void add(KeyClass key, RID rid)
+    throws KeyTooLongException,
+	   KeyNotMatchException,
+	   InsertException,
+	   IOException
+    {
+      if (finished)
+	throw new InsertException(null, "bulk load already finished");
+      if (BT.getKeyLength(key) > btf.getHeaderPage().get_maxKeySize())
+	throw new KeyTooLongException(null, "");
+      if ((key instanceof IntegerKey && keyType != AttrType.attrInteger)
+	  || (key instanceof StringKey && keyType != AttrType.attrString)
+	  || !(key instanceof IntegerKey || key instanceof StringKey))
+	throw new KeyNotMatchException(null, "");
+      if (lastKey != null && BT.keyCompare(key, lastKey) < 0)
+	throw new InsertException(null, "key " + key + " after " + lastKey);
+
+      try {
+	int need = BT.getKeyDataLength(key, NodeType.LEAF);
+	if (leaf == null)
+	  {
+	    leaf = newLeaf(null);
+	    firstPage.add(new PageId(leaf.getCurPage().pid));
+	  }
+	else
+	  {
+	    boolean same = BT.keyCompare(key, lastKey) == 0;
+	    int free = leaf.available_space() - need;
+	    if (free < 0 || (free < leafLimit && !same))
+	      {
+		BTLeafPage next = newLeaf(leaf);
+		unpin(leaf.getCurPage(), true);
+		leaf = next;
+		pushUp(0, key, new PageId(leaf.getCurPage().pid));
+	      }
+	  }
+	leaf.insertRecord(key, rid);
+      }
+      catch (InsertException e) {
+	throw e;
+      }
+      catch (Exception e) {
+	throw new InsertException(e, "bulk load failed");
+      }
+      lastKey = key;
+      count++;
+    }
+
+  /**
+   * Ends the load: unpins the pages and makes the top page the root.
+   *@return the number of entries loaded
+   *@exception InsertException the tree could not be finished
+   */
+  public int finish()
+    throws InsertException
+    {
+      if (finished)
+	return count;
+      finished = true;
+      try {
+	PageId root = null;
+	if (leaf != null)
+	  {
+	    root = new PageId(leaf.getCurPage().pid);
+	    unpin(leaf.getCurPage(), true);
+	    leaf = null;
+	  }
+	for (int i = 0; i < index.size(); i++)
+	  {
+	    root = new PageId(index.get(i).getCurPage().pid);
+	    unpin(index.get(i).getCurPage(), true);
+	  }
+	index.clear();
+	if (root != null)
+	  btf.updateHeader(root);
+      }
+      catch (Exception e) {
+	throw new InsertException(e, "finishing the bulk load failed");
+      }
+      return count;
+    }
+
+  /**
+   * Gives up the load: unpins the pages built so far and frees them. The
+   * tree is left without a root, as it was before the load.
+   *@exception InsertException a page could not be unpinned or freed;
+   *  the others are freed all the same
+   */
+  public void abort()
+    throws InsertException
+    {
+      if (finished)
+	return;
+      finished = true;
+      Exception failure = null;
+      ArrayList<BTSortedPage> pinned = new ArrayList<BTSortedPage>(index);
+      if (leaf != null)
+	pinned.add(leaf);
+      leaf = null;
+      index.clear();
+      for (int i = 0; i < pinned.size(); i++)
+	{
+	  try {
+	    unpin(pinned.get(i).getCurPage(), false);
+	  }
+	  catch (Exception e) {
+	    if (failure == null)
+	      failure = e;
+	  }
+	}
+      for (int i = 0; i < numBuilt; i++)
+	{
+	  try {
+	    SystemDefs.JavabaseBM.freePage(new PageId(built[i]));
+	  }
+	  catch (Exception e) {
+	    if (failure == null)
+	      failure = e;
+	  }
+	}
+      numBuilt = 0;
+      if (failure != null)
+	throw new InsertException(failure, "abandoning the bulk load failed");
+    }
+
+  /**
+   * Puts (key, child) on index level i, the level above leaves being 0.
+   * The child is the new rightmost page of the level below.
+   */
+  private void pushUp(int i, KeyClass key, PageId child)
+    throws Exception
+    {
+      int need = BT.getKeyDataLength(key, NodeType.INDEX);
+      if (i == index.size())
+	{
+	  // The level below just got its second page: start a level
+	  BTIndexPage page = newIndexPage(firstPage.get(i));
+	  index.add(page);
+	  firstPage.add(new PageId(page.getCurPage().pid));
+	  page.insertKey(key, child);
+	  return;
+	}
+
+      BTIndexPage page = index.get(i);
+      int free = page.available_space() - need;
+      if (free >= indexLimit || (free >= 0 && page.getSlotCnt() < 2))
+	{
+	  page.insertKey(key, child);
+	  return;
+	}
+
+      // The page is full: the child starts a new page, and the key goes
+      // up a level to tell it from the ones before
+      BTIndexPage next = newIndexPage(child);
+      unpin(page.getCurPage(), true);
+      index.set(i, next);
+      pushUp(i + 1, key, new PageId(next.getCurPage().pid));
+    }
+
+  /** Allocates a leaf and links it after prev, if there is one. */
+  private BTLeafPage newLeaf(BTLeafPage prev)
+    throws Exception
+    {
+      BTLeafPage page = new BTLeafPage(keyType, btf.extent());
+      built(page.getCurPage());
+      page.setNextPage(new PageId(INVALID_PAGE));
+      if (prev != null)
+	{
+	  page.setPrevPage(new PageId(prev.getCurPage().pid));
+	  prev.setNextPage(new PageId(page.getCurPage().pid));
+	}
+      else
+	page.setPrevPage(new PageId(INVALID_PAGE));
+      if (leafLimit == 0)
+	leafLimit = (int)((1.0f - fill) * page.available_space());
+      return page;
+    }
+
+  /** Allocates an index page whose leftmost child is left. */
+  private BTIndexPage newIndexPage(PageId left)
+    throws Exception
+    {
+      BTIndexPage page = new BTIndexPage(keyType, btf.extent());
+      built(page.getCurPage());
+      page.setPrevPage(new PageId(left.pid));
+      if (indexLimit == 0)
+	indexLimit = (int)((1.0f - fill) * page.available_space());
+      return page;
+    }
+
+  private void built(PageId pageno)
+    {
+      if (numBuilt == built.length)
+	built = Arrays.copyOf(built, 2 * numBuilt);
+      built[numBuilt++] = pageno.pid;
+    }
+
+  private static void unpin(PageId pageno, boolean dirty)
+    throws UnpinPageException
+    {
+      try {
+	SystemDefs.JavabaseBM.unpinPage(pageno, dirty);
+      }
+      catch (Exception e) {
+	throw new UnpinPageException(e, "");
+      }
+    }
+
+  /**
+   * Builds a B+ tree on a field of a relation: the (key, RID) pairs of
+   * the relation are written to a temporary heapfile, sorted by key
+   * with the external sort, and bulk loaded. A real field is indexed by
+   * its integer part, as an integer key.
+   *@param btf the empty tree
+   *@param rel the relation
+   *@param types the types of the relation's fields
+   *@param strSizes the sizes of its string fields
+   *@param fld the field to index, from 1
+   *@param sortPages buffer pages for the sort
+   *@param fillFactor the share of each page to fill
+   *@return the number of entries loaded
+   *@exception Exception from the heapfiles, the sort or the tree
+   */
+  public static int load(BTreeFile btf, Heapfile rel, AttrType[] types,
+			 short[] strSizes, int fld, int sortPages, float fillFactor)
+    throws Exception
+    {
+      int fldType = types[fld-1].attrType;
+      AttrType keyAttr;
+      short[] keySizes = null;
+      short keyLen = 4;
+      switch (fldType) {
+      case AttrType.attrInteger:
+      case AttrType.attrReal:
+	keyAttr = new AttrType(AttrType.attrInteger);
+	break;
+      case AttrType.attrString:
+	keyAttr = new AttrType(AttrType.attrString);
+	int s = 0;
+	for (int i = 0; i < fld-1; i++)
+	  if (types[i].attrType == AttrType.attrString)
+	    s++;
+	keyLen = strSizes[s];
+	keySizes = new short[] { keyLen };
+	break;
+      default:
+	throw new KeyNotMatchException(null, "cannot index a field of type " + types[fld-1]);
+      }
+
+      // (key, page of rid, slot of rid)
+      AttrType[] pairTypes = { keyAttr, new AttrType(AttrType.attrInteger),
+			       new AttrType(AttrType.attrInteger) };
+      Tuple pair = new Tuple();
+      pair.setHdr((short)3, pairTypes, keySizes);
+      pair = new Tuple(pair.size());
+      pair.setHdr((short)3, pairTypes, keySizes);
+
+      Heapfile pairs = new Heapfile(null);
+      BTreeBulkLoader loader = new BTreeBulkLoader(btf, fillFactor);
+      Sort sort = null;
+      try {
+	Scan scan = rel.openScan();
+	try {
+	  RID rid = new RID();
+	  Tuple t;
+	  while ((t = scan.getNext(rid)) != null)
+	    {
+	      t.setHdr((short)types.length, types, strSizes);
+	      switch (fldType) {
+	      case AttrType.attrInteger:
+		pair.setIntFld(1, t.getIntFld(fld));
+		break;
+	      case AttrType.attrReal:
+		pair.setIntFld(1, (int)t.getFloFld(fld));
+		break;
+	      default:
+		pair.setStrFld(1, t.getStrFld(fld));
+	      }
+	      pair.setIntFld(2, rid.pageNo.pid);
+	      pair.setIntFld(3, rid.slotNo);
+	      pairs.insertRecord(pair.getTupleByteArray());
+	    }
+	}
+	finally {
+	  scan.closescan();
+	}
+
+	FldSpec[] proj = new FldSpec[3];
+	for (int i = 0; i < 3; i++)
+	  proj[i] = new FldSpec(new RelSpec(RelSpec.outer), i+1);
+	FileScan fscan = new FileScan(pairs.get_fileName(), pairTypes, keySizes,
+				      (short)3, 3, proj, null);
+	sort = new Sort(pairTypes, (short)3, keySizes, fscan, 1,
+			new TupleOrder(TupleOrder.Ascending), keyLen, sortPages);
+	Tuple t;
+	while ((t = sort.get_next()) != null)
+	  {
+	    KeyClass key = keyAttr.attrType == AttrType.attrInteger
+	      ? (KeyClass)new IntegerKey(t.getIntFld(1))
+	      : (KeyClass)new StringKey(t.getStrFld(1));
+	    loader.add(key, new RID(new PageId(t.getIntFld(2)), t.getIntFld(3)));
+	  }
+      }
+      catch (Exception e) {
+	// Undo the load; whatever fails in doing so is added to e, which
+	// says why the load failed
+	try {
+	  if (sort != null)
+	    sort.close();
+	}
+	catch (Exception ce) {
+	  e.addSuppressed(ce);
+	}
+	try {
+	  loader.abort();
+	}
+	catch (Exception ae) {
+	  e.addSuppressed(ae);
+	}
+	try {
+	  pairs.deleteFile();
+	}
+	catch (Exception de) {
+	  e.addSuppressed(de);
+	}
+	throw e;
+      }
+      sort.close();
+      loader.finish();
+      pairs.deleteFile();
+      return loader.count;
+    }
+}
@@ -8,6 +8,7 @@
 package btree;
 
 import java.io.*;
+import java.util.HashMap;
 import diskmgr.*;
 import bufmgr.*;
 import global.*;
@@ -61,6 +62,34 @@ public class BTreeFile extends IndexFile
   private  PageId  headerPageId;
   private String  dbname;  
   
+  /** The runs of pages set aside for new nodes of the trees of db, by
+   * header page. Like a heapfile's DirectoryMap, a run is shared by
+   * every BTreeFile object open on the tree, and the runs are dropped
+   * when another database is opened.
+   */
+  private static final HashMap<Integer, PageExtent> extents =
+    new HashMap<Integer, PageExtent>();
+  private static DB extentsDb;
+  
+  /**
+   * @return the run of pages this tree takes new nodes from
+   */
+  PageExtent extent()
+    {
+      synchronized (extents) {
+	if (extentsDb != SystemDefs.JavabaseDB) {
+	  extents.clear();
+	  extentsDb = SystemDefs.JavabaseDB;
+	}
+	PageExtent extent = extents.get(headerPageId.pid);
+	if (extent == null) {
+	  extent = new PageExtent();
+	  extents.put(headerPageId.pid, extent);
+	}
+	return extent;
+      }
+    }
+  
   /**
    * Access method to data member.
    * @return  Return a BTreeHeaderPage object that is the header page
@@ -285,6 +314,9 @@ public class BTreeFile extends IndexFile
 	if( pgId.pid != INVALID_PAGE) 
 	  _destroyFile(pgId);
 	unpinPage(headerPageId);
+	synchronized (extents) {
+	  extents.remove(headerPageId.pid);
+	}
 	freePage(headerPageId);      
 	delete_file_entry(dbname);
 	headerPage=null;
@@ -310,21 +342,21 @@ public class BTreeFile extends IndexFile
 	RID      rid=new RID();
 	PageId       childId;
 	KeyDataEntry entry;
+	_destroyFile(indexPage.getPrevPage());     // the leftmost child
 	for (entry = indexPage.getFirst(rid);
 	     entry!=null; entry = indexPage.getNext(rid))
-	  { 
+	  {
 	    childId = ((IndexData)(entry.data)).getData();
 	    _destroyFile(childId);
 	  }
-      } else { // BTLeafPage 
-	
-	unpinPage(pageno);
-	freePage(pageno);
       }
-      
+
+      unpinPage(pageno);
+      freePage(pageno);
+
     }
   
-  private void  updateHeader(PageId newRoot)
+  void  updateHeader(PageId newRoot)
     throws   IOException, 
 	     PinPageException,
 	     UnpinPageException
@@ -428,7 +460,7 @@ public class BTreeFile extends IndexFile
 	BTLeafPage newRootPage;
 	RID dummyrid;
 	
-	newRootPage=new BTLeafPage( headerPage.get_keyType());
+	newRootPage=new BTLeafPage( headerPage.get_keyType(), extent());
 	newRootPageId=newRootPage.getCurPage();
 	
 	
@@ -502,7 +534,7 @@ public class BTreeFile extends IndexFile
 	  // the information about the pair <key, PageId> is
 	  // packed in newRootEntry: extract it
 	  
-	  newRootPage = new BTIndexPage(headerPage.get_keyType());
+	  newRootPage = new BTIndexPage(headerPage.get_keyType(), extent());
 	  newRootPageId=newRootPage.getCurPage();
 	  
 	  // ASSERTIONS:
@@ -647,7 +679,7 @@ public class BTreeFile extends IndexFile
 	
 	// we have to allocate a new INDEX page and
 	// to redistribute the index entries
-	newIndexPage= new BTIndexPage(headerPage.get_keyType());
+	newIndexPage= new BTIndexPage(headerPage.get_keyType(), extent());
 	newIndexPageId=newIndexPage.getCurPage();  
 	
         
@@ -735,7 +767,7 @@ public class BTreeFile extends IndexFile
 	  
 	  int i= (int)currentIndexPage.getSlotCnt()-1;
 	  tmpEntry =
-	    BT.getEntryFromBytes(currentIndexPage.getpage(), 
+	    BT.getEntryFromBytes(currentIndexPage, 
 				 currentIndexPage.getSlotOffset(i),
 				 currentIndexPage.getSlotLength(i),
 				 headerPage.get_keyType(),NodeType.INDEX);
@@ -822,7 +854,7 @@ public class BTreeFile extends IndexFile
 	  PageId       newLeafPageId;
 	  // we have to allocate a new LEAF page and
 	  // to redistribute the data entries entries
-	  newLeafPage=new BTLeafPage(headerPage.get_keyType());
+	  newLeafPage=new BTLeafPage(headerPage.get_keyType(), extent());
 	  newLeafPageId=newLeafPage.getCurPage();
 	  
 	  newLeafPage.setNextPage(currentLeafPage.getNextPage());
@@ -1094,15 +1126,17 @@ public class BTreeFile extends IndexFile
             curEntry = pageIndex.getFirst(curRid);
             childPageId = pageIndex.getPrevPage(); // Start with the pointer for keys < first key
 
-            // Iterate through keys on the index page
-            while (curEntry != null && BT.keyCompare(lo_key, curEntry.key) >= 0) {
-                 // If lo_key >= current index key, update childPageId to this entry's pointer
+            // Iterate through keys on the index page. Entries equal to
+            // lo_key may end the child left of the entry with lo_key, so
+            // go left of it and walk right along the leaves below.
+            while (curEntry != null && BT.keyCompare(lo_key, curEntry.key) > 0) {
+                 // If lo_key > current index key, update childPageId to this entry's pointer
                  // and move to the next key.
                  childPageId = ((IndexData)curEntry.data).getData();
                  curEntry = pageIndex.getNext(curRid); // Move to next index entry
             }
             // After loop: childPageId holds the pointer to the correct child subtree
-            // (either the initial prevPage or the data from the last entry where lo_key >= key)
+            // (either the initial prevPage or the data from the last entry where lo_key > key)
         }
 
         unpinPage(sortPage.getCurPage()); // Unpin the index page
@@ -1427,7 +1461,7 @@ public class BTreeFile extends IndexFile
 	    
 	    PageId leafPage_no=leafPage.getCurPage();     
 	    if ( (4+leafPage.available_space()) <= 
-		 ((MAX_SPACE-HFPage.DPFIXED)/2) ) { 
+		 ((SystemDefs.JavabasePageSize-HFPage.DPFIXED)/2) ) { 
 	      // the leaf page is at least half full after the deletion
 	      unpinPage(leafPage.getCurPage(), true /* = DIRTY */);
 	      return null;
@@ -1499,7 +1533,7 @@ public class BTreeFile extends IndexFile
 		return null;
               }
               else if ( (siblingPage.available_space() + 8 /* 2*sizeof(slot) */ ) >=
-			( (MAX_SPACE-HFPage.DPFIXED) 
+			( (SystemDefs.JavabasePageSize-HFPage.DPFIXED) 
 			  - leafPage.available_space())) {
 		
 		// we can merge these two children
@@ -1656,7 +1690,7 @@ public class BTreeFile extends IndexFile
 	
 	// now we know the current index page is not a root
 	if ((4 /*sizeof slot*/ +indexPage.available_space()) <= 
-	    ((MAX_SPACE-HFPage.DPFIXED)/2)) {
+	    ((SystemDefs.JavabasePageSize-HFPage.DPFIXED)/2)) {
 	  // the index page is at least half full after the deletion
 	  unpinPage(currentPageId,true);
 	  
@@ -1718,7 +1752,7 @@ public class BTreeFile extends IndexFile
 	    return null;
 	  }
 	  else if ( siblingPage.available_space()+4 /*slot size*/ >=
-		    ( (MAX_SPACE-HFPage.DPFIXED) - 
+		    ( (SystemDefs.JavabasePageSize-HFPage.DPFIXED) - 
 		      (indexPage.available_space()+4 /*slot size*/)
 		      +pushKeySize+4 /*slot size*/ + 4 /* pageId size*/)  ) { 
             
@@ -0,0 +1,202 @@
+/* File ARC.java */
+
+package bufmgr;
+
+import java.util.*;
+import global.*;
+
+  /**
+   * class ARC is a subclass of class Replacer using Adaptive Replacement
+   * Cache (Megiddo and Modha, FAST 2003) for page replacement.
+   *
+   * Pages in the pool are on T1 if they were used once since they were
+   * read, or on T2 if they were used again; both lists are in LRU order.
+   * B1 and B2 remember the page numbers last pushed out of T1 and T2. A
+   * page read again while on B1 means T1 was too small, one on B2 that
+   * T2 was, and the target size p of T1 moves accordingly. A scan only
+   * fills T1, so the pages on T2 survive it.
+   */
+class ARC extends Replacer {
+
+  /** Lists of frames: empty ones, T1 and T2. */
+  private static final int FREE = 0;
+  private static final int T1 = 1;
+  private static final int T2 = 2;
+
+  private FrameLists lists;
+
+  /** Page numbers pushed out of T1 and T2, oldest first. */
+  private LinkedHashSet<Integer> b1;
+  private LinkedHashSet<Integer> b2;
+
+  /** Number of frames, and the target size of T1, 0 to c. */
+  private int c;
+  private int p;
+
+  /**
+   * Class constructor
+   * @param mgrArg a BufMgr object
+   */
+  public ARC(BufMgr mgrArg)
+  {
+    super(mgrArg);
+  }
+
+  /**
+   * Calling super class the same method
+   * Puts every frame on the empty list.
+   *
+   * @param mgr a BufMgr object
+   */
+  public void setBufferManager( BufMgr mgr )
+  {
+    super.setBufferManager(mgr);
+    c = mgr.getNumBuffers();
+    p = 0;
+
+    lists = new FrameLists(c, 3);
+    for ( int i = 0; i < c; ++i )
+      lists.addLast(FREE, i);
+
+    b1 = new LinkedHashSet<Integer>();
+    b2 = new LinkedHashSet<Integer>();
+  }
+
+  /**
+   * call super class the same method
+   * and records the hit, without taking the replacer's lock.
+   *
+   * @param frameNo the frame number to pin
+   * @exception InvalidFrameNumberException
+   */
+  public void pin(int frameNo) throws InvalidFrameNumberException
+  {
+    super.pin(frameNo);
+
+    recordHit(frameNo);
+  }
+
+  /**
+   * Moves a page that was hit to the back of T2.
+   *
+   * @param frameNo the frame of the page
+   * @param count the number of hits
+   */
+  protected void hit(int frameNo, int count)
+  {
+    if ( lists.list(frameNo) != FREE )
+      lists.addLast(T2, frameNo);
+  }
+
+  /**
+   * Puts a page just read on T2 if it was remembered on B1 or B2,
+   * adapting p, else on T1.
+   *
+   * @param frameNo the frame of the page
+   */
+  public synchronized void loaded(int frameNo)
+  {
+    applyHits();
+    int pid = (mgr.frameTable())[frameNo].pageNo.pid;
+
+    if ( b1.contains(pid) ) {
+      p = Math.min(c, p + Math.max(1, b2.size() / b1.size()));
+      b1.remove(pid);
+      lists.addLast(T2, frameNo);
+    }
+    else if ( b2.contains(pid) ) {
+      p = Math.max(0, p - Math.max(1, b1.size() / b2.size()));
+      b2.remove(pid);
+      lists.addLast(T2, frameNo);
+    }
+    else {
+      lists.addLast(T1, frameNo);
+    }
+
+    // T1 and B1 together hold at most c pages, all four lists 2c
+    while ( lists.size(T1) + b1.size() > c && !b1.isEmpty() )
+      removeOldest(b1);
+    while ( lists.size(T1) + lists.size(T2) + b1.size() + b2.size() > 2 * c
+            && !b2.isEmpty() )
+      removeOldest(b2);
+  }
+
+  /**
+   * call super class the same method
+   * and puts the frame on the empty list.
+   *
+   * @param frameNo the frame of the page to free
+   * @exception PagePinnedException if the page is pinned
+   */
+  public synchronized int free(int frameNo) throws PagePinnedException
+  {
+    applyHits();
+    int count = super.free(frameNo);
+    lists.addFirst(FREE, frameNo);
+    return count;
+  }
+
+  /**
+   * Picks an empty frame if there is one. Otherwise takes the least
+   * recently used page of T1 while T1 is over its target size, else
+   * that of T2, remembers its page number on B1 or B2, and claims its
+   * frame.
+   *
+   * @return the frame number
+   * @exception BufferPoolExceededException if every frame is pinned
+   */
+  public synchronized int pick_victim() throws BufferPoolExceededException
+  {
+    applyHits();
+    int frame = claimFirst(lists, FREE);
+
+    if ( frame < 0 && lists.size(T1) > p )
+      frame = claimFirst(lists, T1);
+    if ( frame < 0 )
+      frame = claimFirst(lists, T2);
+    if ( frame < 0 )
+      frame = claimFirst(lists, T1);
+    if ( frame < 0 )
+      throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+    int pid = (mgr.frameTable())[frame].pageNo.pid;
+    if ( pid != INVALID_PAGE ) {
+      if ( lists.list(frame) == T1 )
+        b1.add(pid);
+      else if ( lists.list(frame) == T2 )
+        b2.add(pid);
+    }
+
+    forgetHit(frame);
+    lists.addFirst(FREE, frame);
+    state_bit[frame].state = Pinned;
+    return frame;
+  }
+
+  private static void removeOldest(LinkedHashSet<Integer> ghosts)
+  {
+    Iterator<Integer> oldest = ghosts.iterator();
+    oldest.next();
+    oldest.remove();
+  }
+
+  /**
+   * get the page replacement policy name
+   *
+   * @return return the name of replacement policy used
+   */
+  public String name() { return "ARC"; }
+
+  /**
+   * print out the information of frame usage
+   */
+  public void info()
+  {
+    super.info();
+
+    System.out.println( "ARC REPLACEMENT\tp " + p
+                        + "\tT1 " + lists.size(T1) + "\tT2 " + lists.size(T2)
+                        + "\tB1 " + b1.size() + "\tB2 " + b2.size());
+  }
+
+}
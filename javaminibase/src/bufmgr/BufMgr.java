@@ -4,229 +4,196 @@ package bufmgr;
 
 import java.io.*;
 import java.util.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 import diskmgr.*;
 import global.*;
  
 
-/** A frame description class. It describes each page in the buffer
- * pool, the page number in the file, whether it is dirty or not,
- * its pin count, and the pin count change when pinning or unpinning 
- * a page.
- */
-class FrameDesc implements GlobalConst{
-  
-  /** The page within file, or INVALID_PAGE if the frame is empty. */
-  public PageId pageNo;     
-  
-  /** the dirty bit, 1 (TRUE) stands for this frame is altered,
-   *0 (FALSE) for clean frames.
-   */
-  public boolean dirty;     
-                         
-  /** The pin count for the page in this frame */
-  public int pin_cnt;   
-
-  /** Creates a FrameDesc object, initialize pageNo, dirty and 
-   * pin_count.
-   */
-  public FrameDesc() {
-  
-    pageNo = new PageId();
-    pageNo.pid = INVALID_PAGE;
-    dirty   = false;
-    pin_cnt = 0;
-    
-  }
-  
-  
-  
-  /** Returns the pin count of a certain frame page. 
-   *
-   * @return the pin count number.
-   */
-  public int pin_count() { return(pin_cnt); }
-  
-  /** Increments the pin count of a certain frame page when the
-   * page is pinned.
-   *
-   * @return the incremented pin count.
-   */
-  public int pin() { return(++pin_cnt); }
-  
-  /** Decrements the pin count of a frame when the page is 
-   * unpinned.  If the pin count is equal to or less than
-   * zero, the pin count will be zero.
-   *
-   * @return the decremented pin count.
-   */
-  public int unpin() {
-    
-    pin_cnt = (pin_cnt <= 0) ? 0 : pin_cnt - 1;
-    
-    return(pin_cnt);
-  }
-}
-
-
-// *****************************************************
-
-/** A buffer hashtable entry description class. It describes 
- * each entry for the buffer hash table, the page number and 
- * frame number for that page, the pointer points to the next
- * hash table entry.
- */
-class BufHTEntry {
-  /** The next entry in this hashtable bucket. */
-  public BufHTEntry next;     
-  
-  /** This page number. */
-  public PageId pageNo = new PageId(); 
-  
-  /** The frame we are stored in. */
-  public int frameNo;  
-}
-
-
-// *****************************************************
-
-/** A buffer hashtable to keep track of pages in the buffer pool. 
- * It inserts, retrieves and removes pages from the h ash table. 
+/** One stripe of the page table of the buffer pool: maps the page
+ * number of each page in the stripe to its frame number. BufMgr splits
+ * the page table into several stripes by page number so that threads
+ * bringing in different pages do not wait on one lock.
+ *
+ * It is an open-addressing table of ints with linear probing, kept at
+ * most half full, so a lookup touches one or two slots and nothing is
+ * allocated per entry. Removal shifts the entries that follow back into
+ * the hole instead of leaving tombstones.
+ *
+ * insert and remove must be called holding the table's monitor. Each
+ * slot holds page and frame number packed in one long, read with an
+ * acquire load and written with a release store, so lookup needs no
+ * lock and always sees a whole (page, frame) pair. Such a lookup may
+ * miss an entry that a concurrent insert or remove is moving, or find
+ * one that was just removed; the caller must treat the answer as a hint
+ * and look again under the lock, or check the frame once it is pinned.
  */
 class BufHashTbl implements GlobalConst{
   
+  /** An empty slot: page INVALID_PAGE in frame -1. */
+  private static final long EMPTY = -1L;
   
-  /** Hash Table size, small number for debugging. */
-  private static final int HTSIZE = 20;   
+  private static final VarHandle SLOT =
+    MethodHandles.arrayElementVarHandle(long[].class);
   
-  
-  /** Each slot holds a linked list of BufHTEntrys, NULL means 
-   * none. 
+  /** (page number << 32) | frame number, or EMPTY. The length is a
+   * power of two. Replaced by a larger array when the table fills up.
    */
-  private BufHTEntry ht[] = new BufHTEntry[HTSIZE];       
+  private volatile long[] slots;
+  
+  /** Number of entries in the table. */
+  private int size;
   
   
-  /** Returns the number of hash bucket used, value between 0 and HTSIZE-1
+  /** Creates a page table stripe.
    *
-   * @param pageNo the page number for the page in file.
-   * @return the bucket number in the hash table.
+   * @param expected the number of pages the stripe should hold
+   *        before it has to grow.
    */
-  private int hash(PageId pageNo)
+  public BufHashTbl(int expected)
     {
-      return (pageNo.pid % HTSIZE);
+      int capacity = 2;
+      while (capacity < 2 * expected)
+	capacity <<= 1;
+      
+      slots = new long[capacity];
+      Arrays.fill(slots, EMPTY);
     }
   
   
-  /** Creates a buffer hash table object. */
-  public BufHashTbl()
+  /** Returns the home slot of a page.
+   *
+   * @param pid the page number for the page in file.
+   * @param mask the number of slots - 1.
+   * @return the slot the probe for pid starts at.
+   */
+  private static int hash(int pid, int mask)
     {
-      for (int i=0; i < HTSIZE; i++)
-	ht[i] = null;
+      return (pid * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
     }
   
   
-  /** Insert association between page pageNo and frame frameNo 
+  /** Insert association between page pid and frame frameNo 
    * into the hash table.
    *
-   * @param pageNo page number in the bucket.
-   * @param frameNo frame number in the bucket.
+   * @param pid page number.
+   * @param frameNo frame number.
    * @return true if successful.
    */
-  public boolean insert(PageId pageNo, int frameNo)
+  public boolean insert(int pid, int frameNo)
     {
+      if (pid == INVALID_PAGE)
+	return false;
       
-      BufHTEntry ent = new BufHTEntry();
-      int index = hash(pageNo);
-      
-      ent.pageNo.pid = pageNo.pid;
-      ent.frameNo = frameNo;
+      if (2 * (size + 1) > slots.length)
+	grow();
       
-      ent.next = ht[index];    // insert this page at the top
-      ht[index] = ent;
+      long[] s = slots;
+      int mask = s.length - 1;
+      long entry = ((long) pid << 32) | (frameNo & 0xffffffffL);
       
-      return true;
+      for (int i = hash(pid, mask); ; i = (i + 1) & mask) {
+	long cur = s[i];
+	if (cur == EMPTY)
+	  size++;
+	else if ((int) (cur >>> 32) != pid)
+	  continue;
+	SLOT.setRelease(s, i, entry);
+	return true;
+      }
     }
   
   
   /** Find a page in the hashtable, return INVALID_PAGE
    * on failure, otherwise the frame number.
-   * @param pageNo page number in the bucket.
+   * @param pid page number.
    */
-  public int lookup(PageId pageNo)
+  public int lookup(int pid)
     {
-      
-      BufHTEntry ent;
-      if (pageNo.pid == INVALID_PAGE)
+      if (pid == INVALID_PAGE)
         return INVALID_PAGE;
       
-      for (ent=ht[hash(pageNo)]; ent!=null; ent=ent.next) {
-        if (ent.pageNo.pid == pageNo.pid) {
-	  return(ent.frameNo);
-        }
+      long[] s = slots;
+      int mask = s.length - 1;
+      for (int i = hash(pid, mask); ; i = (i + 1) & mask) {
+	long cur = (long) SLOT.getAcquire(s, i);
+	if (cur == EMPTY)
+	  return INVALID_PAGE;
+	if ((int) (cur >>> 32) == pid)
+	  return (int) cur;
       }
-      
-      return(INVALID_PAGE);
-      
     }
   
   /** Remove the page from the hashtable.
-   * @param pageNo page number of the bucket.
+   * @param pid page number.
    */
-  public boolean remove(PageId pageNo)
+  public boolean remove(int pid)
     {
-      
-      BufHTEntry cur, prev = null;
-      
       // Allow INVALID_PAGE to be removed all they want.
-      if (pageNo.pid == INVALID_PAGE)
+      if (pid == INVALID_PAGE)
 	return true;
       
-      int indx = hash(pageNo);
-      for (cur=ht[indx]; cur!=null; cur=cur.next) {
-	
-        if (cur.pageNo.pid == pageNo.pid)
+      long[] s = slots;
+      int mask = s.length - 1;
+      int hole = hash(pid, mask);
+      for (;; hole = (hole + 1) & mask) {
+	long cur = s[hole];
+	if (cur == EMPTY) {
+	  System.err.println ("ERROR: Page " + pid
+			      + " was not found in hashtable.\n");
+	  return false;
+	}
+	if ((int) (cur >>> 32) == pid)
 	  break;
-        prev = cur;
       }
       
-      if (cur != null) {
-        if (prev != null)
-	  prev.next = cur.next;
-        else
-	  ht[indx] = cur.next;
-	
-      } else {
-        System.err.println ("ERROR: Page " + pageNo.pid
-			    + " was not found in hashtable.\n");
-        
-	return false;
+      // Move back every later entry of the run whose probe passes the hole
+      for (int i = (hole + 1) & mask; ; i = (i + 1) & mask) {
+	long cur = s[i];
+	if (cur == EMPTY)
+	  break;
+	int home = hash((int) (cur >>> 32), mask);
+	if (((i - home) & mask) >= ((i - hole) & mask)) {
+	  SLOT.setRelease(s, hole, cur);
+	  hole = i;
+	}
       }
+      SLOT.setRelease(s, hole, EMPTY);
+      size--;
       
       return true;
-      
+    }
+  
+  /** Rehashes into twice as many slots. Lock-free readers keep probing
+   * the old array, which is no longer changed, until they next read
+   * slots.
+   */
+  private void grow()
+    {
+      long[] old = slots;
+      long[] s = new long[2 * old.length];
+      Arrays.fill(s, EMPTY);
+      int mask = s.length - 1;
+      for (long cur : old) {
+	if (cur == EMPTY)
+	  continue;
+	int i = hash((int) (cur >>> 32), mask);
+	while (s[i] != EMPTY)
+	  i = (i + 1) & mask;
+	s[i] = cur;
+      }
+      slots = s;
     }
   
   /** Show hashtable contents. */
   public void display() {
-    BufHTEntry cur;
-    
-    System.out.println("HASH Table contents :FrameNo[PageNo]");
-    
-    for (int i=0; i < HTSIZE; i++) {
-      //   System.out.println ( "\nindex: " + i + "-" );
-      if (ht[i] != null) {
-	
-	for (cur=ht[i]; cur!=null; cur=cur.next) {
-	  System.out.println(cur.frameNo + "[" + cur.pageNo.pid + "]-");
-	}
-	System.out.println("\t\t");
-	
-      } 
-      else {
-	System.out.println("NONE\t");
-      }
+    long[] s = slots;
+    for (int i=0; i < s.length; i++) {
+      if (s[i] != EMPTY)
+	System.out.println((int) s[i] + "[" + (int) (s[i] >>> 32) + "]-");
     }
-    System.out.println("");
-    
   }
   
 }
@@ -236,9 +203,16 @@ class BufHashTbl implements GlobalConst{
 /** A clock algorithm for buffer pool replacement policy. 
  * It picks up the frame in the buffer pool to be replaced. 
  * This is the default replacement policy.
+ *
+ * Several threads can sweep at once: each step takes the next frame off
+ * a shared atomic hand, and a frame only becomes a victim once the
+ * sweeping thread has claimed it.
  */
 class Clock extends Replacer {
   
+  /** The clock hand; taken modulo the number of frames. */
+  private final AtomicInteger hand = new AtomicInteger(-1);
+  
   /** Creates a clock object. */
   public Clock(BufMgr javamgr)
     {
@@ -247,47 +221,39 @@ class Clock extends Replacer {
     }
   
   /** Picks up the victim frame to be replaced according to
-   * the clock algorithm.  Pin the victim so that other
-   * process can not pick it as a victim.
+   * the clock algorithm: an unpinned frame that was not referenced
+   * since the hand last passed it. Claims the victim so that other
+   * threads can neither pin it nor pick it as a victim.
    *
-   * @return -1 if no frame is available.
-   *         head of the list otherwise.
-   * @throws BufferPoolExceededException.
+   * @return the claimed frame.
+   * @throws BufferPoolExceededException if two sweeps of the pool
+   *         found no victim.
    */
   public int pick_victim() 
     throws BufferPoolExceededException, 
 	   PagePinnedException 
     {
-      int num = 0;
       int numBuffers = mgr.getNumBuffers();
+      FrameDesc[] frames = mgr.frameTable();
       
-      head = (head+1) % numBuffers;
-      while ( state_bit[head].state != Available ) {
-	if ( state_bit[head].state == Referenced )
-	  state_bit[head].state = Available;
+      for (int num = 0; num <= 2*numBuffers; num++) {
+	int i = Math.floorMod(hand.incrementAndGet(), numBuffers);
 	
-	if ( num == 2*numBuffers ) {
-	  
-	  throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
-	  
+	if (frames[i].pin_count() != 0)
+	  continue;
+	
+	if ( state_bit[i].state != Available ) {
+	  state_bit[i].state = Available;   // second chance
+	  continue;
+	}
+	
+	if (frames[i].claim(0)) {
+	  state_bit[i].state = Pinned;
+	  return i;
 	}
-	++num;
-	head = (head+1) % numBuffers;
-      }
-      
-      // Make sure pin count is 0.
-      /** need to convert assert to a similar function. */
-      // assert( (mgr.frameTable())[head].pin_count() == 0 );
-      
-      if ((mgr.frameTable())[head].pin_count() != 0) {
-    	throw new PagePinnedException (null, "BUFMGR: PIN_COUNT IS NOT 0.");
       }
       
-      state_bit[head].state = Pinned;        // Pin this victim so that other
-      (mgr.frameTable())[head].pin();    
-      // process can't pick it as victim (???)
-      
-      return head;
+      throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
     }
   
   /** Returns the name of the clock algorithm as a string.
@@ -300,7 +266,8 @@ class Clock extends Replacer {
   public void info()
     {
       super.info();
-      System.out.println ("Clock hand:\t" + head);
+      System.out.println ("Clock hand:\t"
+			  + Math.floorMod(hand.get(), mgr.getNumBuffers()));
       System.out.println ("\n\n");
     }
   
@@ -313,17 +280,53 @@ class Clock extends Replacer {
  * buffer pool, pins and unpins the frame, frees the frame 
  * page, and uses the replacement algorithm to replace the 
  * page.
+ *
+ * The buffer manager can be shared by many threads. Pinning a page
+ * that is in the pool takes no lock: the page table is looked up
+ * without locking and the frame's pin count is raised atomically, then
+ * the frame is checked to still hold the page. Bringing a page in
+ * first reserves the page's entry in the page table under that stripe's
+ * lock; only the thread that made the reservation then claims a victim
+ * frame from the replacer, writes it back if it is dirty, and points the
+ * entry at the frame. Threads missing on the same page meanwhile wait
+ * for the entry instead of taking frames of their own. The page is then
+ * read holding the frame's latch, outside every lock, so two threads
+ * pinning the same missing page cause one read and one eviction.
+ * The latches are always taken after the stripe locks are released,
+ * and no bufmgr lock is held while calling into the DB.
  */
 public class BufMgr implements GlobalConst{
   
-  /** The hash table, only allocated once. */
-  private BufHashTbl hashTable = new BufHashTbl(); 
+  /** The most page table stripes. */
+  private static final int MAX_STRIPES = 64;
+  
+  /** The frame number in the page table entry of a page that a thread
+   * is finding a frame for.
+   */
+  private static final int RESERVED = -2;
+  
+  /** The most pages written together when flushing. */
+  private static final int MAX_WRITE_RUN = 64;
+  
+  /** The largest direct buffer the off-heap frames are sliced from. */
+  private static final int MAX_ARENA_BYTES = 1 << 30;
+  
+  /** The page table, split by page number into stripes; only
+   * allocated once.
+   */
+  private BufHashTbl[] hashTable; 
+  
+  /** hashTable.length - 1; the number of stripes is a power of two. */
+  private int stripeMask;
   
   /** Total number of buffer frames in the buffer pool. */
   private int  numBuffers;	
   
-  /** physical buffer pool. */
-  private byte[][] bufPool;  // default = byte[NUMBUF][MAX_SPACE];
+  /** physical buffer pool, or null if its frames are off-heap. */
+  private byte[][] bufPool;  // default = byte[NUMBUF][page size];
+  
+  /** The frames sliced from direct buffers, if they are off-heap. */
+  private ByteBuffer[] offHeapPool;
                          
   /** An array of Descriptors one per frame. */
   private FrameDesc[] frmeTable;  // default = new FrameDesc[NUMBUF];
@@ -331,8 +334,23 @@ public class BufMgr implements GlobalConst{
   /** The replacer object, which is only used in this class. */
   private Replacer replacer;
   
+  /** Told of every pinPage, or null. */
+  private volatile PinTrace pinTrace;
+  
+  /** Receives the page number of every pinPage call, for recording
+   * page reference traces.
+   */
+  public interface PinTrace {
+    void pinned(int pid);
+  }
+  
   
   /** Factor out the common code for the two versions of Flush 
+   *
+   * A dirty page that is not pinned is written and taken out of the
+   * pool. A dirty page that is pinned is written and stays in the pool.
+   * The dirty pages are written in page order, and pages in a row are
+   * written together, MAX_WRITE_RUN at most.
    *
    * @param pageid the page number of the page which needs 
    *        to be flushed.
@@ -357,47 +375,155 @@ public class BufMgr implements GlobalConst{
       int i;
       int unpinned = 0;
       
-      for (i=0; i < numBuffers; i++)   // write all valid dirty pages to disk
-	if ( (all_pages !=0) || (frmeTable[i].pageNo.pid == pageid.pid)) {
+      // The dirty pages, as page number and frame number, by page number
+      long[] dirty = new long[numBuffers];
+      int numDirty = 0;
+      
+      for (i=0; i < numBuffers; i++) {
+	FrameDesc frame = frmeTable[i];
+	int pid = frame.pageNo.pid;
+	if ( (all_pages !=0) || (pid == pageid.pid)) {
 	  
-	  if ( frmeTable[i].pin_count() != 0 )
+	  if ( frame.pin_count() != 0 )
 	    unpinned++;
 	  
-	  if ( frmeTable[i].dirty != false ) {
-	    
-	    if(frmeTable[i].pageNo.pid == INVALID_PAGE)
-	      
+	  if ( frame.dirty != false ) {
+	    if(pid == INVALID_PAGE)
 	      throw new PageNotFoundException( null, "BUFMGR: INVALID_PAGE_NO");
-	    pageid.pid = frmeTable[i].pageNo.pid;
-	    
-	    
-	    Page apage = new Page(bufPool[i]);
-	    
-	    write_page(pageid, apage);
-	    
-	    try {
-	      hashTable.remove(pageid);
-	    }
-	    
-	    catch (Exception e2){
-	      throw new HashOperationException(e2, "BUFMGR: HASH_TBL_ERROR.");
-	    }
-	    
-	    frmeTable[i].pageNo.pid = INVALID_PAGE; // frame is empty
-	    frmeTable[i].dirty = false ;
+	    dirty[numDirty++] = ((long) pid << 32) | i;
 	  }
+	}
+      }
+      
+      Arrays.sort(dirty, 0, numDirty);
+      
+      int start = 0;
+      while (start < numDirty) {
+	int end = start + 1;
+	while (end < numDirty && end - start < MAX_WRITE_RUN
+	       && (int) (dirty[end] >>> 32) == (int) (dirty[end-1] >>> 32) + 1)
+	  end++;
+	flushRun(dirty, start, end);
+	start = end;
+      }
+      
+      if (unpinned != 0) 
+	throw new PagePinnedException (null, "BUFMGR: PAGE_PINNED.");
+    }
+  
+  
+  /** Writes the pages of dirty[start] to dirty[end-1], pages in a row
+   * sorted by page number, with as few writes as can be.
+   *
+   * Each frame is held while it is written: claimed if it is not
+   * pinned, else pinned too. A frame another thread has claimed is
+   * being replaced, and that thread writes it; one that holds another
+   * page, or is clean by now, is skipped. Claimed frames are emptied.
+   */
+  private void flushRun(long[] dirty, int start, int end)
+    throws HashOperationException, 
+	   BufMgrException
+    {
+      int n = end - start;
+      int[] frames = new int[n];
+      boolean[] claimed = new boolean[n];
+      boolean[] held = new boolean[n];
+      
+      try {
+	for (int j = 0; j < n; j++) {
+	  frames[j] = (int) dirty[start + j];
+	  FrameDesc frame = frmeTable[frames[j]];
+	  claimed[j] = frame.claim(0);
+	  held[j] = claimed[j] || frame.pin();
+	  if ( held[j] && (frame.pageNo.pid != (int) (dirty[start + j] >>> 32)
+			   || frame.dirty == false) ) {
+	    release(frame, claimed[j]);
+	    held[j] = false;
+	  }
+	}
+	
+	// Write each row of frames still held together. A page pinned by
+	// another thread may be changed again while it is written; its
+	// unpin then marks it dirty again.
+	Page[] pages = new Page[n];
+	int j = 0;
+	while (j < n) {
+	  if (!held[j]) {
+	    j++;
+	    continue;
+	  }
+	  int k = j + 1;
+	  while (k < n && held[k]
+		 && (int) (dirty[start + k] >>> 32) == (int) (dirty[start + k - 1] >>> 32) + 1)
+	    k++;
 	  
-	  if (all_pages == 0) {
-	    
-	    if (unpinned != 0) 
-	      throw new PagePinnedException (null, "BUFMGR: PAGE_PINNED.");
+	  for (int f = j; f < k; f++) {
+	    frmeTable[frames[f]].dirty = false;
+	    pages[f - j] = framePage(frames[f]);
+	  }
+	  try {
+	    PageId first = new PageId((int) (dirty[start + j] >>> 32));
+	    if (k - j == 1)
+	      write_page(first, pages[0]);
+	    else
+	      write_pages(first, pages, k - j);
+	  }
+	  catch (BufMgrException e) {
+	    for (int f = j; f < k; f++)
+	      frmeTable[frames[f]].dirty = true;
+	    throw e;
+	  }
+	  
+	  for (int f = j; f < k; f++) {
+	    if (claimed[f]) {
+	      FrameDesc frame = frmeTable[frames[f]];
+	      BufHashTbl table = stripe(frame.pageNo.pid);
+	      synchronized (table) {
+		if (!table.remove(frame.pageNo.pid))
+		  throw new HashOperationException(null, "BUFMGR: HASH_TBL_ERROR.");
+	      }
+	      frame.pageNo.pid = INVALID_PAGE; // frame is empty
+	      frame.loaded = false;
+	    }
 	  }
+	  j = k;
 	}
-      
-      if (all_pages != 0) {
-	if (unpinned != 0) 
-	  throw new PagePinnedException (null, "BUFMGR: PAGE_PINNED.");
       }
+      finally {
+	for (int j = 0; j < n; j++) {
+	  if (held[j])
+	    release(frmeTable[frames[j]], claimed[j]);
+	}
+      }
+    }
+  
+  
+  /** Lets go of a frame held by flushRun. */
+  private static void release(FrameDesc frame, boolean claimed)
+    {
+      if (claimed)
+	frame.release(0);
+      else
+	frame.unpin();
+    }
+  
+  
+  /** A page over a frame, to read or write it. */
+  private Page framePage(int frameNo)
+    {
+      if (offHeapPool != null)
+	return new Page(offHeapPool[frameNo]);
+      return new Page(bufPool[frameNo]);
+    }
+  
+  
+  /** Points page at a frame it has pinned. */
+  private void attach(Page page, int frameNo)
+    {
+      if (offHeapPool != null)
+	page.setpage(offHeapPool[frameNo]);
+      else
+	page.setpage(bufPool[frameNo]);
     }
   
   
@@ -405,15 +531,56 @@ public class BufMgr implements GlobalConst{
    * Create a buffer manager object.
    *
    * @param numbufs number of buffers in the buffer pool.
-   * @param replacerArg name of the buffer replacement policy.
+   * @param replacerArg name of the buffer replacement policy: "Clock"
+   *        (the default), "LRU", "MRU", "2Q", "ARC", or "LRU-K" (LRU-2)
+   *        and "LRU-1" to "LRU-9".
    */
   public BufMgr( int numbufs, String replacerArg )
+    {
+      this(numbufs, replacerArg, false);
+    }
+  
+  
+  /** 
+   * Create a buffer manager object.
+   *
+   * @param numbufs number of buffers in the buffer pool.
+   * @param replacerArg name of the buffer replacement policy, as above.
+   * @param offHeap whether the frames are kept off the Java heap, in
+   *        direct buffers, so the garbage collector neither scans nor
+   *        moves them and pages are read and written straight into
+   *        them. Pages pinned from such a pool have no byte array
+   *        (Page.getpage() is null) and are used through the Page
+   *        accessors.
+   */
+  public BufMgr( int numbufs, String replacerArg, boolean offHeap )
   	
     {
       
       numBuffers = numbufs;  
-      frmeTable = new FrameDesc[numBuffers];
-      bufPool = new byte[numBuffers][MAX_SPACE];
+      
+      int stripes = 1;
+      while (stripes < 4 * Runtime.getRuntime().availableProcessors()
+	     && stripes < MAX_STRIPES)
+	stripes <<= 1;
+      hashTable = new BufHashTbl[stripes];
+      for (int i=0; i<stripes; i++)
+	hashTable[i] = new BufHashTbl(numBuffers / stripes + 1);
+      stripeMask = stripes - 1;
+      
+      int pageSize = SystemDefs.JavabasePageSize;
+      if (offHeap) {
+	offHeapPool = new ByteBuffer[numBuffers];
+	int perArena = Math.max(1, MAX_ARENA_BYTES / pageSize);
+	for (int i = 0; i < numBuffers; i += perArena) {
+	  int n = Math.min(perArena, numBuffers - i);
+	  ByteBuffer arena = ByteBuffer.allocateDirect(n * pageSize);
+	  for (int j = 0; j < n; j++)
+	    offHeapPool[i + j] = arena.slice(j * pageSize, pageSize);
+	}
+      }
+      else
+	bufPool = new byte[numBuffers][pageSize];
       frmeTable = new FrameDesc[numBuffers];
       
       for (int i=0; i<numBuffers; i++)  // initialize frameTable
@@ -437,9 +604,28 @@ public class BufMgr implements GlobalConst{
 	  }
 	else if(replacerArg.compareTo("MRU")==0)
 	  {
-	    replacer = new LRU(this);
+	    replacer = new MRU(this);
 	    System.out.println("Replacer: MRU\n");
 	  }
+	else if(replacerArg.compareTo("2Q")==0)
+	  {
+	    replacer = new TwoQ(this);
+	    System.out.println("Replacer: 2Q\n");
+	  }
+	else if(replacerArg.compareTo("ARC")==0)
+	  {
+	    replacer = new ARC(this);
+	    System.out.println("Replacer: ARC\n");
+	  }
+	else if(replacerArg.compareTo("LRU-K")==0
+		|| replacerArg.matches("LRU-[1-9]"))
+	  {
+	    // "LRU-K" means LRU-2
+	    int k = replacerArg.endsWith("K") ? 2
+	      : replacerArg.charAt(4) - '0';
+	    replacer = new LRUK(this, k);
+	    System.out.println("Replacer: LRU-" + k + "\n");
+	  }
 	else
 	  {
 	    replacer = new Clock(this);
@@ -454,7 +640,69 @@ public class BufMgr implements GlobalConst{
   
   private void bmhashdisplay()
     {
-      hashTable.display();
+      System.out.println("HASH Table contents :FrameNo[PageNo]");
+      for (BufHashTbl table : hashTable) {
+	synchronized (table) {
+	  table.display();
+	}
+      }
+      System.out.println("");
+    }
+  
+  
+  /** Returns the page table stripe that holds a page.
+   *
+   * @param pid the page number.
+   * @return the stripe for pid.
+   */
+  private BufHashTbl stripe(int pid)
+    {
+      return hashTable[pid & stripeMask];
+    }
+  
+  
+  /** Finds the frame of a page, looking again under the stripe lock
+   * if the lock-free lookup misses.
+   *
+   * @param pid the page number.
+   * @return the frame number, or INVALID_PAGE if the page is not in
+   *         the pool.
+   */
+  private int lookup(int pid)
+    {
+      BufHashTbl table = stripe(pid);
+      int frameNo = table.lookup(pid);
+      if (frameNo < 0) {
+	synchronized (table) {
+	  frameNo = awaitFrame(table, pid);
+	}
+      }
+      return frameNo;
+    }
+  
+  
+  /** Looks up a page, waiting while its entry is reserved. Must be
+   * called holding the table's monitor.
+   *
+   * @param table the page's stripe.
+   * @param pid the page number.
+   * @return the frame number, or INVALID_PAGE.
+   */
+  private static int awaitFrame(BufHashTbl table, int pid)
+    {
+      boolean interrupted = false;
+      int frameNo;
+      while ((frameNo = table.lookup(pid)) == RESERVED) {
+	try {
+	  table.wait();
+	}
+	catch (InterruptedException e) {
+	  interrupted = true;
+	}
+      }
+      if (interrupted)
+	Thread.currentThread().interrupt();
+      return frameNo;
     }
   
   
@@ -490,87 +738,179 @@ public class BufMgr implements GlobalConst{
 	   BufMgrException,
 	   IOException
     { 
+      int     pid = pin_pgid.pid;
       int     frameNo;
-      boolean bst, bst2; 
-      PageId  oldpageNo = new PageId(-1);
-      int     needwrite = 0;
       
-      frameNo = hashTable.lookup(pin_pgid);
+      if (pid == INVALID_PAGE)
+	throw new PageNotReadException (null, "BUFMGR: INVALID_PAGE_NO.");
+      
+      PinTrace trace = pinTrace;
+      if (trace != null)
+	trace.pinned(pid);
       
-      if (frameNo < 0) {           // Not in the buffer pool
+      BufHashTbl table = stripe(pid);
+      
+      for (;;) {
+	
+	frameNo = table.lookup(pid);
 	
-	frameNo = replacer.pick_victim(); // frameNo is pinned
-	if (frameNo < 0) { 
-	  page = null; 
-	  throw new ReplacerException (null, "BUFMGR: REPLACER_ERROR.");  
+	if (frameNo >= 0) {        // the page is in the buffer pool
 	  
+	  if (pinResident(frameNo, pid)) {
+	    attach(page, frameNo);
+	    return;
+	  }
+	  continue;                // it was being replaced; look again
 	}
 	
-	if ((frmeTable[frameNo].pageNo.pid != INVALID_PAGE)
-	    && (frmeTable[frameNo].dirty == true) ) {
-	  needwrite = 1;
-	  oldpageNo.pid = frmeTable[frameNo].pageNo.pid;
-	}
+	// Not in the buffer pool: reserve its entry, or wait for the
+	// thread that has
 	
-	bst = hashTable.remove(frmeTable[frameNo].pageNo);
-	if (bst != true) {
-	  throw new HashOperationException (null, "BUFMGR: HASH_TABLE_ERROR.");
+	synchronized (table) {
+	  if (awaitFrame(table, pid) != INVALID_PAGE)
+	    continue;              // brought in meanwhile
+	  if (table.insert(pid, RESERVED) != true)
+	    throw new HashOperationException (null, "BUFMGR: HASH_TABLE_ERROR.");
 	}
 	
-	frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
-	frmeTable[frameNo].dirty = false;             // not dirty
-	
-	bst2 = hashTable.insert(pin_pgid,frameNo);
-	
-	(frmeTable[frameNo].pageNo).pid = pin_pgid.pid;
-	frmeTable[frameNo].dirty = false;
-	
-	if (bst2 != true){	
-	  throw new HashOperationException (null, "BUFMGR: HASH_TABLE_ERROR.");
+	FrameDesc frame = null;
+	try {
+	  frameNo = replacer.pick_victim(); // frameNo is claimed
+	  if (frameNo < 0) { 
+	    page = null; 
+	    throw new ReplacerException (null, "BUFMGR: REPLACER_ERROR.");  
+	    
+	  }
+	  
+	  evict(frameNo);
+	  
+	  synchronized (table) {
+	    frmeTable[frameNo].pageNo.pid = pid;
+	    frmeTable[frameNo].dirty = false;
+	    frmeTable[frameNo].loaded = emptyPage;
+	    if (emptyPage == false)
+	      frmeTable[frameNo].latch.lock();
+	    
+	    table.insert(pid, frameNo); // replaces the reservation
+	    frmeTable[frameNo].release(1); // pinned by this thread
+	    frame = frmeTable[frameNo];
+	    table.notifyAll();
+	  }
 	}
-	
-	Page apage = new Page(bufPool[frameNo]);
-	if (needwrite == 1) {	
-	  write_page(oldpageNo, apage);	 	
-	} // end of needwrite..
+	finally {
+	  if (frame == null) {
+	    synchronized (table) {
+	      table.remove(pid);
+	      table.notifyAll();
+	    }
+	  }
+	}
+	replacer.loaded(frameNo);
 	
 	// read in the page if not empty
 	if (emptyPage == false){
 	  try {
-	    apage.setpage(bufPool[frameNo]);
-	    
-	    read_page(pin_pgid, apage);
+	    read_page(pin_pgid, framePage(frameNo));
+	    frame.loaded = true;
 	  }
 	  catch (Exception e) {
 	    
-
-	    bst = hashTable.remove(frmeTable[frameNo].pageNo);
-	    if (bst != true)
-	      throw new HashOperationException (e, "BUFMGR: HASH_TABLE_ERROR.");
-	    
-	    frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
-	    frmeTable[frameNo].dirty = false;
+	    synchronized (table) {
+	      if (table.remove(pid) != true)
+		throw new HashOperationException (e, "BUFMGR: HASH_TABLE_ERROR.");
+	    }
 	    
-	    bst = replacer.unpin(frameNo);
+	    frame.pageNo.pid = INVALID_PAGE; // frame is empty
+	    frame.dirty = false;
+	    frame.latch.unlock();
 	    
-	    if (bst != true)
+	    if (replacer.unpin(frameNo) != true)
 	      throw new ReplacerException (e, "BUFMGR: REPLACER_ERROR.");
 	    
 	    throw new PageNotReadException (e, "BUFMGR: DB_READ_PAGE_ERROR.");
 	  } 
-	  
+	  frame.latch.unlock();
 	}
 	
-        page.setpage(bufPool[frameNo]);
-	
-        // return true;
-	
-      } else {    // the page is in the buffer pool ( frameNo > 0 )
-	
-	page.setpage(bufPool[frameNo]);
-	replacer.pin(frameNo);
-	
+        attach(page, frameNo);
+	return;
+      }
+    }
+  
+  
+  /** Pins a page found in the page table without a lock. Fails if the
+   * frame is claimed or no longer holds the page; waits if another
+   * thread is still reading the page in.
+   *
+   * @param frameNo the frame the page table gave for pid.
+   * @param pid the page number.
+   * @return true if the page is pinned in frameNo.
+   */
+  private boolean pinResident(int frameNo, int pid)
+    throws InvalidFrameNumberException
+    {
+      FrameDesc frame = frmeTable[frameNo];
+      
+      if (!frame.pin()) {
+	Thread.yield();            // let the claiming thread finish
+	return false;
+      }
+      
+      if (frame.pageNo.pid != pid) {
+	frame.unpin();
+	return false;
+      }
+      
+      if (!frame.loaded) {
+	frame.latch.lock();        // wait for the read
+	frame.latch.unlock();
+	if (!frame.loaded || frame.pageNo.pid != pid) {
+	  frame.unpin();
+	  return false;
+	}
       }
+      
+      replacer.pin(frameNo);
+      return true;
+    }
+  
+  
+  /** Empties a claimed frame: writes its page back if it is dirty and
+   * takes it out of the page table. The frame stays claimed, unless
+   * the write fails.
+   *
+   * @param frameNo a frame claimed by this thread.
+   */
+  private void evict(int frameNo)
+    throws HashOperationException, BufMgrException
+    {
+      FrameDesc frame = frmeTable[frameNo];
+      int oldpid = frame.pageNo.pid;
+      
+      if (oldpid == INVALID_PAGE)
+	return;
+      
+      if (frame.dirty == true) {
+	try {
+	  write_page(new PageId(oldpid), framePage(frameNo));
+	}
+	catch (BufMgrException e) {
+	  frame.release(0);
+	  throw e;
+	}
+	frame.dirty = false;
+      }
+      
+      BufHashTbl oldTable = stripe(oldpid);
+      synchronized (oldTable) {
+	if (oldTable.remove(oldpid) != true) {
+	  frame.release(0);
+	  throw new HashOperationException (null, "BUFMGR: HASH_TABLE_ERROR.");
+	}
+      }
+      
+      frame.pageNo.pid = INVALID_PAGE; // frame is empty
+      frame.loaded = false;
     }
   
   /** 
@@ -596,7 +936,7 @@ public class BufMgr implements GlobalConst{
       
       int frameNo;
       
-      frameNo=hashTable.lookup(PageId_in_a_DB);
+      frameNo=lookup(PageId_in_a_DB.pid);
       
       if (frameNo<0){
 	throw new HashEntryNotFoundException (null, "BUFMGR: HASH_NOT_FOUND.");
@@ -607,13 +947,14 @@ public class BufMgr implements GlobalConst{
 	
       }
       
+      // Set before the unpin, so whoever replaces the page sees it
+      if (dirty == true)
+	frmeTable[frameNo].dirty = dirty;
+      
       if ((replacer.unpin(frameNo)) != true) {
 	throw new ReplacerException (null, "BUFMGR: REPLACER_ERROR.");
       }
       
-      if (dirty == true)
-	frmeTable[frameNo].dirty = dirty;
-      
     }
   
   
@@ -679,6 +1020,46 @@ public class BufMgr implements GlobalConst{
    }
   
   
+  /** Call DB object to allocate one new page from the run of pages a
+   * file has set aside, and pin it as newPage does.
+   *
+   * @param page the address of the page.
+   * @param extent the file's run of pages.
+   * @return the page id of the new page, or null if it could not be pinned.
+   *
+   * @exception BufMgrException other error occured in bufmgr layer
+   * @exception DiskMgrException other error occured in diskmgr layer
+   * @exception IOException if there is other kinds of I/O error.  
+   */
+  public PageId newPage(Page page, PageExtent extent)
+    throws BufMgrException,
+	   DiskMgrException,
+	   IOException
+   {
+     PageId pageId = new PageId();
+     
+     try {
+       SystemDefs.JavabaseDB.allocate_page(pageId, extent);
+     }
+     catch (Exception e) {
+       throw new BufMgrException(e,"BufMgr.java: allocate_page() failed");
+     }
+     
+     try{
+       pinPage(pageId,page,true);
+     }
+     
+     // rollback because pin failed
+     
+     catch (Exception e) {
+       deallocate_page(pageId);
+       return null;
+     }
+     
+     return pageId;
+   }
+  
+  
   /** User should call this method if she needs to delete a page.
    * this routine will call DB to deallocate the page.
    * 
@@ -711,30 +1092,44 @@ public class BufMgr implements GlobalConst{
 	      DiskMgrException,
 	      IOException
     {
+      int pid = globalPageId.pid;
       int frameNo;
-      frameNo = hashTable.lookup(globalPageId); 
-
-      //if globalPageId is not in pool, frameNo < 0 
-      //then call deallocate 
-      if (frameNo < 0){
-	deallocate_page(globalPageId);
+      
+      for (;;) {
+	frameNo = lookup(pid); 
 	
-	return;
-      }
-      if (frameNo >= (int)numBuffers){
-	throw new InvalidBufferException(null, "BUFMGR, BAD_BUFFER"); 
+	//if globalPageId is not in pool, frameNo < 0 
+	//then call deallocate 
+	if (frameNo < 0){
+	  deallocate_page(globalPageId);
+	  
+	  return;
+	}
+	if (frameNo >= (int)numBuffers){
+	  throw new InvalidBufferException(null, "BUFMGR, BAD_BUFFER"); 
+	  
+	}
 	
+	int count;
+	try{
+	  count = replacer.free(frameNo);
+	}
+	catch(Exception e1){
+	  throw new ReplacerException(e1, "BUFMGR, REPLACER_ERROR");
+	}
+	
+	if (frmeTable[frameNo].pageNo.pid == pid)
+	  break;
+	
+	// The frame was given to another page before it was claimed
+	frmeTable[frameNo].release(count);
       }
       
-      try{
-	replacer.free(frameNo);
-      }
-      catch(Exception e1){
-	throw new ReplacerException(e1, "BUFMGR, REPLACER_ERROR");
-      }
-      
+      BufHashTbl table = stripe(pid);
       try {
-	hashTable.remove(frmeTable[frameNo].pageNo);
+	synchronized (table) {
+	  table.remove(pid);
+	}
       }
       catch (Exception e2){
 	throw new HashOperationException(e2, "BUFMGR, HASH_TABLE_ERROR");
@@ -742,6 +1137,8 @@ public class BufMgr implements GlobalConst{
       
       frmeTable[frameNo].pageNo.pid = INVALID_PAGE; // frame is empty
       frmeTable[frameNo].dirty = false;
+      frmeTable[frameNo].loaded = false;
+      frmeTable[frameNo].release(0);
       
       
       deallocate_page(globalPageId);
@@ -792,6 +1189,41 @@ public class BufMgr implements GlobalConst{
     }
   
   
+  /** Starts reading pages that are about to be pinned, unless they
+   * are in the pool, so that pinning them need not wait for the disk.
+   * It is only a hint and may be ignored.
+   *
+   * @param pids the page numbers.
+   * @param count how many of them there are.
+   */
+  public void prefetchPages(int[] pids, int count)
+    {
+      int[] missing = new int[count];
+      int n = 0;
+      for (int i = 0; i < count; i++) {
+	if (stripe(pids[i]).lookup(pids[i]) == INVALID_PAGE)
+	  missing[n++] = pids[i];
+      }
+      if (n > 0)
+	SystemDefs.JavabaseDB.read_ahead(missing, n);
+    }
+  
+  
+  /** Starts or stops telling a trace of every page pinned; the trace
+   * is called from the pinning thread.
+   *
+   * @param trace the trace, or null to stop.
+   */
+  public void setPinTrace(PinTrace trace) { pinTrace = trace; }
+  
+  
+  /** Returns the name of the replacement policy in use.
+   *
+   * @return the replacer's name.
+   */
+  public String replacerName() { return replacer.name(); }
+  
+  
   /** Gets the total number of buffers.
    *
    * @return total number of buffer frames.
@@ -799,6 +1231,13 @@ public class BufMgr implements GlobalConst{
   public int getNumBuffers() { return numBuffers; }
   
   
+  /** Tells whether the frames are kept off the Java heap.
+   *
+   * @return true if pages pinned from this pool have no byte array.
+   */
+  public boolean isOffHeap() { return offHeapPool != null; }
+  
+  
   /** Gets the total number of unpinned buffer frames.
    * 
    * @return total number of unpinned buffer frames.
@@ -823,6 +1262,18 @@ public class BufMgr implements GlobalConst{
     
   } // end of write_page
 
+  private void write_pages (PageId pageno, Page[] pages, int count)
+    throws BufMgrException {
+    
+    try {
+      SystemDefs.JavabaseDB.write_pages(pageno, pages, count);
+    }
+    catch (Exception e) {
+      throw new BufMgrException(e,"BufMgr.java: write_pages() failed");
+    }
+    
+  } // end of write_pages
+
   private void read_page (PageId pageno, Page page)
     throws BufMgrException {
     
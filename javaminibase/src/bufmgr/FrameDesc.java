@@ -0,0 +1,134 @@
+/*  File FrameDesc.java */
+
+package bufmgr;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+import global.*;
+
+/** A frame description class. It describes each page in the buffer
+ * pool, the page number in the file, whether it is dirty or not,
+ * its pin count, and the pin count change when pinning or unpinning 
+ * a page.
+ *
+ * The pin count is atomic so threads can pin and unpin a resident page
+ * without a lock. A thread that wants to replace, free or flush the page
+ * claims the frame: it swaps an expected pin count for CLAIMED, and no
+ * one can pin the frame until it puts a count back. pageNo and dirty are
+ * only changed by the thread that claimed the frame or that put the page
+ * in it; the volatile pin count orders those writes for the pinners.
+ */
+class FrameDesc implements GlobalConst{
+  
+  /** Pin count of a frame that a thread is replacing or freeing. */
+  static final int CLAIMED = -1;
+  
+  /** The page within file, or INVALID_PAGE if the frame is empty. */
+  public PageId pageNo;     
+  
+  /** the dirty bit, 1 (TRUE) stands for this frame is altered,
+   *0 (FALSE) for clean frames.
+   */
+  public volatile boolean dirty;     
+  
+  /** False from the time a page is put in the frame until it has been
+   * read from disk.
+   */
+  volatile boolean loaded;
+  
+  /** Held by the thread reading a page into the frame; threads that pin
+   * the page meanwhile wait on it instead of reading the page again.
+   */
+  final ReentrantLock latch;
+                         
+  /** The pin count for the page in this frame, or CLAIMED; only
+   * changed through PIN_CNT.
+   */
+  private volatile int pin_cnt;   
+  
+  private static final VarHandle PIN_CNT;
+  static {
+    try {
+      PIN_CNT = MethodHandles.lookup()
+	.findVarHandle(FrameDesc.class, "pin_cnt", int.class);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** Creates a FrameDesc object, initialize pageNo, dirty and 
+   * pin_count.
+   */
+  public FrameDesc() {
+  
+    pageNo = new PageId();
+    pageNo.pid = INVALID_PAGE;
+    dirty   = false;
+    loaded  = false;
+    latch   = new ReentrantLock();
+    pin_cnt = 0;
+    
+  }
+  
+  
+  
+  /** Returns the pin count of a certain frame page. A claimed frame
+   * counts as pinned once.
+   *
+   * @return the pin count number.
+   */
+  public int pin_count() {
+    int c = pin_cnt;
+    return (c == CLAIMED) ? 1 : c;
+  }
+  
+  /** Increments the pin count of a certain frame page when the
+   * page is pinned, unless the frame is claimed.
+   *
+   * @return true if the frame was pinned, false if it is claimed.
+   */
+  public boolean pin() {
+    for (;;) {
+      int c = pin_cnt;
+      if (c == CLAIMED)
+	return false;
+      if (PIN_CNT.compareAndSet(this, c, c + 1))
+	return true;
+    }
+  }
+  
+  /** Decrements the pin count of a frame when the page is 
+   * unpinned.
+   *
+   * @return the decremented pin count, or -1 if the page was not
+   *         pinned.
+   */
+  public int unpin() {
+    for (;;) {
+      int c = pin_cnt;
+      if (c <= 0)
+	return -1;
+      if (PIN_CNT.compareAndSet(this, c, c - 1))
+	return c - 1;
+    }
+  }
+  
+  /** Claims the frame if its pin count is expected.
+   *
+   * @param expected the pin count the frame must have.
+   * @return true if the frame is now claimed by the caller.
+   */
+  public boolean claim(int expected) {
+    return PIN_CNT.compareAndSet(this, expected, CLAIMED);
+  }
+  
+  /** Ends a claim, leaving the frame with the given pin count.
+   *
+   * @param count the new pin count.
+   */
+  public void release(int count) {
+    pin_cnt = count;
+  }
+}
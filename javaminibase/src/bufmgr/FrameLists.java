@@ -0,0 +1,131 @@
+/* File FrameLists.java */
+
+package bufmgr;
+
+/**
+ * A few doubly linked lists over the frames of the buffer pool, with
+ * each frame on at most one of them. The replacers that keep frames in
+ * recency order (2Q, ARC, LRU-K) use it: adding, moving or removing a
+ * frame is O(1) and allocates nothing.
+ *
+ * It is not thread safe; the replacer using it must hold its own lock.
+ */
+class FrameLists {
+
+  /** list() of a frame that is on no list; also the end of a list. */
+  public static final int NONE = -1;
+
+  private final int prev[];
+  private final int next[];
+  private final int list[];
+
+  private final int head[];
+  private final int tail[];
+  private final int size[];
+
+  /**
+   * Class constructor
+   * @param numFrames the number of frames in the buffer pool
+   * @param numLists  the number of lists, numbered from 0
+   */
+  public FrameLists(int numFrames, int numLists)
+  {
+    prev = new int[numFrames];
+    next = new int[numFrames];
+    list = new int[numFrames];
+    head = new int[numLists];
+    tail = new int[numLists];
+    size = new int[numLists];
+
+    java.util.Arrays.fill(list, NONE);
+    java.util.Arrays.fill(head, NONE);
+    java.util.Arrays.fill(tail, NONE);
+  }
+
+  /**
+   * @param frameNo a frame
+   * @return the list the frame is on, or NONE
+   */
+  public int list(int frameNo) { return list[frameNo]; }
+
+  /**
+   * @param l a list
+   * @return the number of frames on it
+   */
+  public int size(int l) { return size[l]; }
+
+  /**
+   * @param l a list
+   * @return the frame at its front, or NONE if it is empty
+   */
+  public int first(int l) { return head[l]; }
+
+  /**
+   * @param frameNo a frame on some list
+   * @return the frame after it on that list, or NONE
+   */
+  public int next(int frameNo) { return next[frameNo]; }
+
+  /**
+   * Moves a frame to the back of a list, taking it off the list it
+   * was on.
+   * @param l       the list
+   * @param frameNo the frame
+   */
+  public void addLast(int l, int frameNo)
+  {
+    remove(frameNo);
+    prev[frameNo] = tail[l];
+    next[frameNo] = NONE;
+    if (tail[l] == NONE)
+      head[l] = frameNo;
+    else
+      next[tail[l]] = frameNo;
+    tail[l] = frameNo;
+    list[frameNo] = l;
+    size[l]++;
+  }
+
+  /**
+   * Moves a frame to the front of a list, taking it off the list it
+   * was on.
+   * @param l       the list
+   * @param frameNo the frame
+   */
+  public void addFirst(int l, int frameNo)
+  {
+    remove(frameNo);
+    next[frameNo] = head[l];
+    prev[frameNo] = NONE;
+    if (head[l] == NONE)
+      tail[l] = frameNo;
+    else
+      prev[head[l]] = frameNo;
+    head[l] = frameNo;
+    list[frameNo] = l;
+    size[l]++;
+  }
+
+  /**
+   * Takes a frame off its list, if it is on one.
+   * @param frameNo the frame
+   */
+  public void remove(int frameNo)
+  {
+    int l = list[frameNo];
+    if (l == NONE)
+      return;
+
+    if (prev[frameNo] == NONE)
+      head[l] = next[frameNo];
+    else
+      next[prev[frameNo]] = next[frameNo];
+    if (next[frameNo] == NONE)
+      tail[l] = prev[frameNo];
+    else
+      prev[next[frameNo]] = prev[frameNo];
+
+    list[frameNo] = NONE;
+    size[l]--;
+  }
+}
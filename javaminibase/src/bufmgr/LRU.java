@@ -11,40 +11,17 @@ import global.*;
    */
 class LRU extends  Replacer {
 
-  /**
-   * private field
-   * An array to hold number of frames in the buffer pool
+  /** Lists of frames: empty ones, and the rest from least to most
+   * recently used.
    */
+  private static final int FREE = 0;
+  private static final int USED = 1;
 
-    private int  frames[];
- 
-  /**
-   * private field
-   * number of frames used
-   */   
-  private int  nframes;
-
-  /**
-   * This pushes the given frame to the end of the list.
-   * @param frameNo	the frame number
-   */
-  private void update(int frameNo)
-  {
-     int index;
-     for ( index=0; index < nframes; ++index )
-        if ( frames[index] == frameNo )
-            break;
-
-    while ( ++index < nframes )
-        frames[index-1] = frames[index];
-        frames[nframes-1] = frameNo;
-  }
+  private FrameLists lists;
 
   /**
    * Calling super class the same method
-   * Initializing the frames[] with number of buffer allocated
-   * by buffer manager
-   * set number of frame used to zero
+   * Puts every frame on the empty list.
    *
    * @param	mgr	a BufMgr object
    * @see	BufMgr
@@ -53,26 +30,28 @@ class LRU extends  Replacer {
     public void setBufferManager( BufMgr mgr )
      {
         super.setBufferManager(mgr);
-	frames = new int [ mgr.getNumBuffers() ];
-	nframes = 0;
+        int numBuffers = mgr.getNumBuffers();
+
+        lists = new FrameLists(numBuffers, 2);
+        for ( int i = 0; i < numBuffers; ++i )
+          lists.addLast(FREE, i);
      }
 
 /* public methods */
 
   /**
    * Class constructor
-   * Initializing frames[] pinter = null.
    */
     public LRU(BufMgr mgrArg)
     {
       super(mgrArg);
-      frames = null;
     }
   
   /**
    * calll super class the same method
-   * pin the page in the given frame number 
-   * move the page to the end of list  
+   * and records the hit; the page is moved to the end of the list
+   * when the hit is applied (see Replacer.applyHits), so pinning
+   * takes no lock.
    *
    * @param	 frameNo	 the frame number to pin
    * @exception  InvalidFrameNumberException
@@ -81,42 +60,44 @@ class LRU extends  Replacer {
  {
     super.pin(frameNo);
 
-    update(frameNo);
-    
+    recordHit(frameNo);
+ }
+
+  /**
+   * Moves a page that was hit to the end of the list.
+   *
+   * @param	frameNo	the frame number
+   * @param	count	the number of hits
+   */
+ protected void hit(int frameNo, int count)
+ {
+    if ( lists.list(frameNo) == USED )
+      lists.addLast(USED, frameNo);
  }
 
   /**
    * Finding a free frame in the buffer pool
-   * or choosing a page to replace using LRU policy
+   * or choosing a page to replace using LRU policy,
+   * and claiming it
    *
    * @return 	return the frame number
-   *		return -1 if failed
+   * @exception BufferPoolExceededException if every frame is pinned
    */
 
- public int pick_victim()
+ public synchronized int pick_victim() throws BufferPoolExceededException
  {
-   int numBuffers = mgr.getNumBuffers();
-   int frame;
-   
-    if ( nframes < numBuffers ) {
-        frame = nframes++;
-        frames[frame] = frame;
-        state_bit[frame].state = Pinned;
-        (mgr.frameTable())[frame].pin();
-        return frame;
-    }
-
-    for ( int i = 0; i < numBuffers; ++i ) {
-         frame = frames[i];
-        if ( state_bit[frame].state != Pinned ) {
-            state_bit[frame].state = Pinned;
-            (mgr.frameTable())[frame].pin();
-            update(frame);
-            return frame;
-        }
-    }
-
-    return -1;
+    applyHits();
+
+    int frame = claimFirst(lists, FREE);
+    if ( frame < 0 )
+      frame = claimFirst(lists, USED);
+    if ( frame < 0 )
+      throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+    forgetHit(frame);
+    lists.addLast(USED, frame);
+    state_bit[frame].state = Pinned;
+    return frame;
  }
  
   /**
@@ -135,10 +116,11 @@ class LRU extends  Replacer {
 
     System.out.print( "LRU REPLACEMENT");
     
-    for (int i = 0; i < nframes; i++) {
+    int i = 0;
+    for (int f = lists.first(USED); f != FrameLists.NONE; f = lists.next(f), i++) {
         if (i % 5 == 0)
 	System.out.println( );
-	System.out.print( "\t" + frames[i]);
+	System.out.print( "\t" + f);
         
     }
     System.out.println();
@@ -0,0 +1,240 @@
+/* File LRUK.java */
+
+package bufmgr;
+
+import java.util.*;
+import global.*;
+
+  /**
+   * class LRUK is a subclass of class Replacer using the LRU-K algorithm
+   * (O'Neil, O'Neil and Weikum, SIGMOD 1993) for page replacement.
+   *
+   * The replacer keeps the times of the last K uses of each page and
+   * replaces the page whose K-th most recent use is the oldest. Pages
+   * used fewer than K times go first, least recently used first, so a
+   * page seen once by a scan is replaced before any page that was used
+   * K times. The history of a replaced page is kept for as many pages
+   * as there are frames, so a page read again soon picks it back up.
+   *
+   * Pinning a page that is already pinned is a correlated use, part of
+   * the same operation, and does not count.
+   */
+class LRUK extends Replacer {
+
+  /** Lists of frames: empty ones, and pages used fewer than K times. */
+  private static final int FREE = 0;
+  private static final int YOUNG = 1;
+
+  private final int k;
+
+  private FrameLists lists;
+
+  /** hist[f][i] is the time of the (i+1)-th most recent use of the
+   * page in frame f, or 0 if it was used fewer times.
+   */
+  private long hist[][];
+
+  /** Frames whose page was used K times, by the time of its K-th
+   * most recent use.
+   */
+  private TreeMap<Long, Integer> old;
+
+  /** Histories of pages no longer in the pool, oldest first. */
+  private LinkedHashMap<Integer, long[]> retained;
+
+  /** Logical time; counts uses. */
+  private long clock;
+
+  /**
+   * Class constructor
+   * @param mgrArg a BufMgr object
+   * @param k      the number of uses remembered per page, at least 1
+   */
+  public LRUK(BufMgr mgrArg, int k)
+  {
+    super(mgrArg);
+    this.k = Math.max(1, k);
+  }
+
+  /**
+   * Calling super class the same method
+   * Puts every frame on the empty list with no history.
+   *
+   * @param mgr a BufMgr object
+   */
+  public void setBufferManager( BufMgr mgr )
+  {
+    super.setBufferManager(mgr);
+    final int numBuffers = mgr.getNumBuffers();
+
+    lists = new FrameLists(numBuffers, 2);
+    for ( int i = 0; i < numBuffers; ++i )
+      lists.addLast(FREE, i);
+
+    hist = new long[numBuffers][k];
+    old = new TreeMap<Long, Integer>();
+    retained = new LinkedHashMap<Integer, long[]>() {
+      protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+        return size() > numBuffers;
+      }
+    };
+    clock = 0;
+  }
+
+  /**
+   * call super class the same method
+   * and records a hit, unless the page was already pinned; the hit
+   * is counted as a use when it is applied (see Replacer.applyHits),
+   * so pinning takes no lock.
+   *
+   * @param frameNo the frame number to pin
+   * @exception InvalidFrameNumberException
+   */
+  public void pin(int frameNo) throws InvalidFrameNumberException
+  {
+    super.pin(frameNo);
+
+    if ( (mgr.frameTable())[frameNo].pin_count() == 1 )
+      recordHit(frameNo);
+  }
+
+  /**
+   * Records a use of a page for each hit on it; more than K of them
+   * leave nothing of its older history.
+   *
+   * @param frameNo the frame of the page
+   * @param count the number of hits
+   */
+  protected void hit(int frameNo, int count)
+  {
+    if ( lists.list(frameNo) == FREE )
+      return;
+    for ( int i = Math.min(count, k); i > 0; --i )
+      use(frameNo);
+  }
+
+  /**
+   * Restores the history of a page just read, if it is retained, and
+   * records a use.
+   *
+   * @param frameNo the frame of the page
+   */
+  public synchronized void loaded(int frameNo)
+  {
+    applyHits();
+    int pid = (mgr.frameTable())[frameNo].pageNo.pid;
+    long[] h = retained.remove(pid);
+
+    if ( h != null )
+      System.arraycopy(h, 0, hist[frameNo], 0, k);
+    else
+      Arrays.fill(hist[frameNo], 0);
+
+    use(frameNo);
+  }
+
+  /**
+   * call super class the same method
+   * and puts the frame on the empty list.
+   *
+   * @param frameNo the frame of the page to free
+   * @exception PagePinnedException if the page is pinned
+   */
+  public synchronized int free(int frameNo) throws PagePinnedException
+  {
+    applyHits();
+    int count = super.free(frameNo);
+    forget(frameNo);
+    return count;
+  }
+
+  /**
+   * Picks an empty frame if there is one. Otherwise the least recently
+   * used page among those used fewer than K times, else the page whose
+   * K-th most recent use is the oldest. Claims its frame and retains
+   * its history.
+   *
+   * @return the frame number
+   * @exception BufferPoolExceededException if every frame is pinned
+   */
+  public synchronized int pick_victim() throws BufferPoolExceededException
+  {
+    applyHits();
+    int frame = claimFirst(lists, FREE);
+
+    if ( frame < 0 )
+      frame = claimFirst(lists, YOUNG);
+
+    if ( frame < 0 ) {
+      FrameDesc[] frames = mgr.frameTable();
+      for ( int f : old.values() ) {
+        if ( frames[f].claim(0) ) {
+          frame = f;
+          break;
+        }
+      }
+    }
+
+    if ( frame < 0 )
+      throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+    int pid = (mgr.frameTable())[frame].pageNo.pid;
+    if ( pid != INVALID_PAGE && hist[frame][0] != 0 )
+      retained.put(pid, hist[frame].clone());
+
+    forgetHit(frame);
+    forget(frame);
+    state_bit[frame].state = Pinned;
+    return frame;
+  }
+
+  /** Records a use of the page in a frame at the next time. */
+  private void use(int frameNo)
+  {
+    long[] h = hist[frameNo];
+
+    if ( h[k-1] != 0 )
+      old.remove(h[k-1]);
+
+    System.arraycopy(h, 0, h, 1, k - 1);
+    h[0] = ++clock;
+
+    if ( h[k-1] != 0 ) {
+      lists.remove(frameNo);
+      old.put(h[k-1], frameNo);
+    }
+    else {
+      lists.addLast(YOUNG, frameNo);
+    }
+  }
+
+  /** Puts a frame on the empty list with no history. */
+  private void forget(int frameNo)
+  {
+    long[] h = hist[frameNo];
+    if ( h[k-1] != 0 )
+      old.remove(h[k-1]);
+    Arrays.fill(h, 0);
+    lists.addFirst(FREE, frameNo);
+  }
+
+  /**
+   * get the page replacement policy name
+   *
+   * @return return the name of replacement policy used
+   */
+  public String name() { return "LRU-" + k; }
+
+  /**
+   * print out the information of frame usage
+   */
+  public void info()
+  {
+    super.info();
+
+    System.out.println( "LRU-" + k + " REPLACEMENT\tused < K " + lists.size(YOUNG)
+                        + "\tused K " + old.size()
+                        + "\tretained " + retained.size());
+  }
+
+}
@@ -13,19 +13,19 @@ class MRU extends Replacer {
 
 /* private fields and methods */
 
-  /** 
-   * private field
-   * An array to hold number of frames in the buffer pool
+  /** Lists of frames: empty ones, and the rest from most to least
+   * recently used.
    */
- private int frames[];
+  private static final int FREE = 0;
+  private static final int USED = 1;
+
+  private FrameLists lists;
 
 
 /**
  * 
  * Calling super class the same method
- * Initializing the frames[] with number of buffer allocated
- * by buffer manager
- * set each element of frame[] < 0
+ * Puts every frame on the empty list.
  *
  * @param     mgr      Buffer manager
  * @see       BufMgr
@@ -37,58 +37,38 @@ class MRU extends Replacer {
      super.setBufferManager(mgr);
 
     int numBuffers = mgr.getNumBuffers();
-    frames = new int[numBuffers];
-
+    lists = new FrameLists(numBuffers, 2);
     for ( int index = 0; index < numBuffers; ++index )
-        frames[index] = -index;
-
-    frames[0] = -numBuffers;
+        lists.addLast(FREE, index);
 }
  
 /** 
  * Class constructor
- * Initializing frames[] pointer = null.
  */
 
 public  MRU(BufMgr mgrArg)
 {
    super(mgrArg);
-   frames = null;
-   
 }
  
  
 /**
- * Adding the frame with given frame number to buffer pool
- * putting it in front of the list
+ * Puts a page that was hit in front of the list.
  *
  * @param	frameNo	 the frame number
- * @see 	BufMgr
+ * @param	count	 the number of hits
  */
 
- private void update(int frameNo)
+ protected void hit(int frameNo, int count)
  {
-     int index;
-     int numBuffers=mgr.getNumBuffers();
-    for ( index=0; index < numBuffers; ++index )
-        if ( frames[index] < 0  ||  frames[index] == frameNo )
-            break;
-
-
-    // If buffer pool is not yet full, add this frame to it...
-    if ( frames[index] < 0 )
-        frames[index] = frameNo;
-
-    int frame = frames[index];
-    while ( index-- >0)
-      frames[index+1] = frames[index];
-        
-	frames[0] = frame;
+    if ( lists.list(frameNo) == USED )
+        lists.addFirst(USED, frameNo);
  }  
  
 /** 
  * pin the page with the given frame number
- * update the buffer pool
+ * and record the hit, which is applied to the list later
+ * (see Replacer.applyHits) so pinning takes no lock
  *
  * @param       frameNo  the frame number to pin
  * @@exception  InvalidFrameNumberException
@@ -98,47 +78,34 @@ public void pin(int frameNo) throws InvalidFrameNumberException
 {
     super.pin(frameNo);
 
-    update(frameNo);
+    recordHit(frameNo);
 }
 
   /** 
    * Finding a free frame in the buffer pool
-   * or choosing a page to replace using MRU policy
+   * or choosing a page to replace using MRU policy,
+   * and claiming it
    * Update the buffer pool
    * @return    return the frame number
-   *            return -1 if No victims found
+   * @exception BufferPoolExceededException if No victims found
    */
  
     
-public int pick_victim()
+public synchronized int pick_victim() throws BufferPoolExceededException
 {
-   int numBuffers = mgr.getNumBuffers();
-   int i, frame;
-   
-    for ( i = 0; i < numBuffers; ++i )
-        if (frames[i] < 0) {
-            if ( i == 0 )
-                frames[i] = 0;
-            else
-                frames[i] *= -1;
-            frame = frames[i];
-            state_bit[frame].state = Pinned;
-            (mgr.frameTable())[frame].pin();
-            update(frame);
-            return frame;
-        }
-  
-    for ( i = 0; i < numBuffers; ++i ) {
-         frame = frames[i];
-        if ( state_bit[frame].state != Pinned ) {
-            state_bit[frame].state = Pinned;
-            (mgr.frameTable())[frame].pin();
-            update(frame);
-            return frame;
-        }
-       }
-      
-       return -1;   // No victims found!!
+    applyHits();
+
+    int frame = claimFirst(lists, FREE);
+    if ( frame < 0 )
+        frame = claimFirst(lists, USED);
+    if ( frame < 0 )
+       // No victims found!!
+       throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+    forgetHit(frame);
+    lists.addFirst(USED, frame);
+    state_bit[frame].state = Pinned;
+    return frame;
 }
   
 /** 
@@ -159,10 +126,11 @@ public int pick_victim()
 
     System.out.print( "MRU REPLACEMENT");
     
-    for (int i = 0; i < mgr.getNumBuffers(); i++) {
+    int i = 0;
+    for (int f = lists.first(USED); f != FrameLists.NONE; f = lists.next(f), i++) {
         if (i % 5 == 0)
 	System.out.println();
-	System.out.print( "\t" + frames[i]);
+	System.out.print( "\t" + f);
         
     }
     System.out.println();
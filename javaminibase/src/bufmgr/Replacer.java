@@ -1,5 +1,8 @@
 package bufmgr;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 import global.*;
 
 /** This interface assocaites with the replace algorithm,
@@ -8,6 +11,7 @@ import global.*;
  */
   class STATE {
   
+    // Only a hint to the replacer, so threads may race on it
     int state; 
    //  Available = 12;
    //  Referenced = 13;
@@ -25,12 +29,12 @@ import global.*;
 abstract class Replacer implements GlobalConst 
 {
 
-  /** Pins a candidate page in the buffer pool.
+  /** Records that the page in a frame was pinned. The caller has
+   * already raised the frame's pin count.
    *
    * @param frameNo frame number of the page.
    * @throws InvalidFrameNumberException if the frame number is less than zero
    *                        or bigger than number of buffers.
-   * @return true if successful.
    */
   public void pin( int frameNo ) throws InvalidFrameNumberException 
   {
@@ -41,8 +45,81 @@ abstract class Replacer implements GlobalConst
     }
 
 
-    (mgr.frameTable())[frameNo].pin();
-    state_bit[frameNo].state = Pinned;
+    if (state_bit[frameNo].state != Pinned)
+      state_bit[frameNo].state = Pinned;
+  }
+
+  /** Records a hit on the page in a frame, for applyHits to hand to
+   * the policy later. Takes no lock: it only stores the time of the
+   * hit and counts it in the frame's own slots, so pinning resident
+   * pages from many threads does not serialize on the replacer.
+   *
+   * @param frameNo frame number of the page.
+   */
+  protected void recordHit( int frameNo )
+  {
+    hitTimes.set(frameNo, System.nanoTime() - epoch);
+    if (hitCounts.getAndIncrement(frameNo) == 0 && !hitsPending)
+      hitsPending = true;
+  }
+
+  /** Calls hit() for every frame recorded by recordHit since the last
+   * call, in the order of each frame's last hit, so the policy sees the
+   * hits in the order they happened. The caller holds the policy's lock; policies call
+   * it before they look at their lists.
+   */
+  protected void applyHits()
+  {
+    if (!hitsPending)
+      return;
+    hitsPending = false;
+
+    int numBuffers = hitTimes.length();
+    int n = 0;
+    long oldest = Long.MAX_VALUE;
+    for ( int f = 0; f < numBuffers; ++f ) {
+      if (hitCounts.get(f) == 0)
+        continue;
+      hitFrames[n] = f;
+      hitOrder[n] = hitTimes.get(f);
+      oldest = Math.min(oldest, hitOrder[n++]);
+    }
+
+    // Sort by time since the oldest hit, with the frame in the low bits
+    int bits = 32 - Integer.numberOfLeadingZeros(numBuffers);
+    long most = (1L << (63 - bits)) - 1;
+    for ( int i = 0; i < n; ++i )
+      hitOrder[i] = (Math.min(hitOrder[i] - oldest, most) << bits) | hitFrames[i];
+    Arrays.sort(hitOrder, 0, n);
+
+    int mask = (1 << bits) - 1;
+    for ( int i = 0; i < n; ++i ) {
+      int f = (int) (hitOrder[i] & mask);
+      int count = hitCounts.getAndSet(f, 0);
+      if (count > 0)             // unless forgetHit took them meanwhile
+        hit(f, count);
+    }
+  }
+
+  /** Drops a hit recorded for a frame the caller has just claimed, so
+   * that it is not taken for a hit on the next page in the frame.
+   *
+   * @param frameNo frame number of the page.
+   */
+  protected void forgetHit( int frameNo )
+  {
+    hitCounts.set(frameNo, 0);
+  }
+
+  /** Tells the policy of the hits recorded by recordHit on a frame;
+   * called by applyHits with the policy's lock held. Policies that
+   * order pages by use override it.
+   *
+   * @param frameNo frame number of the page.
+   * @param count the number of hits, at least 1.
+   */
+  protected void hit( int frameNo, int count )
+  {
   }
 
   /** Unpins a page in the buffer pool.
@@ -61,42 +138,78 @@ abstract class Replacer implements GlobalConst
       
     }
 
-    if ((mgr.frameTable())[frameNo].pin_count() == 0) {
+    int count = (mgr.frameTable())[frameNo].unpin();
+
+    if (count < 0) {
   
       throw new PageUnpinnedException (null, "BUFMGR: PAGE_NOT_PINNED.");
 
     }
 
-    (mgr.frameTable())[frameNo].unpin();
-
-    if ((mgr.frameTable())[frameNo].pin_count() == 0)
+    if (count == 0)
         state_bit[frameNo].state = Referenced;
     return true;
 
   }
 
 
-  /** Frees and unpins a page in the buffer pool.
+  /** Claims a frame whose page is to be freed. The page may be pinned
+   * once, by the caller.
    *
    * @param frameNo frame number of the page.
+   * @return the pin count the frame had.
    * @throws PagePinnedException if the page is pinned.
    */
-  public void free( int frameNo ) throws PagePinnedException
+  public int free( int frameNo ) throws PagePinnedException
   {
-  
-      if ( (mgr.frameTable())[frameNo].pin_count() > 1 ) {
-    
-	 throw new PagePinnedException (null, "BUFMGR: PAGE_PINNED.");
-	
-      }
+    FrameDesc frame = (mgr.frameTable())[frameNo];
+    int count;
 
-    (mgr.frameTable())[frameNo].unpin();
-    state_bit[frameNo].state = Available;
+    if ( frame.claim(1) )
+      count = 1;
+    else if ( frame.claim(0) )
+      count = 0;
+    else
+      throw new PagePinnedException (null, "BUFMGR: PAGE_PINNED.");
 
+    state_bit[frameNo].state = Available;
+    forgetHit(frameNo);
+    return count;
   }
   
 
-  /** Must pin the returned frame. */
+  /** Tells the replacer that a new page was put in a frame it picked
+   * with pick_victim; the page number is in the frame's descriptor.
+   * The frame is pinned once. Policies that remember pages, not just
+   * frames, override it.
+   *
+   * @param frameNo frame number of the page.
+   */
+  public void loaded( int frameNo )
+  {
+  }
+
+
+  /** Claims the first frame on a list that is not pinned.
+   *
+   * @param lists the replacer's frame lists.
+   * @param l the list to search.
+   * @return the claimed frame, or -1 if every frame on the list is pinned.
+   */
+  protected int claimFirst( FrameLists lists, int l )
+  {
+    FrameDesc[] frames = mgr.frameTable();
+    for ( int f = lists.first(l); f != FrameLists.NONE; f = lists.next(f) )
+      if ( frames[f].claim(0) )
+        return f;
+    return -1;
+  }
+
+
+  /** Must claim the returned frame (FrameDesc.claim), so that no other
+   * thread pins it or picks it as a victim. May be called by several
+   * threads at once.
+   */
   public abstract int pick_victim() throws BufferPoolExceededException, PagePinnedException;     
  
   /** Retruns the name of the replacer algorithm. */
@@ -159,6 +272,10 @@ abstract class Replacer implements GlobalConst
     for(int i=0; i<numbuf; i++)
     	state_bit[i] = new STATE();
     head = -1;
+    hitTimes = new AtomicLongArray(numbuf);
+    hitCounts = new AtomicIntegerArray(numbuf);
+    hitOrder = new long[numbuf];
+    hitFrames = new int[numbuf];
   }
   
   /** A buffer manager object. */
@@ -197,6 +314,22 @@ abstract class Replacer implements GlobalConst
   
   /** The state of a frame. */
   protected STATE state_bit[];
+
+  /** Per frame, the time of the last hit recorded, counted from epoch,
+   * and the number of hits applyHits has not taken yet.
+   */
+  private AtomicLongArray hitTimes;
+  private AtomicIntegerArray hitCounts;
+
+  /** Set by recordHit, cleared by applyHits. */
+  private volatile boolean hitsPending;
+
+  /** When the replacer was made. */
+  private final long epoch = System.nanoTime();
+
+  /** Scratch space for applyHits. */
+  private long hitOrder[];
+  private int hitFrames[];
   
   public static final int Available = 12;
   public static final int Referenced = 13;
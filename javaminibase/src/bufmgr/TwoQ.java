@@ -0,0 +1,180 @@
+/* File TwoQ.java */
+
+package bufmgr;
+
+import java.util.*;
+import global.*;
+
+  /**
+   * class TwoQ is a subclass of class Replacer using the 2Q algorithm
+   * (Johnson and Shasha, VLDB 1994) for page replacement.
+   *
+   * A page read into the pool goes on A1in, a FIFO that gets about a
+   * quarter of the frames. The page numbers of pages pushed out of A1in
+   * are remembered on A1out for a while; a page read again while it is
+   * still on A1out has been wanted twice, and goes on Am, an LRU list of
+   * the hot pages. Pages used once, like those of a sequential scan,
+   * pass through A1in and leave Am alone.
+   */
+class TwoQ extends Replacer {
+
+  /** Lists of frames: empty ones, A1in and Am. */
+  private static final int FREE = 0;
+  private static final int A1IN = 1;
+  private static final int AM = 2;
+
+  private FrameLists lists;
+
+  /** Page numbers recently pushed out of A1in, oldest first. */
+  private LinkedHashSet<Integer> a1out;
+
+  /** Target size of A1in, and most page numbers kept on A1out. */
+  private int kin;
+  private int kout;
+
+  /**
+   * Class constructor
+   * @param mgrArg a BufMgr object
+   */
+  public TwoQ(BufMgr mgrArg)
+  {
+    super(mgrArg);
+  }
+
+  /**
+   * Calling super class the same method
+   * Puts every frame on the empty list and sizes A1in to a quarter
+   * of the frames and A1out to half.
+   *
+   * @param mgr a BufMgr object
+   */
+  public void setBufferManager( BufMgr mgr )
+  {
+    super.setBufferManager(mgr);
+    int numBuffers = mgr.getNumBuffers();
+
+    lists = new FrameLists(numBuffers, 3);
+    for ( int i = 0; i < numBuffers; ++i )
+      lists.addLast(FREE, i);
+
+    a1out = new LinkedHashSet<Integer>();
+    kin = Math.max(1, numBuffers / 4);
+    kout = Math.max(1, numBuffers / 2);
+  }
+
+  /**
+   * call super class the same method
+   * and records the hit, without taking the replacer's lock.
+   *
+   * @param frameNo the frame number to pin
+   * @exception InvalidFrameNumberException
+   */
+  public void pin(int frameNo) throws InvalidFrameNumberException
+  {
+    super.pin(frameNo);
+
+    recordHit(frameNo);
+  }
+
+  /**
+   * Moves a page on Am that was hit to its back; pages on A1in stay
+   * in FIFO order.
+   *
+   * @param frameNo the frame of the page
+   * @param count the number of hits
+   */
+  protected void hit(int frameNo, int count)
+  {
+    if ( lists.list(frameNo) == AM )
+      lists.addLast(AM, frameNo);
+  }
+
+  /**
+   * Puts a page just read on Am if it was on A1out, else on A1in.
+   *
+   * @param frameNo the frame of the page
+   */
+  public synchronized void loaded(int frameNo)
+  {
+    applyHits();
+    int pid = (mgr.frameTable())[frameNo].pageNo.pid;
+
+    if ( a1out.remove(pid) )
+      lists.addLast(AM, frameNo);
+    else
+      lists.addLast(A1IN, frameNo);
+  }
+
+  /**
+   * call super class the same method
+   * and puts the frame on the empty list.
+   *
+   * @param frameNo the frame of the page to free
+   * @exception PagePinnedException if the page is pinned
+   */
+  public synchronized int free(int frameNo) throws PagePinnedException
+  {
+    applyHits();
+    int count = super.free(frameNo);
+    lists.addFirst(FREE, frameNo);
+    return count;
+  }
+
+  /**
+   * Picks an empty frame if there is one. Otherwise takes the oldest
+   * page off A1in while A1in is over its size, else the least recently
+   * used page of Am, and claims its frame.
+   *
+   * @return the frame number
+   * @exception BufferPoolExceededException if every frame is pinned
+   */
+  public synchronized int pick_victim() throws BufferPoolExceededException
+  {
+    applyHits();
+    int frame = claimFirst(lists, FREE);
+
+    if ( frame < 0 && lists.size(A1IN) > kin )
+      frame = claimFirst(lists, A1IN);
+    if ( frame < 0 )
+      frame = claimFirst(lists, AM);
+    if ( frame < 0 )
+      frame = claimFirst(lists, A1IN);
+    if ( frame < 0 )
+      throw new BufferPoolExceededException (null, "BUFMGR: BUFFER_EXCEEDED.");
+
+    int pid = (mgr.frameTable())[frame].pageNo.pid;
+    if ( lists.list(frame) == A1IN && pid != INVALID_PAGE ) {
+      a1out.add(pid);
+      if ( a1out.size() > kout ) {
+        Iterator<Integer> oldest = a1out.iterator();
+        oldest.next();
+        oldest.remove();
+      }
+    }
+
+    forgetHit(frame);
+    lists.addFirst(FREE, frame);
+    state_bit[frame].state = Pinned;
+    return frame;
+  }
+
+  /**
+   * get the page replacement policy name
+   *
+   * @return return the name of replacement policy used
+   */
+  public String name() { return "2Q"; }
+
+  /**
+   * print out the information of frame usage
+   */
+  public void info()
+  {
+    super.info();
+
+    System.out.println( "2Q REPLACEMENT\tA1in " + lists.size(A1IN)
+                        + "\tAm " + lists.size(AM)
+                        + "\tA1out " + a1out.size());
+  }
+
+}
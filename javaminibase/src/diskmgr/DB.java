@@ -3,14 +3,15 @@
 package diskmgr;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import bufmgr.*;
 import global.*;
 
 public class DB implements GlobalConst {
 
   
-  private static final int bits_per_page = MAX_SPACE * 8;
-  
   
   /** Open the database with the given name.
    *
@@ -36,8 +37,17 @@ public class DB implements GlobalConst {
         throw new FileNotFoundException("Database file not found: " + fname);
     }
     
+    // The buffer pool's frames must be this database's pages
+    page_size = page_size(fname);
+    if (page_size != SystemDefs.JavabasePageSize)
+      throw new DiskMgrException(null, "DB page size " + page_size
+				 + ", buffer pool page size " + SystemDefs.JavabasePageSize);
+    bits_per_page = page_size * 8;
+    
     // Creaat a random access file
     fp = new RandomAccessFile(fname, "rw");
+    channel = fp.getChannel();
+    readAhead = new ReadAhead(this);
     
     PageId pageId = new PageId();
     Page apage = new Page();
@@ -53,6 +63,42 @@ public class DB implements GlobalConst {
     num_pages = firstpg.getNumDBPages();
     
     unpinPage(pageId, false /* undirty*/);
+    
+    space_map = null;		// read from the map pages when first needed
+    next_fit = 0;
+  }
+  
+  /** Find the page size of an existing database. Its first page
+   * records the size, next to the number of pages, at the end of the
+   * page; so each page size is tried in turn, and the size is the one
+   * that is recorded where a page that size would record it. A database
+   * with no recorded size has the default page size.
+   *
+   * @param fname DB name
+   * @return the page size, in bytes
+   *
+   * @exception FileNotFoundException no such database
+   * @exception IOException I/O errors
+   */
+  public static int page_size(String fname)
+    throws IOException {
+    
+    RandomAccessFile f = new RandomAccessFile(fname, "r");
+    try {
+      long length = f.length();
+      byte[] head = new byte[(int)Math.min(length, MINIBASE_MAX_PAGESIZE)];
+      f.readFully(head);
+      for (int size = MINIBASE_MIN_PAGESIZE; size <= head.length; size <<= 1) {
+	int pages = Convert.getIntValue(size - DBFirstPage.NUM_DB_PAGE, head);
+	if (Convert.getIntValue(size - DBFirstPage.PAGE_SIZE, head) == size
+	    && pages > 0 && (long)pages * size <= length)
+	  return size;
+      }
+      return MINIBASE_PAGESIZE;
+    }
+    finally {
+      f.close();
+    }
   }
   
   /** default constructor.
@@ -62,7 +108,8 @@ public class DB implements GlobalConst {
   
   /** DB Constructors.
    * Create a database with the specified number of pages where the page
-   * size is the default page size.
+   * size is the buffer pool's, SystemDefs.JavabasePageSize. The page
+   * size is recorded in the first page.
    *
    * @param name DB name
    * @param num_pages number of pages in DB
@@ -80,6 +127,8 @@ public class DB implements GlobalConst {
 
     name = new String(fname);
     num_pages = (num_pgs > 2) ? num_pgs : 2;
+    page_size = SystemDefs.JavabasePageSize;
+    bits_per_page = page_size * 8;
 
     File DBfile = new File(name);
 
@@ -87,6 +136,8 @@ public class DB implements GlobalConst {
     // Create a random access file. "rw" mode creates the file if it doesn't exist.
     try {
         fp = new RandomAccessFile(fname, "rw");
+        channel = fp.getChannel();
+        readAhead = new ReadAhead(this);
     } catch (IOException e) {
         // Log failure details if RandomAccessFile creation fails (e.g., permissions)
         throw e; // Re-throw the original exception
@@ -94,7 +145,7 @@ public class DB implements GlobalConst {
 
     // Make the file num_pages pages long, filled with zeroes.
     // Seek to the last byte of the last page and write a zero.
-    fp.seek((long)num_pages*MINIBASE_PAGESIZE -1);
+    fp.seek((long)num_pages*page_size -1);
     fp.writeByte(0);
 
     // Initialize space map and directory pages.
@@ -105,12 +156,14 @@ public class DB implements GlobalConst {
     Page apage = new Page();
     // Pin the page, marking it as empty (true) since we are initializing it, not reading existing content.
     pinPage(pageId, apage, true /*emptyPage*/);
+    apage.clearpage();
 
     // Treat the pinned page as the first page structure
     DBFirstPage firstpg = new DBFirstPage(apage);
 
-    // Write the total number of pages into the header
+    // Write the total number of pages and the page size into the header
     firstpg.setNumDBPages(num_pages);
+    firstpg.setPageSize(page_size);
 
     // Unpin the first page, marking it as dirty (true) so changes are written back.
     unpinPage(pageId, true /*dirty*/);
@@ -120,6 +173,18 @@ public class DB implements GlobalConst {
     // Reserve pages 0 (header) and 1 onwards for the space map.
     int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
 
+    // Clear the map pages, which hold whatever an old file there had,
+    // and start the cached map empty to match
+    for (int i = 1; i <= num_map_pages; i++) {
+      PageId mapId = new PageId(i);
+      Page mapPage = new Page();
+      pinPage(mapId, mapPage, true /*emptyPage*/);
+      mapPage.clearpage();
+      unpinPage(mapId, true /*dirty*/);
+    }
+    space_map = new long[(num_pages + 63) >>> 6];
+    next_fit = 0;
+
     // Mark the header page (0) and all space map pages (1 to num_map_pages) as allocated (bit = 1)
     // The run starts at page 0 and has a size of 1 (header) + num_map_pages.
     set_bits(new PageId(0), 1 + num_map_pages, 1); // Pass PageId(0) as start, and bit value 1
@@ -145,7 +210,8 @@ public class DB implements GlobalConst {
     DBfile.delete();
   }
   
-  /** Read the contents of the specified page into a Page object
+  /** Read the contents of the specified page into a Page object.
+   * A page read ahead is copied from where it was staged.
    *
    * @param pageno pageId which will be read
    * @param apage page object which holds the contents of page
@@ -162,21 +228,37 @@ public class DB implements GlobalConst {
   if((pageno.pid < 0)||(pageno.pid >= num_pages))
     throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
   
-  // Seek to the correct page
-  fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
-  
-  // Read the appropriate number of bytes.
-  byte [] buffer = apage.getpage();
-  try{
-    fp.read(buffer);
-    // Add counter increment here
-    diskmgr.PCounter.incrementReadCount();
-  }
-  catch (IOException e) {
-    throw new FileIOException(e, "DB file I/O error");
+  ByteBuffer buffer = apage.getbuffer();
+  if (!readAhead.take(pageno.pid, buffer)) {
+    try{
+      read(buffer, (long)pageno.pid *page_size);
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
   }
+  diskmgr.PCounter.incrementReadCount();
 }
   
+  /** Start reading pages in the background, so that reading them
+   * later does not wait for the disk. Page numbers out of range are
+   * left out.
+   *
+   * @param pids the page numbers, in any order
+   * @param count how many of them to read
+   */
+  public void read_ahead(int[] pids, int count)
+  {
+    int n = 0;
+    int[] want = new int[count];
+    for (int i = 0; i < count; i++) {
+      if (pids[i] >= 0 && pids[i] < num_pages)
+        want[n++] = pids[i];
+    }
+    if (n > 0)
+      readAhead.request(want, n);
+  }
+  
   /** Write the contents in a page object to the specified page.
    *
    * @param pageno pageId will be wrote to disk
@@ -194,13 +276,14 @@ public class DB implements GlobalConst {
   if((pageno.pid < 0)||(pageno.pid >= num_pages))
     throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
   
-  // Seek to the correct page
-  fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
+  readAhead.invalidate(pageno.pid);
   
-  // Write the appropriate number of bytes.
+  ByteBuffer buffer = apage.getbuffer();
   try{
-    fp.write(apage.getpage());
-    // Add counter increment here
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, (long)pageno.pid *page_size + buffer.position());
+      diskmgr.PCounter.incrementPhysicalWriteCount();
+    }
     diskmgr.PCounter.incrementWriteCount();
   }
   catch (IOException e) {
@@ -208,6 +291,81 @@ public class DB implements GlobalConst {
   }
 }
   
+  /** Write the contents of count page objects to as many pages in a
+   * row, starting at the specified page, with one gathering write.
+   *
+   * @param startpage pageId of the first page
+   * @param pages the page objects, in page order
+   * @param count the number of pages
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId startpage, Page[] pages, int count)
+  throws InvalidPageNumberException, 
+     FileIOException, 
+     IOException {
+
+  if((startpage.pid < 0)||(count < 1)||(startpage.pid + count > num_pages))
+    throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
+  
+  ByteBuffer[] buffers = new ByteBuffer[count];
+  for (int i = 0; i < count; i++) {
+    readAhead.invalidate(startpage.pid + i);
+    buffers[i] = pages[i].getbuffer();
+  }
+  
+  // A gathering write goes where the channel is, so moving it there
+  // and writing must not be split by another thread's write
+  synchronized (fp) {
+  try{
+    channel.position((long)startpage.pid *page_size);
+    while (buffers[count-1].hasRemaining()) {
+      channel.write(buffers);
+      diskmgr.PCounter.incrementPhysicalWriteCount();
+    }
+  }
+  catch (IOException e) {
+    throw new FileIOException(e, "DB file I/O error");
+  }
+  }
+  for (int i = 0; i < count; i++)
+    diskmgr.PCounter.incrementWriteCount();
+}
+  
+  /** Read from the file at a position until buf is full or the file
+   * ends. Calls read the file at their own position, so they need
+   * not be serialized.
+   */
+  void read(ByteBuffer buf, long position) throws IOException
+  {
+    while (buf.hasRemaining()) {
+      int n = channel.read(buf, position + buf.position());
+      diskmgr.PCounter.incrementPhysicalReadCount();
+      if (n < 0)
+        break;
+    }
+  }
+  
+  /** Read from the file at a position into each of bufs in turn,
+   * until the last is full or the file ends, with scattering reads.
+   * These read where the channel is, so they are serialized with
+   * gathering writes.
+   */
+  void read(ByteBuffer[] bufs, long position) throws IOException
+  {
+    synchronized (fp) {
+      channel.position(position);
+      while (bufs[bufs.length-1].hasRemaining()) {
+        long n = channel.read(bufs);
+        diskmgr.PCounter.incrementPhysicalReadCount();
+        if (n < 0)
+          break;
+      }
+    }
+  }
+  
   /** Allocate a set of pages where the run size is taken to be 1 by default.
    *  Gives back the page number of the first page of the allocated run.
    *  with default run_size =1
@@ -232,6 +390,10 @@ public class DB implements GlobalConst {
   }
   
   /** user specified run_size
+   *
+   * The run is looked for in the cached space map, a word at a time,
+   * starting where the last allocated run ended and wrapping around
+   * to the start of the database once.
    *
    * @param start_page_num the starting page id of the run of pages
    * @param run_size the number of page need allocated
@@ -243,7 +405,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void allocate_page(PageId start_page_num, int runsize)
+  public synchronized void allocate_page(PageId start_page_num, int runsize)
     throws OutOfSpaceException, 
 	   InvalidRunSizeException, 
 	   InvalidPageNumberException, 
@@ -253,74 +415,18 @@ public class DB implements GlobalConst {
 
     if(runsize < 0) throw new InvalidRunSizeException(null, "Negative run_size");
     
-    int run_size = runsize;
-    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
-    int current_run_start = 0; 
-    int current_run_length = 0;
+    load_space_map();
     
+    // Next fit: look from where the last run ended, then from the start
+    int start = find_free_run(next_fit, runsize);
+    if (start < 0 && next_fit > 0)
+      start = find_free_run(0, runsize);
     
-    // This loop goes over each page in the space map.
-    PageId pgid = new PageId();
-    byte [] pagebuf;
-    int byteptr;
-    
-    for(int i=0; i< num_map_pages; ++i) {// start forloop01
-	
-      pgid.pid = 1 + i;
-      // Pin the space-map page.
-      
-      Page apage = new Page();
-      pinPage(pgid, apage, false /*read disk*/);
-      
-      pagebuf = apage.getpage();
-      byteptr = 0;
-      
-      // get the num of bits on current page
-      int num_bits_this_page = num_pages - i*bits_per_page;
-      if(num_bits_this_page > bits_per_page)
-	num_bits_this_page = bits_per_page;
-      
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length.  The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      
-      for(; num_bits_this_page>0 
-	    && current_run_length < run_size; ++byteptr) {// start forloop02
-	  
-	
-	Integer intmask = new Integer(1);
-	Byte mask = new Byte(intmask.byteValue());
-	byte tmpmask = mask.byteValue();
-	
-	while (mask.intValue()!=0 && (num_bits_this_page>0)
-	       &&(current_run_length < run_size))
-	  
-	  {	      
-	    if( (pagebuf[byteptr] & tmpmask ) != 0)
-	      {
-		current_run_start += current_run_length + 1;
-		current_run_length = 0;
-	      }
-	    else ++current_run_length;
-	    
-	    
-	    tmpmask <<=1;
-	    mask = new Byte(tmpmask);
-	    --num_bits_this_page;
-	  }
-	
-	
-      }//end of forloop02
-      // Unpin the space-map page.
-      
-      unpinPage(pgid, false /*undirty*/);
-      
-    }// end of forloop01
-    
-    if(current_run_length >= run_size)
+    if (start >= 0)
       {
-	start_page_num.pid = current_run_start;
-	set_bits(start_page_num, run_size, 1);
+	start_page_num.pid = start;
+	set_bits(start_page_num, runsize, 1);
+	next_fit = start + runsize < num_pages ? start + runsize : 0;
 	
 	return;
       }
@@ -328,6 +434,79 @@ public class DB implements GlobalConst {
     throw new OutOfSpaceException(null, "No space left");
   }
   
+  /** Allocate one page for a file from the run set aside in extent,
+   * setting a new run of extent's next size aside when that one is used
+   * up. A new run starts right after the old one if those pages are
+   * free, and otherwise where the next-fit search finds that many free
+   * pages. Either way later searches start past the run. When no run
+   * that long is free, the page is allocated on its own.
+   *
+   * @param start_page_num the page allocated
+   * @param extent the file's run of pages
+   *
+   * @exception OutOfSpaceException No space left
+   * @exception InvalidRunSizeException invalid run size 
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   * @exception DiskMgrException error caused by other layers
+   */
+  public synchronized void allocate_page(PageId start_page_num, PageExtent extent)
+    throws OutOfSpaceException, 
+	   InvalidRunSizeException, 
+	   InvalidPageNumberException, 
+	   FileIOException, 
+	   DiskMgrException,
+           IOException {
+    
+    load_space_map();
+    
+    // The rest of the run, but for pages someone else took meanwhile
+    if (extent.next >= 0 && extent.end <= num_pages)
+      {
+	int page = next_bit(extent.next, extent.end, false);
+	if (page < extent.end)
+	  {
+	    start_page_num.pid = page;
+	    set_bits(start_page_num, 1, 1);
+	    extent.next = page + 1;
+	    return;
+	  }
+      }
+    
+    // Go on where the old run ended if nothing is there yet; else
+    // search, and have the next search start after the new run
+    int start = -1;
+    int size = extent.size;
+    int end = extent.end + size;
+    if (extent.end > 0 && end <= num_pages && next_bit(extent.end, end, true) == end)
+      {
+	start = extent.end;
+	if (next_fit >= start && next_fit < end)
+	  next_fit = end < num_pages ? end : 0;
+      }
+    else
+      {
+	start = find_free_run(next_fit, size);
+	if (start < 0 && next_fit > 0)
+	  start = find_free_run(0, size);
+	if (start < 0)
+	  {
+	    extent.next = extent.end = INVALID_PAGE;
+	    allocate_page(start_page_num, 1);
+	    return;
+	  }
+	end = start + size;
+	next_fit = end < num_pages ? end : 0;
+      }
+    
+    extent.next = start + 1;
+    extent.end = end;
+    extent.size = Math.min(2 * size, PageExtent.PAGES);
+    start_page_num.pid = start;
+    set_bits(start_page_num, 1, 1);
+  }
+  
   /** Deallocate a set of pages starting at the specified page number and
    * a run size can be specified.
    *
@@ -340,7 +519,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void deallocate_page(PageId start_page_num, int run_size)
+  public synchronized void deallocate_page(PageId start_page_num, int run_size)
     throws InvalidRunSizeException, 
 	   InvalidPageNumberException, 
 	   IOException, 
@@ -365,7 +544,7 @@ public class DB implements GlobalConst {
    * @exception DiskMgrException error caused by other layers
    * 
    */
-  public void deallocate_page(PageId start_page_num)
+  public synchronized void deallocate_page(PageId start_page_num)
     throws InvalidRunSizeException, 
 	   InvalidPageNumberException, 
 	   IOException, 
@@ -389,7 +568,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void add_file_entry(String fname, PageId start_page_num)
+  public synchronized void add_file_entry(String fname, PageId start_page_num)
     throws FileNameTooLongException,
            InvalidPageNumberException,
            InvalidRunSizeException,
@@ -469,14 +648,8 @@ public class DB implements GlobalConst {
             // Directly read only the PageID part of the slot to check if it's free
             // Calculation uses constants from DBHeaderPage
             int position = DBHeaderPage.START_FILE_ENTRIES + entry * DBHeaderPage.SIZE_OF_FILE_ENTRY;
-            try {
-                // Access dp.data which is protected (accessible within package diskmgr)
-                tempPid.pid = Convert.getIntValue(position, dp.data);
-            } catch (IOException e) {
-                // Handle potential IOException from Convert.getIntValue
-                unpinPage(hpid, false); // Unpin before throwing
-                throw new DiskMgrException(e, "DB.java: Error reading PageID in free slot search");
-            }
+            // Access dp.page which is protected (accessible within package diskmgr)
+            tempPid.pid = dp.page.getIntValue(position);
 
             if (tempPid.pid == INVALID_PAGE) {
                 // Found a free slot
@@ -566,7 +739,7 @@ public class DB implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public void delete_file_entry(String fname)
+  public synchronized void delete_file_entry(String fname)
     throws FileEntryNotFoundException, 
 	   IOException,
 	   FileIOException,
@@ -646,7 +819,7 @@ public class DB implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public PageId get_file_entry(String name)
+  public synchronized PageId get_file_entry(String name)
     throws IOException,
        FileIOException,
        InvalidPageNumberException,
@@ -687,12 +860,7 @@ public class DB implements GlobalConst {
             {
 
                 int position = DBHeaderPage.START_FILE_ENTRIES + entry * DBHeaderPage.SIZE_OF_FILE_ENTRY;
-                try {
-                    tmppid.pid = Convert.getIntValue(position, dp.data);
-                } catch (IOException e) {
-                    unpinPage(hpid, false); // Unpin before throwing
-                    throw new DiskMgrException(e, "DB.java: Error reading PageID in get_file_entry search");
-                }
+                tmppid.pid = dp.page.getIntValue(position);
 
 
                 if (tmppid.pid != INVALID_PAGE) {
@@ -748,7 +916,7 @@ public class DB implements GlobalConst {
    */
   public String db_name(){return name;}
   public int db_num_pages(){return num_pages;}
-  public int db_page_size(){return MINIBASE_PAGESIZE;}
+  public int db_page_size(){return page_size;}
   
   /** Print out the space map of the database.
    * The space map is a bitmap showing which
@@ -795,7 +963,8 @@ public class DB implements GlobalConst {
 	  // one steps through each byte's bits.
 	  
 	  int pgptr = 0;
-	  byte [] pagebuf = apage.getpage();
+	  byte [] pagebuf = new byte[apage.getpagesize()];
+	  apage.getBytes(0, pagebuf, 0, pagebuf.length);
 	  int mask;
 	  for ( ; num_bits_this_page > 0; pgptr ++)
 	    {// start forloop02
@@ -831,11 +1000,24 @@ public class DB implements GlobalConst {
     }
   
   private RandomAccessFile fp;
+  FileChannel channel;		// mapped by MappedDB
+  private ReadAhead readAhead;
   private int num_pages;
+  private int page_size;
+  private int bits_per_page;	// space map bits on a map page
   private String name;
   
+  /** The space map, cached one bit per page, and the page the next
+   * search for free pages starts at.
+   */
+  private long[] space_map;
+  private int next_fit;
   
-  /** Set runsize bits starting from start to value specified
+  
+  /** Set runsize bits starting from start to value specified, in the
+   * cached space map and on the space-map pages. Only the bytes that
+   * change are copied to the pages. The map pages are all pinned before
+   * the cached map is changed, so if one cannot be, neither is.
    */
   private void set_bits( PageId start_page, int run_size, int bit )
     throws InvalidPageNumberException, 
@@ -845,78 +1027,144 @@ public class DB implements GlobalConst {
 
     if((start_page.pid<0) || (start_page.pid+run_size > num_pages))
       throw new InvalidPageNumberException(null, "Bad page number");
+    if(run_size == 0)
+      return;
     
-    // Locate the run within the space map.
-    int first_map_page = start_page.pid/bits_per_page + 1;
-    int last_map_page = (start_page.pid+run_size-1)/bits_per_page +1;
-    int first_bit_no = start_page.pid % bits_per_page;
+    load_space_map();
     
-    // The outer loop goes over all space-map pages we need to touch.
+    int first = start_page.pid;
+    int last = first + run_size - 1;
     
-    for(PageId pgid = new PageId(first_map_page);
-	pgid.pid <= last_map_page;
-	pgid.pid = pgid.pid+1, first_bit_no = 0)
-      {//Start forloop01
-	
-        // Pin the space-map page.
-	Page pg = new Page();
-	
-	
-	pinPage(pgid, pg, false/*no diskIO*/);
-	
-	
-	byte [] pgbuf = pg.getpage();
-	
-	// Locate the piece of the run that fits on this page.
-	int first_byte_no = first_bit_no/8;
-	int first_bit_offset = first_bit_no%8;
-	int last_bit_no = first_bit_no + run_size -1;
-	
-	if(last_bit_no >= bits_per_page )
-	  last_bit_no = bits_per_page - 1;
-	
-        int last_byte_no = last_bit_no / 8;
-        
-	// This loop actually flips the bits on the current page.
-	int cur_posi = first_byte_no;
-	for(;cur_posi <= last_byte_no; ++cur_posi, first_bit_offset=0)
-	  {//start forloop02
-	    
-	    int max_bits_this_byte = 8 - first_bit_offset;
-	    int num_bits_this_byte = (run_size > max_bits_this_byte?
-				      max_bits_this_byte : run_size);
-	    
-            int imask =1;
-	    int temp;
-	    imask = ((imask << num_bits_this_byte) -1)<<first_bit_offset;
-	    Integer intmask = new Integer(imask);
-	    Byte mask = new Byte(intmask.byteValue());
-	    byte bytemask = mask.byteValue();
-	    
-	    if(bit==1)
-	      {
-	        temp = (pgbuf[cur_posi] | bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    else
-	      {
-		
-		temp = pgbuf[cur_posi] & (255^bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    run_size -= num_bits_this_byte;
-	    
-	  }//end of forloop02
-	
-	// Unpin the space-map page.
-	
-	unpinPage(pgid, true /*dirty*/);
-	
-      }//end of forloop01
+    // Pin all the space-map pages we need to touch
+    int first_map = first / bits_per_page;
+    Page[] pgs = new Page[last / bits_per_page - first_map + 1];
+    int pinned = 0;
+    try {
+      for(; pinned < pgs.length; pinned++)
+	{
+	  pgs[pinned] = new Page();
+	  pinPage(new PageId(1 + first_map + pinned), pgs[pinned], false/*read disk*/);
+	}
+    }
+    catch(DiskMgrException e) {
+      for(int i = 0; i < pinned; i++)
+	{
+	  try {
+	    unpinPage(new PageId(1 + first_map + i), false /*undirty*/);
+	  }
+	  catch(DiskMgrException ue) {
+	    e.addSuppressed(ue);
+	  }
+	}
+      throw e;
+    }
+    
+    // Flip the bits in the cached map, a word at a time
+    for(int w = first >>> 6; w <= last >>> 6; w++)
+      {
+	long mask = -1L;
+	if(w == first >>> 6)
+	  mask &= -1L << (first & 63);
+	if(w == last >>> 6)
+	  mask &= -1L >>> (63 - (last & 63));
+	if(bit == 1)
+	  space_map[w] |= mask;
+	else
+	  space_map[w] &= ~mask;
+      }
     
+    // Copy the bytes changed to each map page
+    int bytes_per_page = bits_per_page / 8;
+    for(int j = 0; j < pgs.length; j++)
+      {
+	int i = first_map + j;
+	int first_byte = Math.max(first, i * bits_per_page) >>> 3;
+	int last_byte = Math.min(last, (i + 1) * bits_per_page - 1) >>> 3;
+	byte [] pgbuf = new byte[last_byte - first_byte + 1];
+	for(int b = first_byte; b <= last_byte; b++)
+	  pgbuf[b - first_byte] = (byte)(space_map[b >>> 3] >>> ((b & 7) << 3));
+	pgs[j].setBytes(first_byte - i * bytes_per_page, pgbuf, 0, pgbuf.length);
+      }
+    DiskMgrException failure = null;
+    for(int j = 0; j < pgs.length; j++)
+      {
+	try {
+	  unpinPage(new PageId(1 + first_map + j), true /*dirty*/);
+	}
+	catch(DiskMgrException e) {
+	  if(failure == null)
+	    failure = e;
+	}
+      }
+    if(failure != null)
+      throw failure;
+  }
+  
+  /** Reads the space-map pages into the cached map, if they have not
+   * been since the database was opened. Bit j of byte k of the map is
+   * bit 8*(k%8)+j of word k/8.
+   */
+  private void load_space_map()
+    throws DiskMgrException {
+    
+    if(space_map != null)
+      return;
+    
+    long[] map = new long[(num_pages + 63) >>> 6];
+    int words_per_page = bits_per_page >>> 6;
+    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
+    PageId pgid = new PageId();
+    for(int i = 0; i < num_map_pages; i++)
+      {
+	pgid.pid = 1 + i;
+	Page apage = new Page();
+	pinPage(pgid, apage, false /*read disk*/);
+	ByteBuffer buf = apage.getbuffer().order(ByteOrder.LITTLE_ENDIAN);
+	for(int j = 0; j < words_per_page && i * words_per_page + j < map.length; j++)
+	  map[i * words_per_page + j] = buf.getLong(j << 3);
+	unpinPage(pgid, false /*undirty*/);
+      }
+    space_map = map;
   }
+  
+  /** Finds the first run of run_size free pages at or after page from.
+   * @return the first page of the run, or -1 if there is none
+   */
+  private int find_free_run(int from, int run_size)
+    {
+      int pos = from;
+      while(pos + run_size <= num_pages)
+	{
+	  int start = next_bit(pos, num_pages, false);
+	  if(start + run_size > num_pages)
+	    return -1;
+	  int end = next_bit(start, start + run_size, true);
+	  if(end - start >= run_size)
+	    return start;
+	  pos = end + 1;
+	}
+      return -1;
+    }
+  
+  /** Finds the first page at or after from, and before limit, whose
+   * bit in the cached map is set (or clear).
+   * @return that page, or limit if there is none
+   */
+  private int next_bit(int from, int limit, boolean set)
+    {
+      if(from >= limit)
+	return limit;
+      int w = from >>> 6;
+      long word = (set ? space_map[w] : ~space_map[w]) & (-1L << (from & 63));
+      while(word == 0)
+	{
+	  if((++w << 6) >= limit)
+	    return limit;
+	  word = set ? space_map[w] : ~space_map[w];
+	}
+      int page = (w << 6) + Long.numberOfTrailingZeros(word);
+      return page < limit ? page : limit;
+    }
 
   /**
    * short cut to access the pinPage function in bufmgr package.
@@ -959,7 +1207,7 @@ public class DB implements GlobalConst {
 interface PageUsedBytes
 {
   int DIR_PAGE_USED_BYTES = 8 + 8;
-  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+  int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 8;
 }
 
 /** Super class of the directory page and first page
@@ -971,7 +1219,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   protected static final int START_FILE_ENTRIES = 8;
   protected static final int SIZE_OF_FILE_ENTRY = 4 + MAX_NAME + 2;
   
-  protected byte [] data;
+  protected Page page;
   
   /**
    * Default constructor
@@ -988,14 +1236,14 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   public DBHeaderPage(Page page, int pageusedbytes)
     throws IOException
     {
-      data = page.getpage();
+      this.page = page;
       PageId pageno = new PageId();
       pageno.pid = INVALID_PAGE;
       setNextPage(pageno);
       
       PageId temppid = getNextPage();
       
-      int num_entries  = (MAX_SPACE - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
+      int num_entries  = (page.getpagesize() - pageusedbytes) /SIZE_OF_FILE_ENTRY; 
       setNumOfEntries(num_entries);
       
       for ( int index=0; index < num_entries; ++index )
@@ -1010,7 +1258,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   public void setNextPage(PageId pageno)
     throws IOException
     {
-      Convert.setIntValue(pageno.pid, NEXT_PAGE, data);
+      page.setIntValue(pageno.pid, NEXT_PAGE);
     }
   
   /**
@@ -1022,7 +1270,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
     throws IOException
     {
       PageId nextPage = new PageId();
-      nextPage.pid= Convert.getIntValue(NEXT_PAGE, data);
+      nextPage.pid= page.getIntValue(NEXT_PAGE);
       return nextPage;
     }
   
@@ -1035,7 +1283,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   protected void setNumOfEntries(int numEntries) 
     throws IOException	
     { 
-      Convert.setIntValue (numEntries, NUM_OF_ENTRIES, data);
+      page.setIntValue (numEntries, NUM_OF_ENTRIES);
     }
   
   /**
@@ -1046,7 +1294,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   public int getNumOfEntries()
     throws IOException
     {
-      return Convert.getIntValue(NUM_OF_ENTRIES, data);
+      return page.getIntValue(NUM_OF_ENTRIES);
     }
   
   /**
@@ -1058,7 +1306,7 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
   private void initFileEntry(int empty, int entryNo)
     throws IOException {
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
-    Convert.setIntValue (empty, position, data);
+    page.setIntValue (empty, position);
   } 
   
   /**
@@ -1072,8 +1320,11 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
     throws IOException {
 
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
-    Convert.setIntValue (pageNo.pid, position, data);
-    Convert.setStrValue (fname, position +4, data);	
+    byte [] name = new byte[MAX_NAME + 2];
+    page.getBytes (position +4, name, 0, name.length);
+    Convert.setStrValue (fname, 0, name);
+    page.setIntValue (pageNo.pid, position);
+    page.setBytes (position +4, name, 0, name.length);
   }
   
   /**
@@ -1087,8 +1338,10 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
     throws IOException {
 
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
-    pageNo.pid = Convert.getIntValue (position, data);
-    return (Convert.getStrValue (position+4, data, MAX_NAME + 2));
+    byte [] name = new byte[MAX_NAME + 2];
+    pageNo.pid = page.getIntValue (position);
+    page.getBytes (position+4, name, 0, name.length);
+    return (Convert.getStrValue (0, name, MAX_NAME + 2));
   }
   
 }
@@ -1098,7 +1351,10 @@ class DBHeaderPage implements PageUsedBytes, GlobalConst {
  */
 class DBFirstPage extends DBHeaderPage {
 
-  protected static final int NUM_DB_PAGE = MINIBASE_PAGESIZE -4;
+  /* The number of pages and the page size are at the end of the
+     page, however long it is */
+  protected static final int NUM_DB_PAGE = 4;	// bytes from the end
+  protected static final int PAGE_SIZE = 8;
   
   /**
    * Default construtor 
@@ -1121,7 +1377,7 @@ class DBFirstPage extends DBHeaderPage {
    */
   public void openPage(Page page)
     {
-      data = page.getpage();
+      this.page = page;
     }
   
   
@@ -1133,7 +1389,7 @@ class DBFirstPage extends DBHeaderPage {
   public void setNumDBPages(int num)
     throws IOException	
     {
-      Convert.setIntValue (num, NUM_DB_PAGE, data);
+      page.setIntValue (num, page.getpagesize() - NUM_DB_PAGE);
     }
   
   /**
@@ -1144,7 +1400,29 @@ class DBFirstPage extends DBHeaderPage {
   public int getNumDBPages()
     throws IOException {
 
-    return (Convert.getIntValue(NUM_DB_PAGE, data));
+    return (page.getIntValue(page.getpagesize() - NUM_DB_PAGE));
+  }
+  
+  /**
+   * set the page size of the DB
+   * @param size the page size in bytes
+   * @exception IOException I/O errors
+   */
+  public void setPageSize(int size)
+    throws IOException	
+    {
+      page.setIntValue (size, page.getpagesize() - PAGE_SIZE);
+    }
+  
+  /**
+   * return the page size of the DB
+   * @return page size in bytes
+   * @exception IOException I/O errors
+   */
+  public int getPageSize()
+    throws IOException {
+
+    return (page.getIntValue(page.getpagesize() - PAGE_SIZE));
   }
   
 }
@@ -1175,7 +1453,7 @@ class DBDirectoryPage extends DBHeaderPage  { //implements PageUsedBytes
    */
   public void openPage(Page page)
     {
-      data = page.getpage();
+      this.page = page;
     }
   
 }
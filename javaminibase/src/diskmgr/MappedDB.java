@@ -0,0 +1,184 @@
+/* File MappedDB.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import global.*;
+
+/**
+ * A database whose file is mapped into memory instead of read and
+ * written with calls on the file. Reading a page copies it out of the
+ * mapping and writing a page copies it in; the operating system moves
+ * the mapped pages to and from the disk, and reads ahead as it sees
+ * fit, so read_ahead does nothing.
+ *
+ * The file is mapped the first time a page is read or written, in
+ * chunks of CHUNK_BYTES, since one mapping can be at most 2GB. The
+ * space map, file directory and everything else are DB's.
+ *
+ * A MappedDB is made by SystemDefs when it is given "Mapped" as the
+ * database access method.
+ */
+public class MappedDB extends DB {
+
+  /** Bytes in each mapped chunk; a multiple of every page size. */
+  static final int CHUNK_SHIFT = 26;
+  static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+
+  /** The file's chunks, in file order; null until first needed. */
+  private volatile MappedByteBuffer[] chunks;
+
+  /** default constructor.
+   */
+  public MappedDB() { }
+
+  public void openDB(String fname)
+    throws IOException,
+	   InvalidPageNumberException,
+	   FileIOException,
+	   DiskMgrException {
+
+    chunks = null;
+    super.openDB(fname);
+  }
+
+  public void openDB(String fname, int num_pgs)
+    throws IOException,
+           InvalidPageNumberException,
+           FileIOException,
+           DiskMgrException {
+
+    chunks = null;
+    super.openDB(fname, num_pgs);
+  }
+
+  public void closeDB() throws IOException {
+    chunks = null;
+    super.closeDB();
+  }
+
+  public void DBDestroy()
+    throws IOException {
+
+    chunks = null;
+    super.DBDestroy();
+  }
+
+  /** Copy the specified page out of the mapping into a Page object.
+   *
+   * @param pageno pageId which will be read
+   * @param apage page object which holds the contents of page
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void read_page(PageId pageno, Page apage)
+    throws InvalidPageNumberException,
+	   FileIOException,
+	   IOException {
+
+    if((pageno.pid < 0)||(pageno.pid >= db_num_pages()))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
+
+    int size = db_page_size();
+    long pos = (long)pageno.pid * size;
+    apage.getbuffer().put(0, chunk(pos), offset(pos), size);
+    PCounter.incrementReadCount();
+  }
+
+  /** Pages are read ahead by the operating system, so this does
+   * nothing.
+   */
+  public void read_ahead(int[] pids, int count) { }
+
+  /** Copy the contents of a page object into the mapping.
+   *
+   * @param pageno pageId will be wrote to disk
+   * @param apage the page object will be wrote to disk
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_page(PageId pageno, Page apage)
+    throws InvalidPageNumberException,
+	   FileIOException,
+	   IOException {
+
+    if((pageno.pid < 0)||(pageno.pid >= db_num_pages()))
+      throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
+
+    int size = db_page_size();
+    long pos = (long)pageno.pid * size;
+    chunk(pos).put(offset(pos), apage.getbuffer(), 0, size);
+    PCounter.incrementWriteCount();
+  }
+
+  /** Copy the contents of count page objects into as many pages in a
+   * row of the mapping, starting at the specified page.
+   *
+   * @param startpage pageId of the first page
+   * @param pages the page objects, in page order
+   * @param count the number of pages
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId startpage, Page[] pages, int count)
+    throws InvalidPageNumberException,
+	   FileIOException,
+	   IOException {
+
+    if((startpage.pid < 0)||(count < 1)||(startpage.pid + count > db_num_pages()))
+      throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
+
+    int size = db_page_size();
+    for (int i = 0; i < count; i++) {
+      long pos = (long)(startpage.pid + i) * size;
+      chunk(pos).put(offset(pos), pages[i].getbuffer(), 0, size);
+      PCounter.incrementWriteCount();
+    }
+  }
+
+  private static int offset(long pos)
+    {
+      return (int)(pos & (CHUNK_BYTES - 1));
+    }
+
+  // The chunk holding the byte at pos, mapping the file if it is not
+  // mapped yet
+  private MappedByteBuffer chunk(long pos)
+    throws FileIOException
+    {
+      MappedByteBuffer[] c = chunks;
+      if (c == null)
+	c = map();
+      return c[(int)(pos >>> CHUNK_SHIFT)];
+    }
+
+  private synchronized MappedByteBuffer[] map()
+    throws FileIOException
+    {
+      if (chunks != null)
+	return chunks;
+      try {
+	long size = channel.size();
+	MappedByteBuffer[] c =
+	  new MappedByteBuffer[(int)((size + CHUNK_BYTES - 1) >>> CHUNK_SHIFT)];
+	for (int i = 0; i < c.length; i++) {
+	  long base = (long)i << CHUNK_SHIFT;
+	  c[i] = channel.map(FileChannel.MapMode.READ_WRITE, base,
+			     Math.min(CHUNK_BYTES, size - base));
+	}
+	chunks = c;
+	return c;
+      }
+      catch (IOException e) {
+	throw new FileIOException(e, "DB file mapping error");
+      }
+    }
+}
@@ -1,27 +1,56 @@
 package diskmgr;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts page I/O. The read and write counts are of pages moved between
+ * the buffer pool and the database; the physical counts are of read and
+ * write calls on the database file. Pages read ahead or written together
+ * in one call make the physical counts the smaller.
+ */
 public class PCounter {
-    private static int readCount = 0;
-    private static int writeCount = 0;
+    // Atomic, since pages may be read and written by several threads
+    private static final AtomicInteger readCount = new AtomicInteger();
+    private static final AtomicInteger writeCount = new AtomicInteger();
+    private static final AtomicInteger physicalReadCount = new AtomicInteger();
+    private static final AtomicInteger physicalWriteCount = new AtomicInteger();
 
     public static void initialize() {
-        readCount = 0;
-        writeCount = 0;
+        readCount.set(0);
+        writeCount.set(0);
+        physicalReadCount.set(0);
+        physicalWriteCount.set(0);
     }
 
     public static void incrementReadCount() {
-        readCount++;
+        readCount.incrementAndGet();
     }
 
     public static void incrementWriteCount() {
-        writeCount++;
+        writeCount.incrementAndGet();
+    }
+
+    public static void incrementPhysicalReadCount() {
+        physicalReadCount.incrementAndGet();
+    }
+
+    public static void incrementPhysicalWriteCount() {
+        physicalWriteCount.incrementAndGet();
     }
 
     public static int getRCount() {
-        return readCount;
+        return readCount.get();
     }
 
     public static int getWCount() {
-        return writeCount;
+        return writeCount.get();
+    }
+
+    public static int getPhysicalRCount() {
+        return physicalReadCount.get();
+    }
+
+    public static int getPhysicalWCount() {
+        return physicalWriteCount.get();
     }
 }
\ No newline at end of file
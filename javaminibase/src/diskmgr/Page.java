@@ -2,25 +2,40 @@
 
 package diskmgr;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import global.*;
 
  /**
   * class Page
+  *
+  * A page is held either in a byte array, or, in a buffer pool whose
+  * frames are off the Java heap, in a slice of the pool's direct
+  * buffer; getpage() is null then. The accessors below work on either,
+  * in the byte order Convert uses, so page formats that read and write
+  * through them work in both kinds of pool.
   */
 
 public class Page implements GlobalConst{
-  
-  
+
+  private static final VarHandle INT =
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle SHORT =
+    MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
   /**
    * default constructor
    */
-  
-  public Page()  
+
+  public Page()
     {
-      data = new byte[MAX_SPACE];
-      
+      data = new byte[SystemDefs.JavabasePageSize];
+
     }
-  
+
   /**
    * Constructor of class Page
    */
@@ -28,17 +43,27 @@ public class Page implements GlobalConst{
     {
       data = apage;
     }
-  
+
+  /**
+   * Constructor of class Page over an off-heap frame
+   * @param abuffer a direct buffer of page size
+   */
+  public Page(ByteBuffer abuffer)
+    {
+      buffer = abuffer;
+    }
+
   /**
    * return the data byte array
-   * @return 	the byte array of the page
+   * @return 	the byte array of the page, or null if the page is in
+   *		an off-heap frame
    */
   public byte [] getpage()
     {
       return data;
-      
+
     }
-  
+
   /**
    * set the page with the given byte array
    * @param 	array   a byte array of page size
@@ -46,12 +71,153 @@ public class Page implements GlobalConst{
   public void setpage(byte [] array)
     {
       data = array;
+      buffer = null;
+    }
+
+  /**
+   * set the page to an off-heap frame
+   * @param 	abuffer   a direct buffer of page size
+   */
+  public void setpage(ByteBuffer abuffer)
+    {
+      data = null;
+      buffer = abuffer;
+    }
+
+  /**
+   * make the page share the storage of another page
+   * @param 	apage   the other page
+   */
+  public void setpage(Page apage)
+    {
+      data = apage.data;
+      buffer = apage.buffer;
+    }
+
+  /**
+   * @return a new buffer over the page, positioned at its start, to
+   *	     read or write it with a channel
+   */
+  public ByteBuffer getbuffer()
+    {
+      return data != null ? ByteBuffer.wrap(data) : buffer.duplicate();
+    }
+
+  /**
+   * @return the size of the page in bytes
+   */
+  public int getpagesize()
+    {
+      return data != null ? data.length : buffer.capacity();
+    }
+
+  /**
+   * @param position the position in the page
+   * @return the integer at position
+   */
+  public int getIntValue(int position)
+    {
+      return data != null ? (int) INT.get(data, position) : buffer.getInt(position);
+    }
+
+  /**
+   * @param value    the integer to write
+   * @param position the position in the page
+   */
+  public void setIntValue(int value, int position)
+    {
+      if (data != null)
+	INT.set(data, position, value);
+      else
+	buffer.putInt(position, value);
+    }
+
+  /**
+   * @param position the position in the page
+   * @return the short integer at position
+   */
+  public short getShortValue(int position)
+    {
+      return data != null ? (short) SHORT.get(data, position) : buffer.getShort(position);
+    }
+
+  /**
+   * @param value    the short integer to write
+   * @param position the position in the page
+   */
+  public void setShortValue(short value, int position)
+    {
+      if (data != null)
+	SHORT.set(data, position, value);
+      else
+	buffer.putShort(position, value);
+    }
+
+  /**
+   * copy bytes out of the page
+   * @param position the position in the page
+   * @param dst      the array to copy into
+   * @param offset   where to start in dst
+   * @param length   the number of bytes
+   */
+  public void getBytes(int position, byte [] dst, int offset, int length)
+    {
+      if (data != null)
+	System.arraycopy(data, position, dst, offset, length);
+      else
+	buffer.get(position, dst, offset, length);
     }
-  
+
   /**
-   * protected field: An array of bytes (for the page). 
-   * 
+   * copy bytes into the page
+   * @param position the position in the page
+   * @param src      the array to copy from
+   * @param offset   where to start in src
+   * @param length   the number of bytes
+   */
+  public void setBytes(int position, byte [] src, int offset, int length)
+    {
+      if (data != null)
+	System.arraycopy(src, offset, data, position, length);
+      else
+	buffer.put(position, src, offset, length);
+    }
+
+  /**
+   * move bytes within the page; the two ranges may overlap
+   * @param from   where the bytes are
+   * @param to     where they go
+   * @param length the number of bytes
+   */
+  public void moveBytes(int from, int to, int length)
+    {
+      if (data != null)
+	System.arraycopy(data, from, data, to, length);
+      else
+	buffer.put(to, buffer, from, length);
+    }
+
+  /**
+   * set every byte of the page to 0
+   */
+  public void clearpage()
+    {
+      if (data != null)
+	Arrays.fill(data, (byte) 0);
+      else
+	for (int i = 0; i + 8 <= buffer.capacity(); i += 8)
+	  buffer.putLong(i, 0L);
+    }
+
+  /**
+   * protected field: An array of bytes (for the page).
+   *
    */
   protected byte [] data;
-  
+
+  /**
+   * protected field: the page's off-heap frame, when data is null
+   */
+  protected ByteBuffer buffer;
+
 }
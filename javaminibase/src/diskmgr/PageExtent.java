@@ -0,0 +1,49 @@
+/* File PageExtent.java */
+
+package diskmgr;
+
+import global.*;
+
+/**
+ * A run of pages set aside for one file, which takes them one at a
+ * time as it grows (see DB.allocate_page(PageId, PageExtent)), so that
+ * its pages end up next to each other on disk.
+ *
+ * The run is only set aside in memory: the database's next-fit search
+ * is moved past it, and its pages are marked in the space map as the
+ * file takes them. Pages never taken stay free, so a file that is
+ * dropped or never grows again holds nothing; and another allocation
+ * that wraps around into the run just makes the file start a new one.
+ *
+ * A temporary file, such as a sort run, may only ever take a few
+ * pages, and many are made at once. Its first run is TEMP_PAGES long,
+ * and each run after that twice as long as the one before, up to
+ * PAGES, so the search is moved on by about as many pages as it takes.
+ */
+public class PageExtent implements GlobalConst {
+
+  /** Most pages set aside at a time. */
+  public static final int PAGES = 64;
+
+  /** Pages a temporary file sets aside first. */
+  public static final int TEMP_PAGES = 4;
+
+  /** The next page to take, and one past the last page of the run. */
+  int next = INVALID_PAGE;
+  int end = INVALID_PAGE;
+
+  /** Pages to set aside for the next run. */
+  int size;
+
+  /** A file's run, PAGES pages at a time. */
+  public PageExtent() { this(PAGES); }
+
+  /** A file's run, first pages long, then growing to PAGES.
+   *
+   * @param first the length of the first run
+   */
+  public PageExtent(int first)
+  {
+    size = Math.max(1, Math.min(first, PAGES));
+  }
+}
@@ -0,0 +1,195 @@
+/* File ReadAhead.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import global.*;
+
+/**
+ * Pages of a database read ahead of the buffer manager asking for them.
+ *
+ * The pages asked for are sorted and split into runs of consecutive
+ * page numbers, and each run is read with one call by a background
+ * thread into slots of a staging arena. DB.read_page then copies a
+ * staged page instead of reading it, or waits for the run it is part
+ * of. The arena is one direct buffer, allocated with the database, so
+ * a run is read into it with no copy through the Java heap and staging
+ * a page allocates nothing.
+ *
+ * Staged pages are copies of the disk: writing a page drops its staged
+ * copy, and a page written while its run is being read is not staged.
+ */
+class ReadAhead implements GlobalConst {
+
+  /** The most pages staged or being read. */
+  static final int MAX_STAGED = 256;
+
+  /** The most pages read with one call. */
+  static final int MAX_RUN = 32;
+
+  /** Reads the runs of every database, one at a time. */
+  private static final ExecutorService reader =
+    Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "minibase-readahead");
+      t.setDaemon(true);
+      return t;
+    });
+
+  private final DB db;
+  private final int page_size;
+
+  /** The staging arena, MAX_STAGED page slots long, and its slots. */
+  private final ByteBuffer arena;
+  private final ByteBuffer[] slots = new ByteBuffer[MAX_STAGED];
+
+  /** Slots holding no page, and how many there are. */
+  private final int[] free = new int[MAX_STAGED];
+  private int numFree;
+
+  /** The slot of each page read and not yet taken, oldest first. */
+  private final LinkedHashMap<Integer, Integer> staged =
+    new LinkedHashMap<Integer, Integer>();
+
+  /** Pages being read. */
+  private final HashSet<Integer> inflight = new HashSet<Integer>();
+
+  /** Pages written while being read, which must not be staged. */
+  private final HashSet<Integer> stale = new HashSet<Integer>();
+
+  ReadAhead(DB db)
+  {
+    this.db = db;
+    page_size = db.db_page_size();
+    arena = ByteBuffer.allocateDirect(MAX_STAGED * page_size);
+    for (int i = 0; i < MAX_STAGED; i++) {
+      slots[i] = arena.slice(i * page_size, page_size);
+      free[numFree++] = i;
+    }
+  }
+
+  /**
+   * Starts reading the given pages, but for those staged or being
+   * read already.
+   *
+   * @param pids  the page numbers, in any order
+   * @param count how many of them to read
+   */
+  synchronized void request(int[] pids, int count)
+  {
+    int[] want = new int[count];
+    int n = 0;
+    int room = MAX_STAGED - inflight.size();
+    for (int i = 0; i < count && n < room; i++) {
+      if (!staged.containsKey(pids[i]) && !inflight.contains(pids[i]))
+        want[n++] = pids[i];
+    }
+    Arrays.sort(want, 0, n);
+
+    // Free slots for the run by dropping the pages staged longest ago;
+    // every slot not being read into is free or staged, so there are
+    // enough
+    Iterator<Integer> oldest = staged.values().iterator();
+    while (numFree < n && oldest.hasNext()) {
+      free[numFree++] = oldest.next();
+      oldest.remove();
+    }
+
+    int start = 0;
+    while (start < n) {
+      int end = start + 1;
+      while (end < n && want[end] == want[end-1])
+        end++;
+      int run = 1;
+      while (end < n && run < MAX_RUN && want[end] <= want[start] + run) {
+        if (want[end] == want[start] + run)
+          run++;
+        end++;
+      }
+      submit(want[start], run);
+      start = end;
+    }
+  }
+
+  /**
+   * Copies a page into buf if it was read ahead, waiting for it if it
+   * is being read.
+   *
+   * @param pid the page number
+   * @param buf where the page goes
+   * @return true if it was copied, false if it must be read
+   */
+  synchronized boolean take(int pid, ByteBuffer buf)
+  {
+    while (inflight.contains(pid)) {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    Integer slot = staged.remove(pid);
+    if (slot == null)
+      return false;
+    buf.put(0, slots[slot], 0, page_size);
+    free[numFree++] = slot;
+    return true;
+  }
+
+  /**
+   * Drops the staged copy of a page being written.
+   *
+   * @param pid the page number
+   */
+  synchronized void invalidate(int pid)
+  {
+    Integer slot = staged.remove(pid);
+    if (slot != null)
+      free[numFree++] = slot;
+    if (inflight.contains(pid))
+      stale.add(pid);
+  }
+
+  private void submit(int first, int n)
+  {
+    ByteBuffer[] bufs = new ByteBuffer[n];
+    int[] into = new int[n];
+    for (int i = 0; i < n; i++) {
+      inflight.add(first + i);
+      into[i] = free[--numFree];
+      bufs[i] = slots[into[i]];
+      bufs[i].clear();
+    }
+    reader.execute(() -> read(first, bufs, into));
+  }
+
+  /** Reads a run of pages into their slots and stages them. */
+  private void read(int first, ByteBuffer[] bufs, int[] into)
+  {
+    boolean read = true;
+    try {
+      db.read(bufs, (long) first * page_size);
+    }
+    catch (IOException e) {
+      // The pages are read again when they are asked for
+      read = false;
+    }
+
+    synchronized (this) {
+      for (int i = 0; i < bufs.length; i++) {
+        int pid = first + i;
+        inflight.remove(pid);
+        if (!stale.remove(pid) && read && !bufs[i].hasRemaining())
+          staged.put(pid, into[i]);
+        else
+          free[numFree++] = into[i];
+      }
+      notifyAll();
+    }
+  }
+}
@@ -4,8 +4,26 @@ package global;
 
 import java.io.*;
 import java.lang.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Reads and writes field values in a byte array in the layout
+ * DataInput/DataOutput use: big-endian numbers and writeUTF strings.
+ * Numbers go through byte-array VarHandles and strings are encoded in
+ * place, so no stream or temporary array is made per value; reading a
+ * string only falls back to a stream when it is not plain ASCII.
+ */
 public class Convert{
+
+  private static final VarHandle SHORT =
+    MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle CHAR =
+    MethodHandles.byteArrayViewVarHandle(char[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle INT =
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
  
  /**
  * read 4 bytes from given byte array at the specified position
@@ -18,22 +36,7 @@ public class Convert{
   public static int getIntValue (int position, byte []data)
    throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      int value;
-      byte tmp[] = new byte[4];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 4);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readInt();  
-      
-      return value;
+      return (int) INT.get(data, position);
     }
   
   /**
@@ -47,22 +50,7 @@ public class Convert{
   public static float getFloValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      float value;
-      byte tmp[] = new byte[4];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 4);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readFloat();  
-      
-      return value;
+      return Float.intBitsToFloat((int) INT.get(data, position));
     }
   
   
@@ -77,22 +65,7 @@ public class Convert{
   public static short getShortValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      short value;
-      byte tmp[] = new byte[2];
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, 2);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readShort();
-      
-      return value;
+      return (short) SHORT.get(data, position);
     }
   
   /**
@@ -108,21 +81,16 @@ public class Convert{
   public static String getStrValue (int position, byte []data, int length)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      String value;
-      byte tmp[] = new byte[length];  
-      
-      // copy the value from data array out to a tmp byte array
-      System.arraycopy (data, position, tmp, 0, length);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readUTF();
-      return value;
+      // writeUTF's layout: a 2-byte length, then modified UTF-8. Plain
+      // ASCII is the same byte for byte, so it is decoded directly.
+      int utflen = (char) CHAR.get(data, position);
+      int start = position + 2;
+      if (utflen + 2 <= length && isAscii(data, start, utflen)) {
+        return new String(data, start, utflen, StandardCharsets.ISO_8859_1);
+      }
+      DataInputStream instr =
+        new DataInputStream(new ByteArrayInputStream(data, position, length));
+      return instr.readUTF();
     }
   
   /**
@@ -136,20 +104,7 @@ public class Convert{
   public static char getCharValue (int position, byte []data)
     throws java.io.IOException
     {
-      InputStream in;
-      DataInputStream instr;
-      char value;
-      byte tmp[] = new byte[2];
-      // copy the value from data array out to a tmp byte array  
-      System.arraycopy (data, position, tmp, 0, 2);
-      
-      /* creates a new data input stream to read data from the
-       * specified input stream
-       */
-      in = new ByteArrayInputStream(tmp);
-      instr = new DataInputStream(in);
-      value = instr.readChar();
-      return value;
+      return (char) CHAR.get(data, position);
     }
   
   
@@ -163,24 +118,7 @@ public class Convert{
   public static void setIntValue (int value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeInt(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 4 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 4);
-      
+      INT.set(data, position, value);
     }
   
   /**
@@ -193,24 +131,8 @@ public class Convert{
   public static void setFloValue (float value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeFloat(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 4 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 4);
-      
+      // floatToIntBits, like DataOutputStream, so NaNs stay canonical
+      INT.set(data, position, Float.floatToIntBits(value));
     }
   
   /**
@@ -223,24 +145,7 @@ public class Convert{
   public static void setShortValue (short value, int position, byte []data) 
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to 
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      
-      outstr.writeShort(value);
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies the first 2 bytes of this byte array into data[] 
-      System.arraycopy (B, 0, data, position, 2);
-      
+      SHORT.set(data, position, value);
     }
   
   /**
@@ -254,24 +159,33 @@ public class Convert{
  public static void setStrValue (String value, int position, byte []data)
         throws java.io.IOException
  {
-  /* creates a new data output stream to write data to
-   * underlying output stream
-   */
- 
-   OutputStream out = new ByteArrayOutputStream();
-   DataOutputStream outstr = new DataOutputStream (out);
-   
-   // write the value to the output stream
-   
-   outstr.writeUTF(value);
-   // creates a byte array with this output stream size and the 
-   // valid contents of the buffer have been copied into it
-   byte []B = ((ByteArrayOutputStream) out).toByteArray();
-   
-   int sz =outstr.size();  
-   // copies the contents of this byte array into data[]
-   System.arraycopy (B, 0, data, position, sz);
-   
+   // modified UTF-8, as writeUTF: 1..0x7f in one byte, 0 and up to
+   // 0x7ff in two, everything else (surrogates included) in three
+   int strlen = value.length();
+   int utflen = 0;
+   for (int i = 0; i < strlen; i++) {
+     char c = value.charAt(i);
+     utflen += (c >= 0x0001 && c <= 0x007f) ? 1 : (c <= 0x07ff) ? 2 : 3;
+   }
+   if (utflen > 65535) {
+     throw new UTFDataFormatException("encoded string too long: " + utflen + " bytes");
+   }
+
+   CHAR.set(data, position, (char) utflen);
+   int pos = position + 2;
+   for (int i = 0; i < strlen; i++) {
+     char c = value.charAt(i);
+     if (c >= 0x0001 && c <= 0x007f) {
+       data[pos++] = (byte) c;
+     } else if (c <= 0x07ff) {
+       data[pos++] = (byte) (0xc0 | ((c >> 6) & 0x1f));
+       data[pos++] = (byte) (0x80 | (c & 0x3f));
+     } else {
+       data[pos++] = (byte) (0xe0 | ((c >> 12) & 0x0f));
+       data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+       data[pos++] = (byte) (0x80 | (c & 0x3f));
+     }
+   }
  }
   
   /**
@@ -284,23 +198,7 @@ public class Convert{
   public static void setCharValue (char value, int position, byte []data)
     throws java.io.IOException
     {
-      /* creates a new data output stream to write data to
-       * underlying output stream
-       */
-      
-      OutputStream out = new ByteArrayOutputStream();
-      DataOutputStream outstr = new DataOutputStream (out);
-      
-      // write the value to the output stream
-      outstr.writeChar(value);  
-      
-      // creates a byte array with this output stream size and the
-      // valid contents of the buffer have been copied into it
-      byte []B = ((ByteArrayOutputStream) out).toByteArray();
-      
-      // copies contents of this byte array into data[]
-      System.arraycopy (B, 0, data, position, 2);
-      
+      CHAR.set(data, position, value);
     }
 
 
@@ -315,7 +213,7 @@ public class Convert{
 public static int[] get100DVectorValue(int position, byte[] data) throws IOException {
   int[] vector = new int[100];
   for (int i = 0; i < 100; i++) {
-      vector[i] = getIntValue(position, data);
+      vector[i] = (int) INT.get(data, position);
       position += 4; // Move to the next integer (4 bytes per int)
   }
   return vector;
@@ -335,7 +233,7 @@ public static void set100DVectorValue(int[] vector, int position, byte[] data) t
       throw new IllegalArgumentException("Vector must have exactly 100 integers.");
   }
   for (int i = 0; i < 100; i++) {
-      setIntValue(vector[i], position, data);
+      INT.set(data, position, vector[i]);
       position += 4; // Move to the next integer (4 bytes per int)
   }
 }
@@ -366,4 +264,15 @@ public static Vector100Dtype getVector100DtypeValue(int position, byte[] data) t
   return new Vector100Dtype(vectorArray);
 }
 
+// true if len bytes from data[start] are 1..127: modified UTF-8 writes
+// those, and only those, as one byte
+private static boolean isAscii(byte[] data, int start, int len) {
+  for (int i = start, end = start + len; i < end; i++) {
+    if (data[i] <= 0) {
+      return false;
+    }
+  }
+  return true;
+}
+
 }
@@ -5,9 +5,14 @@ public interface GlobalConst {
   public static final int MINIBASE_MAXARRSIZE = 50;
   public static final int NUMBUF = 4000;
 
-  /** Size of page. */
+  /** Default size of page. A database's own page size is chosen when
+   *  it is created, and is SystemDefs.JavabasePageSize while it is open. */
   public static final int MINIBASE_PAGESIZE = 4096;           // in bytes
 
+  /** Smallest and largest page sizes; sizes are powers of two. */
+  public static final int MINIBASE_MIN_PAGESIZE = 4096;
+  public static final int MINIBASE_MAX_PAGESIZE = 65536;
+
   /** Size of each frame. */
   public static final int MINIBASE_BUFFER_POOL_SIZE = 4096;   // in Frames
 
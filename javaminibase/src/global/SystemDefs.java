@@ -16,6 +16,10 @@ public class SystemDefs {
   public static boolean MINIBASE_RESTART_FLAG = false;
   public static String	MINIBASE_DBNAME;
 
+  /** Page size of the open database, in bytes: the size of every page
+   *  and buffer pool frame. */
+  public static int	JavabasePageSize = GlobalConst.MINIBASE_PAGESIZE;
+
   public SystemDefs (){};
 
   // Modify constructor signature
@@ -32,6 +36,102 @@ public class SystemDefs {
            InvalidFrameNumberException,
            HashOperationException,
            BufMgrException
+    {
+      this(dbname, num_pgs, bufpoolsize, replacement_policy, null, 0);
+    }
+
+  /**
+   * Opens or creates the database as above, reading and writing its
+   * file the given way.
+   * @param db_access how the database file is accessed: "File" (the
+   *        default) reads and writes it with calls on the file,
+   *        "Mapped" maps it into memory (see diskmgr.MappedDB).
+   */
+  public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+            String replacement_policy, String db_access )
+    throws IOException,
+           InvalidPageNumberException,
+           FileIOException,
+           DiskMgrException,
+           PageNotFoundException,
+           HashEntryNotFoundException,
+           PagePinnedException,
+           PageUnpinnedException,
+           InvalidFrameNumberException,
+           HashOperationException,
+           BufMgrException
+    {
+      this(dbname, num_pgs, bufpoolsize, replacement_policy, db_access, 0);
+    }
+
+  /**
+   * Opens or creates the database as above, with the buffer pool's
+   * frames kept the given way.
+   * @param pool where the frames are: "Heap" (the default) in byte
+   *        arrays, "OffHeap" in direct buffers off the Java heap (see
+   *        bufmgr.BufMgr).
+   */
+  public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+            String replacement_policy, String db_access, String pool )
+    throws IOException,
+           InvalidPageNumberException,
+           FileIOException,
+           DiskMgrException,
+           PageNotFoundException,
+           HashEntryNotFoundException,
+           PagePinnedException,
+           PageUnpinnedException,
+           InvalidFrameNumberException,
+           HashOperationException,
+           BufMgrException
+    {
+      this(dbname, num_pgs, bufpoolsize, replacement_policy, db_access, 0, pool);
+    }
+
+  /**
+   * Opens or creates the database as above. A new database has pages
+   * of the given size; an existing one keeps the size it was created
+   * with, which is read from its file.
+   * @param page_size bytes in a page of a new database: a power of two
+   *        from MINIBASE_MIN_PAGESIZE to MINIBASE_MAX_PAGESIZE, or 0
+   *        for MINIBASE_PAGESIZE.
+   */
+  public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+            String replacement_policy, String db_access, int page_size )
+    throws IOException,
+           InvalidPageNumberException,
+           FileIOException,
+           DiskMgrException,
+           PageNotFoundException,
+           HashEntryNotFoundException,
+           PagePinnedException,
+           PageUnpinnedException,
+           InvalidFrameNumberException,
+           HashOperationException,
+           BufMgrException
+    {
+      this(dbname, num_pgs, bufpoolsize, replacement_policy, db_access,
+           page_size, null);
+    }
+
+  /**
+   * Opens or creates the database with pages of the given size and the
+   * buffer pool's frames kept the given way.
+   */
+  public SystemDefs(String dbname, int num_pgs, int bufpoolsize,
+            String replacement_policy, String db_access, int page_size,
+            String pool )
+    throws IOException,
+           InvalidPageNumberException,
+           FileIOException,
+           DiskMgrException,
+           PageNotFoundException,
+           HashEntryNotFoundException,
+           PagePinnedException,
+           PageUnpinnedException,
+           InvalidFrameNumberException,
+           HashOperationException,
+           BufMgrException
     {
       int logsize;
 
@@ -50,7 +150,7 @@ public class SystemDefs {
       }
 
       init(real_dbname,real_logname, num_pgs, logsize,
-           bufpoolsize, replacement_policy);
+           bufpoolsize, replacement_policy, db_access, page_size, pool);
     }
 
 
@@ -70,6 +170,46 @@ public class SystemDefs {
            HashOperationException,
            BufMgrException
     {
+      init(dbname, logname, num_pgs, maxlogsize, bufpoolsize,
+           replacement_policy, null, 0);
+    }
+
+  public void init( String dbname, String logname,
+            int num_pgs, int maxlogsize,
+            int bufpoolsize, String replacement_policy,
+            String db_access, int page_size )
+    throws IOException,
+           InvalidPageNumberException,
+           FileIOException,
+           DiskMgrException,
+           PageNotFoundException,
+           HashEntryNotFoundException,
+           PagePinnedException,
+           PageUnpinnedException,
+           InvalidFrameNumberException,
+           HashOperationException,
+           BufMgrException
+    {
+      init(dbname, logname, num_pgs, maxlogsize, bufpoolsize,
+           replacement_policy, db_access, page_size, null);
+    }
+
+  public void init( String dbname, String logname,
+            int num_pgs, int maxlogsize,
+            int bufpoolsize, String replacement_policy,
+            String db_access, int page_size, String pool )
+    throws IOException,
+           InvalidPageNumberException,
+           FileIOException,
+           DiskMgrException,
+           PageNotFoundException,
+           HashEntryNotFoundException,
+           PagePinnedException,
+           PageUnpinnedException,
+           InvalidFrameNumberException,
+           HashOperationException,
+           BufMgrException
+    {
 
       // boolean status = true; // Not used
       JavabaseBM = null;
@@ -78,9 +218,42 @@ public class SystemDefs {
       JavabaseLogName = null;
       JavabaseCatalog = null;
 
+      // The pool's frames are pages, so the page size comes first: an
+      // existing database's is read from its file
+      if ((MINIBASE_RESTART_FLAG)||(num_pgs == 0))
+        page_size = DB.page_size(dbname);
+      else if (page_size == 0)
+        page_size = GlobalConst.MINIBASE_PAGESIZE;
+      else if (page_size < GlobalConst.MINIBASE_MIN_PAGESIZE
+               || page_size > GlobalConst.MINIBASE_MAX_PAGESIZE
+               || (page_size & (page_size - 1)) != 0)
+        throw new DiskMgrException(null, "page size " + page_size
+                                   + " is not a power of two from "
+                                   + GlobalConst.MINIBASE_MIN_PAGESIZE + " to "
+                                   + GlobalConst.MINIBASE_MAX_PAGESIZE);
+      JavabasePageSize = page_size;
+
       try {
-        JavabaseBM = new BufMgr(bufpoolsize, replacement_policy);
-        JavabaseDB = new DB();
+        if (pool == null || pool.compareTo("Heap") == 0)
+          JavabaseBM = new BufMgr(bufpoolsize, replacement_policy);
+        else if (pool.compareTo("OffHeap") == 0) {
+          JavabaseBM = new BufMgr(bufpoolsize, replacement_policy, true);
+          System.out.println("Buffer pool: OffHeap\n");
+        }
+        else {
+          JavabaseBM = new BufMgr(bufpoolsize, replacement_policy);
+          System.out.println("Buffer pool: Unknown, use Heap\n");
+        }
+        if (db_access == null || db_access.compareTo("File") == 0)
+          JavabaseDB = new DB();
+        else if (db_access.compareTo("Mapped") == 0) {
+          JavabaseDB = new MappedDB();
+          System.out.println("DB access: Mapped\n");
+        }
+        else {
+          JavabaseDB = new DB();
+          System.out.println("DB access: Unknown, use File\n");
+        }
 /*
         JavabaseCatalog = new Catalog();
 */
@@ -84,12 +84,7 @@ public class Vector100Dtype implements Serializable {
         if (other == null) {
             throw new IllegalArgumentException("Other vector cannot be null.");
         }
-        double sum = 0;
-        for (int i = 0; i < DIMENSIONS; i++) {
-            int diff = this.values[i] - other.values[i];
-            sum += diff * diff;
-        }
-        return Math.sqrt(sum);
+        return VectorKernel.distance(this.values, other.values);
     }
 
     @Override
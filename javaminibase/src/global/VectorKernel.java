@@ -0,0 +1,184 @@
+package global;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Distance and dot-product kernels for int vectors, shared by every
+ * vector code path (Vector100Dtype, TupleUtils, the LSH hash functions and
+ * the distance sort).
+ *
+ * When the JVM runs with <code>--add-modules jdk.incubator.vector</code>
+ * the SIMD implementation in VectorKernelSIMD is used; otherwise, or if it
+ * fails to load, the plain loops below are. The implementation can be
+ * forced back to scalar with <code>-Dminibase.simd=false</code>.
+ *
+ * Components are expected in the Vector100Dtype range [-10000, 10000]:
+ * a squared difference or a product of two components must fit in an
+ * int. Sums are accumulated in a long.
+ *
+ * The kernels that take a byte[] read the components in place, in the
+ * big-endian layout Convert.setIntValue writes (a vector field of a
+ * tuple), so no int[] has to be decoded first.
+ */
+public class VectorKernel {
+
+  /** Big-endian ints in a byte[], at any byte offset. */
+  static final VarHandle INT_BE =
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+  private static final VectorKernel impl = load();
+
+  protected VectorKernel() { }
+
+  private static VectorKernel load()
+    {
+      if (!Boolean.parseBoolean(System.getProperty("minibase.simd", "true"))
+          || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+        return new VectorKernel();
+      }
+      try {
+        return (VectorKernel) Class.forName("global.VectorKernelSIMD")
+          .getDeclaredConstructor().newInstance();
+      }
+      catch (Throwable e) {
+        return new VectorKernel();
+      }
+    }
+
+  /**
+   * @return "simd" or "scalar", whichever implementation is in use
+   */
+  public static String implementation()
+    {
+      return impl.name();
+    }
+
+  /**
+   * Squared Euclidean distance over the first a.length components.
+   * @param a one vector
+   * @param b another vector, at least as long as a
+   * @return sum of (a[i]-b[i])^2
+   */
+  public static long squaredDistance(int[] a, int[] b)
+    {
+      return impl.squaredDistanceImpl(a, b);
+    }
+
+  /**
+   * Euclidean distance over the first a.length components.
+   * @param a one vector
+   * @param b another vector, at least as long as a
+   * @return sqrt of the sum of (a[i]-b[i])^2
+   */
+  public static double distance(int[] a, int[] b)
+    {
+      return Math.sqrt(impl.squaredDistanceImpl(a, b));
+    }
+
+  /**
+   * Dot product over the first a.length components.
+   * @param a one vector
+   * @param b another vector, at least as long as a
+   * @return sum of a[i]*b[i]
+   */
+  public static long dot(int[] a, int[] b)
+    {
+      return impl.dotImpl(a, b);
+    }
+
+  /**
+   * Squared Euclidean distance over n components, the first vector
+   * stored in a.
+   * @param a bytes holding one vector
+   * @param aOff where its first component starts
+   * @param b another vector
+   * @param n components to compare
+   * @return sum of (a[i]-b[i])^2
+   */
+  public static long squaredDistance(byte[] a, int aOff, int[] b, int n)
+    {
+      return impl.squaredDistanceImpl(a, aOff, b, n);
+    }
+
+  /**
+   * Squared Euclidean distance over n components of two stored vectors.
+   * @param a bytes holding one vector
+   * @param aOff where its first component starts
+   * @param b bytes holding another vector
+   * @param bOff where its first component starts
+   * @param n components to compare
+   * @return sum of (a[i]-b[i])^2
+   */
+  public static long squaredDistance(byte[] a, int aOff, byte[] b, int bOff, int n)
+    {
+      return impl.squaredDistanceImpl(a, aOff, b, bOff, n);
+    }
+
+  /**
+   * Dot product over n components, the first vector stored in a.
+   * @param a bytes holding one vector
+   * @param aOff where its first component starts
+   * @param w another vector
+   * @param n components to multiply
+   * @return sum of a[i]*w[i]
+   */
+  public static long dot(byte[] a, int aOff, int[] w, int n)
+    {
+      return impl.dotImpl(a, aOff, w, n);
+    }
+
+  protected String name()
+    {
+      return "scalar";
+    }
+
+  protected long squaredDistanceImpl(int[] a, int[] b)
+    {
+      long sum = 0;
+      for (int i = 0; i < a.length; i++) {
+        int diff = a[i] - b[i];
+        sum += diff * diff;
+      }
+      return sum;
+    }
+
+  protected long dotImpl(int[] a, int[] b)
+    {
+      long sum = 0;
+      for (int i = 0; i < a.length; i++) {
+        sum += a[i] * b[i];
+      }
+      return sum;
+    }
+
+  protected long squaredDistanceImpl(byte[] a, int aOff, int[] b, int n)
+    {
+      long sum = 0;
+      for (int i = 0; i < n; i++) {
+        int diff = (int) INT_BE.get(a, aOff + (i << 2)) - b[i];
+        sum += diff * diff;
+      }
+      return sum;
+    }
+
+  protected long squaredDistanceImpl(byte[] a, int aOff, byte[] b, int bOff, int n)
+    {
+      long sum = 0;
+      for (int i = 0; i < n; i++) {
+        int diff = (int) INT_BE.get(a, aOff + (i << 2)) - (int) INT_BE.get(b, bOff + (i << 2));
+        sum += diff * diff;
+      }
+      return sum;
+    }
+
+  protected long dotImpl(byte[] a, int aOff, int[] w, int n)
+    {
+      long sum = 0;
+      for (int i = 0; i < n; i++) {
+        sum += (int) INT_BE.get(a, aOff + (i << 2)) * w[i];
+      }
+      return sum;
+    }
+}
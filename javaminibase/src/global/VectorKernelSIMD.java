@@ -0,0 +1,117 @@
+package global;
+
+import java.nio.ByteOrder;
+import jdk.incubator.vector.*;
+
+/**
+ * VectorKernel on top of the incubating Vector API. Only loaded, by
+ * reflection, when jdk.incubator.vector is in the boot layer; compiling
+ * this file needs <code>--add-modules jdk.incubator.vector</code>.
+ *
+ * Per-lane products are computed in int and widened to long before they
+ * are accumulated, so a 100-D sum cannot overflow.
+ */
+class VectorKernelSIMD extends VectorKernel {
+
+  private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+  protected String name()
+    {
+      return "simd";
+    }
+
+  protected long squaredDistanceImpl(int[] a, int[] b)
+    {
+      LongVector acc = LongVector.zero(LONGS);
+      int i = 0;
+      int bound = INTS.loopBound(a.length);
+      for (; i < bound; i += INTS.length()) {
+        IntVector diff = IntVector.fromArray(INTS, a, i).sub(IntVector.fromArray(INTS, b, i));
+        acc = widenAndAdd(acc, diff.mul(diff));
+      }
+      long sum = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < a.length; i++) {
+        int diff = a[i] - b[i];
+        sum += diff * diff;
+      }
+      return sum;
+    }
+
+  protected long dotImpl(int[] a, int[] b)
+    {
+      LongVector acc = LongVector.zero(LONGS);
+      int i = 0;
+      int bound = INTS.loopBound(a.length);
+      for (; i < bound; i += INTS.length()) {
+        acc = widenAndAdd(acc, IntVector.fromArray(INTS, a, i).mul(IntVector.fromArray(INTS, b, i)));
+      }
+      long sum = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < a.length; i++) {
+        sum += a[i] * b[i];
+      }
+      return sum;
+    }
+
+  protected long squaredDistanceImpl(byte[] a, int aOff, int[] b, int n)
+    {
+      LongVector acc = LongVector.zero(LONGS);
+      int i = 0;
+      int bound = INTS.loopBound(n);
+      for (; i < bound; i += INTS.length()) {
+        IntVector diff = load(a, aOff, i).sub(IntVector.fromArray(INTS, b, i));
+        acc = widenAndAdd(acc, diff.mul(diff));
+      }
+      long sum = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < n; i++) {
+        int diff = (int) INT_BE.get(a, aOff + (i << 2)) - b[i];
+        sum += diff * diff;
+      }
+      return sum;
+    }
+
+  protected long squaredDistanceImpl(byte[] a, int aOff, byte[] b, int bOff, int n)
+    {
+      LongVector acc = LongVector.zero(LONGS);
+      int i = 0;
+      int bound = INTS.loopBound(n);
+      for (; i < bound; i += INTS.length()) {
+        IntVector diff = load(a, aOff, i).sub(load(b, bOff, i));
+        acc = widenAndAdd(acc, diff.mul(diff));
+      }
+      long sum = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < n; i++) {
+        int diff = (int) INT_BE.get(a, aOff + (i << 2)) - (int) INT_BE.get(b, bOff + (i << 2));
+        sum += diff * diff;
+      }
+      return sum;
+    }
+
+  protected long dotImpl(byte[] a, int aOff, int[] w, int n)
+    {
+      LongVector acc = LongVector.zero(LONGS);
+      int i = 0;
+      int bound = INTS.loopBound(n);
+      for (; i < bound; i += INTS.length()) {
+        acc = widenAndAdd(acc, load(a, aOff, i).mul(IntVector.fromArray(INTS, w, i)));
+      }
+      long sum = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < n; i++) {
+        sum += (int) INT_BE.get(a, aOff + (i << 2)) * w[i];
+      }
+      return sum;
+    }
+
+  // Components i onward of the vector stored at a[off], byte-swapped into lanes
+  private static IntVector load(byte[] a, int off, int i)
+    {
+      return IntVector.fromByteArray(INTS, a, off + (i << 2), ByteOrder.BIG_ENDIAN);
+    }
+
+  // An int vector widens into two long vectors of the same shape
+  private static LongVector widenAndAdd(LongVector acc, IntVector v)
+    {
+      return acc.add(v.convertShape(VectorOperators.I2L, LONGS, 0))
+                .add(v.convertShape(VectorOperators.I2L, LONGS, 1));
+    }
+}
@@ -0,0 +1,178 @@
+package global;
+
+/**
+ * A flyweight over a 100-D vector stored in a byte array, in the
+ * big-endian layout Convert.setIntValue writes. The view reads components
+ * straight out of the array (a tuple's data, which may be a buffer-pool
+ * frame), and the distance kernels run over those bytes, so a distance
+ * is computed without decoding the vector into an int[].
+ *
+ * A view is re-pointed with wrap() and is meant to be kept and reused by
+ * its owner (one per operator, not one per tuple); it is not thread safe.
+ * It only holds a reference to the array, so a view over a pinned page must not be used after the page is
+ * unpinned.
+ */
+public final class VectorView {
+
+  /** Components in a vector field. */
+  public static final int DIMENSION = 100;
+
+  /** Bytes a vector field takes in a tuple. */
+  public static final int SIZE = DIMENSION * 4;
+
+  private byte[] array;
+  private int offset;
+
+  public VectorView() { }
+
+  public VectorView(byte[] data, int offset)
+    {
+      wrap(data, offset);
+    }
+
+  /**
+   * Points this view at the vector starting at data[offset].
+   * @param data the array holding the vector
+   * @param offset where the first component starts
+   * @return this view
+   */
+  public VectorView wrap(byte[] data, int offset)
+    {
+      array = data;
+      this.offset = offset;
+      return this;
+    }
+
+  /**
+   * @param i component index, 0 to DIMENSION-1
+   * @return component i
+   */
+  public int get(int i)
+    {
+      return (int) VectorKernel.INT_BE.get(array, offset + (i << 2));
+    }
+
+  /**
+   * Overwrites component i in the underlying array.
+   * @param i component index, 0 to DIMENSION-1
+   * @param value the new value
+   */
+  public void set(int i, int value)
+    {
+      VectorKernel.INT_BE.set(array, offset + (i << 2), value);
+    }
+
+  /**
+   * Copies the components into dst.
+   * @param dst an array of at least DIMENSION ints
+   * @return dst
+   */
+  public int[] copyTo(int[] dst)
+    {
+      return read(array, offset, dst);
+    }
+
+  /**
+   * Copies the vector's bytes, as stored, into dst.
+   * @param dst the array to copy into
+   * @param dstOffset where the first component goes
+   */
+  public void copyBytesTo(byte[] dst, int dstOffset)
+    {
+      System.arraycopy(array, offset, dst, dstOffset, SIZE);
+    }
+
+  /**
+   * @return a new array holding the components
+   */
+  public int[] toArray()
+    {
+      return copyTo(new int[DIMENSION]);
+    }
+
+  /**
+   * Overwrites the vector with src.
+   * @param src an array of at least DIMENSION ints
+   */
+  public void copyFrom(int[] src)
+    {
+      write(src, array, offset);
+    }
+
+  /**
+   * Decodes the vector stored at data[offset] into dst, without a view.
+   * @param data the array holding the vector
+   * @param offset where the first component starts
+   * @param dst an array of at least DIMENSION ints
+   * @return dst
+   */
+  public static int[] read(byte[] data, int offset, int[] dst)
+    {
+      for (int i = 0, pos = offset; i < DIMENSION; i++, pos += 4) {
+        dst[i] = (int) VectorKernel.INT_BE.get(data, pos);
+      }
+      return dst;
+    }
+
+  /**
+   * Stores src at data[offset], without a view.
+   * @param src an array of at least DIMENSION ints
+   * @param data the array to store into
+   * @param offset where the first component goes
+   */
+  public static void write(int[] src, byte[] data, int offset)
+    {
+      for (int i = 0, pos = offset; i < DIMENSION; i++, pos += 4) {
+        VectorKernel.INT_BE.set(data, pos, src[i]);
+      }
+    }
+
+  /**
+   * Squared Euclidean distance to target, with the same range
+   * assumptions as VectorKernel.
+   * @param target a vector of at least DIMENSION ints
+   * @return sum of (this[i]-target[i])^2
+   */
+  public long squaredDistanceTo(int[] target)
+    {
+      return VectorKernel.squaredDistance(array, offset, target, DIMENSION);
+    }
+
+  /**
+   * Squared Euclidean distance to the vector another view points at.
+   * @param other another view
+   * @return sum of (this[i]-other[i])^2
+   */
+  public long squaredDistanceTo(VectorView other)
+    {
+      return VectorKernel.squaredDistance(array, offset, other.array, other.offset, DIMENSION);
+    }
+
+  /**
+   * @param target a vector of at least DIMENSION ints
+   * @return Euclidean distance to target
+   */
+  public double distanceTo(int[] target)
+    {
+      return Math.sqrt(squaredDistanceTo(target));
+    }
+
+  /**
+   * @param other another view
+   * @return Euclidean distance to the vector other points at
+   */
+  public double distanceTo(VectorView other)
+    {
+      return Math.sqrt(squaredDistanceTo(other));
+    }
+
+  /**
+   * Dot product with w.
+   * @param w a vector of at least DIMENSION ints
+   * @return sum of this[i]*w[i]
+   */
+  public long dot(int[] w)
+    {
+      return VectorKernel.dot(array, offset, w, DIMENSION);
+    }
+}
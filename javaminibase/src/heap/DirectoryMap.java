@@ -0,0 +1,450 @@
+package heap;
+
+/** File DirectoryMap.java */
+
+import java.util.*;
+import global.*;
+import diskmgr.*;
+
+/** Where each data page of a heapfile is listed in its directory: the
+ * directory page, and the slot of the page's DataPageInfo record on it.
+ * With it a record is found by pinning its data page and one directory
+ * page, instead of walking the directory.
+ *
+ * It is also the heapfile's free space map. The free space of each
+ * data page, which its DataPageInfo keeps on disk, is copied here, and
+ * the pages are put in NUM_BUCKETS buckets by how much they have free,
+ * so insertRecord finds a page a record fits on without reading any.
+ * The directory pages with room for another DataPageInfo are kept too,
+ * as is the last one, which a new directory page is linked after.
+ *
+ * There is one map per heapfile, shared by every Heapfile object open
+ * on it, so that each one sees the pages the others add and free. The
+ * run of pages set aside for the heapfile's new pages is kept here for
+ * the same reason: every object takes its pages from the one run. A map
+ * is built from the directory the first time it is needed, and kept up
+ * to date by insertRecord and deleteRecord from then on. The maps are
+ * dropped when another database is opened.
+ *
+ * The map is an open addressing hash table, like the buffer manager's
+ * page table, so a lookup allocates nothing. The buckets are lists
+ * linked through the table's slots, as the buffer manager's FrameLists
+ * link frames, so moving a page between buckets allocates nothing
+ * either.
+ */
+class DirectoryMap implements GlobalConst {
+
+  /** get() of a page that is not in the map. */
+  static final long NONE = -1L;
+
+  /** Number of free space buckets; bucket i holds the pages with
+   * i/NUM_BUCKETS to (i+1)/NUM_BUCKETS of a page free.
+   */
+  static final int NUM_BUCKETS = 16;
+
+  /** Most pages findSpace checks in a record's own bucket. */
+  private static final int SCAN_LIMIT = 32;
+
+  /** The maps of the heapfiles of db, by first directory page. */
+  private static final HashMap<Integer, DirectoryMap> maps =
+    new HashMap<Integer, DirectoryMap>();
+  private static DB db;
+
+  /** Data page numbers, or INVALID_PAGE; the length is a power of two. */
+  private int[] keys;
+
+  /** (directory page number << 32) | slot number, for each key. */
+  private long[] vals;
+
+  /** Free space on each data page. */
+  private int[] spaces;
+
+  private int size;
+
+  /** The slots before and after each slot's page in its bucket, or
+   * -1 at either end.
+   */
+  private int[] prev;
+  private int[] next;
+
+  /** The first and last slot in each bucket, or -1 if it is empty; a
+   * page's bucket is bucket(spaces[slot]).
+   */
+  private int[] head;
+  private int[] tail;
+
+  /** Directory pages with room for another DataPageInfo, in the order
+   * they got room.
+   */
+  private int[] dirsWithRoom;
+  private int numDirsWithRoom;
+
+  /** The last directory page. */
+  private int lastDir;
+
+  /** The data page last inserted into. */
+  private int insertPage;
+
+  /** Whether every data page of the heapfile is in the map. */
+  private boolean built;
+
+  /** The run of pages the heapfile takes new pages from; not emptied
+   * by clear(), since it is not read from the directory.
+   */
+  private PageExtent extent = new PageExtent();
+
+  private DirectoryMap()
+  {
+    clear();
+  }
+
+  /** Returns the map of a heapfile, which may not be built yet.
+   *
+   * @param firstDirPageId the heapfile's first directory page
+   */
+  static synchronized DirectoryMap of(PageId firstDirPageId)
+  {
+    if (db != SystemDefs.JavabaseDB) {
+      maps.clear();
+      db = SystemDefs.JavabaseDB;
+    }
+    DirectoryMap map = maps.get(firstDirPageId.pid);
+    if (map == null) {
+      map = new DirectoryMap();
+      maps.put(firstDirPageId.pid, map);
+    }
+    return map;
+  }
+
+  /** Forgets the map of a heapfile being deleted.
+   *
+   * @param firstDirPageId the heapfile's first directory page
+   */
+  static synchronized void drop(PageId firstDirPageId)
+  {
+    maps.remove(firstDirPageId.pid);
+  }
+
+  /** @return whether every data page of the heapfile is in the map */
+  synchronized boolean isBuilt()
+  {
+    return built;
+  }
+
+  /** Marks the map as holding every data page of the heapfile. */
+  synchronized void setBuilt()
+  {
+    built = true;
+  }
+
+  /** Empties the map, to be built again. */
+  synchronized void clear()
+  {
+    keys = new int[16];
+    vals = new long[16];
+    spaces = new int[16];
+    prev = new int[16];
+    next = new int[16];
+    Arrays.fill(keys, INVALID_PAGE);
+    size = 0;
+    head = new int[NUM_BUCKETS];
+    tail = new int[NUM_BUCKETS];
+    Arrays.fill(head, -1);
+    Arrays.fill(tail, -1);
+    dirsWithRoom = new int[4];
+    numDirsWithRoom = 0;
+    lastDir = INVALID_PAGE;
+    insertPage = INVALID_PAGE;
+    built = false;
+  }
+
+  /** @return the run of pages the heapfile takes new pages from */
+  synchronized PageExtent extent()
+  {
+    return extent;
+  }
+
+  /** Sets the run of pages the heapfile takes new pages from.
+   *
+   * @param extent the run its first page was taken from
+   */
+  synchronized void setExtent(PageExtent extent)
+  {
+    this.extent = extent;
+  }
+
+  /** Looks up a data page.
+   *
+   * @param pid the data page number
+   * @return (directory page number << 32) | slot number, or NONE
+   */
+  synchronized long get(int pid)
+  {
+    int i = find(pid);
+    return i < 0 ? NONE : vals[i];
+  }
+
+  /** Records where a data page is listed, and its free space.
+   *
+   * @param pid      the data page number
+   * @param dirPid   the directory page number
+   * @param slotNo   the slot of its DataPageInfo record
+   * @param space    its free space
+   */
+  synchronized void put(int pid, int dirPid, int slotNo, int space)
+  {
+    if (2 * (size + 1) > keys.length)
+      grow();
+
+    int mask = keys.length - 1;
+    int i = hash(pid, mask);
+    while (keys[i] != INVALID_PAGE && keys[i] != pid)
+      i = (i + 1) & mask;
+    if (keys[i] == INVALID_PAGE)
+      size++;
+    else
+      unlink(i);
+    keys[i] = pid;
+    vals[i] = ((long) dirPid << 32) | (slotNo & 0xffffffffL);
+    spaces[i] = space;
+    link(i);
+  }
+
+  /** Records the free space of a data page in the map.
+   *
+   * @param pid   the data page number
+   * @param space its free space
+   */
+  synchronized void setSpace(int pid, int space)
+  {
+    int i = find(pid);
+    if (i < 0)
+      return;
+    if (bucket(spaces[i]) != bucket(space)) {
+      unlink(i);
+      spaces[i] = space;
+      link(i);
+    }
+    else
+      spaces[i] = space;
+  }
+
+  /** Finds a data page with room for a record: the data page last
+   * inserted into if the record fits, else the fullest page found
+   * with room. The record's own bucket holds pages with less room as
+   * well as more, so up to SCAN_LIMIT of its pages are checked, and
+   * those without room are moved to its back; after that, any page
+   * of the next bucket up that has pages has room.
+   *
+   * @param recLen the length of the record
+   * @return the data page number, or INVALID_PAGE if no page has room
+   */
+  synchronized int findSpace(int recLen)
+  {
+    int i = find(insertPage);
+    if (i >= 0 && spaces[i] >= recLen)
+      return insertPage;
+
+    int b = bucket(recLen);
+    int first = -1;
+    for (int n = 0; n < SCAN_LIMIT && head[b] >= 0 && head[b] != first; n++) {
+      i = head[b];
+      if (spaces[i] >= recLen)
+        return keys[i];
+      if (first < 0)
+        first = i;
+      unlink(i);
+      link(i);
+    }
+
+    for (b++; b < NUM_BUCKETS; b++) {
+      if (head[b] >= 0)
+        return keys[head[b]];
+    }
+    return INVALID_PAGE;
+  }
+
+  /** Remembers the data page last inserted into.
+   *
+   * @param pid the data page number
+   */
+  synchronized void setInsertPage(int pid)
+  {
+    insertPage = pid;
+  }
+
+  /** Records whether a directory page has room for a DataPageInfo.
+   *
+   * @param dirPid the directory page number
+   * @param room   whether it has room
+   */
+  synchronized void setDirRoom(int dirPid, boolean room)
+  {
+    int j = 0;
+    while (j < numDirsWithRoom && dirsWithRoom[j] != dirPid)
+      j++;
+    if (room && j == numDirsWithRoom) {
+      if (numDirsWithRoom == dirsWithRoom.length)
+        dirsWithRoom = Arrays.copyOf(dirsWithRoom, 2 * numDirsWithRoom);
+      dirsWithRoom[numDirsWithRoom++] = dirPid;
+    }
+    else if (!room && j < numDirsWithRoom) {
+      System.arraycopy(dirsWithRoom, j + 1, dirsWithRoom, j, numDirsWithRoom - j - 1);
+      numDirsWithRoom--;
+    }
+  }
+
+  /** @return a directory page with room for a DataPageInfo, or
+   * INVALID_PAGE
+   */
+  synchronized int dirWithRoom()
+  {
+    return numDirsWithRoom == 0 ? INVALID_PAGE : dirsWithRoom[0];
+  }
+
+  /** @return the last directory page */
+  synchronized int lastDir()
+  {
+    return lastDir;
+  }
+
+  /** Records the last directory page.
+   *
+   * @param dirPid the directory page number
+   */
+  synchronized void setLastDir(int dirPid)
+  {
+    lastDir = dirPid;
+  }
+
+  /** Forgets a data page that was freed.
+   *
+   * @param pid the data page number
+   */
+  synchronized void remove(int pid)
+  {
+    int hole = find(pid);
+    if (hole < 0)
+      return;
+    unlink(hole);
+    if (insertPage == pid)
+      insertPage = INVALID_PAGE;
+
+    int mask = keys.length - 1;
+
+    // Move back every later entry of the run whose probe passes the hole
+    for (int i = (hole + 1) & mask; keys[i] != INVALID_PAGE; i = (i + 1) & mask) {
+      int home = hash(keys[i], mask);
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        keys[hole] = keys[i];
+        vals[hole] = vals[i];
+        spaces[hole] = spaces[i];
+        relink(i, hole);
+        hole = i;
+      }
+    }
+    keys[hole] = INVALID_PAGE;
+    size--;
+  }
+
+  /** @return the slot of a data page in the table, or -1 */
+  private int find(int pid)
+  {
+    if (pid == INVALID_PAGE)
+      return -1;
+    int mask = keys.length - 1;
+    for (int i = hash(pid, mask); keys[i] != INVALID_PAGE; i = (i + 1) & mask) {
+      if (keys[i] == pid)
+        return i;
+    }
+    return -1;
+  }
+
+  /** Puts a slot's page at the back of its bucket. */
+  private void link(int i)
+  {
+    int b = bucket(spaces[i]);
+    prev[i] = tail[b];
+    next[i] = -1;
+    if (tail[b] >= 0)
+      next[tail[b]] = i;
+    else
+      head[b] = i;
+    tail[b] = i;
+  }
+
+  /** Takes a slot's page out of its bucket. */
+  private void unlink(int i)
+  {
+    int b = bucket(spaces[i]);
+    if (prev[i] >= 0)
+      next[prev[i]] = next[i];
+    else
+      head[b] = next[i];
+    if (next[i] >= 0)
+      prev[next[i]] = prev[i];
+    else
+      tail[b] = prev[i];
+  }
+
+  /** Points the links at a page moved from slot from to slot to, whose
+   * spaces entry has already been copied.
+   */
+  private void relink(int from, int to)
+  {
+    int b = bucket(spaces[to]);
+    prev[to] = prev[from];
+    next[to] = next[from];
+    if (prev[to] >= 0)
+      next[prev[to]] = to;
+    else
+      head[b] = to;
+    if (next[to] >= 0)
+      prev[next[to]] = to;
+    else
+      tail[b] = to;
+  }
+
+  private static int bucket(int space)
+  {
+    return Math.min(NUM_BUCKETS - 1, Math.max(0, space) * NUM_BUCKETS / SystemDefs.JavabasePageSize);
+  }
+
+  private static int hash(int pid, int mask)
+  {
+    return (pid * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask);
+  }
+
+  // Doubles the table, moving the pages bucket by bucket in list order
+  // so each bucket keeps its order
+  private void grow()
+  {
+    int[] oldKeys = keys;
+    long[] oldVals = vals;
+    int[] oldSpaces = spaces;
+    int[] oldNext = next;
+    int[] oldHead = head;
+    keys = new int[2 * oldKeys.length];
+    vals = new long[keys.length];
+    spaces = new int[keys.length];
+    prev = new int[keys.length];
+    next = new int[keys.length];
+    head = new int[NUM_BUCKETS];
+    tail = new int[NUM_BUCKETS];
+    Arrays.fill(keys, INVALID_PAGE);
+    Arrays.fill(head, -1);
+    Arrays.fill(tail, -1);
+    int mask = keys.length - 1;
+    for (int b = 0; b < NUM_BUCKETS; b++) {
+      for (int j = oldHead[b]; j >= 0; j = oldNext[j]) {
+        int i = hash(oldKeys[j], mask);
+        while (keys[i] != INVALID_PAGE)
+          i = (i + 1) & mask;
+        keys[i] = oldKeys[j];
+        vals[i] = oldVals[j];
+        spaces[i] = oldSpaces[j];
+        link(i);
+      }
+    }
+  }
+}
@@ -22,6 +22,19 @@ interface ConstSlot{
 /** Class heap file page.
  * The design assumes that records are kept compacted when
  * deletions are performed. 
+ * <p>
+ * Page format: a header of DPFIXED bytes (the slot count, used
+ * pointer, free space and type in two bytes each, then the previous,
+ * next and current page ids in four), the slot directory after it,
+ * SIZE_OF_SLOT bytes a slot (record length, then offset), and the
+ * records packed down from the end of the page. The two-byte fields
+ * are read unsigned, so pages of up to 64K can be addressed.
+ * <p>
+ * The used pointer is the offset of the first record byte, and the
+ * page size on a page with no records. On an empty 64K page that is
+ * 65536, which two bytes cannot hold, so it is stored as 0; no page
+ * has a record at offset 0, which is the header, so 0 always means
+ * the end of a 64K page.
  */
 
 public class HFPage extends Page 
@@ -32,6 +45,7 @@ public class HFPage extends Page
   public static final int DPFIXED =  4 * 2  + 3 * 4;
   
   public static final int SLOT_CNT = 0;
+  /** Offset of the used pointer; a used pointer of 0 is 65536 */
   public static final int USED_PTR = 2;
   public static final int FREE_SPACE = 4;
   public static final int TYPE = 6;
@@ -53,12 +67,12 @@ public class HFPage extends Page
   /**
    * offset of first used byte by data records in data[]
    */
-  private    short     usedPtr;   
+  private    int       usedPtr;   
   
   /**
    * number of bytes free in data[]
    */
-  private    short     freeSpace;  
+  private    int       freeSpace;  
   
   /**
    * an arbitrary value used by subclasses as needed
@@ -94,7 +108,7 @@ public class HFPage extends Page
   
   public HFPage(Page page)
     {
-      data = page.getpage();
+      setpage(page);
     }
   
   /**
@@ -105,7 +119,7 @@ public class HFPage extends Page
   
   public void openHFpage(Page apage)
     {
-      data = apage.getpage();
+      setpage(apage);
     }
   
   /**
@@ -121,28 +135,28 @@ public class HFPage extends Page
   public void init(PageId pageNo, Page apage)
     throws IOException
     {
-      data = apage.getpage();
+      setpage(apage);
       
       slotCnt = 0;                // no slots in use
-      Convert.setShortValue (slotCnt, SLOT_CNT, data);
+      setShortValue (slotCnt, SLOT_CNT);
       
       curPage.pid = pageNo.pid;
-      Convert.setIntValue (curPage.pid, CUR_PAGE, data);
+      setIntValue (curPage.pid, CUR_PAGE);
       
       nextPage.pid = prevPage.pid = INVALID_PAGE;
-      Convert.setIntValue (prevPage.pid, PREV_PAGE, data);
-      Convert.setIntValue (nextPage.pid, NEXT_PAGE, data);
+      setIntValue (prevPage.pid, PREV_PAGE);
+      setIntValue (nextPage.pid, NEXT_PAGE);
       
-      usedPtr = (short) MAX_SPACE;  // offset in data array (grow backwards)
-      Convert.setShortValue (usedPtr, USED_PTR, data);
+      usedPtr = getpagesize();  // offset in data array (grow backwards)
+      setShortValue ((short) usedPtr, USED_PTR);
       
-      freeSpace = (short) (MAX_SPACE - DPFIXED);    // amount of space available
-      Convert.setShortValue (freeSpace, FREE_SPACE, data);
+      freeSpace = getpagesize() - DPFIXED;    // amount of space available
+      setShortValue ((short) freeSpace, FREE_SPACE);
       
     }
   
   /**
-   * @return byte array
+   * @return byte array, or null if the page is in an off-heap frame
    */
   
   public byte [] getHFpageArray()
@@ -160,11 +174,11 @@ public class HFPage extends Page
       int i, n ;
       int length, offset;
       
-      curPage.pid =  Convert.getIntValue (CUR_PAGE, data);
-      nextPage.pid =  Convert.getIntValue (NEXT_PAGE, data);
-      usedPtr =  Convert.getShortValue (USED_PTR, data);
-      freeSpace =  Convert.getShortValue (FREE_SPACE, data);
-      slotCnt =  Convert.getShortValue (SLOT_CNT, data);
+      curPage.pid =  getIntValue (CUR_PAGE);
+      nextPage.pid =  getIntValue (NEXT_PAGE);
+      usedPtr =  getUsedPtr();
+      freeSpace =  getFreeSpace();
+      slotCnt =  getShortValue (SLOT_CNT);
       
       System.out.println("dumpPage");
       System.out.println("curPage= " + curPage.pid);
@@ -174,8 +188,8 @@ public class HFPage extends Page
       System.out.println("slotCnt= " + slotCnt);
       
       for (i= 0, n=DPFIXED; i < slotCnt; n +=SIZE_OF_SLOT, i++) {
-        length =  Convert.getShortValue (n, data);
-	offset =  Convert.getShortValue (n+2, data);
+        length =  getSlotLength (i);
+	offset =  getSlotOffset (i);
 	System.out.println("slotNo " + i +" offset= " + offset);
         System.out.println("slotNo " + i +" length= " + length);
       }
@@ -189,7 +203,7 @@ public class HFPage extends Page
   public PageId getPrevPage()   
     throws IOException 
     {
-      prevPage.pid =  Convert.getIntValue (PREV_PAGE, data);
+      prevPage.pid =  getIntValue (PREV_PAGE);
       return prevPage;
     }
   
@@ -202,7 +216,7 @@ public class HFPage extends Page
     throws IOException
     {
       prevPage.pid = pageNo.pid;
-      Convert.setIntValue (prevPage.pid, PREV_PAGE, data);
+      setIntValue (prevPage.pid, PREV_PAGE);
     }
   
   /**
@@ -212,7 +226,7 @@ public class HFPage extends Page
   public PageId getNextPage()
     throws IOException
     {
-      nextPage.pid =  Convert.getIntValue (NEXT_PAGE, data);    
+      nextPage.pid =  getIntValue (NEXT_PAGE);    
       return nextPage;
     }
   
@@ -225,7 +239,7 @@ public class HFPage extends Page
     throws IOException
     {
       nextPage.pid = pageNo.pid;
-      Convert.setIntValue (nextPage.pid, NEXT_PAGE, data);
+      setIntValue (nextPage.pid, NEXT_PAGE);
     }
   
   /**
@@ -235,7 +249,7 @@ public class HFPage extends Page
   public PageId getCurPage() 
     throws IOException
     {
-      curPage.pid =  Convert.getIntValue (CUR_PAGE, data);
+      curPage.pid =  getIntValue (CUR_PAGE);
       return curPage;
     }
   
@@ -248,7 +262,7 @@ public class HFPage extends Page
     throws IOException
     {
       curPage.pid = pageNo.pid;
-      Convert.setIntValue (curPage.pid, CUR_PAGE, data);
+      setIntValue (curPage.pid, CUR_PAGE);
     }
   
   /**
@@ -258,7 +272,7 @@ public class HFPage extends Page
   public short getType() 
     throws IOException 
     {
-      type =  Convert.getShortValue (TYPE, data);
+      type =  getShortValue (TYPE);
       return type;
     }
   
@@ -271,7 +285,7 @@ public class HFPage extends Page
     throws IOException
     {
       type = valtype;
-      Convert.setShortValue (type, TYPE, data);
+      setShortValue (type, TYPE);
     }
   
   /**
@@ -281,7 +295,7 @@ public class HFPage extends Page
   public short getSlotCnt() 
     throws IOException
     {
-      slotCnt =  Convert.getShortValue (SLOT_CNT, data);
+      slotCnt =  getShortValue (SLOT_CNT);
       return slotCnt;
     }
   
@@ -296,8 +310,8 @@ public class HFPage extends Page
     throws IOException
     {
       int position = DPFIXED + slotno * SIZE_OF_SLOT;
-      Convert.setShortValue((short)length, position, data);
-      Convert.setShortValue((short)offset, position+2, data);
+      setShortValue ((short)length, position);
+      setShortValue ((short)offset, position+2);
     }
   
   /**
@@ -305,12 +319,12 @@ public class HFPage extends Page
    * @exception IOException I/O errors
    * @return	the length of record the given slot contains
    */
-  public short getSlotLength(int slotno)
+  public int getSlotLength(int slotno)
     throws IOException
     {
       int position = DPFIXED + slotno * SIZE_OF_SLOT;
-      short val= Convert.getShortValue(position, data);
-      return val;
+      short val= getShortValue (position);
+      return val == EMPTY_SLOT ? EMPTY_SLOT : val & 0xFFFF;
     }
   
   /**
@@ -318,12 +332,27 @@ public class HFPage extends Page
    * @exception IOException I/O errors
    * @return      the offset of record the given slot contains
    */
-  public short getSlotOffset(int slotno)
+  public int getSlotOffset(int slotno)
     throws IOException
     {
       int position = DPFIXED + slotno * SIZE_OF_SLOT;
-      short val= Convert.getShortValue(position +2, data);
-      return val;
+      short val= getShortValue (position +2);
+      return val & 0xFFFF;
+    }
+  
+  // the used pointer, with the stored 0 of an empty 64K page read
+  // back as the page size
+  private int getUsedPtr()
+    throws IOException
+    {
+      int ptr = getShortValue (USED_PTR) & 0xFFFF;
+      return ptr == 0 ? getpagesize() : ptr;
+    }
+  
+  private int getFreeSpace()
+    throws IOException
+    {
+      return getShortValue (FREE_SPACE) & 0xFFFF;
     }
   
   
@@ -346,16 +375,16 @@ public class HFPage extends Page
       // This is an upper bound check. May not actually need a slot
       // if we can find an empty one.
       
-      freeSpace = Convert.getShortValue (FREE_SPACE, data);
+      freeSpace = getFreeSpace();
       if (spaceNeeded > freeSpace) {
         return null;
 	
       } else {
 	
 	// look for an empty slot
-	slotCnt = Convert.getShortValue (SLOT_CNT, data); 
+	slotCnt = getShortValue (SLOT_CNT); 
 	int i; 
-	short length;
+	int length;
 	for (i= 0; i < slotCnt; i++) 
 	  {
 	    length = getSlotLength(i); 
@@ -367,28 +396,28 @@ public class HFPage extends Page
 	  {           
 	    // adjust free space        
 	    freeSpace -= spaceNeeded;
-	    Convert.setShortValue (freeSpace, FREE_SPACE, data);
+	    setShortValue ((short) freeSpace, FREE_SPACE);
 	    
 	    slotCnt++;
-	    Convert.setShortValue (slotCnt, SLOT_CNT, data);
+	    setShortValue (slotCnt, SLOT_CNT);
 	    
 	  }
 	else {
 	  // reusing an existing slot
 	  freeSpace -= recLen;
-	  Convert.setShortValue (freeSpace, FREE_SPACE, data);
+	  setShortValue ((short) freeSpace, FREE_SPACE);
 	}
         
-	usedPtr = Convert.getShortValue (USED_PTR, data);
+	usedPtr = getUsedPtr();
         usedPtr -= recLen;    // adjust usedPtr
-	Convert.setShortValue (usedPtr, USED_PTR, data);
+	setShortValue ((short) usedPtr, USED_PTR);
 	
 	//insert the slot info onto the data page
 	setSlot(i, recLen, usedPtr);   
 	
 	// insert data onto the data page
-	System.arraycopy (record, 0, data, usedPtr, recLen);
-	curPage.pid = Convert.getIntValue (CUR_PAGE, data);
+	setBytes (usedPtr, record, 0, recLen);
+	curPage.pid = getIntValue (CUR_PAGE);
 	rid.pageNo.pid = curPage.pid;
 	rid.slotNo = i;
 	return   rid ;
@@ -407,8 +436,8 @@ public class HFPage extends Page
 	   InvalidSlotNumberException
     {
       int slotNo = rid.slotNo;
-      short recLen = getSlotLength (slotNo);
-      slotCnt = Convert.getShortValue (SLOT_CNT, data);
+      int recLen = getSlotLength (slotNo);
+      slotCnt = getShortValue (SLOT_CNT);
       
       // first check if the record being deleted is actually valid
       if ((slotNo >= 0) && (slotNo < slotCnt) && (recLen > 0))
@@ -419,12 +448,12 @@ public class HFPage extends Page
 	  
 	  // offset of record being deleted
 	  int offset = getSlotOffset(slotNo); 
-	  usedPtr = Convert.getShortValue (USED_PTR, data);
+	  usedPtr = getUsedPtr();
 	  int newSpot= usedPtr + recLen;
 	  int size = offset - usedPtr;
 	  
 	  // shift bytes to the right
-	  System.arraycopy(data, usedPtr, data, newSpot, size);
+	  moveBytes(usedPtr, newSpot, size);
 	  
 	  // now need to adjust offsets of all valid slots that refer
 	  // to the left of the record being removed. (by the size of the hole)
@@ -437,19 +466,19 @@ public class HFPage extends Page
 		if(chkoffset < offset)
 		  {
 		    chkoffset += recLen;
-		    Convert.setShortValue((short)chkoffset, n+2, data);
+		    setShortValue ((short)chkoffset, n+2);
 		  }
 	      }
 	  }
 	  
 	  // move used Ptr forwar
 	  usedPtr += recLen;   
-	  Convert.setShortValue (usedPtr, USED_PTR, data);
+	  setShortValue ((short) usedPtr, USED_PTR);
 	  
 	  // increase freespace by size of hole
-	  freeSpace = Convert.getShortValue(FREE_SPACE, data);
+	  freeSpace = getFreeSpace();
 	  freeSpace += recLen;  
-	  Convert.setShortValue (freeSpace, FREE_SPACE, data);
+	  setShortValue ((short) freeSpace, FREE_SPACE);
 	  
 	  setSlot(slotNo, EMPTY_SLOT, 0);  // mark slot free
 	} 
@@ -471,10 +500,10 @@ public class HFPage extends Page
       // find the first non-empty slot
       
       
-      slotCnt = Convert.getShortValue (SLOT_CNT, data);
+      slotCnt = getShortValue (SLOT_CNT);
       
       int i;
-      short length;
+      int length;
       for (i= 0; i < slotCnt; i++)
 	{
 	  length = getSlotLength (i);
@@ -488,7 +517,7 @@ public class HFPage extends Page
       // found a non-empty slot
       
       rid.slotNo = i;
-      curPage.pid= Convert.getIntValue(CUR_PAGE, data);
+      curPage.pid= getIntValue (CUR_PAGE);
       rid.pageNo.pid = curPage.pid;
       
       return rid;
@@ -505,10 +534,10 @@ public class HFPage extends Page
     throws IOException 
     {
       RID rid = new RID();
-      slotCnt = Convert.getShortValue (SLOT_CNT, data);
+      slotCnt = getShortValue (SLOT_CNT);
       
       int i=curRid.slotNo;
-      short length; 
+      int length; 
       
       // find the next non-empty slot
       for (i++; i < slotCnt;  i++)
@@ -524,7 +553,7 @@ public class HFPage extends Page
       // found a non-empty slot
       
       rid.slotNo = i;
-      curPage.pid = Convert.getIntValue(CUR_PAGE, data);
+      curPage.pid = getIntValue (CUR_PAGE);
       rid.pageNo.pid = curPage.pid;
       
       return rid;
@@ -544,23 +573,23 @@ public class HFPage extends Page
     throws IOException,  
 	   InvalidSlotNumberException
     {
-      short recLen;
-      short offset;
+      int recLen;
+      int offset;
       byte []record;
       PageId pageNo = new PageId();
       pageNo.pid= rid.pageNo.pid;
-      curPage.pid = Convert.getIntValue (CUR_PAGE, data);
+      curPage.pid = getIntValue (CUR_PAGE);
       int slotNo = rid.slotNo;
       
       // length of record being returned
       recLen = getSlotLength (slotNo);
-      slotCnt = Convert.getShortValue (SLOT_CNT, data);
+      slotCnt = getShortValue (SLOT_CNT);
       if (( slotNo >=0) && (slotNo < slotCnt) && (recLen >0) 
 	  && (pageNo.pid == curPage.pid))
 	{
 	  offset = getSlotOffset (slotNo);
 	  record = new byte[recLen];
-	  System.arraycopy(data, offset, record, 0, recLen);
+	  getBytes(offset, record, 0, recLen);
 	  Tuple tuple = new Tuple(record, 0, recLen);
 	  return tuple;
 	}
@@ -574,43 +603,98 @@ public class HFPage extends Page
   
   /**
    * returns a tuple in a byte array[pageSize] with given RID rid.
+   * The tuple is the record in place: it is over the page's byte
+   * array, so changes to it are changes to the page. A page in an
+   * off-heap frame has no byte array; read its records with getRecord
+   * or copyRecord and write them back with updateRecord.
    * <br>
    * in C++	Status returnRecord(RID rid, char*& recPtr, int& recLen)
    * @param       rid     the record ID
    * @return      a tuple  with its length and offset in the byte array
    * @exception   InvalidSlotNumberException Invalid slot number
-   * @exception   IOException I/O errors
+   * @exception   IOException I/O errors, or a page off the heap
    * @see 	Tuple
    */  
   public Tuple returnRecord ( RID rid )
     throws IOException, 
 	   InvalidSlotNumberException
     {
-      short recLen;
-      short offset;
-      PageId pageNo = new PageId();
-      pageNo.pid = rid.pageNo.pid;
+      int recLen = recordLength(rid);
+      if (data == null)
+	throw new IOException("HFPage: an off-heap page has no byte array to return a record in");
       
-      curPage.pid = Convert.getIntValue (CUR_PAGE, data);
+      return new Tuple(data, getSlotOffset(rid.slotNo), recLen);
+    }
+  
+  /**
+   * copies the record with RID rid into dst, which must have room for
+   * it at offset; unlike getRecord it allocates nothing, and it works
+   * on a page in any frame.
+   * @param       rid     the record ID
+   * @param       dst     the array to copy the record into
+   * @param       offset  where in dst the record goes
+   * @return      the length of the record
+   * @exception   InvalidSlotNumberException Invalid slot number
+   * @exception   IOException I/O errors
+   */
+  public int copyRecord ( RID rid, byte [] dst, int offset )
+    throws IOException, 
+	   InvalidSlotNumberException
+    {
+      int recLen = recordLength(rid);
+      getBytes(getSlotOffset(rid.slotNo), dst, offset, recLen);
+      return recLen;
+    }
+  
+  /**
+   * returns the length of the record with RID rid, which is how a
+   * caller learns that the record is on this page without copying it.
+   * @param       rid     the record ID
+   * @return      the length of the record
+   * @exception   InvalidSlotNumberException Invalid slot number
+   * @exception   IOException I/O errors
+   */
+  public int recordLength ( RID rid )
+    throws IOException, 
+	   InvalidSlotNumberException
+    {
       int slotNo = rid.slotNo;
+      slotCnt = getShortValue (SLOT_CNT);
+      curPage.pid = getIntValue (CUR_PAGE);
       
-      // length of record being returned
-      recLen = getSlotLength (slotNo);
-      slotCnt = Convert.getShortValue (SLOT_CNT, data);
-      
-      if (( slotNo >=0) && (slotNo < slotCnt) && (recLen >0)
-	  && (pageNo.pid == curPage.pid))
+      if (( slotNo >=0) && (slotNo < slotCnt) && (rid.pageNo.pid == curPage.pid))
 	{
-	  
-	  offset = getSlotOffset (slotNo);
-	  Tuple tuple = new Tuple(data, offset, recLen);
-	  return tuple;
+	  int recLen = getSlotLength (slotNo);
+	  if (recLen > 0)
+	    return recLen;
 	}
+      throw new InvalidSlotNumberException (null, "HEAPFILE: INVALID_SLOTNO");
+    }
+  
+  /**
+   * writes a tuple over the record with RID rid; the tuple must be as
+   * long as the record. A tuple from returnRecord is written over
+   * itself.
+   * @param       rid     the record ID
+   * @param       tuple   the new contents of the record
+   * @exception   InvalidSlotNumberException Invalid slot number, or a
+   *		  tuple of another length
+   * @exception   IOException I/O errors
+   */
+  public void updateRecord ( RID rid, Tuple tuple )
+    throws IOException, 
+	   InvalidSlotNumberException
+    {
+      int slotNo = rid.slotNo;
+      int recLen = getSlotLength (slotNo);
+      slotCnt = getShortValue (SLOT_CNT);
+      curPage.pid = getIntValue (CUR_PAGE);
       
-      else {   
-        throw new InvalidSlotNumberException (null, "HEAPFILE: INVALID_SLOTNO");
-      }
-      
+      if (( slotNo >=0) && (slotNo < slotCnt) && (recLen >0)
+	  && (rid.pageNo.pid == curPage.pid) && (tuple.getLength() == recLen))
+	setBytes(getSlotOffset (slotNo), tuple.returnTupleByteArray(), tuple.getOffset(), recLen);
+      else
+	throw new InvalidSlotNumberException (null, "HEAPFILE: INVALID_SLOTNO");
     }
   
   /**
@@ -621,7 +705,7 @@ public class HFPage extends Page
   public int available_space()  
     throws IOException
     {
-      freeSpace = Convert.getShortValue (FREE_SPACE, data);
+      freeSpace = getFreeSpace();
       return (freeSpace - SIZE_OF_SLOT);
     }
   
@@ -634,9 +718,9 @@ public class HFPage extends Page
     throws IOException
     {
       int i;
-      short length;
+      int length;
       // look for an empty slot
-      slotCnt = Convert.getShortValue (SLOT_CNT, data);
+      slotCnt = getShortValue (SLOT_CNT);
       
       for (i= 0; i < slotCnt; i++) 
 	{
@@ -660,11 +744,11 @@ public class HFPage extends Page
       int  current_scan_posn = 0;   // current scan position
       int  first_free_slot   = -1;   // An invalid position.
       boolean move = false;          // Move a record? -- initially false
-      short length;
-      short offset;		
+      int length;
+      int offset;		
       
-      slotCnt = Convert.getShortValue (SLOT_CNT, data);
-      freeSpace = Convert.getShortValue (FREE_SPACE, data);
+      slotCnt = getShortValue (SLOT_CNT);
+      freeSpace = getFreeSpace();
       
       while (current_scan_posn < slotCnt) 
 	{
@@ -705,8 +789,8 @@ public class HFPage extends Page
 	  // Adjust amount of free space on page and slotCnt
 	  freeSpace += SIZE_OF_SLOT * (slotCnt - first_free_slot);
 	  slotCnt = (short) first_free_slot;
-	  Convert.setShortValue (freeSpace, FREE_SPACE, data);
-	  Convert.setShortValue (slotCnt, SLOT_CNT, data);
+	  setShortValue ((short) freeSpace, FREE_SPACE);
+	  setShortValue (slotCnt, SLOT_CNT);
 	}
     }
   
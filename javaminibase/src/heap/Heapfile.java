@@ -1,6 +1,7 @@
 package heap;
 
 import java.io.*;
+import java.util.*;
 
 import btree.UnpinPageException;
 import diskmgr.*;
@@ -89,6 +90,9 @@ public class Heapfile implements Filetype,  GlobalConst {
      returns pinned directory page and pinned data page of the specified 
      user record(rid) and true if record is found.
      If the user record cannot be found, return false.
+     The directory entry of the record's data page is looked up in the
+     heapfile's DirectoryMap, which is built again if the entry turns out
+     to be out of date.
   */
   private boolean  _findDataPage( RID rid,
 				  PageId dirPageId, HFPage dirpage,
@@ -101,106 +105,66 @@ public class Heapfile implements Filetype,  GlobalConst {
 	   HFDiskMgrException,
 	   Exception
     {
-      PageId currentDirPageId = new PageId(_firstDirPageId.pid);
-      
-      HFPage currentDirPage = new HFPage();
-      HFPage currentDataPage = new HFPage();
-      RID currentDataPageRid = new RID();
-      PageId nextDirPageId = new PageId();
-      // datapageId is stored in dpinfo.pageId 
-      
-      
-      pinPage(currentDirPageId, currentDirPage, false/*read disk*/);
-      
-      Tuple atuple = new Tuple();
+      DirectoryMap map = DirectoryMap.of(_firstDirPageId);
       
-      while (currentDirPageId.pid != INVALID_PAGE)
-	{// Start While01
-	  // ASSERTIONS:
-	  //  currentDirPage, currentDirPageId valid and pinned and Locked.
+      for (int pass = 0; pass < 2; pass++)
+	{
+	  if (!map.isBuilt())
+	    _buildDirectoryMap(map);
 	  
-	  for( currentDataPageRid = currentDirPage.firstRecord();
-	       currentDataPageRid != null;
-	       currentDataPageRid = currentDirPage.nextRecord(currentDataPageRid))
-	    {
-	      try{
-		atuple = currentDirPage.getRecord(currentDataPageRid);
-	      }
-	      catch (InvalidSlotNumberException e)// check error! return false(done) 
-		{
-		  return false;
-		}
-	      
-	      DataPageInfo dpinfo = new DataPageInfo(atuple);
-	      try{
-		pinPage(dpinfo.pageId, currentDataPage, false/*Rddisk*/);
-		
-		
-		//check error;need unpin currentDirPage
-	      }catch (Exception e)
-		{
-		  unpinPage(currentDirPageId, false/*undirty*/);
-		  dirpage = null;
-		  datapage = null;
-		  throw e;
-		}
-	      
-	      
-	      
-	      // ASSERTIONS:
-	      // - currentDataPage, currentDataPageRid, dpinfo valid
-	      // - currentDataPage pinned
-	      
-	      if(dpinfo.pageId.pid==rid.pageNo.pid)
-		{
-		  atuple = currentDataPage.returnRecord(rid);
-		  // found user's record on the current datapage which itself
-		  // is indexed on the current dirpage.  Return both of these.
-		  
-		  dirpage.setpage(currentDirPage.getpage());
-		  dirPageId.pid = currentDirPageId.pid;
-		  
-		  datapage.setpage(currentDataPage.getpage());
-		  dataPageId.pid = dpinfo.pageId.pid;
-		  
-		  rpDataPageRid.pageNo.pid = currentDataPageRid.pageNo.pid;
-		  rpDataPageRid.slotNo = currentDataPageRid.slotNo;
-		  return true;
-		}
-	      else
-		{
-		  // user record not found on this datapage; unpin it
-		  // and try the next one
-		  unpinPage(dpinfo.pageId, false /*undirty*/);
-		  
-		}
-	      
-	    }
+	  long entry = map.get(rid.pageNo.pid);
+	  if (entry == DirectoryMap.NONE)
+	    break;
 	  
-	  // if we would have found the correct datapage on the current
-	  // directory page we would have already returned.
-	  // therefore:
-	  // read in next directory page:
+	  // pin the directory page and check that the entry is still
+	  // the data page's
+	  dirPageId.pid = (int) (entry >>> 32);
+	  RID dpinfoRid = new RID(new PageId(dirPageId.pid), (int) entry);
+	  pinPage(dirPageId, dirpage, false/*Rddisk*/);
 	  
-	  nextDirPageId = currentDirPage.getNextPage();
-	  try{
-	    unpinPage(currentDirPageId, false /*undirty*/);
+	  DataPageInfo dpinfo = null;
+	  try {
+	    dpinfo = new DataPageInfo(dirpage.getRecord(dpinfoRid));
+	  }
+	  catch (InvalidSlotNumberException e) {
 	  }
-	  catch(Exception e) {
-	    throw new HFException (e, "heapfile,_find,unpinpage failed");
+	  catch (InvalidTupleSizeException e) {
 	  }
 	  
-	  currentDirPageId.pid = nextDirPageId.pid;
-	  if(currentDirPageId.pid != INVALID_PAGE)
+	  if (dpinfo == null || dpinfo.pageId.pid != rid.pageNo.pid)
 	    {
-	      pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
-	      if(currentDirPage == null)
-		throw new HFException(null, "pinPage return null page");  
+	      // out of date: build it again
+	      unpinPage(dirPageId, false /*undirty*/);
+	      map.clear();
+	      continue;
 	    }
 	  
+	  dataPageId.pid = dpinfo.pageId.pid;
+	  try{
+	    pinPage(dataPageId, datapage, false/*Rddisk*/);
+	  }catch (Exception e)
+	    {
+	      unpinPage(dirPageId, false/*undirty*/);
+	      throw e;
+	    }
 	  
-	} // end of While01
-      // checked all dir pages and all data pages; user record not found:(
+	  try{
+	    // check that the record is there
+	    datapage.recordLength(rid);
+	  }
+	  catch (InvalidSlotNumberException e)
+	    {
+	      unpinPage(dataPageId, false/*undirty*/);
+	      unpinPage(dirPageId, false/*undirty*/);
+	      throw e;
+	    }
+	  
+	  rpDataPageRid.pageNo.pid = dpinfoRid.pageNo.pid;
+	  rpDataPageRid.slotNo = dpinfoRid.slotNo;
+	  return true;
+	}
+      
+      // the record's page is not a data page of this file
       
       dirPageId.pid = dataPageId.pid = INVALID_PAGE;
       
@@ -209,6 +173,45 @@ public class Heapfile implements Filetype,  GlobalConst {
       
     } // end of _findDatapage		     
   
+  /* Walks the directory and records in map where each data page is
+     listed and how much space it has free, which directory pages have
+     room for another DataPageInfo, and which is the last.
+  */
+  private void _buildDirectoryMap(DirectoryMap map)
+    throws InvalidSlotNumberException, 
+	   InvalidTupleSizeException, 
+	   HFBufMgrException,
+	   IOException
+    {
+      map.clear();
+      
+      PageId currentDirPageId = new PageId(_firstDirPageId.pid);
+      HFPage currentDirPage = new HFPage();
+      
+      while (currentDirPageId.pid != INVALID_PAGE)
+	{
+	  pinPage(currentDirPageId, currentDirPage, false);
+	  
+	  for (RID rid = currentDirPage.firstRecord();
+	       rid != null;
+	       rid = currentDirPage.nextRecord(rid))
+	    {
+	      DataPageInfo dpinfo = new DataPageInfo(currentDirPage.getRecord(rid));
+	      map.put(dpinfo.pageId.pid, currentDirPageId.pid, rid.slotNo,
+		      dpinfo.availspace);
+	    }
+	  map.setDirRoom(currentDirPageId.pid,
+			 currentDirPage.available_space() >= DataPageInfo.size);
+	  map.setLastDir(currentDirPageId.pid);
+	  
+	  PageId nextDirPageId = currentDirPage.getNextPage();
+	  unpinPage(currentDirPageId, false /*undirty*/);
+	  currentDirPageId.pid = nextDirPageId.pid;
+	}
+      
+      map.setBuilt();
+    }
+  
   /** Initialize.  A null name produces a temporary heapfile which will be
    * deleted by the destructor.  If the name already denotes a file, the
    * file is opened; otherwise, a new empty file is created.
@@ -360,6 +363,11 @@ public class Heapfile implements Filetype,  GlobalConst {
     } // end of getRecCnt
   
   /** Insert record into file, return its Rid.
+   *
+   * The data page is taken from the heapfile's free space map (see
+   * DirectoryMap): the page last inserted into while the record fits,
+   * else one with enough space free, else a new one listed on a
+   * directory page with room, or on a new directory page.
    *
    * @param recPtr pointer of the record
    * @param recLen the length of the record
@@ -383,189 +391,67 @@ public class Heapfile implements Filetype,  GlobalConst {
 	   HFDiskMgrException,
 	   IOException
     {
-      int dpinfoLen = 0;	
       int recLen = recPtr.length;
-      boolean found;
+      
+      // the record has to fit on an empty data page
+      if (recLen > SystemDefs.JavabasePageSize - HFPage.DPFIXED - HFPage.SIZE_OF_SLOT)
+	throw new SpaceNotAvailableException(null, "no available space");
+      
       RID currentDataPageRid = new RID();
-      Page pageinbuffer = new Page();
       HFPage currentDirPage = new HFPage();
       HFPage currentDataPage = new HFPage();
+      PageId currentDirPageId = new PageId();
+      DataPageInfo dpinfo = null;
       
-      HFPage nextDirPage = new HFPage(); 
-      PageId currentDirPageId = new PageId(_firstDirPageId.pid);
-      PageId nextDirPageId = new PageId();  // OK
-      
-      pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
+      DirectoryMap map = DirectoryMap.of(_firstDirPageId);
       
-      found = false;
-      Tuple atuple;
-      DataPageInfo dpinfo = new DataPageInfo();
-      while (found == false)
+      while (dpinfo == null)
 	{ //Start While01
-	  // look for suitable dpinfo-struct
-	  for (currentDataPageRid = currentDirPage.firstRecord();
-	       currentDataPageRid != null;
-	       currentDataPageRid = 
-		 currentDirPage.nextRecord(currentDataPageRid))
+	  if (!map.isBuilt())
+	    _buildDirectoryMap(map);
+	  
+	  int pid = map.findSpace(recLen);
+	  
+	  if (pid == INVALID_PAGE)
 	    {
-	      atuple = currentDirPage.getRecord(currentDataPageRid);
-	      
-	      dpinfo = new DataPageInfo(atuple);
-	      
-	      // need check the record length == DataPageInfo'slength
-	      
-	       if(recLen <= dpinfo.availspace)
-		 {
-		   found = true;
-		   break;
-		 }  
+	      // no data page has enough space: list a new one on the directory
+	      dpinfo = new DataPageInfo();
+	      currentDataPage = _newDirectoryEntry(map, dpinfo,
+						   currentDirPageId, currentDirPage,
+						   currentDataPageRid);
+	      if (currentDataPage == null)
+		{
+		  // the map was out of date; it is built again
+		  dpinfo = null;
+		  map.clear();
+		}
+	      continue;
 	    }
 	  
-	  // two cases:
-	  // (1) found == true:
-	  //     currentDirPage has a datapagerecord which can accomodate
-	  //     the record which we have to insert
-	  // (2) found == false:
-	  //     there is no datapagerecord on the current directory page
-	  //     whose corresponding datapage has enough space free
-	  //     several subcases: see below
-	  if(found == false)
-	    { //Start IF01
-	      // case (2)
-	      
-	      //System.out.println("no datapagerecord on the current directory is OK");
-	      //System.out.println("dirpage availspace "+currentDirPage.available_space());
-	      
-	      // on the current directory page is no datapagerecord which has
-	      // enough free space
-	      //
-	      // two cases:
-	      //
-	      // - (2.1) (currentDirPage->available_space() >= sizeof(DataPageInfo):
-	      //         if there is enough space on the current directory page
-	      //         to accomodate a new datapagerecord (type DataPageInfo),
-	      //         then insert a new DataPageInfo on the current directory
-	      //         page
-	      // - (2.2) (currentDirPage->available_space() <= sizeof(DataPageInfo):
-	      //         look at the next directory page, if necessary, create it.
-	      
-	      if(currentDirPage.available_space() >= dpinfo.size)
-		{ 
-		  //Start IF02
-		  // case (2.1) : add a new data page record into the
-		  //              current directory page
-		  currentDataPage = _newDatapage(dpinfo); 
-		  // currentDataPage is pinned! and dpinfo->pageId is also locked
-		  // in the exclusive mode  
-		  
-		  // didn't check if currentDataPage==NULL, auto exception
-		  
-		  
-		  // currentDataPage is pinned: insert its record
-		  // calling a HFPage function
-		  
-		  
-		  
-		  atuple = dpinfo.convertToTuple();
-		  
-		  byte [] tmpData = atuple.getTupleByteArray();
-		  currentDataPageRid = currentDirPage.insertRecord(tmpData);
-		  
-		  RID tmprid = currentDirPage.firstRecord();
-		  
-		  
-		  // need catch error here!
-		  if(currentDataPageRid == null)
-		    throw new HFException(null, "no space to insert rec.");  
-		  
-		  // end the loop, because a new datapage with its record
-		  // in the current directorypage was created and inserted into
-		  // the heapfile; the new datapage has enough space for the
-		  // record which the user wants to insert
-		  
-		  found = true;
-		  
-		} //end of IF02
-	      else
-		{  //Start else 02
-		  // case (2.2)
-		  nextDirPageId = currentDirPage.getNextPage();
-		  // two sub-cases:
-		  //
-		  // (2.2.1) nextDirPageId != INVALID_PAGE:
-		  //         get the next directory page from the buffer manager
-		  //         and do another look
-		  // (2.2.2) nextDirPageId == INVALID_PAGE:
-		  //         append a new directory page at the end of the current
-		  //         page and then do another loop
-		    
-		  if (nextDirPageId.pid != INVALID_PAGE) 
-		    { //Start IF03
-		      // case (2.2.1): there is another directory page:
-		      unpinPage(currentDirPageId, false);
-		      
-		      currentDirPageId.pid = nextDirPageId.pid;
-		      
-		      pinPage(currentDirPageId,
-						    currentDirPage, false);
-		      
-		      
-		      
-		      // now go back to the beginning of the outer while-loop and
-		      // search on the current directory page for a suitable datapage
-		    } //End of IF03
-		  else
-		    {  //Start Else03
-		      // case (2.2): append a new directory page after currentDirPage
-		      //             since it is the last directory page
-		      nextDirPageId = newPage(pageinbuffer, 1);
-		      // need check error!
-		      if(nextDirPageId == null)
-			throw new HFException(null, "can't new pae");
-		      
-		      // initialize new directory page
-		      nextDirPage.init(nextDirPageId, pageinbuffer);
-		      PageId temppid = new PageId(INVALID_PAGE);
-		      nextDirPage.setNextPage(temppid);
-		      nextDirPage.setPrevPage(currentDirPageId);
-		      
-		      // update current directory page and unpin it
-		      // currentDirPage is already locked in the Exclusive mode
-		      currentDirPage.setNextPage(nextDirPageId);
-		      unpinPage(currentDirPageId, true/*dirty*/);
-		      
-		      currentDirPageId.pid = nextDirPageId.pid;
-		      currentDirPage = new HFPage(nextDirPage);
-		      
-		      // remark that MINIBASE_BM->newPage already
-		      // pinned the new directory page!
-		      // Now back to the beginning of the while-loop, using the
-		      // newly created directory page.
-		      
-		    } //End of else03
-		} // End of else02
-	      // ASSERTIONS:
-	      // - if found == true: search will end and see assertions below
-	      // - if found == false: currentDirPage, currentDirPageId
-	      //   valid and pinned
-	      
-	    }//end IF01
-	  else
-	    { //Start else01
-	      // found == true:
-	      // we have found a datapage with enough space,
-	      // but we have not yet pinned the datapage:
-	      
-	      // ASSERTIONS:
-	      // - dpinfo valid
-	      
-	      // System.out.println("find the dirpagerecord on current page");
-	      
-	      pinPage(dpinfo.pageId, currentDataPage, false);
-	      //currentDataPage.openHFpage(pageinbuffer);
-	      
-	      
-	    }//End else01
+	  // pin the directory page listing it and check that the map was right
+	  long entry = map.get(pid);
+	  currentDirPageId.pid = (int) (entry >>> 32);
+	  currentDataPageRid.pageNo.pid = currentDirPageId.pid;
+	  currentDataPageRid.slotNo = (int) entry;
+	  pinPage(currentDirPageId, currentDirPage, false/*Rdisk*/);
+	  
+	  try {
+	    dpinfo = new DataPageInfo(currentDirPage.getRecord(currentDataPageRid));
+	  }
+	  catch (InvalidSlotNumberException e) {
+	  }
+	  catch (InvalidTupleSizeException e) {
+	  }
+	  
+	  if (dpinfo == null || dpinfo.pageId.pid != pid || dpinfo.availspace < recLen)
+	    {
+	      unpinPage(currentDirPageId, false);
+	      dpinfo = null;
+	      map.clear();
+	      continue;
+	    }
+	  
+	  pinPage(dpinfo.pageId, currentDataPage, false);
 	} //end of While01
       
       // ASSERTIONS:
@@ -573,15 +459,12 @@ public class Heapfile implements Filetype,  GlobalConst {
       // - dpinfo.pageId, currentDataPageRid valid
       // - currentDataPage is pinned!
       
-      if ((dpinfo.pageId).pid == INVALID_PAGE) // check error!
-	throw new HFException(null, "invalid PageId");
-      
       if (!(currentDataPage.available_space() >= recLen))
-	throw new SpaceNotAvailableException(null, "no available space");
-      
-      if (currentDataPage == null)
-	throw new HFException(null, "can't find Data page");
-      
+	{
+	  unpinPage(dpinfo.pageId, false);
+	  unpinPage(currentDirPageId, false);
+	  throw new SpaceNotAvailableException(null, "no available space");
+	}
       
       RID rid;
       rid = currentDataPage.insertRecord(recPtr);
@@ -592,8 +475,9 @@ public class Heapfile implements Filetype,  GlobalConst {
       
       unpinPage(dpinfo.pageId, true /* = DIRTY */);
       
-      // DataPage is now released
-      atuple = currentDirPage.returnRecord(currentDataPageRid);
+      // DataPage is now released; change a copy of its entry and write
+      // that back
+      Tuple atuple = currentDirPage.getRecord(currentDataPageRid);
       DataPageInfo dpinfo_ondirpage = new DataPageInfo(atuple);
       
       
@@ -601,15 +485,101 @@ public class Heapfile implements Filetype,  GlobalConst {
       dpinfo_ondirpage.recct = dpinfo.recct;
       dpinfo_ondirpage.pageId.pid = dpinfo.pageId.pid;
       dpinfo_ondirpage.flushToTuple();
+      currentDirPage.updateRecord(currentDataPageRid, atuple);
       
       
       unpinPage(currentDirPageId, true /* = DIRTY */);
       
+      map.setSpace(dpinfo.pageId.pid, dpinfo.availspace);
+      map.setInsertPage(dpinfo.pageId.pid);
       
       return rid;
       
     }
   
+  /* Internal HeapFile function (used in insertRecord): makes a new data
+     page, and lists it on a directory page with room for its dpinfo, or
+     on a new directory page after the last one. Returns the new data
+     page, with it and its directory page pinned and dirPageId and
+     dpinfoRid set; or null, with nothing pinned, if map turned out to
+     be out of date.
+  */
+  private HFPage _newDirectoryEntry(DirectoryMap map, DataPageInfo dpinfo,
+				    PageId dirPageId, HFPage dirpage,
+				    RID dpinfoRid)
+    throws InvalidSlotNumberException,  
+	   HFException,
+	   HFBufMgrException,
+	   HFDiskMgrException,
+	   IOException
+    {
+      dirPageId.pid = map.dirWithRoom();
+      
+      if (dirPageId.pid != INVALID_PAGE)
+	{
+	  pinPage(dirPageId, dirpage, false);
+	  if (dirpage.available_space() < DataPageInfo.size)
+	    {
+	      unpinPage(dirPageId, false);
+	      return null;
+	    }
+	}
+      else
+	{
+	  // append a new directory page after the last one
+	  PageId lastDirPageId = new PageId(map.lastDir());
+	  HFPage lastDirPage = new HFPage();
+	  pinPage(lastDirPageId, lastDirPage, false);
+	  if (lastDirPage.getNextPage().pid != INVALID_PAGE)
+	    {
+	      unpinPage(lastDirPageId, false);
+	      return null;
+	    }
+	  
+	  Page pageinbuffer = new Page();
+	  PageId nextDirPageId = newPage(pageinbuffer, 1);
+	  // need check error!
+	  if(nextDirPageId == null)
+	    {
+	      unpinPage(lastDirPageId, false);
+	      throw new HFException(null, "can't new pae");
+	    }
+	  
+	  // initialize new directory page
+	  dirpage.init(nextDirPageId, pageinbuffer);
+	  PageId temppid = new PageId(INVALID_PAGE);
+	  dirpage.setNextPage(temppid);
+	  dirpage.setPrevPage(lastDirPageId);
+	  
+	  // update the last directory page and unpin it
+	  lastDirPage.setNextPage(nextDirPageId);
+	  unpinPage(lastDirPageId, true/*dirty*/);
+	  
+	  // remark that MINIBASE_BM->newPage already
+	  // pinned the new directory page!
+	  dirPageId.pid = nextDirPageId.pid;
+	  map.setLastDir(dirPageId.pid);
+	}
+      
+      HFPage datapage = _newDatapage(dpinfo); 
+      // datapage is pinned! insert its record on the directory page
+      
+      byte [] tmpData = dpinfo.convertToTuple().getTupleByteArray();
+      RID rid = dirpage.insertRecord(tmpData);
+      
+      // need catch error here!
+      if(rid == null)
+	throw new HFException(null, "no space to insert rec.");  
+      
+      dpinfoRid.pageNo.pid = rid.pageNo.pid;
+      dpinfoRid.slotNo = rid.slotNo;
+      
+      map.put(dpinfo.pageId.pid, dirPageId.pid, rid.slotNo, dpinfo.availspace);
+      map.setDirRoom(dirPageId.pid, dirpage.available_space() >= DataPageInfo.size);
+      
+      return datapage;
+    }
+  
   /** Delete record from file with given rid.
    *
    * @exception InvalidSlotNumberException invalid slot number
@@ -657,8 +627,8 @@ public class Heapfile implements Filetype,  GlobalConst {
           // - currentDirPage, currentDirPageId valid and pinned (ASSUMING _findDataPage works correctly)
           // - currentDataPage, currentDataPageId valid and pinned (ASSUMING _findDataPage works correctly)
 
-          // Get datapageinfo from the current directory page:
-          Tuple atuple = currentDirPage.returnRecord(currentDataPageRid);
+          // Get a copy of datapageinfo from the current directory page:
+          Tuple atuple = currentDirPage.getRecord(currentDataPageRid);
           DataPageInfo pdpinfo = new DataPageInfo(atuple);
 
           // Delete the record on the data page
@@ -684,6 +654,8 @@ public class Heapfile implements Filetype,  GlobalConst {
               // we just need to modify its directory entry
               pdpinfo.availspace = currentDataPage.available_space();
               pdpinfo.flushToTuple(); // Write availspace changes back
+              currentDirPage.updateRecord(currentDataPageRid, atuple); // and onto the page
+              DirectoryMap.of(_firstDirPageId).setSpace(currentDataPageId.pid, pdpinfo.availspace);
               // Pages will be unpinned in the finally block with correct dirty status
           }
           else
@@ -708,12 +680,14 @@ public class Heapfile implements Filetype,  GlobalConst {
                   // Continue to free page anyway if possible
               }
               freePage(currentDataPageId);
+              DirectoryMap.of(_firstDirPageId).remove(currentDataPageId.pid);
               currentDataPageId.pid = INVALID_PAGE; // Mark as invalid so finally block ignores it
 
               // delete corresponding DataPageInfo-entry on the directory page:
               // Note: currentDirPage is still pinned here
               currentDirPage.deleteRecord(currentDataPageRid);
               dirPageDirty = true; // Directory page was modified
+              DirectoryMap.of(_firstDirPageId).setDirRoom(currentDirPageId.pid, true);
 
               // now check whether the directory page is empty:
               RID firstRecOnDir = currentDirPage.firstRecord();
@@ -758,6 +732,10 @@ public class Heapfile implements Filetype,  GlobalConst {
                       // Continue to free page anyway if possible
                   }
                   freePage(currentDirPageId);
+                  DirectoryMap map = DirectoryMap.of(_firstDirPageId);
+                  map.setDirRoom(currentDirPageId.pid, false);
+                  if (nextPageId.pid == INVALID_PAGE)
+                      map.setLastDir(tempPrevPageId.pid);
                   currentDirPageId.pid = INVALID_PAGE; // Mark as invalid so finally block ignores it
               }
               else
@@ -840,13 +818,10 @@ public class Heapfile implements Filetype,  GlobalConst {
 			     currentDataPageRid);
       
       if(status != true) return status;	// record not found
-      Tuple atuple = new Tuple();
-      atuple = dataPage.returnRecord(rid);
-      
       // Assume update a record with a record whose length is equal to
       // the original record
       
-      if(newtuple.getLength() != atuple.getLength())
+      if(newtuple.getLength() != dataPage.recordLength(rid))
 	{
 	  unpinPage(currentDataPageId, false /*undirty*/);
 	  unpinPage(currentDirPageId, false /*undirty*/);
@@ -856,7 +831,7 @@ public class Heapfile implements Filetype,  GlobalConst {
 	}
 
       // new copy of this record fits in old space;
-      atuple.tupleCopy(newtuple);
+      dataPage.updateRecord(rid, newtuple);
       unpinPage(currentDataPageId, true /* = DIRTY */);
       
       unpinPage(currentDirPageId, false /*undirty*/);
@@ -920,6 +895,90 @@ public class Heapfile implements Filetype,  GlobalConst {
     }
   
   
+  /** Read many records at once. The RIDs are sorted by page, the pages
+   * are read ahead, and each data page is pinned once for all of its
+   * records, so the file is read in page order however the RIDs come.
+   * Unlike getRecord, the directory pages are not pinned: the heapfile's
+   * DirectoryMap tells whether a page belongs to it.
+   *
+   * @param rids the records to read; RIDs may repeat
+   * @param keepOrder if true, one tuple is returned per RID, in the
+   *        order of rids, with null where there is no such record; if
+   *        false, one per RID found, in page order
+   *
+   * @exception InvalidSlotNumberException invalid slot number
+   * @exception InvalidTupleSizeException invalid tuple size
+   * @exception HFBufMgrException exception thrown from bufmgr layer
+   * @exception IOException I/O errors
+   *
+   * @return the tuples
+   */
+  public List<Tuple> getRecords(List<RID> rids, boolean keepOrder)
+    throws InvalidSlotNumberException,
+	   InvalidTupleSizeException,
+	   HFBufMgrException,
+	   IOException
+    {
+      int n = rids.size();
+      
+      // (page number << 32) | position in rids, sorted by page
+      long[] order = new long[n];
+      for (int i = 0; i < n; i++)
+	order[i] = ((long) rids.get(i).pageNo.pid << 32) | i;
+      Arrays.sort(order);
+      
+      DirectoryMap map = DirectoryMap.of(_firstDirPageId);
+      if (!map.isBuilt())
+	_buildDirectoryMap(map);
+      
+      // read ahead the pages of this file among them
+      int[] pids = new int[n];
+      int numPages = 0;
+      for (int i = 0; i < n; i++)
+	{
+	  int pid = (int) (order[i] >>> 32);
+	  if ((numPages == 0 || pids[numPages - 1] != pid)
+	      && map.get(pid) != DirectoryMap.NONE)
+	    pids[numPages++] = pid;
+	}
+      SystemDefs.JavabaseBM.prefetchPages(pids, numPages);
+      
+      Tuple[] tuples = new Tuple[n];
+      HFPage datapage = new HFPage();
+      PageId pageId = new PageId();
+      
+      int start = 0;
+      for (int p = 0; p < numPages; p++)
+	{
+	  pageId.pid = pids[p];
+	  while ((int) (order[start] >>> 32) != pageId.pid)
+	    start++;
+	  
+	  pinPage(pageId, datapage, false/*Rddisk*/);
+	  for (; start < n && (int) (order[start] >>> 32) == pageId.pid; start++)
+	    {
+	      int i = (int) order[start];
+	      try {
+		tuples[i] = datapage.getRecord(rids.get(i));
+	      }
+	      catch (InvalidSlotNumberException e) {
+		// no such record
+	      }
+	    }
+	  unpinPage(pageId, false /*undirty*/);
+	}
+      
+      List<Tuple> result = new ArrayList<Tuple>(n);
+      for (int j = 0; j < n; j++)
+	{
+	  Tuple t = tuples[keepOrder ? j : (int) order[j]];
+	  if (keepOrder || t != null)
+	    result.add(t);
+	}
+      return result;
+    }
+  
+  
   /** Initiate a sequential scan.
    * @exception InvalidTupleSizeException Invalid tuple size
    * @exception IOException I/O errors
@@ -1002,6 +1061,7 @@ public class Heapfile implements Filetype,  GlobalConst {
             }
         }
 
+      DirectoryMap.drop(_firstDirPageId);
       delete_file_entry( _fileName );
     }
   
@@ -1049,13 +1109,27 @@ public class Heapfile implements Filetype,  GlobalConst {
 
   } 
 
+  // Single pages come from the run of pages this file has set aside,
+  // so that its pages are next to each other on disk. The run is kept
+  // in the file's DirectoryMap, which the first page starts. A
+  // temporary file starts with a short run.
   private PageId newPage(Page page, int num)
     throws HFBufMgrException {
 
     PageId tmpId = new PageId();
 
     try {
-      tmpId = SystemDefs.JavabaseBM.newPage(page,num);
+      if (num == 1 && _firstDirPageId == null)
+	{
+	  PageExtent extent = _ftype == TEMP
+	    ? new PageExtent(PageExtent.TEMP_PAGES) : new PageExtent();
+	  tmpId = SystemDefs.JavabaseBM.newPage(page, extent);
+	  DirectoryMap.of(tmpId).setExtent(extent);
+	}
+      else if (num == 1)
+	tmpId = SystemDefs.JavabaseBM.newPage(page, DirectoryMap.of(_firstDirPageId).extent());
+      else
+	tmpId = SystemDefs.JavabaseBM.newPage(page,num);
     }
     catch (Exception e) {
       throw new HFBufMgrException(e,"Heapfile.java: newPage() failed");
@@ -53,6 +53,17 @@ public class Scan implements GlobalConst{
 
     /** Status of next user status */
     private boolean nextUserStatus;
+
+    /** The most data pages read ahead of the scan. */
+    private static final int READ_AHEAD = 32;
+
+    /** record ID of the DataPageInfo struct of the last data page read
+     * ahead on the current directory page
+     */
+    private RID aheadRid;
+
+    /** Data pages read ahead that the scan has not got to yet. */
+    private int ahead;
     
      
     /** The constructor pins the first directory page in the file
@@ -285,6 +296,7 @@ public class Scan implements GlobalConst{
       			    
     	dpinfo = new DataPageInfo(rectuple);
         datapageId.pid = dpinfo.pageId.pid;
+        startReadAhead();
 
     } else {
 
@@ -350,6 +362,7 @@ public class Scan implements GlobalConst{
 	  
 	  dpinfo = new DataPageInfo(rectuple);
 	  datapageId.pid = dpinfo.pageId.pid;
+	  startReadAhead();
 	  
          } else {
 	   // heapfile empty
@@ -445,6 +458,7 @@ public class Scan implements GlobalConst{
 	catch (Exception e){
 	  e.printStackTrace();
 	}
+	readAhead();
 	
 	try {
 	  userrid = datapage.firstRecord();
@@ -521,6 +535,7 @@ public class Scan implements GlobalConst{
     	try {
 	  datapageRid = dirpage.firstRecord();
 	  nextDataPageStatus = true;
+	  startReadAhead();
 	}
 	catch (Exception e){
 	  nextDataPageStatus = false;
@@ -559,6 +574,7 @@ public class Scan implements GlobalConst{
 	catch (Exception e) {
 	  System.err.println("HeapFile: Error in Scan" + e);
 	}
+	readAhead();
 	
      
      // - directory page is pinned
@@ -578,6 +594,46 @@ public class Scan implements GlobalConst{
   }
 
 
+  /** Starts reading ahead from the data page of datapageRid, which
+   * is on a directory page just pinned.
+   */
+  private void startReadAhead()
+  {
+    aheadRid = datapageRid;
+    ahead = 0;
+  }
+
+
+  /** Called with each data page pinned. Once fewer than half of
+   * READ_AHEAD pages are read ahead, asks the buffer manager to read
+   * the next ones listed on the directory page.
+   */
+  private void readAhead()
+  {
+    if (ahead > 0)
+      ahead--;
+    if (ahead > READ_AHEAD / 2 || aheadRid == null || dirpage == null)
+      return;
+
+    int[] pids = new int[READ_AHEAD];
+    int n = 0;
+    try {
+      RID rid;
+      while (n < READ_AHEAD && (rid = dirpage.nextRecord(aheadRid)) != null) {
+	pids[n++] = new DataPageInfo(dirpage.getRecord(rid)).pageId.pid;
+	aheadRid = rid;
+      }
+    }
+    catch (Exception e) {
+      // only a hint; the pages are read when they are pinned
+    }
+    if (n == 0)
+      aheadRid = null;
+    ahead += n;
+    SystemDefs.JavabaseBM.prefetchPages(pids, n);
+  }
+
+
   private boolean peekNext(RID rid) {
     
     rid.pageNo.pid = userrid.pageNo.pid;
@@ -5,13 +5,15 @@ package heap;
 import java.io.*;
 import java.lang.*;
 import global.*;
+import diskmgr.*;
 
 
 public class Tuple implements GlobalConst{
 
 
  /** 
-  * Maximum size of any tuple
+  * Maximum size of any tuple in a database of the default page size;
+  * see maxSize() for the open database's
   */
   public static final int max_size = MINIBASE_PAGESIZE;
 
@@ -41,19 +43,35 @@ public class Tuple implements GlobalConst{
    * Array of offsets of the fields
    */
  
-  private short [] fldOffset; 
+  private int [] fldOffset; 
+
+  /**
+   * Maximum size of any tuple in the open database: its page size, but
+   * no more than size() can return
+   *
+   * @return the largest tuple length
+   */
+  public static int maxSize()
+  {
+       DB db = SystemDefs.JavabaseDB;
+       int page_size = db != null ? db.db_page_size() : 0;
+       if (page_size == 0)       // no database open yet
+         page_size = MINIBASE_PAGESIZE;
+       return Math.min(page_size, Short.MAX_VALUE);
+  }
 
    /**
     * Class constructor
-    * Creat a new tuple with length = max_size,tuple offset = 0.
+    * Creat a new tuple with length = maxSize(),tuple offset = 0.
     */
 
   public  Tuple()
   {
        // Creat a new tuple
-       data = new byte[max_size];
+       int size = maxSize();
+       data = new byte[size];
        tuple_offset = 0;
-       tuple_length = max_size;
+       tuple_length = size;
   }
    
    /** Constructor
@@ -80,7 +98,10 @@ public class Tuple implements GlobalConst{
        tuple_length = fromTuple.getLength();
        tuple_offset = 0;
        fldCnt = fromTuple.noOfFlds(); 
-       fldOffset = fromTuple.copyFldOffset(); 
+       short[] offsets = fromTuple.copyFldOffset(); 
+       fldOffset = new int[offsets.length];
+       for (int i=0; i<offsets.length; i++)
+         fldOffset[i] = offsets[i];
    }
 
    /**  
@@ -357,19 +378,20 @@ public class Tuple implements GlobalConst{
 public void setHdr (short numFlds,  AttrType types[], short strSizes[])
  throws IOException, InvalidTypeException, InvalidTupleSizeException		
 {
-  if((numFlds +2)*2 > max_size)
+  int max = maxSize();
+  if((numFlds +2)*2 > max)
     throw new InvalidTupleSizeException (null, "TUPLE: TUPLE_TOOBIG_ERROR");
   
   fldCnt = numFlds;
   Convert.setShortValue(numFlds, tuple_offset, data);
-  fldOffset = new short[numFlds+1];
+  fldOffset = new int[numFlds+1];
   int pos = tuple_offset+2;  // start position for fldOffset[]
   
   //sizeof short =2  +2: array siaze = numFlds +1 (0 - numFilds) and
   //another 1 for fldCnt
-  fldOffset[0] = (short) ((numFlds +2) * 2 + tuple_offset);   
+  fldOffset[0] = (numFlds +2) * 2 + tuple_offset;   
    
-  Convert.setShortValue(fldOffset[0], pos, data);
+  Convert.setShortValue((short) fldOffset[0], pos, data);
   pos +=2;
   short strCount =0;
   short incr;
@@ -398,8 +420,8 @@ public void setHdr (short numFlds,  AttrType types[], short strSizes[])
    default:
     throw new InvalidTypeException (null, "TUPLE: TUPLE_TYPE_ERROR");
    }
-  fldOffset[i]  = (short) (fldOffset[i-1] + incr);
-  Convert.setShortValue(fldOffset[i], pos, data);
+  fldOffset[i]  = fldOffset[i-1] + incr;
+  Convert.setShortValue((short) fldOffset[i], pos, data);
   pos +=2;
  
 }
@@ -425,12 +447,12 @@ public void setHdr (short numFlds,  AttrType types[], short strSizes[])
     throw new InvalidTypeException (null, "TUPLE: TUPLE_TYPE_ERROR");
    }
 
-  fldOffset[numFlds] = (short) (fldOffset[i-1] + incr);
-  Convert.setShortValue(fldOffset[numFlds], pos, data);
+  fldOffset[numFlds] = fldOffset[i-1] + incr;
+  Convert.setShortValue((short) fldOffset[numFlds], pos, data);
   
   tuple_length = fldOffset[numFlds] - tuple_offset;
 
-  if(tuple_length > max_size)
+  if(tuple_length > max)
    throw new InvalidTupleSizeException (null, "TUPLE: TUPLE_TOOBIG_ERROR");
 }
      
@@ -448,7 +470,8 @@ public void setHdr (short numFlds,  AttrType types[], short strSizes[])
    }
 
   /**
-   * Makes a copy of the fldOffset array
+   * Makes a copy of the fldOffset array, with the offsets from the
+   * start of the tuple, as in its header
    *
    * @return a copy of the fldOffset arrray
    *
@@ -458,7 +481,7 @@ public void setHdr (short numFlds,  AttrType types[], short strSizes[])
    {
      short[] newFldOffset = new short[fldCnt + 1];
      for (int i=0; i<=fldCnt; i++) {
-       newFldOffset[i] = fldOffset[i];
+       newFldOffset[i] = (short) (fldOffset[i] - tuple_offset);
      }
      
      return newFldOffset;
@@ -567,35 +590,92 @@ public void setHdr (short numFlds,  AttrType types[], short strSizes[])
  */
 public int[] getVectorFld(int fldNo) 
     throws IOException, FieldNumberOutOfBoundException {
-    if ((fldNo > 0) && (fldNo <= fldCnt)) {
-        int[] vector = new int[100];
-        int offset = fldOffset[fldNo - 1];
-        for (int i = 0; i < 100; i++) {
-            vector[i] = Convert.getIntValue(offset, data);
-            offset += 4; // Move to the next integer (4 bytes per int)
-        }
-        return vector;
-    } else {
-        throw new FieldNumberOutOfBoundException(null, "TUPLE:TUPLE_FLDNO_OUT_OF_BOUND");
-    }
+    return VectorView.read(data, vectorOffset(fldNo), new int[VectorView.DIMENSION]);
 }
 
 
 public Tuple setVectorFld(int fldNo, int[] vector) 
     throws IOException, FieldNumberOutOfBoundException {
+    int offset = vectorOffset(fldNo);
+    if (vector.length != 100) {
+        throw new IllegalArgumentException("Vector must have exactly 100 integers.");
+    }
+    VectorView.write(vector, data, offset);
+    return this;
+}
+
+/**
+ * Point a view at a vector field without copying it. The view reads
+ * this tuple's data array in place and is only valid while that array
+ * holds the tuple (for a tuple returned from a pinned page, until the
+ * page is unpinned).
+ *
+ * @param fldNo the field number
+ * @param view the view to re-point, or null to make a new one
+ * @return view, pointing at the field
+ * @throws FieldNumberOutOfBoundException field number out of bound
+ */
+public VectorView getVectorView(int fldNo, VectorView view)
+    throws FieldNumberOutOfBoundException {
+    int offset = vectorOffset(fldNo);
+    if (view == null) {
+        view = new VectorView();
+    }
+    return view.wrap(data, offset);
+}
+
+/**
+ * Squared Euclidean distance from a vector field to target, read
+ * directly from the data array.
+ *
+ * @param fldNo the field number
+ * @param target a 100-D vector
+ * @return the squared distance
+ * @throws FieldNumberOutOfBoundException field number out of bound
+ */
+public long vectorSquaredDistanceTo(int fldNo, int[] target)
+    throws FieldNumberOutOfBoundException {
+    return VectorKernel.squaredDistance(data, vectorOffset(fldNo), target, VectorView.DIMENSION);
+}
+
+/**
+ * Euclidean distance from a vector field to target, read directly
+ * from the data array.
+ *
+ * @param fldNo the field number
+ * @param target a 100-D vector
+ * @return the distance
+ * @throws FieldNumberOutOfBoundException field number out of bound
+ */
+public double vectorDistanceTo(int fldNo, int[] target)
+    throws FieldNumberOutOfBoundException {
+    return Math.sqrt(vectorSquaredDistanceTo(fldNo, target));
+}
+
+/**
+ * Euclidean distance between a vector field of this tuple and one of
+ * another tuple, read directly from both data arrays.
+ *
+ * @param fldNo the field number in this tuple
+ * @param other the other tuple
+ * @param otherFldNo the field number in the other tuple
+ * @return the distance
+ * @throws FieldNumberOutOfBoundException field number out of bound
+ */
+public double vectorDistanceTo(int fldNo, Tuple other, int otherFldNo)
+    throws FieldNumberOutOfBoundException {
+    return Math.sqrt(VectorKernel.squaredDistance(data, vectorOffset(fldNo),
+                                                  other.data, other.vectorOffset(otherFldNo),
+                                                  VectorView.DIMENSION));
+}
+
+// Where the vector in field fldNo starts in data
+private int vectorOffset(int fldNo)
+    throws FieldNumberOutOfBoundException {
     if ((fldNo > 0) && (fldNo <= fldCnt)) {
-        if (vector.length != 100) {
-            throw new IllegalArgumentException("Vector must have exactly 100 integers.");
-        }
-        int offset = fldOffset[fldNo - 1];
-        for (int i = 0; i < 100; i++) {
-            Convert.setIntValue(vector[i], offset, data);
-            offset += 4; // Move to the next integer (4 bytes per int)
-        }
-        return this;
-    } else {
-        throw new FieldNumberOutOfBoundException(null, "TUPLE:TUPLE_FLDNO_OUT_OF_BOUND");
+        return fldOffset[fldNo - 1];
     }
+    throw new FieldNumberOutOfBoundException(null, "TUPLE:TUPLE_FLDNO_OUT_OF_BOUND");
 }
 
 
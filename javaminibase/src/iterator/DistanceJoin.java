@@ -0,0 +1,788 @@
+package iterator;
+
+
+import heap.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import index.*;
+import java.lang.*;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ *  This file contains an implementation of a partitioned distance join:
+ *  it joins each tuple of R with the tuples of S whose vectors are at
+ *  most a distance D from its own, without probing an index per tuple.
+ *
+ *  Every vector v is given a key, its distance p(v) to a pivot vector
+ *  of S. By the triangle inequality two vectors at most D apart have
+ *  keys at most D apart, so a tuple r only has to be compared with the
+ *  tuples s where |p(r) - p(s)| <= D.
+ *
+ *  If S fits in the buffer pages given but two, it is read into memory,
+ *  keyed on its first vector and sorted by key, and R is streamed past
+ *  it. Otherwise S is split by key into as many partitions as it needs,
+ *  but no more than there are buffer pages but one, each written to a
+ *  temporary heapfile. Each tuple of R is written to the partitions its
+ *  key range [p(r) - D, p(r) + D] overlaps. A partition of S that is
+ *  still too large is split again in the same way, keyed on a vector of
+ *  its own. In 100 dimensions the distances to one pivot bunch up, so
+ *  each new pivot splits the tuples of S it is given along another
+ *  direction. A partition that fits is read into memory, keyed on its
+ *  first vector and sorted, and the tuples of R written for it compared
+ *  with those in their key range only.
+ *
+ *  When D is wide next to the spread of the keys, most tuples of R
+ *  would be written to most partitions. R is then written once, to one
+ *  heapfile, which is read again for each partition; the tuples whose
+ *  key ranges miss the partition, at each split that made it, are
+ *  skipped.
+ *
+ *  A partition whose keys are all equal cannot be split on them. It,
+ *  and one split MAX_DEPTH times, is read into memory a block at a
+ *  time instead, and its tuples of R read again for each block.
+ *
+ *
+ *      foreach partition i small enough do
+ *          load Si, sort it on p
+ *          foreach tuple r in Ri do
+ *              foreach s in Si with |p(r) - p(s)| <= D do
+ *                  if (dist(r, s) <= D) then add (r, s) to the result.
+ *
+ *  Each tuple of S is in one partition, so no pair comes out twice.
+ *  Results come out by partition, then by outer tuple.
+ */
+
+public class DistanceJoin  extends Iterator
+{
+  /** Slack on the key ranges, for rounding in the distances to the pivot. */
+  private static final double KEY_SLACK = 1e-6;
+
+  /** Most times a partition is split before it is joined in blocks. */
+  private static final int MAX_DEPTH = 16;
+
+  private AttrType      _in1[],  _in2[];
+  private   int        in1_len, in2_len;
+  private   short      t1_str_sizescopy[], t2_str_sizescopy[];
+  private   Iterator  outer;
+  private   Heapfile  hf;
+  private   int        outer_fld, inner_fld;  // The vector fields joined
+  private   int        distance;              // D
+  private   long       max_sq_dist;           // D*D
+  private   int        n_buf_pgs;             // # of buffer pages available.
+  private   boolean    done;                  // Is the join complete
+  private   Tuple     Jtuple;                 // Joined tuple
+  private   FldSpec   perm_mat[];
+  private   int        nOutFlds;
+
+  private   int       per_block;        // # of tuples of S that fit in memory
+  private   int       fan_out;          // Most partitions made by one split
+  private   ArrayDeque<Part> parts;     // Partitions to join, next on top; null before the first
+  private   ArrayList<Spill> spills;    // Temporary heapfiles not yet deleted
+  private   Part      cur;              // Partition being joined
+  private   Scan      inner_scan;       // On cur's S, when it is joined in blocks
+  private   Scan      outer_scan;       // On cur's R, or null for the outer iterator
+
+  private   int       pivot[];          // Vector the keys of the block are distances to
+  private   Tuple     in_tuples[];      // Tuples of the block of S in memory
+  private   int       in_vecs[][];      // Their vectors
+  private   double    in_keys[];        // Their keys, ascending
+  private   int       in_len;
+
+  private   Tuple     outer_tuple;      // Tuple of R being joined, or null
+  private   int       outer_vec[];
+  private   double    outer_key;
+  private   int       in_pos;           // Next of in_tuples to compare with it
+
+  /** A heapfile of tuples of S or R, and how many partitions read it. */
+  private static class Spill
+  {
+    Heapfile file;
+    boolean  temp;       // Deleted once no partition reads it
+    int      users = 1;
+
+    Spill(Heapfile file, boolean temp)
+    {
+      this.file = file;
+      this.temp = temp;
+    }
+  }
+
+  /**
+   * A key range of a partition whose R is shared with others: only the
+   * tuples of R whose key range to pivot meets [lo, hi) are its own,
+   * and of those, only the ones next also lets through.
+   */
+  private static class Filter
+  {
+    int      pivot[];
+    double   lo, hi;
+    Filter   next;
+
+    Filter(int pivot[], double lo, double hi, Filter next)
+    {
+      this.pivot = pivot;
+      this.lo = lo;
+      this.hi = hi;
+      this.next = next;
+    }
+  }
+
+  /** A partition: tuples of S, and the tuples of R that may join them. */
+  private static class Part
+  {
+    Spill    inner;
+    int      n_inner;
+    Spill    outer;      // null for the outer iterator
+    Filter   filter;     // null if all of R is the partition's own
+    int      depth;      // # of splits that made it
+    int      key_pivot[]; // If not null, keys holds the distances of S to it,
+    double   keys[];      //   in scan order
+  }
+
+
+  /**constructor
+   *Initialize the two relations which are joined, including relation type,
+   *@param in1  Array containing field types of R.
+   *@param len_in1  # of columns in R.
+   *@param t1_str_sizes shows the length of the string fields.
+   *@param in2  Array containing field types of S
+   *@param len_in2  # of columns in S
+   *@param  t2_str_sizes shows the length of the string fields.
+   *@param amt_of_mem  IN PAGES
+   *@param am1  access method for left i/p to join
+   *@param relationName  access hfapfile for right i/p to join
+   *@param outer_vec_fld the vector field of R
+   *@param inner_vec_fld the vector field of S
+   *@param dist the largest distance D of the vectors joined
+   *@param proj_list shows what input fields go where in the output tuple
+   *@param n_out_flds number of outer relation fileds
+   *@exception IOException some I/O fault
+   *@exception DistanceJoinException exception from this class
+   */
+  public DistanceJoin( AttrType    in1[],
+		       int     len_in1,
+		       short   t1_str_sizes[],
+		       AttrType    in2[],
+		       int     len_in2,
+		       short   t2_str_sizes[],
+		       int     amt_of_mem,
+		       Iterator     am1,
+		       String relationName,
+		       int     outer_vec_fld,
+		       int     inner_vec_fld,
+		       int     dist,
+		       FldSpec   proj_list[],
+		       int        n_out_flds
+		       ) throws IOException,DistanceJoinException
+    {
+
+      _in1 = new AttrType[in1.length];
+      _in2 = new AttrType[in2.length];
+      System.arraycopy(in1,0,_in1,0,in1.length);
+      System.arraycopy(in2,0,_in2,0,in2.length);
+      in1_len = len_in1;
+      in2_len = len_in2;
+
+      if (outer_vec_fld < 1 || outer_vec_fld > len_in1
+	  || in1[outer_vec_fld-1].attrType != AttrType.attrVector100D
+	  || inner_vec_fld < 1 || inner_vec_fld > len_in2
+	  || in2[inner_vec_fld-1].attrType != AttrType.attrVector100D)
+	throw new DistanceJoinException("The fields joined must be vectors");
+      if (dist < 0)
+	throw new DistanceJoinException("The distance must not be negative");
+
+      outer = am1;
+      t1_str_sizescopy = t1_str_sizes;
+      t2_str_sizescopy = t2_str_sizes;
+      outer_fld = outer_vec_fld;
+      inner_fld = inner_vec_fld;
+      distance = dist;
+      max_sq_dist = (long)dist * dist;
+      Jtuple = new Tuple();
+
+      n_buf_pgs    = amt_of_mem;
+      done  = false;
+
+      AttrType[] Jtypes = new AttrType[n_out_flds];
+
+      perm_mat = proj_list;
+      nOutFlds = n_out_flds;
+      try {
+	TupleUtils.setup_op_tuple(Jtuple, Jtypes,
+				  in1, len_in1, in2, len_in2,
+				  t1_str_sizes, t2_str_sizes,
+				  proj_list, nOutFlds);
+      }catch (TupleUtilsException e){
+	throw new DistanceJoinException(e,"TupleUtilsException is caught by DistanceJoin.java");
+      }
+
+      try {
+	hf = new Heapfile(relationName);
+      }
+      catch(Exception e) {
+	throw new DistanceJoinException(e, "Create new heapfile failed.");
+      }
+    }
+
+  /**
+   *@return The joined tuple is returned
+   *@exception IOException I/O errors
+   *@exception JoinsException some join exception
+   *@exception IndexException exception from super class
+   *@exception InvalidTupleSizeException invalid tuple size
+   *@exception InvalidTypeException tuple type not valid
+   *@exception PageNotReadException exception from lower layer
+   *@exception TupleUtilsException exception from using tuple utilities
+   *@exception PredEvalException exception from PredEval class
+   *@exception SortException sort exception
+   *@exception LowMemException memory error
+   *@exception UnknowAttrType attribute type unknown
+   *@exception UnknownKeyTypeException key type unknown
+   *@exception Exception other exceptions
+
+   */
+  public Tuple get_next()
+    throws IOException,
+	   JoinsException ,
+	   IndexException,
+	   InvalidTupleSizeException,
+	   InvalidTypeException,
+	   PageNotReadException,
+	   TupleUtilsException,
+	   PredEvalException,
+	   SortException,
+	   LowMemException,
+	   UnknowAttrType,
+	   UnknownKeyTypeException,
+	   Exception
+    {
+      if (done)
+	return null;
+
+      if (parts == null)
+	{
+	  start();
+	  if (!next_block())
+	    {
+	      done = true;
+	      return null;
+	    }
+	}
+
+      do
+	{
+	  if (outer_tuple == null)
+	    {
+	      if (!next_outer())
+		{
+		  // This block is done, go on to the next
+		  if (!next_block())
+		    {
+		      done = true;
+		      return null;
+		    }
+		  continue;
+		}
+
+	      // Start at the first tuple of S in the key range
+	      int lo = 0, hi = in_len;
+	      double from = outer_key - distance - KEY_SLACK;
+	      while (lo < hi)
+		{
+		  int mid = (lo + hi) >>> 1;
+		  if (in_keys[mid] < from)
+		    lo = mid + 1;
+		  else
+		    hi = mid;
+		}
+	      in_pos = lo;
+	    }
+
+	  double to = outer_key + distance + KEY_SLACK;
+	  while (in_pos < in_len && in_keys[in_pos] <= to)
+	    {
+	      int i = in_pos++;
+	      if (VectorKernel.squaredDistance(outer_vec, in_vecs[i]) <= max_sq_dist)
+		{
+		  // Apply a projection on the outer and inner tuples.
+		  Projection.Join(outer_tuple, _in1,
+				  in_tuples[i], _in2,
+				  Jtuple, perm_mat, nOutFlds);
+		  return Jtuple;
+		}
+	    }
+
+	  outer_tuple = null;
+	} while (true);
+    }
+
+  /**
+   * Reads S to count it, keying it on its first vector in case it has
+   * to be split, and makes it the first partition.
+   * @exception Exception from the heapfile
+   */
+  private void start()
+    throws Exception
+    {
+      parts = new ArrayDeque<Part>();
+      spills = new ArrayList<Spill>();
+
+      Part p = new Part();
+      p.inner = new Spill(hf, false);
+      double keys[] = new double[1024];
+      int n = 0;
+      int tuple_size = 1;
+      Scan scan = hf.openScan();
+      try {
+	RID rid = new RID();
+	Tuple t;
+	while ((t = scan.getNext(rid)) != null)
+	  {
+	    t.setHdr((short)in2_len, _in2, t2_str_sizescopy);
+	    int v[] = t.getVectorFld(inner_fld);
+	    if (p.key_pivot == null)
+	      {
+		p.key_pivot = v;
+		tuple_size = t.size();
+	      }
+	    if (n == keys.length)
+	      keys = Arrays.copyOf(keys, 2 * n);
+	    keys[n++] = VectorKernel.distance(v, p.key_pivot);
+	  }
+      }
+      finally {
+	scan.closescan();
+      }
+      p.keys = keys;
+      p.n_inner = n;
+
+      per_block = Math.max(1, n_buf_pgs - 2)
+	* Math.max(1, SystemDefs.JavabasePageSize / tuple_size);
+      fan_out = Math.max(2, n_buf_pgs - 1);
+      if (n > 0)
+	parts.push(p);
+    }
+
+  /**
+   * Reads the next block of S into memory and starts reading the
+   * tuples of R that go with it: the next block of the partition being
+   * joined in blocks, or else the next partition, after splitting those
+   * too large for memory.
+   * @return false if there are no more
+   * @exception Exception from the heapfiles and the outer iterator
+   */
+  private boolean next_block()
+    throws Exception
+    {
+      if (inner_scan != null && load_block())
+	{
+	  open_outer();
+	  return true;
+	}
+      finish_part();
+
+      while (!parts.isEmpty())
+	{
+	  Part p = parts.pop();
+	  if (p.n_inner > per_block && p.depth < MAX_DEPTH && split(p))
+	    continue;
+
+	  cur = p;
+	  if (p.n_inner > per_block && p.outer == null)
+	    {
+	      // R is read once per block, so it has to be kept
+	      Spill s = new_spill();
+	      Tuple t;
+	      while ((t = read_outer(p, null)) != null)
+		s.file.insertRecord(t.getTupleByteArray());
+	      p.outer = s;
+	    }
+	  p.keys = null;
+	  inner_scan = p.inner.file.openScan();
+	  in_tuples = new Tuple[Math.min(per_block, p.n_inner)];
+	  in_vecs = new int[in_tuples.length][];
+	  in_keys = new double[in_tuples.length];
+	  load_block();
+	  if (p.n_inner <= per_block)
+	    {
+	      inner_scan.closescan();
+	      inner_scan = null;
+	    }
+	  open_outer();
+	  return true;
+	}
+      return false;
+    }
+
+  /**
+   * Reads up to per_block more tuples of cur's S into memory, keyed on
+   * the first of them, and sorts them by key.
+   * @return false if there were none
+   * @exception Exception from the heapfile
+   */
+  private boolean load_block()
+    throws Exception
+    {
+      in_len = 0;
+      RID rid = new RID();
+      Tuple t;
+      while (in_len < per_block && (t = inner_scan.getNext(rid)) != null)
+	{
+	  t.setHdr((short)in2_len, _in2, t2_str_sizescopy);
+	  Tuple copy = new Tuple(t);
+	  in_tuples[in_len] = copy;
+	  in_vecs[in_len] = copy.getVectorFld(inner_fld);
+	  in_len++;
+	}
+      if (in_len == 0)
+	return false;
+
+      pivot = in_vecs[0];
+      for (int i = 0; i < in_len; i++)
+	in_keys[i] = VectorKernel.distance(in_vecs[i], pivot);
+      sort_inner();
+      return true;
+    }
+
+  /**
+   * Splits a partition of S by key into up to fan_out partitions, and
+   * writes each tuple of its R to those its key range overlaps, or
+   * lets them all read its R, filtered by their key ranges.
+   * @param p the partition
+   * @return false if its keys are all equal, and it was not split
+   * @exception Exception from the heapfiles and the outer iterator
+   */
+  private boolean split(Part p)
+    throws Exception
+    {
+      int n = p.n_inner;
+      int piv[] = p.key_pivot;
+      double keys[] = p.keys;
+      if (keys == null)
+	{
+	  keys = new double[n];
+	  int i = 0;
+	  Scan scan = p.inner.file.openScan();
+	  try {
+	    RID rid = new RID();
+	    Tuple t;
+	    while ((t = scan.getNext(rid)) != null)
+	      {
+		t.setHdr((short)in2_len, _in2, t2_str_sizescopy);
+		int v[] = t.getVectorFld(inner_fld);
+		if (piv == null)
+		  piv = v;
+		keys[i++] = VectorKernel.distance(v, piv);
+	      }
+	  }
+	  finally {
+	    scan.closescan();
+	  }
+	}
+
+      // The partitions split the keys evenly; each bound is a key, and
+      // above the least, so that no partition is empty
+      double sorted[] = Arrays.copyOf(keys, n);
+      Arrays.sort(sorted);
+      int n_parts = (int)Math.min(fan_out, (n + (long)per_block - 1) / per_block);
+      double bounds[] = new double[n_parts];
+      bounds[0] = Double.NEGATIVE_INFINITY;
+      int n_bounds = 1;
+      for (int i = 1; i < n_parts; i++)
+	{
+	  double b = sorted[(int)((long)i * n / n_parts)];
+	  if (b > sorted[0] && b > bounds[n_bounds - 1])
+	    bounds[n_bounds++] = b;
+	}
+      if (n_bounds == 1)
+	{
+	  p.keys = keys;
+	  p.key_pivot = piv;
+	  return false;
+	}
+      bounds = Arrays.copyOf(bounds, n_bounds);
+
+      // Writing R once pays when its tuples would go to over half the
+      // partitions each; the keys of S stand in for those of R here
+      long copies = 0;
+      for (int i = 0; i < n; i++)
+	copies += part_of(bounds, keys[i] + distance + KEY_SLACK)
+	  - part_of(bounds, keys[i] - distance - KEY_SLACK) + 1;
+      boolean shared = 2 * copies > (long)n * n_bounds;
+
+      Spill inners[] = new Spill[n_bounds];
+      int counts[] = new int[n_bounds];
+      for (int i = 0; i < n_bounds; i++)
+	inners[i] = new_spill();
+
+      Scan scan = p.inner.file.openScan();
+      try {
+	RID rid = new RID();
+	Tuple t;
+	for (int i = 0; (t = scan.getNext(rid)) != null; i++)
+	  {
+	    int j = part_of(bounds, keys[i]);
+	    inners[j].file.insertRecord(t.getTupleByteArray());
+	    counts[j]++;
+	  }
+      }
+      finally {
+	scan.closescan();
+      }
+
+      Spill outers[];
+      Filter filter = null;
+      if (shared && p.outer != null)
+	{
+	  // The partitions read p's R too, through its filter and their own
+	  outers = new Spill[] { p.outer };
+	  p.outer.users += n_bounds;
+	  filter = p.filter;
+	}
+      else
+	{
+	  outers = new Spill[shared ? 1 : n_bounds];
+	  for (int i = 0; i < outers.length; i++)
+	    outers[i] = new_spill();
+	  if (shared)
+	    outers[0].users = n_bounds;
+
+	  scan = p.outer == null ? null : p.outer.file.openScan();
+	  try {
+	    Tuple t;
+	    while ((t = read_outer(p, scan)) != null)
+	      {
+		if (shared)
+		  {
+		    outers[0].file.insertRecord(t.getTupleByteArray());
+		    continue;
+		  }
+		double key = VectorKernel.distance(outer_vec, piv);
+		int last = part_of(bounds, key + distance + KEY_SLACK);
+		for (int i = part_of(bounds, key - distance - KEY_SLACK); i <= last; i++)
+		  outers[i].file.insertRecord(t.getTupleByteArray());
+	      }
+	  }
+	  finally {
+	    if (scan != null)
+	      scan.closescan();
+	  }
+	}
+      release(p.inner);
+      release(p.outer);
+
+      for (int i = n_bounds - 1; i >= 0; i--)
+	{
+	  Part c = new Part();
+	  c.inner = inners[i];
+	  c.n_inner = counts[i];
+	  c.depth = p.depth + 1;
+	  if (shared)
+	    {
+	      c.outer = outers[0];
+	      c.filter = new Filter(piv, bounds[i], i + 1 < n_bounds
+				    ? bounds[i + 1] : Double.POSITIVE_INFINITY, filter);
+	    }
+	  else
+	    c.outer = outers[i];
+	  parts.push(c);
+	}
+      return true;
+    }
+
+  /** Sorts the tuples of S in memory by key. */
+  private void sort_inner()
+    {
+      Integer order[] = new Integer[in_len];
+      for (int i = 0; i < in_len; i++)
+	order[i] = i;
+      final double keys[] = in_keys;
+      Arrays.sort(order, (a, b) -> Double.compare(keys[a], keys[b]));
+
+      Tuple tuples[] = new Tuple[in_tuples.length];
+      int vecs[][] = new int[in_tuples.length][];
+      double sorted[] = new double[in_tuples.length];
+      for (int i = 0; i < in_len; i++)
+	{
+	  tuples[i] = in_tuples[order[i]];
+	  vecs[i] = in_vecs[order[i]];
+	  sorted[i] = in_keys[order[i]];
+	}
+      in_tuples = tuples;
+      in_vecs = vecs;
+      in_keys = sorted;
+    }
+
+  /**
+   * Gets the next tuple of R to join with the block of S in memory,
+   * with its vector and key.
+   * @return false if there are no more
+   * @exception Exception from the outer iterator or the heapfile
+   */
+  private boolean next_outer()
+    throws Exception
+    {
+      Tuple t = read_outer(cur, outer_scan);
+      if (t == null)
+	return false;
+      outer_tuple = t;
+      outer_key = VectorKernel.distance(outer_vec, pivot);
+      return true;
+    }
+
+  /**
+   * Reads the next tuple of a partition's R, skipping those of other
+   * partitions, and sets outer_vec to its vector.
+   * @param p the partition
+   * @param scan the scan on p's R, or null to read the outer iterator
+   * @return the tuple, or null if there are no more
+   * @exception Exception from the outer iterator or the heapfile
+   */
+  private Tuple read_outer(Part p, Scan scan)
+    throws Exception
+    {
+      Tuple t;
+      do
+	{
+	  if (scan == null)
+	    t = outer.get_next();
+	  else
+	    {
+	      t = scan.getNext(new RID());
+	      if (t != null)
+		t.setHdr((short)in1_len, _in1, t1_str_sizescopy);
+	    }
+	  if (t == null)
+	    return null;
+	  outer_vec = t.getVectorFld(outer_fld);
+	} while (!passes(p.filter, outer_vec));
+      return t;
+    }
+
+  /** @return whether a vector's key ranges meet all those of a filter */
+  private boolean passes(Filter f, int vec[])
+    {
+      for (; f != null; f = f.next)
+	{
+	  double key = VectorKernel.distance(vec, f.pivot);
+	  if (key + distance + KEY_SLACK < f.lo || key - distance - KEY_SLACK >= f.hi)
+	    return false;
+	}
+      return true;
+    }
+
+  /** Opens a scan on cur's R, for the block of S just read. */
+  private void open_outer()
+    throws Exception
+    {
+      if (outer_scan != null)
+	{
+	  outer_scan.closescan();
+	  outer_scan = null;
+	}
+      if (cur.outer != null)
+	outer_scan = cur.outer.file.openScan();
+    }
+
+  /**
+   * Closes the scans on the partition joined, and deletes its
+   * heapfiles unless others read them.
+   */
+  private void finish_part()
+    throws Exception
+    {
+      if (inner_scan != null)
+	{
+	  inner_scan.closescan();
+	  inner_scan = null;
+	}
+      if (outer_scan != null)
+	{
+	  outer_scan.closescan();
+	  outer_scan = null;
+	}
+      if (cur != null)
+	{
+	  release(cur.inner);
+	  release(cur.outer);
+	  cur = null;
+	}
+    }
+
+  /** @return a new temporary heapfile */
+  private Spill new_spill()
+    throws Exception
+    {
+      Spill s = new Spill(new Heapfile(null), true);
+      spills.add(s);
+      return s;
+    }
+
+  /** Deletes a temporary heapfile once the last partition is done with it. */
+  private void release(Spill s)
+    throws Exception
+    {
+      if (s != null && --s.users == 0 && s.temp)
+	{
+	  spills.remove(s);
+	  s.file.deleteFile();
+	}
+    }
+
+  /** @return the partition a key falls in, of those starting at bounds */
+  private static int part_of(double bounds[], double key)
+    {
+      int lo = 0, hi = bounds.length - 1;
+      while (lo < hi)
+	{
+	  int mid = (lo + hi + 1) >>> 1;
+	  if (bounds[mid] <= key)
+	    lo = mid;
+	  else
+	    hi = mid - 1;
+	}
+      return lo;
+    }
+
+  /**
+   * implement the abstract method close() from super class Iterator
+   *to finish cleaning up
+   *@exception IOException I/O error from lower layers
+   *@exception JoinsException join error from lower layers
+   *@exception IndexException index access error
+   */
+  public void close() throws JoinsException
+    {
+      if (!closeFlag) {
+
+	try {
+	  if (inner_scan != null)
+	    {
+	      inner_scan.closescan();
+	      inner_scan = null;
+	    }
+	  if (outer_scan != null)
+	    {
+	      outer_scan.closescan();
+	      outer_scan = null;
+	    }
+	  for (int i = 0; spills != null && i < spills.size(); i++)
+	    spills.get(i).file.deleteFile();
+	  spills = null;
+	  parts = null;
+	  cur = null;
+	  in_tuples = null;
+	  in_vecs = null;
+	  outer.close();
+	}catch (Exception e) {
+	  throw new JoinsException(e, "DistanceJoin.java: error in closing iterator.");
+	}
+	closeFlag = true;
+      }
+    }
+}
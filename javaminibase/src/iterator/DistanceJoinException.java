@@ -0,0 +1,9 @@
+package iterator;
+
+import chainexception.*;
+import java.lang.*;
+
+public class DistanceJoinException extends ChainException {
+  public DistanceJoinException(String s){super(null,s);}
+  public DistanceJoinException(Exception prev, String s){ super(prev,s);}
+}
@@ -5,6 +5,7 @@ import global.*;
 import bufmgr.*;
 import index.*;
 import java.io.*;
+import java.util.ArrayList;
 import java.util.List;
 
 import btree.*; // For BTreeFile and BTFileScan
@@ -30,6 +31,7 @@ public class INLJoins extends Iterator {
     private int nOutFlds;
     private Heapfile innerHeapFile;
     private Object currentIndexScan; // Can be BTFileScan or ILSHFileScan 
+    private java.util.Iterator<Tuple> innerTuples; // Inner tuples matching the current outer tuple
     private String innerRelName;
     private IndexType innerIndexType;
     private String innerIndexName;
@@ -164,12 +166,7 @@ public class INLJoins extends Iterator {
             if (innerIndexType.indexType == IndexType.B_Index) {
                 currentBTreeFile = new BTreeFile(innerIndexName);
             } else if (innerIndexType.indexType == IndexType.LSHFIndex) {
-                String indexFilePath = innerIndexName.endsWith(".ser") ? innerIndexName : innerIndexName + ".ser";
-                try {
-                    currentLSHIndex = LSHFIndex.loadIndex(indexFilePath);
-                } catch (ClassNotFoundException e) {
-                    throw new NestedLoopException(e, "Failed to load LSH index file");
-                }
+                currentLSHIndex = new LSHFIndex(innerIndexName);
             }
         } catch (Exception e) {
             System.err.println("Warning: Could not pre-load index: " + e.getMessage());
@@ -244,14 +241,9 @@ public class INLJoins extends Iterator {
                         // Create a Vector100DKey from the Vector100Dtype
                         Vector100DKey outerKey = new Vector100DKey(outerVector);
                         
-                        // Load the LSH index from disk if not already loaded
+                        // Open the LSH index if not already open
                         if (currentLSHIndex == null) {
-                            String indexFilePath = innerIndexName.endsWith(".ser") ? innerIndexName : innerIndexName + ".ser";
-                            try {
-                                currentLSHIndex = LSHFIndex.loadIndex(indexFilePath);
-                            } catch (ClassNotFoundException e) {
-                                throw new JoinsException(e, "Failed to load LSH index file");
-                            }
+                            currentLSHIndex = new LSHFIndex(innerIndexName);
                         }
                         
                         // Get RIDs using rangeSearch
@@ -262,6 +254,16 @@ public class INLJoins extends Iterator {
                     } else {
                         throw new JoinsException("Unsupported index type for Index Nested Loop Join: " + innerIndexType);
                     }
+
+                    // Fetch the inner tuples of all the matching RIDs together,
+                    // each data page once, in page order
+                    List<RID> innerRids = new ArrayList<>();
+                    RID rid;
+                    while ((rid = getNextRIDFromScan()) != null) {
+                        innerRids.add(rid);
+                    }
+                    closeCurrentScan();
+                    innerTuples = innerHeapFile.getRecords(innerRids, false).iterator();
                 } catch (Exception e) {
                     // Clean up outer tuple fetch if index scan setup fails
                     outer_tuple = null;
@@ -270,39 +272,24 @@ public class INLJoins extends Iterator {
                 }
             }
 
-            // --- Inner Loop: Iterate through index scan results ---
-            RID inner_rid = getNextRIDFromScan();
-
-            if (inner_rid == null) {
-                // Inner scan exhausted for the current outer tuple.
-                closeCurrentScan();
+            // --- Inner Loop: Iterate through the fetched inner tuples ---
+            if (!innerTuples.hasNext()) {
+                // Inner tuples exhausted for the current outer tuple.
+                innerTuples = null;
                 get_from_outer = true; // Need to get the next outer tuple.
                 continue; // Continue the outer loop
             }
 
-            // RID found, fetch the inner tuple from the heap file.
             try {
-                // Get record directly as tuple and check for null
-                Tuple temp = null;
-                try {
-                    temp = innerHeapFile.getRecord(inner_rid);
-                } catch (Exception e) {
-                    System.err.println("Warning: Invalid RID in index: " + inner_rid + " - " + e.getMessage());
-                    continue; // Skip this RID and try the next one
-                }
-                
-                if (temp == null) {
-                    System.err.println("Warning: RID in index points to null record: " + inner_rid);
-                    continue; // Skip this RID
-                }
+                Tuple temp = innerTuples.next();
                 
                 // Create a new inner tuple to avoid reference issues
                 inner_tuple = new Tuple();
                 inner_tuple.setHdr((short) in2_len, _in2, t2_str_sizes); // Set header BEFORE copying data
                 inner_tuple.tupleCopy(temp);
             } catch (Exception e) {
-                System.err.println("Failed to process inner tuple for RID: " + inner_rid + " - " + e.getMessage());
-                continue; // Try next RID
+                System.err.println("Failed to process inner tuple - " + e.getMessage());
+                continue; // Try next tuple
             }
 
             // Apply RightFilter if present
@@ -411,6 +398,7 @@ public class INLJoins extends Iterator {
             }
             
             closeCurrentScan();
+            innerTuples = null;
             
             // Clean up persistent index resources
             if (currentBTreeFile != null) {
@@ -422,8 +410,10 @@ public class INLJoins extends Iterator {
                 }
             }
             
-            // LSH index doesn't need explicit closing, but set to null to allow GC
-            currentLSHIndex = null;
+            if (currentLSHIndex != null) {
+                currentLSHIndex.close();
+                currentLSHIndex = null;
+            }
             
             closeFlag = true;
         }
@@ -65,7 +65,10 @@ public abstract class Iterator implements Flags {
 	   IndexException;
   
   /**
-   * tries to get n_pages of buffer space
+   * tries to get n_pages of buffer space. The space is in the buffer
+   * pool's frames; a pool off the Java heap has no arrays to lend, so
+   * then the pages are arrays of their own, no frame is taken, and
+   * their PageIds are null.
    *@param n_pages the number of pages
    *@param PageIds the corresponding PageId for each page
    *@param bufs the buffer space
@@ -77,7 +80,13 @@ public abstract class Iterator implements Flags {
       Page pgptr = new Page();        
       PageId pgid = null;
       
+      boolean offHeap = SystemDefs.JavabaseBM.isOffHeap();
       for(int i=0; i < n_pages; i++) {
+	if (offHeap) {
+	  PageIds[i] = null;
+	  bufs[i] = new byte[SystemDefs.JavabasePageSize];
+	  continue;
+	}
 	pgptr.setpage(bufs[i]);
 
 	pgid = newPage(pgptr,1);
@@ -99,7 +108,8 @@ public abstract class Iterator implements Flags {
     throws IteratorBMException
     {
       for (int i=0; i<n_pages; i++) {
-	freePage(PageIds[i]);
+	if (PageIds[i] != null)
+	  freePage(PageIds[i]);
       }
     }
 
@@ -10,13 +10,20 @@ import java.lang.*;
 import java.io.*;
 /** 
  *
- *  This file contains an implementation of the nested loops join
- *  algorithm as described in the Shapiro paper.
- *  The algorithm is extremely simple:
+ *  This file contains an implementation of the block nested loops join
+ *  algorithm as described in the Shapiro paper. The outer tuples are
+ *  read a block at a time, as many as fit in the buffer pages given
+ *  but two, and the inner relation is scanned once for each block:
  *
- *      foreach tuple r in R do
+ *      foreach block B of R do
  *          foreach tuple s in S do
- *              if (ri == sj) then add (r, s) to the result.
+ *              foreach tuple r in B do
+ *                  if (ri == sj) then add (r, s) to the result.
+ *
+ *  The vectors of the outer tuples of a block that a distance condition
+ *  compares with the inner relation are decoded once for the block, and
+ *  the distances to each inner tuple's vector computed on them, before
+ *  the rest of the join condition is evaluated.
  */
 
 public class NestedLoopsJoins  extends Iterator 
@@ -37,6 +44,16 @@ public class NestedLoopsJoins  extends Iterator
   private   Heapfile  hf;
   private   Scan      inner;
   
+  private   Tuple     block[];          // Outer tuples of the current block
+  private   int       block_len;        // # of tuples in block
+  private   int       block_pos;        // Next of block to join with inner_tuple
+  private   int       vec_conds[];      // Vector distance conditions in OutputFilter
+  private   int       vec_outer_fld[];  // Outer vector field of each
+  private   int       vec_inner_fld[];  // Inner vector field of each
+  private   int       block_vecs[][][]; // Outer vectors of block, by condition
+  private   int       inner_vecs[][];   // Inner vectors of inner_tuple, by condition
+  private   CondExpr  rest_filter[];    // OutputFilter but the vector conditions
+  
   
   /**constructor
    *Initialize the two relations which are joined, including relation type,
@@ -89,6 +106,7 @@ public class NestedLoopsJoins  extends Iterator
       
       n_buf_pgs    = amt_of_mem;
       inner = null;
+      inner_tuple = null;
       done  = false;
       get_from_outer = true;
       
@@ -115,6 +133,78 @@ public class NestedLoopsJoins  extends Iterator
       catch(Exception e) {
 	throw new NestedLoopException(e, "Create new heapfile failed.");
       }
+      
+      // The block takes the buffer pages but one for the inner scan
+      // and one for the output
+      Tuple t = new Tuple();
+      try {
+	t.setHdr((short)len_in1, _in1, t1_str_sizes);
+      }
+      catch (Exception e) {
+	throw new NestedLoopException(e, "t.setHdr() failed");
+      }
+      int per_page = Math.max(1, SystemDefs.JavabasePageSize / t.size());
+      block = new Tuple[Math.max(1, n_buf_pgs - 2) * per_page];
+      block_len = 0;
+      block_pos = 0;
+      
+      find_vector_conds();
+    }
+  
+  /**
+   * Finds the conditions of OutputFilter on the distance between a
+   * vector field of the outer relation and one of the inner, and sets
+   * rest_filter to the others.
+   */
+  private void find_vector_conds()
+    {
+      int n = 0;
+      int conds[] = new int[OutputFilter == null ? 0 : OutputFilter.length];
+      int outer_fld[] = new int[conds.length];
+      int inner_fld[] = new int[conds.length];
+      for (int i = 0; OutputFilter != null && i < OutputFilter.length && OutputFilter[i] != null; i++)
+	{
+	  CondExpr c = OutputFilter[i];
+	  if (c.type1.attrType != AttrType.attrSymbol || c.type2.attrType != AttrType.attrSymbol)
+	    continue;
+	  FldSpec o, in;
+	  if (c.operand1.symbol.relation.key == RelSpec.outer
+	      && c.operand2.symbol.relation.key != RelSpec.outer) {
+	    o = c.operand1.symbol; in = c.operand2.symbol;
+	  }
+	  else if (c.operand2.symbol.relation.key == RelSpec.outer
+		   && c.operand1.symbol.relation.key != RelSpec.outer) {
+	    o = c.operand2.symbol; in = c.operand1.symbol;
+	  }
+	  else
+	    continue;
+	  if (o.offset < 1 || o.offset > _in1.length || in.offset < 1 || in.offset > _in2.length
+	      || _in1[o.offset-1].attrType != AttrType.attrVector100D
+	      || _in2[in.offset-1].attrType != AttrType.attrVector100D)
+	    continue;
+	  conds[n] = i;
+	  outer_fld[n] = o.offset;
+	  inner_fld[n] = in.offset;
+	  n++;
+	}
+      rest_filter = null;
+      if (OutputFilter != null)
+	{
+	  rest_filter = new CondExpr[OutputFilter.length - n + 1];
+	  int r = 0;
+	  for (int i = 0, c = 0; i < OutputFilter.length && OutputFilter[i] != null; i++)
+	    {
+	      if (c < n && conds[c] == i)
+		c++;
+	      else
+		rest_filter[r++] = OutputFilter[i];
+	    }
+	}
+      vec_conds = java.util.Arrays.copyOf(conds, n);
+      vec_outer_fld = java.util.Arrays.copyOf(outer_fld, n);
+      vec_inner_fld = java.util.Arrays.copyOf(inner_fld, n);
+      block_vecs = new int[n][block.length][];
+      inner_vecs = new int[n][];
     }
   
   /**  
@@ -149,78 +239,129 @@ public class NestedLoopsJoins  extends Iterator
 	   UnknownKeyTypeException,
 	   Exception
     {
-      // This is a DUMBEST form of a join, not making use of any key information...
-      
-      
       if (done)
 	return null;
       
       do
 	{
-	  // If get_from_outer is true, Get a tuple from the outer, delete
-	  // an existing scan on the file, and reopen a new scan on the file.
-	  // If a get_next on the outer returns DONE?, then the nested loops
-	  //join is done too.
+	  // If get_from_outer is true, read the next block of outer
+	  // tuples and open a new scan on the inner. If there are no more
+	  // outer tuples, the nested loops join is done too.
 	  
 	  if (get_from_outer == true)
 	    {
 	      get_from_outer = false;
-	      if (inner != null)     // If this not the first time,
+	      close_inner();
+	      
+	      if (!read_block())
 		{
-		  // close scan
-		  inner = null;
+		  done = true;
+		  return null;
 		}
-	    
+	      
 	      try {
 		inner = hf.openScan();
 	      }
 	      catch(Exception e){
 		throw new NestedLoopException(e, "openScan failed");
 	      }
-	      
-	      if ((outer_tuple=outer.get_next()) == null)
-		{
-		  done = true;
-		  if (inner != null) 
-		    {
-                      
-		      inner = null;
-		    }
-		  
-		  return null;
-		}   
 	    }  // ENDS: if (get_from_outer == TRUE)
-	 
 	  
-	  // The next step is to get a tuple from the inner,
-	  // while the inner is not completely scanned && there
-	  // is no match (with pred),get a tuple from the inner.
+	  // Get the next inner tuple that passes RightFilter, once the
+	  // current one has been joined with the whole block.
 	  
-	 
+	  if (inner_tuple == null)
+	    {
 	      RID rid = new RID();
 	      while ((inner_tuple = inner.getNext(rid)) != null)
 		{
 		  inner_tuple.setHdr((short)in2_len, _in2,t2_str_sizescopy);
 		  if (PredEval.Eval(RightFilter, inner_tuple, null, _in2, null) == true)
-		    {
-		      if (PredEval.Eval(OutputFilter, outer_tuple, inner_tuple, _in1, _in2) == true)
-			{
-			  // Apply a projection on the outer and inner tuples.
-			  Projection.Join(outer_tuple, _in1, 
-					  inner_tuple, _in2, 
-					  Jtuple, perm_mat, nOutFlds);
-			  return Jtuple;
-			}
-		    }
+		    break;
 		}
 	      
-	      // There has been no match. (otherwise, we would have 
-	      //returned from t//he while loop. Hence, inner is 
-	      //exhausted, => set get_from_outer = TRUE, go to top of loop
+	      if (inner_tuple == null)
+		{
+		  // The inner is exhausted for this block, => set
+		  // get_from_outer = TRUE, go to top of loop
+		  get_from_outer = true;
+		  continue;
+		}
 	      
-	      get_from_outer = true; // Loop back to top and get next outer tuple.	      
+	      for (int c = 0; c < vec_conds.length; c++)
+		inner_vecs[c] = inner_tuple.getVectorFld(vec_inner_fld[c]);
+	      block_pos = 0;
+	    }
+	  
+	  while (block_pos < block_len)
+	    {
+	      int i = block_pos++;
+	      if (vector_conds_hold(i)
+		  && PredEval.Eval(rest_filter, block[i], inner_tuple, _in1, _in2) == true)
+		{
+		  // Apply a projection on the outer and inner tuples.
+		  Projection.Join(block[i], _in1, 
+				  inner_tuple, _in2, 
+				  Jtuple, perm_mat, nOutFlds);
+		  return Jtuple;
+		}
+	    }
+	  
+	  // The block is done with this inner tuple, go on to the next
+	  inner_tuple = null;
 	} while (true);
     } 
+  
+  /**
+   * Fills the block with the next outer tuples, and decodes their
+   * vectors that distance conditions compare.
+   * @return false if there are no more outer tuples
+   * @exception Exception from the outer iterator
+   */
+  private boolean read_block()
+    throws Exception
+    {
+      Tuple t;
+      block_len = 0;
+      while (block_len < block.length && (t = outer.get_next()) != null)
+	{
+	  block[block_len] = new Tuple(t);
+	  for (int c = 0; c < vec_conds.length; c++)
+	    block_vecs[c][block_len] = block[block_len].getVectorFld(vec_outer_fld[c]);
+	  block_len++;
+	}
+      for (int i = block_len; i < block.length && block[i] != null; i++)
+	block[i] = null;
+      return block_len > 0;
+    }
+  
+  /**
+   * Evaluates the vector distance conditions between an outer tuple of
+   * the block and inner_tuple, on the decoded vectors.
+   * @param i the outer tuple's place in the block
+   * @return true if they all hold
+   */
+  private boolean vector_conds_hold(int i)
+    {
+      for (int c = 0; c < vec_conds.length; c++)
+	{
+	  double dist = VectorKernel.distance(block_vecs[c][i], inner_vecs[c]);
+	  if (!PredEval.EvalDistance(OutputFilter[vec_conds[c]], dist))
+	    return false;
+	}
+      return true;
+    }
+  
+  /** Closes the scan of the inner relation, if one is open. */
+  private void close_inner()
+    {
+      if (inner != null)
+	{
+	  inner.closescan();
+	  inner = null;
+	}
+      inner_tuple = null;
+    }
  
   /**
    * implement the abstract method close() from super class Iterator
@@ -233,6 +374,9 @@ public class NestedLoopsJoins  extends Iterator
     {
       if (!closeFlag) {
 	
+	close_inner();
+	block = null;
+	block_vecs = null;
 	try {
 	  outer.close();
 	}catch (Exception e) {
@@ -89,7 +89,7 @@ public class PredEval
 
               short[] literal_str_size = null;
               if (literal_type.attrType == AttrType.attrString) {
-                  literal_str_size = new short[] {(short)Math.min(temp_ptr.operand2.string.length()+1, Tuple.max_size)};
+                  literal_str_size = new short[] {(short)Math.min(temp_ptr.operand2.string.length()+1, Tuple.maxSize())};
               } else if (literal_type.attrType == AttrType.attrVector100D) {
                   literal_str_size = null; // Or specific size if needed by setHdr
               }
@@ -127,9 +127,7 @@ public class PredEval
               }
               else if (actual_comparison_type.attrType == AttrType.attrVector100D) {
                   if (literal_type.attrType != AttrType.attrVector100D) throw new PredEvalException("Cannot compare Vector attribute with non-Vector literal.");
-                  int[] vec1 = attr_tuple.getVectorFld(attr_fld_no);
-                  int[] vec2 = literal_tuple.getVectorFld(literal_fld_no);
-                  double dist = TupleUtils.calculateEuclideanDistance(vec1, vec2);
+                  double dist = attr_tuple.vectorDistanceTo(attr_fld_no, literal_tuple, literal_fld_no);
                   if (!evaluateVectorOperator(dist, temp_ptr.op, temp_ptr.distance)) return false;
               }
               else {
@@ -166,7 +164,7 @@ public class PredEval
               AttrType literal_type = temp_ptr.type1;
               short[] literal_str_size = null;
               if (literal_type.attrType == AttrType.attrString) {
-                  literal_str_size = new short[] {(short)Math.min(temp_ptr.operand1.string.length()+1, Tuple.max_size)};
+                  literal_str_size = new short[] {(short)Math.min(temp_ptr.operand1.string.length()+1, Tuple.maxSize())};
               } else if (literal_type.attrType == AttrType.attrVector100D) {
                   literal_str_size = null;
               }
@@ -204,9 +202,7 @@ public class PredEval
               // Handle Vector comparison separately
               else if (actual_comparison_type.attrType == AttrType.attrVector100D) { // Check attribute type
                   if (literal_type.attrType != AttrType.attrVector100D) throw new PredEvalException("Cannot compare non-Vector literal with Vector attribute.");
-                  int[] vec1 = literal_tuple.getVectorFld(literal_fld_no);
-                  int[] vec2 = attr_tuple.getVectorFld(attr_fld_no);
-                  double dist = TupleUtils.calculateEuclideanDistance(vec1, vec2);
+                  double dist = literal_tuple.vectorDistanceTo(literal_fld_no, attr_tuple, attr_fld_no);
                   if (!evaluateVectorOperator(dist, temp_ptr.op, temp_ptr.distance)) return false;
               }
               else {
@@ -281,9 +277,7 @@ public class PredEval
               // Handle Vector comparison separately
               else if (type1.attrType == AttrType.attrVector100D) {
                   if (type2.attrType != AttrType.attrVector100D) throw new PredEvalException("Cannot compare Vector attribute with non-Vector attribute in join.");
-                  int[] vec1 = tuple1_ref.getVectorFld(fld1_no);
-                  int[] vec2 = tuple2_ref.getVectorFld(fld2_no);
-                  double dist = TupleUtils.calculateEuclideanDistance(vec1, vec2);
+                  double dist = tuple1_ref.vectorDistanceTo(fld1_no, tuple2_ref, fld2_no);
                   if (!evaluateVectorOperator(dist, temp_ptr.op, temp_ptr.distance)) return false;
               }
               else {
@@ -317,6 +311,17 @@ public class PredEval
     } // End Eval
 
 
+    /**
+     * Evaluates a vector condition on a distance the caller computed
+     * itself, as <code>Eval</code> would on the tuples.
+     * @param cond a condition comparing two vector fields
+     * @param distance the Euclidean distance between the two vectors
+     * @return true if the condition holds, false otherwise
+     */
+    public static boolean EvalDistance(CondExpr cond, double distance) {
+        return evaluateVectorOperator(distance, cond.op, cond.distance);
+    }
+
     /**
      * Helper method to evaluate the comparison result against the operator for non-vector types.
      * @param comp_res Result from comparison (0, -1, or 1)
@@ -3,8 +3,7 @@ package iterator;
 import java.io.*;
 import java.util.ArrayList; // Added for ArrayList
 import java.util.Arrays;    // Added for Arrays.sort
-import java.util.Comparator;// Added for Comparator
-import java.util.LinkedList; // Added for LinkedList
+import java.util.PriorityQueue;
 import global.*;
 import bufmgr.*;
 import diskmgr.*;
@@ -18,6 +17,12 @@ import chainexception.*;
  * repeatly call <code>get_next()</code> to get tuples in sorted order.
  * After the sorting is done, the user should call <code>close()</code>
  * to clean up.
+ *
+ * When sorting on the distance to a Target vector with k &gt; 0, only the
+ * k nearest (or farthest) tuples are wanted. If k tuples fit in the
+ * memory given, they are kept in a bounded heap during one pass over
+ * the input, and no runs are written. Otherwise the runs are made as
+ * usual, but each keeps only its first k tuples.
  */
 public class Sort extends Iterator implements GlobalConst
 {
@@ -37,7 +42,9 @@ public class Sort extends Iterator implements GlobalConst
   private int         sortFldLen;
   private int         tuple_size;
 
-  private pnodeSplayPQ Q; // Main priority queue for merge or internal sort results
+  private pnodeSplayPQ Q; // Main priority queue for merge
+  private pnode[]      mem_run; // Tuples of an internal sort, sorted
+  private int          mem_next; // Next of mem_run to return
   private Heapfile[]   temp_files; // Array to hold temporary run files
   private int          n_tempfiles; // Current allocated size of temp_files array
   private Tuple        output_tuple; // Temporary holder for tuple returned by delete_min
@@ -51,8 +58,11 @@ public class Sort extends Iterator implements GlobalConst
   private boolean closeFlag = false; // Flag to prevent double closing
 
   private Vector100Dtype Target; // Target vector for attrVector100D distance sort
+  private int[] targetValues;     // Target's components, copied once for the distance kernel
   private int k; // Number of top tuples to return (0 means all)
   private int tuples_returned; // Counter for top-k returned tuples
+  private boolean topK;          // Whether only the k best tuples are kept, in memory
+  private Tuple[] topTuples;     // The k best tuples, in sorted order
 
   /**
    * Original constructor for backward compatibility (no vector sort).
@@ -106,6 +116,7 @@ public class Sort extends Iterator implements GlobalConst
   {
     // Save the Target and k parameters
     this.Target = Target;
+    this.targetValues = (Target != null) ? Target.getValues() : null;
     this.k = k;
     if (this.k < 0) this.k = 0; // Ensure k is non-negative
 
@@ -144,6 +155,22 @@ public class Sort extends Iterator implements GlobalConst
     order = sort_order;
     _n_pages = n_pages; // Store n_pages
 
+    int pages_for_heap = Math.max(1, _n_pages - 3); // Use at least 1 page, reserve some for I/O
+    max_elems_in_heap = (int) Math.floor((double) pages_for_heap * SystemDefs.JavabasePageSize / tuple_size);
+    if (max_elems_in_heap <= 0) {
+        // Ensure at least a minimal heap size if calculation is too small (e.g., tiny buffer pool)
+        max_elems_in_heap = 1; // Or throw an error if insufficient memory
+        System.err.println("Warning: Calculated max_elems_in_heap is <= 0. Setting to 1. Check buffer pool size and tuple size.");
+    }
+
+    topK = this.k > 0 && this.k <= max_elems_in_heap && this.Target != null
+      && sort_fld > 0 && sort_fld <= len_in
+      && _in[sort_fld - 1].attrType == AttrType.attrVector100D;
+    if (topK) {
+      // Nothing is written to runs, so no buffer pages are needed
+      _n_pages = 0;
+    }
+
     // Allocate buffer pages
     bufs_pids = new PageId[_n_pages];
     bufs = new byte[_n_pages][];
@@ -157,7 +184,7 @@ public class Sort extends Iterator implements GlobalConst
       }
     }
     else {
-      for (int i=0; i<_n_pages; i++) bufs[i] = new byte[MAX_SPACE];
+      for (int i=0; i<_n_pages; i++) bufs[i] = new byte[SystemDefs.JavabasePageSize];
     }
 
     first_time = true;
@@ -170,14 +197,6 @@ public class Sort extends Iterator implements GlobalConst
 
     o_buf = new OBuf(); 
  
-    int pages_for_heap = Math.max(1, _n_pages - 3); // Use at least 1 page, reserve some for I/O
-    max_elems_in_heap = (int) Math.floor((double) pages_for_heap * GlobalConst.MINIBASE_PAGESIZE / tuple_size);
-    if (max_elems_in_heap <= 0) {
-        // Ensure at least a minimal heap size if calculation is too small (e.g., tiny buffer pool)
-        max_elems_in_heap = 1; // Or throw an error if insufficient memory
-        System.err.println("Warning: Calculated max_elems_in_heap is <= 0. Setting to 1. Check buffer pool size and tuple size.");
-    }
-
     sortFldLen = sort_fld_len;
 
     // Initialize the main merge queue Q (used for both internal sort results and merge phase)
@@ -187,7 +206,7 @@ public class Sort extends Iterator implements GlobalConst
          throw new SortException("Invalid sort field number: " + _sort_fld);
     }
     // Use the constructor that accepts Target
-    Q = new pnodeSplayPQ(_sort_fld, sortAttrType, order, this.Target); // Pass Target
+    Q = new pnodeSplayPQ(_sort_fld, sortAttrType, order);
 
     // Initialize the output tuple buffer
     op_buf = new Tuple(tuple_size);   // need Tuple.java
@@ -219,6 +238,11 @@ public class Sort extends Iterator implements GlobalConst
        JoinsException,
        Exception
   {
+    if (first_time && topK) {
+      first_time = false;
+      top_k();
+    }
+
     if (first_time) {
       // first get_next call to the sort routine
       first_time = false;
@@ -232,8 +256,8 @@ public class Sort extends Iterator implements GlobalConst
       }
 
       // Initialize structures for internal sort (assuming it fits initially)
-      // Use a temporary LinkedList to buffer tuples initially
-      LinkedList<Tuple> internalBuffer = new LinkedList<>();
+      // Buffer the tuples with their sort keys, computed once each
+      ArrayList<pnode> internalBuffer = new ArrayList<>();
       Tuple tuple;
       int tups_read = 0;
       boolean external_sort_needed = false;
@@ -246,7 +270,9 @@ public class Sort extends Iterator implements GlobalConst
       // Read tuples from input iterator
       while ((tuple = _am.get_next()) != null) {
           tups_read++;
-          Tuple tupleCopy = new Tuple(tuple); // Make a copy
+          pnode node = new pnode();
+          node.tuple = new Tuple(tuple); // Make a copy
+          set_key(node);
 
           // Check if we've exceeded the memory capacity
           if (max_tuples_in_mem > 0 && tups_read > max_tuples_in_mem) {
@@ -263,22 +289,19 @@ public class Sort extends Iterator implements GlobalConst
                   Nruns = 1; // We are creating the first run
 
                   // Add the tuple that caused the overflow to the buffer
-                  internalBuffer.add(tupleCopy);
+                  internalBuffer.add(node);
 
                   // Sort the tuples currently in internalBuffer
-                  Tuple[] bufferedTuples = internalBuffer.toArray(new Tuple[0]);
+                  pnode[] bufferedNodes = sort_nodes(internalBuffer);
                   internalBuffer = null; // Release memory
 
-                  // Use a custom comparator for sorting tuples in memory
-                  Arrays.sort(bufferedTuples, new TupleComparator(order.tupleOrder == TupleOrder.Ascending,
-                                                                  _sort_fld, sortAttrType, Target));
-
                   // Write sorted tuples to the first run file
                   // Initialize o_buf for the first run file
                   o_buf.init(bufs, _n_pages, tuple_size, temp_files[0], false);
                   n_tuples[0] = 0; // Initialize tuple count for run 0
-                  for (Tuple t : bufferedTuples) {
-                      o_buf.Put(t);
+                  for (pnode n : bufferedNodes) {
+                      if (run_full(0)) break; // The rest come after the k-th
+                      o_buf.Put(n.tuple);
                       n_tuples[0]++; // Count tuples in the first run
                   }
                   o_buf.flush(); // Flush the first run
@@ -296,43 +319,17 @@ public class Sort extends Iterator implements GlobalConst
               }
               break; 
           } else {
-              internalBuffer.add(tupleCopy);
+              internalBuffer.add(node);
           }
       } 
 
       if (!external_sort_needed) {
           Nruns = 0; // Explicitly mark as internal sort
 
-          if (internalBuffer != null && !internalBuffer.isEmpty()) {
-              Tuple[] sortedTuples = internalBuffer.toArray(new Tuple[0]);
-              internalBuffer = null; // Release memory
-
-              // Use a custom comparator for sorting tuples in memory
-              Arrays.sort(sortedTuples, new TupleComparator(order.tupleOrder == TupleOrder.Ascending,
-                                                            _sort_fld, sortAttrType, Target));
-
-              // Load sorted tuples into the main priority queue Q
-              for (Tuple t : sortedTuples) {
-                  pnode node = new pnode();
-                  node.tuple = t; // No copy needed here as it's already sorted
-                  // Calculate distance if needed
-                  if (sortAttrType.attrType == AttrType.attrVector100D && Target != null) {
-                      try {
-                          int[] vector = t.getVectorFld(_sort_fld);
-                          node.distance = TupleUtils.calculateEuclideanDistance(vector, Target.getValues());
-                      } catch (Exception e) {
-                          throw new SortException(e, "Sort.java: Error calculating distance for internal sort load");
-                      }
-                  } else {
-                      node.distance = -1;
-                  }
-                  try {
-                      Q.enq(node); // Enqueue into the main queue
-                  } catch (Exception e) {
-                      throw new SortException(e, "Sort.java: Error enqueuing node during internal sort load");
-                  }
-              }
-          }
+          // The sorted tuples are returned straight from memory
+          mem_run = sort_nodes(internalBuffer);
+          mem_next = 0;
+          internalBuffer = null; // Release memory
           // Ensure op_buf is initialized for returning tuples
           if (op_buf == null) op_buf = new Tuple(tuple_size);
           try { op_buf.setHdr(n_cols, _in, str_lens); } catch (Exception e) { throw new SortException(e, "Sort.java: op_buf.setHdr() failed"); }
@@ -356,7 +353,15 @@ public class Sort extends Iterator implements GlobalConst
         return null;
     }
 
-    if (Q == null || Q.empty()) {
+    if (topK) {
+      if (tuples_returned >= topTuples.length) {
+        return null;
+      }
+      op_buf.tupleCopy(topTuples[tuples_returned++]);
+      return op_buf;
+    }
+
+    if (Nruns > 0 && (Q == null || Q.empty())) {
       return null;
     }
 
@@ -378,6 +383,108 @@ public class Sort extends Iterator implements GlobalConst
   } 
 
 
+  /**
+   * Computes the sort key of a node's tuple, once, for the comparisons
+   * of the in-memory sort, run generation and merge.
+   * @param node the node, with its tuple set
+   * @exception SortException the key could not be computed
+   */
+  private void set_key(pnode node)
+    throws SortException
+  {
+    try {
+      TupleUtils.setSortKey(node, _in[_sort_fld - 1], _sort_fld, targetValues);
+    }
+    catch (Exception e) {
+      throw new SortException(e, "Sort.java: error computing the sort key");
+    }
+  }
+
+  /**
+   * Sorts buffered nodes on their keys, in the sort order. Nodes with
+   * equal keys stay in the order they were buffered.
+   * @param nodes the nodes, with their keys set
+   * @return the nodes, sorted
+   */
+  private pnode[] sort_nodes(ArrayList<pnode> nodes)
+  {
+    final AttrType sortAttrType = _in[_sort_fld - 1];
+    final boolean ascending = order.tupleOrder == TupleOrder.Ascending;
+    pnode[] sorted = nodes.toArray(new pnode[0]);
+    Arrays.sort(sorted, (a, b) -> ascending ? TupleUtils.compareSortKeys(sortAttrType, a, b)
+                                            : TupleUtils.compareSortKeys(sortAttrType, b, a));
+    return sorted;
+  }
+
+  /**
+   * Reads all of the input, keeping the k tuples nearest to the Target
+   * (farthest, for a descending sort) in a heap whose head is the one to
+   * drop next. Each tuple's squared distance is computed once. Of the
+   * tuples at the same distance the earlier ones are kept, and returned
+   * first.
+   * @exception SortException something went wrong in the lower layer.
+   * @exception Exception from the input iterator
+   */
+  private void top_k()
+    throws SortException,
+       Exception
+  {
+    final boolean ascending = order.tupleOrder == TupleOrder.Ascending;
+    // k may mean "all", so the heap grows with the input rather than
+    // being sized for k up front
+    PriorityQueue<TopKEntry> heap = new PriorityQueue<TopKEntry>(Math.min(k, 1024), (a, b) -> {
+        int c = Long.compare(a.key, b.key);
+        if (c == 0) return Long.compare(b.seq, a.seq);
+        return ascending ? -c : c;
+      });
+
+    Tuple tuple;
+    long seq = 0;
+    while ((tuple = _am.get_next()) != null) {
+      long key;
+      try {
+        key = tuple.vectorSquaredDistanceTo(_sort_fld, targetValues);
+      }
+      catch (Exception e) {
+        throw new SortException(e, "Sort.java: Error calculating distance for top-k");
+      }
+
+      if (heap.size() < k) {
+        heap.add(new TopKEntry(new Tuple(tuple), key, seq++));
+      }
+      else {
+        TopKEntry worst = heap.peek();
+        if (ascending ? key < worst.key : key > worst.key) {
+          heap.poll();
+          worst.tuple = new Tuple(tuple);
+          worst.key = key;
+          worst.seq = seq;
+          heap.add(worst);
+        }
+        seq++;
+      }
+    }
+
+    topTuples = new Tuple[heap.size()];
+    for (int i = topTuples.length - 1; i >= 0; i--) {
+      topTuples[i] = heap.poll().tuple;
+    }
+  }
+
+  /** A tuple kept by top_k(), with its squared distance to the Target. */
+  private static class TopKEntry {
+    Tuple tuple;
+    long key;
+    long seq; // Input position, to order tuples at the same distance
+
+    TopKEntry(Tuple tuple, long key, long seq) {
+      this.tuple = tuple;
+      this.key = key;
+      this.seq = seq;
+    }
+  }
+
+
   /**
    * Set up for merging the runs.
    * Open an input buffer for each run, and insert the first element (min/max)
@@ -449,20 +556,8 @@ public class Sort extends Iterator implements GlobalConst
       temp_tuple = i_buf[i].Get(temp_tuple);
 
       if (temp_tuple != null) {
-        // Calculate distance if needed for the first element from the run
-        AttrType sortAttrType = _in[_sort_fld - 1];
-        if (sortAttrType.attrType == AttrType.attrVector100D && Target != null) {
-            try {
-                int[] vector = temp_tuple.getVectorFld(_sort_fld);
-                cur_node.distance = TupleUtils.calculateEuclideanDistance(vector, Target.getValues());
-            } catch (Exception e) {
-                throw new SortException(e, "Sort.java: Error calculating distance in setup_for_merge");
-            }
-        } else {
-            cur_node.distance = -1; // Indicate distance not applicable or calculated
-        }
-
         cur_node.tuple = temp_tuple; // no copy needed
+        set_key(cur_node);
         try {
           Q.enq(cur_node); // Enqueue into the main merge queue
         }
@@ -503,34 +598,19 @@ public class Sort extends Iterator implements GlobalConst
          Exception {
     Tuple tuple = null; // Initialize tuple to null
     pnode cur_node;
-    // Initialize run-generation priority queues with Target vector
-    pnodeSplayPQ Q1 = new pnodeSplayPQ(_sort_fld, sortFldType, order, this.Target);
-    pnodeSplayPQ Q2 = new pnodeSplayPQ(_sort_fld, sortFldType, order, this.Target);
+    // Initialize run-generation priority queues
+    pnodeSplayPQ Q1 = new pnodeSplayPQ(_sort_fld, sortFldType, order);
+    pnodeSplayPQ Q2 = new pnodeSplayPQ(_sort_fld, sortFldType, order);
 
     pnodeSplayPQ pcurr_Q = Q1; // Heap for elements fitting in the current run
     pnodeSplayPQ pother_Q = Q2; // Heap for elements belonging to the next run
-    Tuple lastElem = new Tuple(tuple_size); // Stores the last element written to the current run
-    try {
-        lastElem.setHdr(n_cols, _in, str_lens);
-    } catch (Exception e) {
-        throw new SortException(e, "Sort.java: setHdr() failed for lastElem");
-    }
+    pnode lastElem = null; // The last element written to the current run, null before the first
 
     int run_num = start_run_index; // Start from the specified run index
     int runs_generated_this_call = 0; // Track runs created by this specific call
     int p_elems_curr_Q = 0; // Number of elements in the current heap
     int p_elems_other_Q = 0; // Number of elements in the other heap
     int comp_res;
-    double lastElemDistance = -1; // Store distance of lastElem for vector comparison
-
-    // Set the lastElem to be the minimum/maximum value for the sort field to start the first run
-    if (order.tupleOrder == TupleOrder.Ascending) {
-        try { MIN_VAL(lastElem, sortFldType); } catch (Exception e) { throw new SortException(e, "MIN_VAL failed"); }
-        lastElemDistance = Double.NEGATIVE_INFINITY; // For vector distance comparison
-    } else {
-        try { MAX_VAL(lastElem, sortFldType); } catch (Exception e) { throw new SortException(e, "MAX_VAL failed"); }
-        lastElemDistance = Double.POSITIVE_INFINITY; // For vector distance comparison
-    }
 
     if (run_num >= n_tempfiles) {
         expand_temp_arrays(run_num + 1); // Expand to accommodate at least the starting run index
@@ -563,60 +643,41 @@ public class Sort extends Iterator implements GlobalConst
             // Process the new tuple
             cur_node = new pnode();
             cur_node.tuple = new Tuple(tuple); // Copy needed
-
-            // Calculate distance if vector sort
-            if (sortFldType.attrType == AttrType.attrVector100D && Target != null) {
-                try {
-                    int[] vector = cur_node.tuple.getVectorFld(_sort_fld);
-                    cur_node.distance = TupleUtils.calculateEuclideanDistance(vector, Target.getValues());
-                } catch (Exception e) {
-                    throw new SortException(e, "Sort.java: Error calculating distance for new tuple");
+            set_key(cur_node);
+
+            // The heaps share the memory: when it is full, make room by
+            // writing out the next element of the current run
+            if (p_elems_curr_Q + p_elems_other_Q == max_elems && p_elems_curr_Q > 0) {
+                pnode node_to_write = pcurr_Q.deq();
+                p_elems_curr_Q--;
+                o_buf.Put(node_to_write.tuple);
+                n_tuples[run_num]++;
+                lastElem = node_to_write;
+                if (run_full(run_num)) {
+                    // The rest of the current heap come after the k-th of the run
+                    p_elems_curr_Q = drop(pcurr_Q, p_elems_curr_Q);
                 }
-            } else {
-                cur_node.distance = -1;
             }
 
             // Compare the new tuple with the last element written to the current run
-            if (sortFldType.attrType == AttrType.attrVector100D && Target != null) {
-                comp_res = Double.compare(cur_node.distance, lastElemDistance);
-            } else {
-                comp_res = TupleUtils.CompareTupleWithValue(sortFldType, cur_node.tuple, _sort_fld, lastElem);
-            }
+            comp_res = (lastElem == null) ? 0 : TupleUtils.compareSortKeys(sortFldType, cur_node, lastElem);
 
             // Decide whether the new tuple fits in the current run or belongs to the next run
             if ((comp_res < 0 && order.tupleOrder == TupleOrder.Ascending) ||
                 (comp_res > 0 && order.tupleOrder == TupleOrder.Descending)) {
                 // Tuple doesn't fit in the current run, add to the 'other' heap
-                if (p_elems_other_Q == max_elems) {
-
-                    throw new SortException("Sort.java: generate_runs - Both heaps full, unexpected state.");
-                }
                 try {
                     pother_Q.enq(cur_node);
                 } catch (Exception e) { throw new SortException(e, "Sort.java: error enqueuing node to other queue"); }
                 p_elems_other_Q++;
+            } else if (run_full(run_num)) {
+                // Tuple comes after the k-th of the current run: drop it
             } else {
                 // Tuple fits in the current run, add to the 'current' heap
-                if (p_elems_curr_Q == max_elems) {
-                    pnode node_to_write = pcurr_Q.deq();
-                    p_elems_curr_Q--;
-                    o_buf.Put(node_to_write.tuple);
-                    n_tuples[run_num]++;
-                    TupleUtils.SetValue(lastElem, node_to_write.tuple, _sort_fld, sortFldType);
-                    if (sortFldType.attrType == AttrType.attrVector100D && Target != null) {
-                        lastElemDistance = node_to_write.distance;
-                    }
-                    try {
-                        pcurr_Q.enq(cur_node);
-                    } catch (Exception e) { throw new SortException(e, "Sort.java: error enqueuing new node after replacement"); }
-                    p_elems_curr_Q++;
-                } else {
-                    // Current heap is not full, just add the new tuple
-                    try {
-                        pcurr_Q.enq(cur_node);
-                    } catch (Exception e) { throw new SortException(e, "Sort.java: error enqueuing new node to current queue"); }
-                    p_elems_curr_Q++;
-                }
+                try {
+                    pcurr_Q.enq(cur_node);
+                } catch (Exception e) { throw new SortException(e, "Sort.java: error enqueuing node to current queue"); }
+                p_elems_curr_Q++;
             }
         } else {
             break;
@@ -648,13 +709,7 @@ public class Sort extends Iterator implements GlobalConst
             n_tuples[run_num] = 0; // Initialize count for the new run
 
             // Reset lastElem for the new run
-            if (order.tupleOrder == TupleOrder.Ascending) {
-                try { MIN_VAL(lastElem, sortFldType); } catch (Exception e) { throw new SortException(e, "MIN_VAL failed"); }
-                lastElemDistance = Double.NEGATIVE_INFINITY;
-            } else {
-                try { MAX_VAL(lastElem, sortFldType); } catch (Exception e) { throw new SortException(e, "MAX_VAL failed"); }
-                lastElemDistance = Double.POSITIVE_INFINITY;
-            }
+            lastElem = null;
 
             // Switch the queues
             pnodeSplayPQ tempQ = pcurr_Q;
@@ -670,7 +725,7 @@ public class Sort extends Iterator implements GlobalConst
     // --- Input exhausted, flush remaining elements ---
 
     // Flush remaining elements from the current heap to the current run buffer
-    while (p_elems_curr_Q > 0) {
+    while (p_elems_curr_Q > 0 && !run_full(run_num)) {
         pnode node_to_write = pcurr_Q.deq();
         o_buf.Put(node_to_write.tuple);
         n_tuples[run_num]++;
@@ -703,7 +758,7 @@ public class Sort extends Iterator implements GlobalConst
         } catch (Exception e) { throw new SortException(e, "Sort.java: create Heapfile/OBuf init failed for final run"); }
 
         // Write elements from the other heap (they are already sorted relative to each other)
-        while (p_elems_other_Q > 0) {
+        while (p_elems_other_Q > 0 && !run_full(run_num)) {
             pnode node_to_write = pother_Q.deq();
             o_buf.Put(node_to_write.tuple);
             n_tuples[run_num]++;
@@ -715,6 +770,32 @@ public class Sort extends Iterator implements GlobalConst
 }
 
 
+  /**
+   * Whether a run has its first k tuples, when only k are wanted: no
+   * later tuple of the run can be among the k returned.
+   * @param run_num the run
+   * @return true if the run's other tuples can be dropped
+   */
+  private boolean run_full(int run_num)
+  {
+    return k > 0 && n_tuples[run_num] >= k;
+  }
+
+  /**
+   * Empties a run generation heap.
+   * @param pq the heap
+   * @param n the number of elements in it
+   * @return the number left, 0
+   */
+  private int drop(pnodeSplayPQ pq, int n)
+  {
+    for (; n > 0; n--) {
+      pq.deq();
+    }
+    return 0;
+  }
+
+
   /**
    * Remove the minimum value (or maximum for descending) among all the runs or from the internal sort queue.
    * @return the next tuple in sorted order, null if exhausted.
@@ -729,6 +810,16 @@ public class Sort extends Iterator implements GlobalConst
     pnode cur_node;                // Node from the priority queue
     Tuple new_tuple, old_tuple;
 
+    if (Nruns == 0) {
+        // Internal sort: the next of the tuples sorted in memory
+        if (mem_run == null || mem_next >= mem_run.length) {
+            return null;
+        }
+        old_tuple = mem_run[mem_next].tuple;
+        mem_run[mem_next++] = null;
+        return old_tuple;
+    }
+
     cur_node = Q.deq(); // Dequeue the next best tuple (uses pnodeCMP implicitly)
     if (cur_node == null) { // Check if the main queue was empty
         return null;
@@ -761,20 +852,8 @@ public class Sort extends Iterator implements GlobalConst
 
             if (new_tuple != null) {
                 // Successfully read a new tuple, prepare the node and enqueue it
-                // Calculate distance if needed
-                AttrType sortAttrType = _in[_sort_fld - 1];
-                if (sortAttrType.attrType == AttrType.attrVector100D && Target != null) {
-                    try {
-                        int[] vector = new_tuple.getVectorFld(_sort_fld);
-                        cur_node.distance = TupleUtils.calculateEuclideanDistance(vector, Target.getValues());
-                    } catch (Exception e) {
-                        throw new SortException(e, "Sort.java: Error calculating distance in delete_min refill");
-                    }
-                } else {
-                    cur_node.distance = -1;
-                }
-
                 cur_node.tuple = new_tuple;  // Update the node with the new tuple
+                set_key(cur_node);
                 try {
                     Q.enq(cur_node); // Enqueue the node back into the main merge queue
                 } catch (UnknowAttrType e) {
@@ -792,88 +871,6 @@ public class Sort extends Iterator implements GlobalConst
   }
 
 
-  /**
-   * Set lastElem to be the minimum value of the appropriate type
-   * @param lastElem the tuple
-   * @param sortFldType the sort field type
-   * @exception IOException from lower layers
-   * @exception UnknowAttrType attrSymbol or attrNull encountered
-   */
-  private void MIN_VAL(Tuple lastElem, AttrType sortFldType)
-    throws IOException,
-       FieldNumberOutOfBoundException,
-       UnknowAttrType {
-
-    // char[] c = new char[1]; // Not needed for standard types
-    // c[0] = Character.MIN_VALUE;
-    // String s = new String(c); // Use empty string or specific low-value string if needed
-
-    switch (sortFldType.attrType) {
-    case AttrType.attrInteger:
-      lastElem.setIntFld(_sort_fld, Integer.MIN_VALUE);
-      break;
-    case AttrType.attrReal:
-      lastElem.setFloFld(_sort_fld, Float.NEGATIVE_INFINITY); // Use NEGATIVE_INFINITY for float min
-      break;
-    case AttrType.attrString:
-      lastElem.setStrFld(_sort_fld, ""); // Empty string is often used as a practical minimum
-      break;
-    case AttrType.attrVector100D:
-      // Representing a true minimum vector is tricky. Fill with MIN_VALUE.
-      int[] minVector = new int[100];
-      java.util.Arrays.fill(minVector, Integer.MIN_VALUE); // Use Arrays.fill
-      lastElem.setVectorFld(_sort_fld, minVector);
-      break;
-    default:
-      // attrSymbol or attrNull cannot be used as sort keys directly in this context
-      throw new UnknowAttrType("Sort.java: cannot determine MIN_VAL for attrSymbol or attrNull");
-    }
-  }
-
-  /**
-   * Set lastElem to be the maximum value of the appropriate type
-   * @param lastElem the tuple
-   * @param sortFldType the sort field type
-   * @exception IOException from lower layers
-   * @exception UnknowAttrType attrSymbol or attrNull encountered
-   */
-  private void MAX_VAL(Tuple lastElem, AttrType sortFldType)
-    throws IOException,
-       FieldNumberOutOfBoundException,
-       UnknowAttrType {
-
-    // char[] c = new char[1]; // Not reliable for max string
-    // c[0] = Character.MAX_VALUE;
-    // String s = new String(c); // Max string representation is complex
-
-    switch (sortFldType.attrType) {
-    case AttrType.attrInteger:
-      lastElem.setIntFld(_sort_fld, Integer.MAX_VALUE);
-      break;
-    case AttrType.attrReal:
-      lastElem.setFloFld(_sort_fld, Float.POSITIVE_INFINITY); // Use POSITIVE_INFINITY for float max
-      break;
-    case AttrType.attrString:
-      // Representing a true maximum string is difficult. Often a string of high-value chars is used,
-      // but its length dependency makes it unreliable. A practical approach might depend on context
-      // or assuming a maximum length and filling with high chars. For simplicity, we might
-      // rely on the comparison logic handling nulls or specific end markers if needed.
-      // Setting a very long string might exceed field limits. Let's use a placeholder.
-      // Consider if a specific "max" value is defined for your string comparisons.
-      // lastElem.setStrFld(_sort_fld, s); // Avoid using single MAX_VALUE char
-       throw new UnknowAttrType("Sort.java: MAX_VAL for String is ambiguous/not implemented reliably.");
-      // break; // If implemented, break here
-    case AttrType.attrVector100D:
-      // Fill with MAX_VALUE.
-      int[] maxVector = new int[100];
-      java.util.Arrays.fill(maxVector, Integer.MAX_VALUE); // Use Arrays.fill
-      lastElem.setVectorFld(_sort_fld, maxVector);
-      break;
-    default:
-      throw new UnknowAttrType("Sort.java: cannot determine MAX_VAL for attrSymbol or attrNull");
-    }
-  }
-
   /**
    * Cleaning up, including releasing buffer pages from the buffer pool
    * and removing temporary files from the database.
@@ -902,6 +899,13 @@ public class Sort extends Iterator implements GlobalConst
         }
       }
 
+      // Close the scans of the runs being merged
+      if (i_buf != null) {
+          for (int i = 0; i < i_buf.length; i++) {
+            if (i_buf[i] != null) i_buf[i].close();
+          }
+      }
+
       // Close and delete temporary run files
       if (temp_files != null) {
           // Iterate up to Nruns (the actual number of runs created)
@@ -922,6 +926,7 @@ public class Sort extends Iterator implements GlobalConst
 
       // Nullify references to help GC
       Q = null;
+      mem_run = null;
       _in = null;
       str_lens = null;
       _am = null;
@@ -933,6 +938,8 @@ public class Sort extends Iterator implements GlobalConst
       i_buf = null;
       bufs_pids = null;
       Target = null;
+      targetValues = null;
+      topTuples = null;
     }
   }
 
@@ -961,7 +968,9 @@ public class Sort extends Iterator implements GlobalConst
   // --- Buffer Management Helper Methods --- (Copied from example, may need adjustment)
 
   /**
-   * Gets buffer pages from the buffer manager.
+   * Gets buffer pages from the buffer manager. An off-heap pool has no
+   * arrays to lend, so then the pages are arrays of their own and no
+   * frame is taken; their PageIds are null.
    * @param n_pages the number of buffer pages required
    * @param PageIds buffer page IDs array (output)
    * @param bufs buffer frames array (output)
@@ -972,8 +981,14 @@ public class Sort extends Iterator implements GlobalConst
   {
     Page pgptr = new Page();
     PageId pgid = null;
+    boolean offHeap = SystemDefs.JavabaseBM.isOffHeap();
 
     for(int i=0; i < n_pages; i++) {
+      if (offHeap) {
+        PageIds[i] = null;
+        bufs[i] = new byte[SystemDefs.JavabasePageSize];
+        continue;
+      }
       try {
         pgid = SystemDefs.JavabaseBM.newPage(pgptr,1);
       }
@@ -1011,51 +1026,4 @@ public class Sort extends Iterator implements GlobalConst
       }
     }
   }
-
-
-  /**
-   * Comparator class for sorting Tuples in memory during the initial phase
-   * or for internal sort.
-   */
-  private class TupleComparator implements Comparator<Tuple> {
-      private boolean ascending;
-      private int sortField;
-      private AttrType sortAttrType;
-      private Vector100Dtype targetVector; // Target for distance comparison
-
-      public TupleComparator(boolean ascending, int sortField, AttrType sortAttrType, Vector100Dtype targetVector) {
-          this.ascending = ascending;
-          this.sortField = sortField;
-          this.sortAttrType = sortAttrType;
-          this.targetVector = targetVector;
-      }
-
-      @Override
-      public int compare(Tuple t1, Tuple t2) {
-          try {
-              int comp_res;
-              if (sortAttrType.attrType == AttrType.attrVector100D && targetVector != null) {
-                  // Compare based on distance to targetVector
-                  int[] v1 = t1.getVectorFld(sortField);
-                  int[] v2 = t2.getVectorFld(sortField);
-                  double dist1 = TupleUtils.calculateEuclideanDistance(v1, targetVector.getValues());
-                  double dist2 = TupleUtils.calculateEuclideanDistance(v2, targetVector.getValues());
-                  comp_res = Double.compare(dist1, dist2);
-              } else {
-                  // Compare based on field value
-                  comp_res = TupleUtils.CompareTupleWithTuple(sortAttrType, t1, sortField, t2, sortField);
-              }
-
-              return ascending ? comp_res : -comp_res; // Adjust for descending order
-
-          } catch (Exception e) {
-              // Handle exceptions during comparison, e.g., log error or throw runtime exception
-              System.err.println("Error during tuple comparison: " + e.getMessage());
-              e.printStackTrace();
-              return 0; // Or throw a runtime exception
-          }
-      }
-  }
-
-
 } // End Class Sort
\ No newline at end of file
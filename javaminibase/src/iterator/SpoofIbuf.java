@@ -41,7 +41,7 @@ public class SpoofIbuf implements GlobalConst  {
       t_proc    = 0;        t_in_buf     = 0;
       tot_t_proc= 0;
       curr_page = 0;        t_rd_from_pg = 0;
-      done      = false;    t_per_pg     = MINIBASE_PAGESIZE / t_size;
+      done      = false;    t_per_pg     = SystemDefs.JavabasePageSize / t_size;
      
       
       n_tuples = Ntuples;
@@ -110,6 +110,18 @@ public class SpoofIbuf implements GlobalConst  {
       return done;
     }
   
+  /**
+   *close the scan of the heapfile, which keeps its page pinned until
+   *it has read the whole file
+   */
+  public  void close()
+    {
+      if (hf_scan != null) {
+	hf_scan.closescan();
+	hf_scan = null;
+      }
+    }
+  
   /**
    *
    *@return the numbers of tuples in the buffer
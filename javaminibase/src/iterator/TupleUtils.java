@@ -11,6 +11,9 @@ import java.lang.*;
  */
 public class TupleUtils
 {
+
+  // Vector values are ordered by their distance from here
+  private static final int[] ORIGIN = new int[100];
   
   /**
    * This function compares a tuple with another tuple in respective field, and
@@ -97,14 +100,10 @@ public class TupleUtils
 
       case AttrType.attrVector100D:
           try {
-              int[] vector1 = t1.getVectorFld(t1_fld_no);
-              int[] vector2 = t2.getVectorFld(t2_fld_no); // Assumes t2 holds a vector
-              // Assuming comparison based on distance from origin
-              int[] origin = new int[100]; // Assuming vector size is 100
-              java.util.Arrays.fill(origin, 0);
-              double distance1 = calculateEuclideanDistance(vector1, origin);
-              double distance2 = calculateEuclideanDistance(vector2, origin);
-              return Double.compare(distance1, distance2);
+              // Comparison based on distance from origin; squared distances order the same way
+              long distance1 = t1.vectorSquaredDistanceTo(t1_fld_no, ORIGIN);
+              long distance2 = t2.vectorSquaredDistanceTo(t2_fld_no, ORIGIN); // Assumes t2 holds a vector
+              return Long.compare(distance1, distance2);
           } catch (FieldNumberOutOfBoundException e) {
               throw new TupleUtilsException(e, "FieldNumberOutOfBoundException comparing vectors.");
           } catch (Exception e) {
@@ -119,12 +118,66 @@ public class TupleUtils
  }
   
     public static double calculateEuclideanDistance(int[] vector1, int[] vector2) {
-      double sum = 0;
-      for (int i = 0; i < vector1.length; i++) {
-          int diff = vector1[i] - vector2[i];
-          sum += diff * diff;
+      return VectorKernel.distance(vector1, vector2);
+  }
+
+  /**
+   * Computes the sort key of a field of a node's tuple, so that nodes are
+   * ordered with <code>compareSortKeys()</code> without decoding the field
+   * again. Integers are their value, reals their bits flipped to order as
+   * integers, and vectors their squared distance to target, or to the
+   * origin if there is no target; strings are kept in strKey.
+   *
+   *@param    node      the node; its tuple must have its header set
+   *@param    fldType   the type of the field
+   *@param    fld_no    the field number
+   *@param    target    the vector to sort by distance to, or null
+   *@exception UnknowAttrType don't know the attribute type
+   *@exception TupleUtilsException error reading the field
+   */
+  public static void setSortKey(pnode node, AttrType fldType, int fld_no, int[] target)
+    throws UnknowAttrType, TupleUtilsException
+  {
+    try {
+      switch (fldType.attrType) {
+      case AttrType.attrInteger:
+        node.key = node.tuple.getIntFld(fld_no);
+        break;
+      case AttrType.attrReal:
+        int bits = Float.floatToIntBits(node.tuple.getFloFld(fld_no));
+        node.key = bits ^ ((bits >> 31) & 0x7fffffff);
+        break;
+      case AttrType.attrString:
+        node.strKey = node.tuple.getStrFld(fld_no);
+        break;
+      case AttrType.attrVector100D:
+        node.key = node.tuple.vectorSquaredDistanceTo(fld_no, target != null ? target : ORIGIN);
+        break;
+      default:
+        throw new UnknowAttrType(null, "Don't know how to sort on attribute type " + fldType.attrType);
       }
-      return Math.sqrt(sum);
+    }
+    catch (UnknowAttrType e) {
+      throw e;
+    }
+    catch (Exception e) {
+      throw new TupleUtilsException(e, "Error computing the sort key of field " + fld_no);
+    }
+  }
+
+  /**
+   * Compares the sort keys of two nodes, set by <code>setSortKey()</code>.
+   *
+   *@param    fldType   the type of the field the keys are of
+   *@param    a         one node
+   *@param    b         another node
+   *@return   0 if the two are equal, 1 if a is greater, -1 if a is smaller
+   */
+  public static int compareSortKeys(AttrType fldType, pnode a, pnode b)
+  {
+    if (fldType.attrType == AttrType.attrString)
+      return Integer.signum(a.strKey.compareTo(b.strKey));
+    return Long.compare(a.key, b.key);
   }
 
 
@@ -7,7 +7,7 @@ import heap.*;
 
 /**
  * A structure describing a tuple.
- * include a run number and the tuple
+ * include a run number, the tuple and its sort key
  */
 public class pnode {
   /** which run does this tuple belong */
@@ -15,7 +15,12 @@ public class pnode {
 
   /** the tuple reference */
   public Tuple   tuple;
-  public double distance;
+
+  /** the sort key of the tuple, set by TupleUtils.setSortKey() */
+  public long    key;
+
+  /** the sort key of a string field */
+  public String  strKey;
 
   /**
    * class constructor, sets <code>run_num</code> to 0 and <code>tuple</code>
@@ -25,20 +30,17 @@ public class pnode {
   {
     run_num = 0;  // this may need to be changed
     tuple = null; 
-    distance = 0.0;
   }
   
   /**
    * class constructor, sets <code>run_num</code> and <code>tuple</code>.
    * @param runNum the run number
    * @param t      the tuple
-   * @param dist   the distance
    */
-  public pnode(int runNum, Tuple t, double dist) 
+  public pnode(int runNum, Tuple t) 
   {
     run_num = runNum;
     tuple = t;
-    distance = dist;
   }
   
 }
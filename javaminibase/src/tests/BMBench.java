@@ -0,0 +1,334 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+
+/**
+ * Times pinPage/unpinPage on pools of 1K, 4K and 64K frames, from one
+ * thread and from several. A fresh database is made for each pool size.
+ *
+ * The 64K pool needs 256MB of frames, so run it with a large enough heap:
+ *   java -Xmx1g tests.BMBench
+ */
+class BMBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final int[] POOL_SIZES = { 1024, 4096, 65536 };
+  private static final int HIT_OPS = 1000000;
+  private static final int MISS_OPS = 100000;
+  private static final int ROUNDS = 3;
+  private static final int[] THREADS = { 1, 2, 4, 8 };
+
+  private Page page = new Page();
+  private int firstPid;
+  private long sink;
+
+  public BMBenchDriver() {
+    super("bmbench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Every page is already in the pool: the cost is the page-table
+   * lookups and the replacer bookkeeping.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: pin+unpin of resident pages, ns/op (best of "
+                       + ROUNDS + " rounds)");
+    for (int frames : POOL_SIZES) {
+      int pages = frames - frames / 16;
+      if (!open(frames, pages)) {
+        return FAIL;
+      }
+      double ns = time(HIT_OPS, () -> pinUnpin(HIT_OPS, pages, 42));
+      System.out.printf("  %6d frames  %8.1f ns/op  %6.2f Mops/s%n",
+                        frames, ns, 1000.0 / ns);
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != frames) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * The pages touched are a quarter more than the pool holds, so some
+   * pins have to evict a page and read another from the file.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: pin+unpin over 1.25x the pool, ns/op (best of "
+                       + ROUNDS + " rounds)");
+    for (int frames : POOL_SIZES) {
+      int pages = frames + frames / 4;
+      if (!open(frames, pages)) {
+        return FAIL;
+      }
+      PCounter.initialize();
+      double ns = time(MISS_OPS, () -> pinUnpin(MISS_OPS, pages, 7));
+      System.out.printf("  %6d frames  %8.1f ns/op  %5.1f%% read from disk%n",
+                        frames, ns, 100.0 * PCounter.getRCount() / ((ROUNDS + 1) * MISS_OPS));
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Threads that pin the same pages, none of them in the pool yet, must
+   * read each page from disk once and all see its contents. The pool
+   * has just room for them next to as many resident pages, so a thread
+   * that took a frame it did not need would push one of those out.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: threads pinning the same missing pages");
+    final int frames = 1024;
+    final int pages = 512;
+    for (int nthreads : THREADS) {
+      if (nthreads == 1) {
+        continue;
+      }
+      if (!open(frames, 2 * pages)) {
+        return FAIL;
+      }
+      try {
+        pinAll(pages, pages);
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+        return FAIL;
+      }
+      PCounter.initialize();
+      final CyclicBarrier start = new CyclicBarrier(nthreads);
+      final AtomicInteger bad = new AtomicInteger();
+      boolean ok = runThreads(nthreads, t -> {
+        Page pg = new Page();
+        PageId pid = new PageId();
+        start.await();
+        for (int i = 0; i < pages; i++) {
+          pid.pid = firstPid + i;
+          SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+          if (Convert.getIntValue(0, pg.getpage()) != pid.pid) {
+            bad.incrementAndGet();
+          }
+          SystemDefs.JavabaseBM.unpinPage(pid, false);
+        }
+        return 0;
+      });
+      int reads = PCounter.getRCount();
+      System.out.printf("  %d threads  %d pages  %d reads%n", nthreads, pages, reads);
+      if (!ok || bad.get() != 0) {
+        System.out.println("  *** a thread saw the wrong page");
+        return FAIL;
+      }
+      if (reads != pages) {
+        System.out.println("  *** expected one read per page");
+        return FAIL;
+      }
+      PCounter.initialize();
+      try {
+        pinAll(pages, pages);
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+        return FAIL;
+      }
+      if (PCounter.getRCount() != 0) {
+        System.out.println("  *** " + PCounter.getRCount() + " resident pages were pushed out");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != frames) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Several threads pin and unpin random pages of one pool, first all
+   * resident and then over 1.25x the pool. Each page must still hold its
+   * own page number when pinned.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: concurrent pin+unpin, total Mops/s (best of "
+                       + ROUNDS + " rounds, "
+                       + Runtime.getRuntime().availableProcessors() + " cpus)");
+    System.out.printf("  %6s %8s %10s %10s%n", "frames", "threads", "resident", "1.25x");
+    final int frames = 4096;
+    for (int nthreads : THREADS) {
+      double[] mops = new double[2];
+      for (int m = 0; m < 2; m++) {
+        final int pages = (m == 0) ? frames - frames / 16 : frames + frames / 4;
+        final int ops = ((m == 0) ? HIT_OPS : MISS_OPS) / nthreads;
+        if (!open(frames, pages)) {
+          return FAIL;
+        }
+        final AtomicInteger bad = new AtomicInteger();
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r <= ROUNDS; r++) {
+          long startNs = System.nanoTime();
+          boolean ok = runThreads(nthreads, t -> {
+            Random rnd = new Random(31 * t + 5);
+            Page pg = new Page();
+            PageId pid = new PageId();
+            for (int i = 0; i < ops; i++) {
+              pid.pid = firstPid + rnd.nextInt(pages);
+              SystemDefs.JavabaseBM.pinPage(pid, pg, false);
+              if (Convert.getIntValue(0, pg.getpage()) != pid.pid) {
+                bad.incrementAndGet();
+              }
+              SystemDefs.JavabaseBM.unpinPage(pid, false);
+            }
+            return 0;
+          });
+          if (!ok || bad.get() != 0) {
+            System.out.println("  *** a thread saw the wrong page");
+            return FAIL;
+          }
+          if (r > 0) {               // round 0 warms up
+            best = Math.min(best, System.nanoTime() - startNs);
+          }
+        }
+        mops[m] = 1000.0 * ops * nthreads / best;
+        if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != frames) {
+          System.out.println("  *** pages left pinned");
+          return FAIL;
+        }
+      }
+      System.out.printf("  %6d %8d %10.2f %10.2f%n", frames, nthreads, mops[0], mops[1]);
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  private interface Task {
+    long run(int thread) throws Exception;
+  }
+
+  // Runs task on nthreads threads and waits for them; false if one failed
+  private boolean runThreads(int nthreads, Task task) {
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+    try {
+      List<Future<Long>> results = new ArrayList<Future<Long>>();
+      for (int t = 0; t < nthreads; t++) {
+        final int thread = t;
+        results.add(pool.submit(() -> task.run(thread)));
+      }
+      for (Future<Long> f : results) {
+        sink += f.get();
+      }
+      return true;
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  // Makes a database with a pool of frames and allocates pages pages
+  private boolean open(int frames, int pages) {
+    try {
+      new File(dbpath).delete();
+      new SystemDefs(dbpath, pages + 100, frames, "Clock");
+      PageId pid = SystemDefs.JavabaseBM.newPage(page, 1);
+      firstPid = pid.pid;
+      Convert.setIntValue(pid.pid, 0, page.getpage());
+      SystemDefs.JavabaseBM.unpinPage(pid, true);
+      for (int i = 1; i < pages; i++) {
+        pid = SystemDefs.JavabaseBM.newPage(page, 1);
+        if (pid.pid != firstPid + i) {
+          System.out.println("  *** pages are not contiguous");
+          return false;
+        }
+        Convert.setIntValue(pid.pid, 0, page.getpage());
+        SystemDefs.JavabaseBM.unpinPage(pid, true);
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+      return true;
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  // Pins and unpins n pages from firstPid + from, in order
+  private void pinAll(int from, int n) throws Exception {
+    PageId pid = new PageId();
+    for (int i = 0; i < n; i++) {
+      pid.pid = firstPid + from + i;
+      SystemDefs.JavabaseBM.pinPage(pid, page, false);
+      SystemDefs.JavabaseBM.unpinPage(pid, false);
+    }
+  }
+
+  private long pinUnpin(int ops, int pages, long seed) throws Exception {
+    Random rnd = new Random(seed);
+    PageId pid = new PageId();
+    long acc = 0;
+    for (int i = 0; i < ops; i++) {
+      pid.pid = firstPid + rnd.nextInt(pages);
+      SystemDefs.JavabaseBM.pinPage(pid, page, false);
+      acc += page.getpage()[0];
+      SystemDefs.JavabaseBM.unpinPage(pid, false);
+    }
+    return acc;
+  }
+
+  private interface Body {
+    long run() throws Exception;
+  }
+
+  // One warm-up round, then the best of ROUNDS timed rounds, in ns/op
+  private double time(int ops, Body body) {
+    try {
+      sink += body.run();
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+        long start = System.nanoTime();
+        sink += body.run();
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      return (double) best / ops;
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  protected String testName() {
+    return "Buffer Manager Benchmark";
+  }
+}
+
+public class BMBench {
+
+  public static void main(String argv[]) {
+
+    BMBenchDriver bb = new BMBenchDriver();
+    boolean status = bb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during buffer manager benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,365 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import btree.*;
+
+/**
+ * Builds B+ trees on a relation by inserting its keys one at a time and
+ * by bulk loading them sorted, and compares the time taken, the pages
+ * written and what scans of the trees return. Then checks that a load
+ * that fails leaves the tree empty.
+ */
+class BTreeBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final AttrType[] TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString) };
+  private static final short[] STR_SIZES = { 16 };
+  private static final int RECORDS = 60000;
+  private static final int POOL = 1000;
+  private static final int SORT_PAGES = 50;
+
+  // The (key, rid) entries of the relation, sorted by key then rid
+  private List<long[]> entries = new ArrayList<long[]>();
+  private List<String[]> strEntries = new ArrayList<String[]>();
+  private Heapfile rel;
+
+  public BTreeBenchDriver() {
+    super("btreebench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Builds a tree on an integer field with many duplicate keys both
+   * ways: a scan of each must return every entry, in key order.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: build on " + RECORDS + " integer keys");
+    try {
+      new SystemDefs(dbpath, 40000, POOL, "Clock");
+      rel = new Heapfile("btreebench_rel");
+      Random rnd = new Random(18);
+      Tuple t = new Tuple();
+      t.setHdr((short) 2, TYPES, STR_SIZES);
+      t = new Tuple(t.size());
+      t.setHdr((short) 2, TYPES, STR_SIZES);
+      for (int i = 0; i < RECORDS; i++) {
+        int key = rnd.nextInt(RECORDS / 4);
+        String s = Long.toString(rnd.nextLong() & 0xffffffffffL, 36);
+        t.setIntFld(1, key);
+        t.setStrFld(2, s);
+        RID rid = rel.insertRecord(t.getTupleByteArray());
+        entries.add(new long[] { key, rid.pageNo.pid, rid.slotNo });
+        strEntries.add(new String[] { s, rid.pageNo.pid + "," + rid.slotNo });
+      }
+      entries.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+                   : a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[2], b[2]));
+      strEntries.sort((a, b) -> a[0].compareTo(b[0]) != 0 ? a[0].compareTo(b[0])
+                      : a[1].compareTo(b[1]));
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      BTreeFile inserted = new BTreeFile("btreebench_ins", AttrType.attrInteger, 4,
+                                         DeleteFashion.NAIVE_DELETE);
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      Scan scan = rel.openScan();
+      RID rid = new RID();
+      Tuple r;
+      while ((r = scan.getNext(rid)) != null) {
+        r.setHdr((short) 2, TYPES, STR_SIZES);
+        inserted.insert(new IntegerKey(r.getIntFld(1)), new RID(rid.pageNo, rid.slotNo));
+      }
+      scan.closescan();
+      inserted.close();
+      SystemDefs.JavabaseBM.flushAllPages();
+      report("insert", t0);
+
+      BTreeFile loaded = new BTreeFile("btreebench_bulk", AttrType.attrInteger, 4,
+                                       DeleteFashion.NAIVE_DELETE);
+      PCounter.initialize();
+      t0 = System.nanoTime();
+      int n = BTreeBulkLoader.load(loaded, rel, TYPES, STR_SIZES, 1, SORT_PAGES, 1.0f);
+      loaded.close();
+      SystemDefs.JavabaseBM.flushAllPages();
+      report("bulk load", t0);
+      inserted = new BTreeFile("btreebench_ins");
+      loaded = new BTreeFile("btreebench_bulk");
+
+      if (n != RECORDS) {
+        System.out.println("  *** " + n + " entries loaded");
+        return FAIL;
+      }
+      String error = checkScan(inserted, null, null);
+      if (error == null) {
+        error = checkScan(loaded, null, null);
+      }
+      if (error != null) {
+        System.out.println("  *** " + error);
+        return FAIL;
+      }
+      inserted.destroyFile();
+      loaded.destroyFile();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Scans ranges of keys, and single keys with many entries, of trees
+   * loaded to several fill factors.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: range scans of bulk loaded trees");
+    try {
+      Random rnd = new Random(19);
+      for (float fill : new float[] { 0.5f, 0.7f, 1.0f }) {
+        BTreeFile loaded = new BTreeFile("btreebench_fill", AttrType.attrInteger, 4,
+                                         DeleteFashion.NAIVE_DELETE);
+        BTreeBulkLoader.load(loaded, rel, TYPES, STR_SIZES, 1, SORT_PAGES, fill);
+        for (int i = 0; i < 300; i++) {
+          int lo = rnd.nextInt(RECORDS / 4 + 10) - 5;
+          int hi = i % 2 == 0 ? lo : lo + rnd.nextInt(200);
+          String error = checkScan(loaded, lo, hi);
+          if (error != null) {
+            System.out.println("  *** fill " + fill + ": " + error);
+            return FAIL;
+          }
+        }
+        loaded.destroyFile();
+        System.out.println("  fill " + fill + ": 300 scans as expected");
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Bulk loads a tree on the string field, inserts into it and deletes
+   * from it as into any other tree.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: bulk load string keys, then insert and delete");
+    try {
+      BTreeFile loaded = new BTreeFile("btreebench_str", AttrType.attrString, 16,
+                                       DeleteFashion.NAIVE_DELETE);
+      int n = BTreeBulkLoader.load(loaded, rel, TYPES, STR_SIZES, 2, SORT_PAGES, 0.8f);
+
+      List<String> expected = new ArrayList<String>();
+      for (String[] e : strEntries) {
+        expected.add(e[0]);
+      }
+      Random rnd = new Random(20);
+      for (int i = 0; i < 2000; i++) {
+        String s = "x" + rnd.nextInt(100000);
+        loaded.insert(new StringKey(s), new RID(new PageId(1), i));
+        expected.add(s);
+      }
+      for (int i = 0; i < 2000; i++) {
+        String[] e = strEntries.get(i * 7);
+        String[] at = e[1].split(",");
+        RID rid = new RID(new PageId(Integer.parseInt(at[0])), Integer.parseInt(at[1]));
+        if (!loaded.Delete(new StringKey(e[0]), rid)) {
+          System.out.println("  *** " + e[0] + " not deleted");
+          return FAIL;
+        }
+        expected.remove(e[0]);
+      }
+      Collections.sort(expected);
+
+      List<String> got = new ArrayList<String>();
+      BTFileScan scan = loaded.new_scan(null, null);
+      KeyDataEntry entry;
+      while ((entry = scan.get_next()) != null) {
+        got.add(((StringKey) entry.key).getKey());
+      }
+      scan.DestroyBTreeFileScan();
+      if (n != RECORDS || !got.equals(expected)) {
+        System.out.println("  *** " + got.size() + " keys, " + expected.size() + " expected");
+        return FAIL;
+      }
+      loaded.destroyFile();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Bulk loads string keys into a tree whose keys are too short for
+   * some of them, and gives up a load of keys out of order: the error
+   * must come out as it was, no page may be left pinned, and the tree
+   * must be empty and loadable afterwards.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: failed bulk loads");
+    try {
+      BTreeFile shortKeys = new BTreeFile("btreebench_short", AttrType.attrString, 9,
+                                          DeleteFashion.NAIVE_DELETE);
+      try {
+        BTreeBulkLoader.load(shortKeys, rel, TYPES, STR_SIZES, 2, SORT_PAGES, 1.0f);
+        System.out.println("  *** keys longer than the tree allows were loaded");
+        return FAIL;
+      }
+      catch (KeyTooLongException e) {
+        System.out.println("  load of long keys failed with " + e.getClass().getSimpleName());
+      }
+      if (!isEmpty(shortKeys)) {
+        System.out.println("  *** the failed load left keys in the tree");
+        return FAIL;
+      }
+      shortKeys.destroyFile();
+
+      BTreeFile loaded = new BTreeFile("btreebench_abort", AttrType.attrInteger, 4,
+                                       DeleteFashion.NAIVE_DELETE);
+      int unpinned = SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+      BTreeBulkLoader loader = new BTreeBulkLoader(loaded, 1.0f);
+      for (int i = 0; i < RECORDS; i++) {
+        loader.add(new IntegerKey(i), new RID(new PageId(1), i));
+      }
+      try {
+        loader.add(new IntegerKey(0), new RID(new PageId(1), 0));
+        System.out.println("  *** a key out of order was added");
+        return FAIL;
+      }
+      catch (InsertException e) {
+        loader.abort();
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != unpinned) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+      if (!isEmpty(loaded)) {
+        System.out.println("  *** the abandoned load left keys in the tree");
+        return FAIL;
+      }
+      BTreeBulkLoader.load(loaded, rel, TYPES, STR_SIZES, 1, SORT_PAGES, 1.0f);
+      String error = checkScan(loaded, null, null);
+      if (error != null) {
+        System.out.println("  *** after the abandoned load: " + error);
+        return FAIL;
+      }
+      loaded.destroyFile();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  private static boolean isEmpty(BTreeFile btf) throws Exception {
+    BTFileScan scan = btf.new_scan(null, null);
+    boolean empty = scan.get_next() == null;
+    scan.DestroyBTreeFileScan();
+    return empty;
+  }
+
+  // Scans keys lo to hi of a tree on the integer field, or all of it,
+  // and says what is wrong
+  private String checkScan(BTreeFile btf, Integer lo, Integer hi) throws Exception {
+    List<long[]> want = new ArrayList<long[]>();
+    for (long[] e : entries) {
+      if ((lo == null || e[0] >= lo) && (hi == null || e[0] <= hi)) {
+        want.add(e);
+      }
+    }
+    BTFileScan scan = btf.new_scan(lo == null ? null : new IntegerKey(lo),
+                                   hi == null ? null : new IntegerKey(hi));
+    List<long[]> got = new ArrayList<long[]>();
+    KeyDataEntry entry;
+    long last = Long.MIN_VALUE;
+    String error = null;
+    while ((entry = scan.get_next()) != null) {
+      int key = ((IntegerKey) entry.key).getKey();
+      RID rid = ((LeafData) entry.data).getData();
+      if (key < last && error == null) {
+        error = "key " + key + " after " + last;
+      }
+      last = key;
+      got.add(new long[] { key, rid.pageNo.pid, rid.slotNo });
+    }
+    scan.DestroyBTreeFileScan();
+    if (error != null) {
+      return error;
+    }
+    got.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+             : a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[2], b[2]));
+    if (got.size() != want.size()) {
+      return "keys " + lo + " to " + hi + ": " + got.size() + " entries, "
+        + want.size() + " expected";
+    }
+    for (int i = 0; i < got.size(); i++) {
+      if (!Arrays.equals(got.get(i), want.get(i))) {
+        return "keys " + lo + " to " + hi + ": entry " + i + " differs";
+      }
+    }
+    return null;
+  }
+
+  private static void report(String what, long t0) {
+    System.out.printf("  %-10s %6d ms  %6d pages read  %6d written  %6d write calls%n",
+                      what, (System.nanoTime() - t0) / 1000000, PCounter.getRCount(),
+                      PCounter.getWCount(), PCounter.getPhysicalWCount());
+  }
+
+  protected String testName() {
+    return "B+ Tree Build";
+  }
+}
+
+public class BTreeBench {
+
+  public static void main(String argv[]) {
+
+    BTreeBenchDriver bb = new BTreeBenchDriver();
+    boolean status = bb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during B+ tree benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,307 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+
+/**
+ * Checks global.Convert against DataInputStream/DataOutputStream, which
+ * define the on-disk layout, and times each field type against the
+ * stream-based codec it replaced.
+ */
+class ConvertBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final int ROUNDS = 5;
+  private static final int OPS = 1000000;
+  private static final int SLOTS = 256;
+
+  private byte[] page = new byte[MINIBASE_PAGESIZE];
+  private long sink;
+
+  public ConvertBenchDriver() {
+    super("convertbench");
+  }
+
+  /**
+   * Every value written by Convert must be byte for byte what
+   * DataOutputStream writes, and must read back the same through both.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: Convert matches the DataInput/DataOutput layout");
+    Random rnd = new Random(6);
+    String[] strings = { "", "a", "minibase", "null\u0000char", "caf\u00e9",
+                         "\u65e5\u672c", "emoji \ud83d\ude00", "x".repeat(300) };
+    try {
+      for (int t = 0; t < 10000; t++) {
+        int i = (t == 0) ? Integer.MIN_VALUE : rnd.nextInt();
+        short s = (short) rnd.nextInt();
+        char c = (char) rnd.nextInt();
+        float f = (t == 1) ? Float.NaN : Float.intBitsToFloat(rnd.nextInt());
+        String str = strings[t % strings.length];
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(i);
+        out.writeShort(s);
+        out.writeChar(c);
+        out.writeFloat(f);
+        out.writeUTF(str);
+        byte[] expected = bytes.toByteArray();
+
+        byte[] got = new byte[expected.length + 3];
+        int pos = 3;
+        Convert.setIntValue(i, pos, got);
+        Convert.setShortValue(s, pos + 4, got);
+        Convert.setCharValue(c, pos + 6, got);
+        Convert.setFloValue(f, pos + 8, got);
+        Convert.setStrValue(str, pos + 12, got);
+        if (!Arrays.equals(expected, Arrays.copyOfRange(got, pos, got.length))) {
+          System.out.println("  *** layout differs for value set " + t);
+          return FAIL;
+        }
+
+        int strlen = expected.length - 12;
+        if (Convert.getIntValue(pos, got) != i
+            || Convert.getShortValue(pos + 4, got) != s
+            || Convert.getCharValue(pos + 6, got) != c
+            || Float.floatToIntBits(Convert.getFloValue(pos + 8, got)) != Float.floatToIntBits(f)
+            || !Convert.getStrValue(pos + 12, got, strlen).equals(str)
+            || !Convert.getStrValue(pos + 12, got, strlen + 3).equals(str)) {
+          System.out.println("  *** read back differs for value set " + t);
+          return FAIL;
+        }
+      }
+
+      int[] vector = new int[100];
+      for (int j = 0; j < 100; j++) {
+        vector[j] = rnd.nextInt(20001) - 10000;
+      }
+      Convert.set100DVectorValue(vector, 12, page);
+      if (!Arrays.equals(Convert.get100DVectorValue(12, page), vector)
+          || Convert.getIntValue(12 + 4 * 99, page) != vector[99]) {
+        System.out.println("  *** vector round trip differs");
+        return FAIL;
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Times a read and a write of each field type, ns/op.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: field get+set, ns/op (best of " + ROUNDS + " rounds)");
+    System.out.printf("  %-14s %10s %10s %9s%n", "field", "streams", "Convert", "speedup");
+
+    report("int", time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 4;
+        streamSetInt(i, pos, p);
+        acc += streamGetInt(pos, p);
+      }
+      return acc;
+    }), time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 4;
+        Convert.setIntValue(i, pos, p);
+        acc += Convert.getIntValue(pos, p);
+      }
+      return acc;
+    }));
+
+    report("float", time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 4;
+        streamSetFloat(i * 0.5f, pos, p);
+        acc += (long) streamGetFloat(pos, p);
+      }
+      return acc;
+    }), time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 4;
+        Convert.setFloValue(i * 0.5f, pos, p);
+        acc += (long) Convert.getFloValue(pos, p);
+      }
+      return acc;
+    }));
+
+    report("short", time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 2;
+        streamSetShort((short) i, pos, p);
+        acc += streamGetShort(pos, p);
+      }
+      return acc;
+    }), time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 2;
+        Convert.setShortValue((short) i, pos, p);
+        acc += Convert.getShortValue(pos, p);
+      }
+      return acc;
+    }));
+
+    report("char", time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 2;
+        streamSetChar((char) i, pos, p);
+        acc += streamGetChar(pos, p);
+      }
+      return acc;
+    }), time(p -> {
+      long acc = 0;
+      for (int i = 0; i < OPS; i++) {
+        int pos = (i & (SLOTS - 1)) * 2;
+        Convert.setCharValue((char) i, pos, p);
+        acc += Convert.getCharValue(pos, p);
+      }
+      return acc;
+    }));
+
+    final String ascii = "relation_name_32";
+    final String utf = "r\u00e9lation_\u65e5\u672c";
+    for (String str : new String[] { ascii, utf }) {
+      final int len = str.length() * 3 + 2;
+      report(str == ascii ? "string ascii" : "string utf", time(p -> {
+        long acc = 0;
+        for (int i = 0; i < OPS; i++) {
+          int pos = (i & 15) * 64;
+          streamSetStr(str, pos, p);
+          acc += streamGetStr(pos, p, len).length();
+        }
+        return acc;
+      }), time(p -> {
+        long acc = 0;
+        for (int i = 0; i < OPS; i++) {
+          int pos = (i & 15) * 64;
+          Convert.setStrValue(str, pos, p);
+          acc += Convert.getStrValue(pos, p, len).length();
+        }
+        return acc;
+      }));
+    }
+
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  private interface Body {
+    long run(byte[] page) throws IOException;
+  }
+
+  // One warm-up round, then the best of ROUNDS timed rounds, in ns/op
+  private double time(Body body) {
+    try {
+      sink += body.run(page);
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+        long start = System.nanoTime();
+        sink += body.run(page);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      return (double) best / OPS;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void report(String field, double before, double after) {
+    System.out.printf("  %-14s %10.2f %10.2f %8.1fx%n", field, before, after, before / after);
+  }
+
+  // The stream codecs Convert used before, kept as the baseline
+
+  private static int streamGetInt(int position, byte[] data) throws IOException {
+    byte[] tmp = new byte[4];
+    System.arraycopy(data, position, tmp, 0, 4);
+    return new DataInputStream(new ByteArrayInputStream(tmp)).readInt();
+  }
+
+  private static float streamGetFloat(int position, byte[] data) throws IOException {
+    byte[] tmp = new byte[4];
+    System.arraycopy(data, position, tmp, 0, 4);
+    return new DataInputStream(new ByteArrayInputStream(tmp)).readFloat();
+  }
+
+  private static short streamGetShort(int position, byte[] data) throws IOException {
+    byte[] tmp = new byte[2];
+    System.arraycopy(data, position, tmp, 0, 2);
+    return new DataInputStream(new ByteArrayInputStream(tmp)).readShort();
+  }
+
+  private static char streamGetChar(int position, byte[] data) throws IOException {
+    byte[] tmp = new byte[2];
+    System.arraycopy(data, position, tmp, 0, 2);
+    return new DataInputStream(new ByteArrayInputStream(tmp)).readChar();
+  }
+
+  private static String streamGetStr(int position, byte[] data, int length) throws IOException {
+    byte[] tmp = new byte[length];
+    System.arraycopy(data, position, tmp, 0, length);
+    return new DataInputStream(new ByteArrayInputStream(tmp)).readUTF();
+  }
+
+  private static void streamSetInt(int value, int position, byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new DataOutputStream(out).writeInt(value);
+    System.arraycopy(out.toByteArray(), 0, data, position, 4);
+  }
+
+  private static void streamSetFloat(float value, int position, byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new DataOutputStream(out).writeFloat(value);
+    System.arraycopy(out.toByteArray(), 0, data, position, 4);
+  }
+
+  private static void streamSetShort(short value, int position, byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new DataOutputStream(out).writeShort(value);
+    System.arraycopy(out.toByteArray(), 0, data, position, 2);
+  }
+
+  private static void streamSetChar(char value, int position, byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new DataOutputStream(out).writeChar(value);
+    System.arraycopy(out.toByteArray(), 0, data, position, 2);
+  }
+
+  private static void streamSetStr(String value, int position, byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream outstr = new DataOutputStream(out);
+    outstr.writeUTF(value);
+    System.arraycopy(out.toByteArray(), 0, data, position, outstr.size());
+  }
+
+  protected String testName() {
+    return "Convert";
+  }
+}
+
+public class ConvertBench {
+
+  public static void main(String argv[]) {
+
+    ConvertBenchDriver cb = new ConvertBenchDriver();
+    boolean status = cb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during Convert tests:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
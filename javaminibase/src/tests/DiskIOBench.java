@@ -0,0 +1,531 @@
+package tests;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import btree.*;
+
+/**
+ * Counts the pages moved between the buffer pool and the database and
+ * the read and write calls made on the database file for them, when a
+ * relation much larger than the pool is scanned, and when a pool full
+ * of dirty pages is flushed. Then times page allocation in a large,
+ * mostly full database, and checks that files grown side by side each
+ * keep their pages together. Last, measures what reading ahead
+ * allocates on the Java heap.
+ */
+class DiskIOBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final int RECORDS = 40000;
+  private static final int RECORD_SIZE = 200;
+  private static final int SMALL_POOL = 100;
+  private static final int LARGE_POOL = 4000;
+  private static final int RACES = 2000;
+  private static final int ALLOC_DB_PAGES = 200000;
+  private static final int ALLOCS = 20000;
+  private static final int GROWN = 20000;
+  private static final int TEMPS = 50;
+  private static final int SCANS = 5;
+
+  public DiskIOBenchDriver() {
+    super("diskiobench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Loads the relation into a pool that holds all of it and flushes
+   * the pool: the dirty pages are written in page order, those in a row
+   * together.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: flush a pool of dirty pages");
+    try {
+      new SystemDefs(dbpath, 8000, LARGE_POOL, "Clock");
+      Heapfile rel = new Heapfile("diskiobench_rel");
+      byte[] rec = new byte[RECORD_SIZE];
+      for (int key = 0; key < RECORDS; key++) {
+        Convert.setIntValue(key, 0, rec);
+        rel.insertRecord(rec);
+      }
+
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      SystemDefs.JavabaseBM.flushAllPages();
+      long ms = (System.nanoTime() - t0) / 1000000;
+      report("write", PCounter.getWCount(), PCounter.getPhysicalWCount(), ms);
+
+      if (PCounter.getPhysicalWCount() >= PCounter.getWCount()) {
+        System.out.println("  *** pages were not written together");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Opens the database again with a small pool and scans the relation:
+   * the data pages are read ahead of the scan, several with each call.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: scan through a pool of " + SMALL_POOL + " frames");
+    try {
+      SystemDefs.MINIBASE_RESTART_FLAG = true;
+      new SystemDefs(dbpath, 0, SMALL_POOL, "Clock");
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+      Heapfile rel = new Heapfile("diskiobench_rel");
+
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      Scan scan = rel.openScan();
+      RID rid = new RID();
+      Tuple t;
+      int key = 0;
+      boolean ordered = true;
+      while ((t = scan.getNext(rid)) != null) {
+        ordered &= Convert.getIntValue(0, t.getTupleByteArray()) == key++;
+      }
+      scan.closescan();
+      long ms = (System.nanoTime() - t0) / 1000000;
+      report("read", PCounter.getRCount(), PCounter.getPhysicalRCount(), ms);
+
+      if (key != RECORDS || !ordered) {
+        System.out.println("  *** scan returned " + key + " records"
+                           + (ordered ? "" : ", out of order"));
+        return FAIL;
+      }
+      if (PCounter.getPhysicalRCount() >= PCounter.getRCount()) {
+        System.out.println("  *** pages were not read ahead");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SMALL_POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Writes a page while it is being read ahead, behind the buffer
+   * manager's back: pinning it must still give what was written.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: write pages being read ahead");
+    try {
+      Page page = new Page();
+      PageId first = SystemDefs.JavabaseBM.newPage(page, 2);
+      SystemDefs.JavabaseBM.unpinPage(first, true);
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      int[] pids = { first.pid, first.pid + 1 };
+      Page written = new Page();
+      for (int i = 1; i <= RACES; i++) {
+        SystemDefs.JavabaseDB.read_ahead(pids, 2);
+        Convert.setIntValue(i, 0, written.getpage());
+        SystemDefs.JavabaseDB.write_page(first, written);
+
+        SystemDefs.JavabaseBM.pinPage(first, page, false);
+        int got = Convert.getIntValue(0, page.getpage());
+        // dirty, so flushing takes it out of the pool
+        SystemDefs.JavabaseBM.unpinPage(first, true);
+        SystemDefs.JavabaseBM.flushAllPages();
+        if (got != i) {
+          System.out.println("  *** read " + got + " after writing " + i);
+          return FAIL;
+        }
+      }
+      System.out.println("  " + RACES + " pages read as written");
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Fills most of a large database with runs of pages, frees some and
+   * allocates more: no run may overlap a page in use, and each
+   * allocation pins only the space-map pages it changes. Then opens the
+   * database again, tries to allocate a page with every frame pinned,
+   * which must fail and change nothing, and allocates every page left,
+   * which must be exactly the pages free before.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: allocate pages in a database of " + ALLOC_DB_PAGES + " pages");
+    try {
+      new SystemDefs(dbpath, ALLOC_DB_PAGES, SMALL_POOL, "Clock");
+      DB db = SystemDefs.JavabaseDB;
+      BitSet used = new BitSet(ALLOC_DB_PAGES);
+      int bitsPerMapPage = MAX_SPACE * 8;
+      used.set(0, 1 + (ALLOC_DB_PAGES + bitsPerMapPage - 1) / bitsPerMapPage);
+      List<int[]> runs = new ArrayList<int[]>();
+      Random rnd = new Random(21);
+      PageId pid = new PageId();
+
+      // Fill 90% of the database, then free every other run
+      int target = ALLOC_DB_PAGES / 10 * 9;
+      while (used.cardinality() < target) {
+        int run = 1 + rnd.nextInt(8);
+        db.allocate_page(pid, run);
+        if (!take(used, pid.pid, run)) {
+          return FAIL;
+        }
+        runs.add(new int[] { pid.pid, run });
+      }
+      for (int i = 0; i < runs.size(); i += 2) {
+        db.deallocate_page(new PageId(runs.get(i)[0]), runs.get(i)[1]);
+        used.clear(runs.get(i)[0], runs.get(i)[0] + runs.get(i)[1]);
+      }
+
+      int[] pins = new int[1];
+      SystemDefs.JavabaseBM.setPinTrace(p -> pins[0]++);
+      long t0 = System.nanoTime();
+      for (int i = 0; i < ALLOCS; i++) {
+        db.allocate_page(pid, 1);
+        if (!take(used, pid.pid, 1)) {
+          return FAIL;
+        }
+      }
+      long ns = (System.nanoTime() - t0) / ALLOCS;
+      SystemDefs.JavabaseBM.setPinTrace(null);
+      System.out.printf("  %d single pages allocated, %d ns and %.2f pins each%n",
+                        ALLOCS, ns, (double) pins[0] / ALLOCS);
+      if (pins[0] > ALLOCS * 2) {
+        System.out.println("  *** " + pins[0] + " pins for " + ALLOCS + " allocations");
+        return FAIL;
+      }
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.MINIBASE_RESTART_FLAG = true;
+      new SystemDefs(dbpath, 0, SMALL_POOL, "Clock");
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+      db = SystemDefs.JavabaseDB;
+
+      // With every frame pinned the space map cannot be pinned, so the
+      // page must not be taken in the cached map either; the map is
+      // cached by allocating a page and freeing it first
+      db.allocate_page(pid, 1);
+      db.deallocate_page(pid, 1);
+      PageId[] held = new PageId[SMALL_POOL];
+      for (int i = 0; i < SMALL_POOL; i++) {
+        held[i] = new PageId(ALLOC_DB_PAGES - 1 - i);
+        SystemDefs.JavabaseBM.pinPage(held[i], new Page(), true);
+      }
+      boolean failed = false;
+      try {
+        db.allocate_page(pid, 1);
+      }
+      catch (DiskMgrException e) {
+        failed = true;
+      }
+      for (int i = 0; i < SMALL_POOL; i++) {
+        SystemDefs.JavabaseBM.unpinPage(held[i], false);
+      }
+      if (!failed) {
+        System.out.println("  *** page " + pid.pid + " allocated with every frame pinned");
+        return FAIL;
+      }
+
+      int free = ALLOC_DB_PAGES - used.cardinality();
+      for (int i = 0; i < free; i++) {
+        db.allocate_page(pid, 1);
+        if (!take(used, pid.pid, 1)) {
+          return FAIL;
+        }
+      }
+      try {
+        db.allocate_page(pid, 1);
+        System.out.println("  *** page " + pid.pid + " allocated from a full database");
+        return FAIL;
+      }
+      catch (OutOfSpaceException e) {
+        System.out.println("  the " + free + " free pages allocated after reopening");
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Grows two heap files and a B+ tree on one of them a record at a
+   * time, in turn, so that their pages are allocated interleaved; the
+   * second heap file is opened again every few hundred records, as a
+   * batch insert would. Each file must still lie in a few runs of
+   * pages, and a scan of one read back through a small pool must take
+   * many pages with each read call. Then many one-record temporary
+   * files must lie close together.
+   */
+  protected boolean test5() {
+    System.out.println("\n  Test 5: grow " + GROWN + " records into each of three files at once");
+    try {
+      new File(dbpath).delete();
+      new SystemDefs(dbpath, 20000, LARGE_POOL, "Clock");
+      Heapfile a = new Heapfile("diskiobench_a");
+      Heapfile b = new Heapfile("diskiobench_b");
+      BTreeFile index = new BTreeFile("diskiobench_idx", AttrType.attrInteger, 4,
+                                      DeleteFashion.NAIVE_DELETE);
+      byte[] rec = new byte[RECORD_SIZE];
+      for (int key = 0; key < GROWN; key++) {
+        Convert.setIntValue(key, 0, rec);
+        RID rid = a.insertRecord(rec);
+        if (key % 300 == 0) {
+          b = new Heapfile("diskiobench_b");
+        }
+        b.insertRecord(rec);
+        index.insert(new IntegerKey(key), rid);
+      }
+      index.close();
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      SystemDefs.MINIBASE_RESTART_FLAG = true;
+      new SystemDefs(dbpath, 0, SMALL_POOL, "Clock");
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+      a = new Heapfile("diskiobench_a");
+      b = new Heapfile("diskiobench_b");
+      index = new BTreeFile("diskiobench_idx");
+
+      final TreeSet<Integer> pages = new TreeSet<Integer>();
+      SystemDefs.JavabaseBM.setPinTrace(pid -> pages.add(pid));
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      int scanned = 0;
+      Scan scan = a.openScan();
+      RID rid = new RID();
+      while (scan.getNext(rid) != null) {
+        scanned++;
+      }
+      scan.closescan();
+      report("read", PCounter.getRCount(), PCounter.getPhysicalRCount(),
+             (System.nanoTime() - t0) / 1000000);
+      int readCalls = PCounter.getPhysicalRCount();
+      int readPages = PCounter.getRCount();
+      int aRuns = runs(pages);
+      int aPages = pages.size();
+
+      pages.clear();
+      scan = b.openScan();
+      while (scan.getNext(rid) != null) {
+        scanned++;
+      }
+      scan.closescan();
+      int bRuns = runs(pages);
+      int bPages = pages.size();
+
+      pages.clear();
+      BTFileScan iscan = index.new_scan(null, null);
+      while (iscan.get_next() != null) {
+        scanned++;
+      }
+      iscan.DestroyBTreeFileScan();
+      int iRuns = runs(pages);
+      int iPages = pages.size();
+      SystemDefs.JavabaseBM.setPinTrace(null);
+      System.out.printf("  pages in runs: %d in %d, %d in %d, %d in %d%n",
+                        aPages, aRuns, bPages, bRuns, iPages, iRuns);
+
+      if (scanned != 3 * GROWN) {
+        System.out.println("  *** scans returned " + scanned + " records");
+        return FAIL;
+      }
+      int allowed = 2 * ((aPages + bPages + iPages) / PageExtent.PAGES + 1);
+      if (aRuns + bRuns + iRuns > allowed) {
+        System.out.println("  *** the files lie in " + (aRuns + bRuns + iRuns)
+                           + " runs of pages, not " + allowed + " or fewer");
+        return FAIL;
+      }
+      if (readPages < 8 * readCalls) {
+        System.out.println("  *** only " + readPages + " pages read in " + readCalls + " calls");
+        return FAIL;
+      }
+      index.destroyFile();
+      a.deleteFile();
+      b.deleteFile();
+
+      // Temporary files of a record each, as many sort runs are, must
+      // not each move allocation on by a full run of pages
+      pages.clear();
+      SystemDefs.JavabaseBM.setPinTrace(pid -> pages.add(pid));
+      Heapfile[] temps = new Heapfile[TEMPS];
+      for (int i = 0; i < TEMPS; i++) {
+        temps[i] = new Heapfile(null);
+        temps[i].insertRecord(rec);
+      }
+      SystemDefs.JavabaseBM.setPinTrace(null);
+      for (Heapfile temp : temps) {
+        temp.deleteFile();
+      }
+      int span = pages.last() - pages.first() + 1;
+      System.out.printf("  %d temporary files took %d pages in a span of %d%n",
+                        TEMPS, pages.size(), span);
+      if (span > TEMPS * 2 * PageExtent.TEMP_PAGES) {
+        System.out.println("  *** " + TEMPS + " temporary files spread over " + span + " pages");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SMALL_POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 5 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Scans a relation several times through a small pool: the pages are
+   * read ahead into an arena off the Java heap, so the read-ahead
+   * thread allocates little on the heap for each page it reads.
+   */
+  protected boolean test6() {
+    System.out.println("\n  Test 6: heap allocated reading ahead " + SCANS + " scans");
+    try {
+      new File(dbpath).delete();
+      new SystemDefs(dbpath, 20000, LARGE_POOL, "Clock");
+      Heapfile rel = new Heapfile("diskiobench_rel");
+      byte[] rec = new byte[RECORD_SIZE];
+      for (int key = 0; key < RECORDS; key++) {
+        Convert.setIntValue(key, 0, rec);
+        rel.insertRecord(rec);
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      SystemDefs.MINIBASE_RESTART_FLAG = true;
+      new SystemDefs(dbpath, 0, SMALL_POOL, "Clock");
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+      rel = new Heapfile("diskiobench_rel");
+
+      com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long reader = -1;
+      long before = 0;
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      int scanned = 0;
+      for (int i = 0; i < SCANS; i++) {
+        Scan scan = rel.openScan();
+        RID rid = new RID();
+        while (scan.getNext(rid) != null) {
+          scanned++;
+        }
+        scan.closescan();
+        if (reader < 0) {
+          // The first scan started the thread; count from the second
+          for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("minibase-readahead")) {
+              reader = t.getId();
+            }
+          }
+          before = threads.getThreadAllocatedBytes(reader);
+          PCounter.initialize();
+        }
+      }
+      long allocated = threads.getThreadAllocatedBytes(reader) - before;
+      int pages = PCounter.getRCount();
+      report("read", pages, PCounter.getPhysicalRCount(),
+             (System.nanoTime() - t0) / 1000000);
+      System.out.printf("  %d bytes allocated by the read-ahead thread, %.1f per page%n",
+                        allocated, (double) allocated / Math.max(1, pages));
+
+      if (scanned != SCANS * RECORDS) {
+        System.out.println("  *** scans returned " + scanned + " records");
+        return FAIL;
+      }
+      if (allocated > (long) pages * MINIBASE_PAGESIZE / 4) {
+        System.out.println("  *** pages were staged on the heap");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != SMALL_POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 6 completed successfully.");
+    return OK;
+  }
+
+  // Number of runs of consecutive page numbers in pages
+  private static int runs(SortedSet<Integer> pages) {
+    int runs = 0;
+    int last = -2;
+    for (int pid : pages) {
+      if (pid != last + 1) {
+        runs++;
+      }
+      last = pid;
+    }
+    return runs;
+  }
+
+  // Marks run pages from first as used, if none of them already is
+  private static boolean take(BitSet used, int first, int run) {
+    int taken = used.nextSetBit(first);
+    if (taken >= 0 && taken < first + run) {
+      System.out.println("  *** page " + taken + " allocated twice");
+      return false;
+    }
+    used.set(first, first + run);
+    return true;
+  }
+
+  private static void report(String what, int pages, int calls, long ms) {
+    System.out.printf("  %d pages, %d %s calls, %.1f pages per call, %d ms%n",
+                      pages, calls, what,
+                      (double) pages / Math.max(1, calls), ms);
+  }
+
+  protected String testName() {
+    return "Disk I/O";
+  }
+}
+
+public class DiskIOBench {
+
+  public static void main(String argv[]) {
+
+    DiskIOBenchDriver db = new DiskIOBenchDriver();
+    boolean status = db.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during disk I/O benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
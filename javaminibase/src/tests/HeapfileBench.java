@@ -0,0 +1,359 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+
+/**
+ * Times loading a heapfile and fetching its records by RID as it grows,
+ * and counts the pages pinned for each fetch. Then checks that records
+ * are inserted where there is free space, and reads many records at
+ * once with getRecords.
+ */
+class HeapfileBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final int[] SIZES = { 10000, 40000, 160000 };
+  private static final int RECORD_SIZE = 100;
+  private static final int FETCHES = 20000;
+  private static final int POOL = 2000;
+
+  public HeapfileBenchDriver() {
+    super("heapfilebench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Grows one heapfile to each size in turn, then fetches records at
+   * random from all of it.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: getRecord of random records, by heapfile size");
+    try {
+      new SystemDefs(dbpath, 20000, POOL, "Clock");
+      Heapfile rel = new Heapfile("heapfilebench_rel");
+      RID[] rids = new RID[SIZES[SIZES.length - 1]];
+      byte[] rec = new byte[RECORD_SIZE];
+      Random rnd = new Random(11);
+      final AtomicInteger pins = new AtomicInteger();
+
+      int n = 0;
+      for (int size : SIZES) {
+        long t0 = System.nanoTime();
+        for (; n < size; n++) {
+          Convert.setIntValue(n, 0, rec);
+          rids[n] = rel.insertRecord(rec);
+        }
+        long loadMs = (System.nanoTime() - t0) / 1000000;
+
+        pins.set(0);
+        SystemDefs.JavabaseBM.setPinTrace(pid -> pins.incrementAndGet());
+        t0 = System.nanoTime();
+        for (int i = 0; i < FETCHES; i++) {
+          int key = rnd.nextInt(size);
+          Tuple t = rel.getRecord(rids[key]);
+          if (t == null || Convert.getIntValue(0, t.getTupleByteArray()) != key) {
+            SystemDefs.JavabaseBM.setPinTrace(null);
+            System.out.println("  *** record " + key + " not found");
+            return FAIL;
+          }
+        }
+        long ns = System.nanoTime() - t0;
+        SystemDefs.JavabaseBM.setPinTrace(null);
+
+        System.out.printf("  %7d records  %8.2f us/fetch  %7.1f pins/fetch  (loaded in %d ms)%n",
+                          size, ns / 1000.0 / FETCHES, (double) pins.get() / FETCHES, loadMs);
+      }
+
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Deletes and updates records through one Heapfile object while
+   * fetching through another open on the same file.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: fetch through a second Heapfile object");
+    try {
+      Heapfile writer = new Heapfile("heapfilebench_small");
+      RID[] rids = new RID[4000];
+      byte[] rec = new byte[RECORD_SIZE];
+      for (int key = 0; key < rids.length; key++) {
+        Convert.setIntValue(key, 0, rec);
+        rids[key] = writer.insertRecord(rec);
+      }
+
+      Heapfile reader = new Heapfile("heapfilebench_small");
+      reader.getRecord(rids[0]);
+
+      // empty the first half of the pages, so their pages are freed
+      for (int key = 0; key < rids.length / 2; key++) {
+        writer.deleteRecord(rids[key]);
+      }
+      for (int key = rids.length / 2; key < rids.length; key++) {
+        Convert.setIntValue(-key, 0, rec);
+        writer.updateRecord(rids[key], new Tuple(rec, 0, rec.length));
+      }
+      for (int key = 0; key < rids.length / 2; key++) {
+        Convert.setIntValue(key, 0, rec);
+        rids[key] = writer.insertRecord(rec);
+      }
+
+      for (int key = 0; key < rids.length; key++) {
+        Tuple t = reader.getRecord(rids[key]);
+        int want = key < rids.length / 2 ? key : -key;
+        if (t == null || Convert.getIntValue(0, t.getTupleByteArray()) != want) {
+          System.out.println("  *** record " + key + " wrong");
+          return FAIL;
+        }
+      }
+      if (reader.getRecCnt() != rids.length) {
+        System.out.println("  *** " + reader.getRecCnt() + " records");
+        return FAIL;
+      }
+      writer.deleteFile();
+
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Opens the database again, so the free space map is built from the
+   * directory on disk, deletes every other record of the relation of
+   * test 1 and inserts as many again: they must all go on the pages
+   * that were made free.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: reuse the space of deleted records after reopening");
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.MINIBASE_RESTART_FLAG = true;
+      new SystemDefs(dbpath, 0, POOL, "Clock");
+      SystemDefs.MINIBASE_RESTART_FLAG = false;
+      Heapfile rel = new Heapfile("heapfilebench_rel");
+
+      HashSet<Integer> pages = new HashSet<Integer>();
+      List<RID> deleted = new ArrayList<RID>();
+      Scan scan = rel.openScan();
+      RID rid = new RID();
+      int n = 0;
+      while (scan.getNext(rid) != null) {
+        pages.add(rid.pageNo.pid);
+        if (n++ % 2 == 0) {
+          deleted.add(new RID(new PageId(rid.pageNo.pid), rid.slotNo));
+        }
+      }
+      scan.closescan();
+      for (RID d : deleted) {
+        rel.deleteRecord(d);
+      }
+
+      byte[] rec = new byte[RECORD_SIZE];
+      long t0 = System.nanoTime();
+      for (int i = 0; i < deleted.size(); i++) {
+        RID r = rel.insertRecord(rec);
+        if (!pages.contains(r.pageNo.pid)) {
+          System.out.println("  *** record " + i + " went on a new page");
+          return FAIL;
+        }
+      }
+      long ms = (System.nanoTime() - t0) / 1000000;
+      System.out.println("  " + deleted.size() + " records inserted on "
+                         + pages.size() + " pages in " + ms + " ms");
+
+      if (rel.getRecCnt() != n) {
+        System.out.println("  *** " + rel.getRecCnt() + " records, not " + n);
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Reads shuffled RIDs of the relation of test 1, some repeated and
+   * some of deleted records, with getRecords and one at a time with
+   * getRecord, and counts the pages pinned by each.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: getRecords of shuffled RIDs");
+    try {
+      Heapfile rel = new Heapfile("heapfilebench_rel");
+      List<RID> rids = new ArrayList<RID>();
+      Scan scan = rel.openScan();
+      RID rid = new RID();
+      while (scan.getNext(rid) != null) {
+        rids.add(new RID(new PageId(rid.pageNo.pid), rid.slotNo));
+      }
+      scan.closescan();
+
+      Random rnd = new Random(13);
+      List<RID> batch = new ArrayList<RID>();
+      for (int i = 0; i < FETCHES; i++) {
+        batch.add(rids.get(rnd.nextInt(rids.size())));
+      }
+      RID gone = batch.get(0);
+      rel.deleteRecord(gone);
+      int missing = 0;
+      for (RID r : batch) {
+        if (r.equals(gone)) {
+          missing++;
+        }
+      }
+
+      final AtomicInteger pins = new AtomicInteger();
+      SystemDefs.JavabaseBM.setPinTrace(pid -> pins.incrementAndGet());
+      long t0 = System.nanoTime();
+      List<Tuple> one = new ArrayList<Tuple>();
+      for (RID r : batch) {
+        one.add(r.equals(gone) ? null : rel.getRecord(r));
+      }
+      long oneNs = System.nanoTime() - t0;
+      int onePins = pins.getAndSet(0);
+
+      t0 = System.nanoTime();
+      List<Tuple> inOrder = rel.getRecords(batch, true);
+      long manyNs = System.nanoTime() - t0;
+      int manyPins = pins.getAndSet(0);
+      List<Tuple> byPage = rel.getRecords(batch, false);
+      SystemDefs.JavabaseBM.setPinTrace(null);
+
+      System.out.printf("  getRecord:  %8.2f us/record  %5.2f pins/record%n",
+                        oneNs / 1000.0 / FETCHES, (double) onePins / FETCHES);
+      System.out.printf("  getRecords: %8.2f us/record  %5.2f pins/record%n",
+                        manyNs / 1000.0 / FETCHES, (double) manyPins / FETCHES);
+
+      if (inOrder.size() != batch.size() || byPage.size() != batch.size() - missing) {
+        System.out.println("  *** " + inOrder.size() + " and " + byPage.size() + " tuples");
+        return FAIL;
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        Tuple a = one.get(i), b = inOrder.get(i);
+        if ((a == null) != (b == null) || (a != null
+            && !Arrays.equals(a.getTupleByteArray(), b.getTupleByteArray()))) {
+          System.out.println("  *** record " + i + " differs");
+          return FAIL;
+        }
+      }
+      if (manyPins >= onePins) {
+        System.out.println("  *** getRecords pinned " + manyPins + " pages");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Fills pages with three large records each and deletes the middle
+   * one, which leaves each page about as much room as such a record
+   * takes, in the same free space bucket: inserting as many again must
+   * fill those pages, not new ones.
+   */
+  protected boolean test5() {
+    System.out.println("\n  Test 5: reuse room in pages of the record's own bucket");
+    try {
+      Heapfile rel = new Heapfile("heapfilebench_big");
+      byte[] rec = new byte[SystemDefs.JavabasePageSize / 3 - 16];
+      List<RID> deleted = new ArrayList<RID>();
+      HashSet<Integer> pages = new HashSet<Integer>();
+      for (int i = 0; i < 300; i++) {
+        RID r = rel.insertRecord(rec);
+        pages.add(r.pageNo.pid);
+        if (i % 3 == 1) {
+          deleted.add(r);
+        }
+      }
+      for (RID d : deleted) {
+        rel.deleteRecord(d);
+      }
+      for (int i = 0; i < deleted.size(); i++) {
+        RID r = rel.insertRecord(rec);
+        if (!pages.contains(r.pageNo.pid)) {
+          System.out.println("  *** record " + i + " went on a new page");
+          return FAIL;
+        }
+      }
+      System.out.println("  " + deleted.size() + " records of " + rec.length
+                         + " bytes inserted on " + pages.size() + " pages");
+      rel.deleteFile();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 5 completed successfully.");
+    return OK;
+  }
+
+  protected String testName() {
+    return "Heapfile";
+  }
+}
+
+public class HeapfileBench {
+
+  public static void main(String argv[]) {
+
+    HeapfileBenchDriver hb = new HeapfileBenchDriver();
+    boolean status = hb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during heapfile benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,407 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import iterator.*;
+
+/**
+ * Joins two relations of (place, key, 100-D vector) tuples with the nested
+ * loops join, on their keys and on the distance between their vectors,
+ * with a few buffer pages and with many. The result must be the same
+ * either way; with more pages the inner relation is scanned fewer
+ * times, so fewer pages are pinned. Then joins them on distance with
+ * the partitioned distance join, in memory and in partitions, also
+ * on vectors spread far apart and on many equal vectors.
+ */
+class JoinBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final AttrType[] TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrInteger),
+    new AttrType(AttrType.attrVector100D) };
+  private static final int OUTER = 3000;
+  private static final int INNER = 1000;
+  private static final int KEYS = 500;
+  private static final int POOL = 400;
+  private static final int[] PAGES = { 3, 10, 100 };
+  private static final int[] DJ_PAGES = { 3, 10, 200 };
+  private static final int SPREAD = 2000;
+  private static final int EQUAL = 600;
+
+  private int[][] outerVecs = new int[OUTER][];
+  private int[][] innerVecs = new int[INNER][];
+  private int[] outerKeys = new int[OUTER];
+  private int[] innerKeys = new int[INNER];
+  private int threshold;
+  private Set<Long> nearPairs;
+
+  public JoinBenchDriver() {
+    super("joinbench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Joins on equal keys: every pair of tuples with the same key must
+   * come out once.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: equi-join of " + OUTER + " x " + INNER + " tuples");
+    try {
+      new SystemDefs(dbpath, 20000, POOL, "Clock");
+      Random rnd = new Random(16);
+      load("joinbench_outer", outerKeys, outerVecs, rnd);
+      load("joinbench_inner", innerKeys, innerVecs, rnd);
+
+      Set<Long> expected = new HashSet<Long>();
+      for (int i = 0; i < OUTER; i++) {
+        for (int j = 0; j < INNER; j++) {
+          if (outerKeys[i] == innerKeys[j]) {
+            expected.add(pair(i, j));
+          }
+        }
+      }
+
+      CondExpr[] cond = { new CondExpr(), null };
+      cond[0].op = new AttrOperator(AttrOperator.aopEQ);
+      cond[0].type1 = new AttrType(AttrType.attrSymbol);
+      cond[0].type2 = new AttrType(AttrType.attrSymbol);
+      cond[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.outer), 2);
+      cond[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 2);
+      return check(1, cond, expected);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+  }
+
+  /**
+   * Joins on the distance between the vectors: every pair closer than
+   * the threshold must come out once.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: distance join of " + OUTER + " x " + INNER + " tuples");
+    try {
+      double[] dists = new double[OUTER * INNER];
+      for (int i = 0; i < OUTER; i++) {
+        for (int j = 0; j < INNER; j++) {
+          dists[i * INNER + j] = VectorKernel.distance(outerVecs[i], innerVecs[j]);
+        }
+      }
+      double[] sorted = dists.clone();
+      Arrays.sort(sorted);
+      threshold = (int) sorted[sorted.length / 1000];
+
+      Set<Long> expected = new HashSet<Long>();
+      nearPairs = expected;
+      for (int i = 0; i < OUTER; i++) {
+        for (int j = 0; j < INNER; j++) {
+          if (dists[i * INNER + j] <= threshold) {
+            expected.add(pair(i, j));
+          }
+        }
+      }
+
+      CondExpr[] cond = { new CondExpr(), null };
+      cond[0].op = new AttrOperator(AttrOperator.aopLE);
+      cond[0].type1 = new AttrType(AttrType.attrSymbol);
+      cond[0].type2 = new AttrType(AttrType.attrSymbol);
+      cond[0].operand1.symbol = new FldSpec(new RelSpec(RelSpec.innerRel), 3);
+      cond[0].operand2.symbol = new FldSpec(new RelSpec(RelSpec.outer), 3);
+      cond[0].distance = threshold;
+      return check(2, cond, expected);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+  }
+
+  /**
+   * Joins on the distance between the vectors with DistanceJoin, which
+   * must give the pairs test 2 did, whether the inner relation fits in
+   * the pages given or is split into partitions.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: partitioned distance join of " + OUTER + " x " + INNER + " tuples");
+    try {
+      if (checkDistanceJoin("joinbench_outer", "joinbench_inner", threshold, nearPairs) != OK) {
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Joins vectors spread along a line, each close to a few others only,
+   * so each tuple of the outer relation goes to a few partitions only.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: partitioned distance join of " + SPREAD + " x "
+                       + SPREAD + " spread vectors");
+    try {
+      Random rnd = new Random(17);
+      int[][] outer = new int[SPREAD][];
+      int[][] inner = new int[SPREAD][];
+      loadSpread("joinbench_souter", outer, rnd);
+      loadSpread("joinbench_sinner", inner, rnd);
+
+      int dist = 300;
+      Set<Long> expected = new HashSet<Long>();
+      for (int i = 0; i < SPREAD; i++) {
+        for (int j = 0; j < SPREAD; j++) {
+          if (VectorKernel.distance(outer[i], inner[j]) <= dist) {
+            expected.add(pair(i, j));
+          }
+        }
+      }
+      if (checkDistanceJoin("joinbench_souter", "joinbench_sinner", dist, expected) != OK) {
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Joins an inner relation of copies of two vectors with tuples near
+   * them. The keys of each copy are equal, so a partition of them
+   * cannot be split and is joined a block at a time.
+   */
+  protected boolean test5() {
+    System.out.println("\n  Test 5: partitioned distance join of " + EQUAL + " x "
+                       + EQUAL + " vectors, the inner ones of two values");
+    try {
+      Random rnd = new Random(18);
+      int[][] values = { new int[100], new int[100] };
+      for (int j = 0; j < 100; j++) {
+        values[0][j] = rnd.nextInt(201) - 100;
+        values[1][j] = rnd.nextInt(201) - 100;
+      }
+      int[][] outer = new int[EQUAL][];
+      int[][] inner = new int[EQUAL][];
+      for (int i = 0; i < EQUAL; i++) {
+        inner[i] = values[rnd.nextInt(2)];
+        outer[i] = values[rnd.nextInt(2)].clone();
+        for (int j = 0; j < 100; j++) {
+          outer[i][j] += rnd.nextInt(7) - 3;
+        }
+      }
+      loadVectors("joinbench_eouter", outer);
+      loadVectors("joinbench_einner", inner);
+
+      int dist = 20;
+      Set<Long> expected = new HashSet<Long>();
+      for (int i = 0; i < EQUAL; i++) {
+        for (int j = 0; j < EQUAL; j++) {
+          if (VectorKernel.distance(outer[i], inner[j]) <= dist) {
+            expected.add(pair(i, j));
+          }
+        }
+      }
+      if (checkDistanceJoin("joinbench_eouter", "joinbench_einner", dist, expected) != OK) {
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 5 completed successfully.");
+    return OK;
+  }
+
+  // Runs DistanceJoin with each number of pages and compares it with expected
+  private boolean checkDistanceJoin(String outerRel, String innerRel, int dist,
+                                    Set<Long> expected) throws Exception {
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+                       new FldSpec(new RelSpec(RelSpec.innerRel), 1) };
+    for (int pages : DJ_PAGES) {
+      final AtomicInteger pins = new AtomicInteger();
+      SystemDefs.JavabaseBM.setPinTrace(pid -> pins.incrementAndGet());
+      long t0 = System.nanoTime();
+      FileScan outer = new FileScan(outerRel, TYPES, null, (short) 3, 3,
+                                    outerProj(), null);
+      DistanceJoin dj = new DistanceJoin(TYPES, 3, null, TYPES, 3, null, pages,
+                                         outer, innerRel, 3, 3, dist, proj, 2);
+      Set<Long> got = new HashSet<Long>();
+      int n = 0;
+      Tuple t;
+      while ((t = dj.get_next()) != null) {
+        got.add(pair(t.getIntFld(1), t.getIntFld(2)));
+        n++;
+      }
+      dj.close();
+      long ms = (System.nanoTime() - t0) / 1000000;
+      SystemDefs.JavabaseBM.setPinTrace(null);
+      System.out.printf("  %3d pages  %6d ms  %7d pins  %6d tuples%n",
+                        pages, ms, pins.get(), n);
+
+      if (n != expected.size() || !got.equals(expected)) {
+        System.out.println("  *** " + n + " tuples, " + expected.size() + " expected");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  // Runs the join with each number of pages and compares it with expected
+  private boolean check(int test, CondExpr[] cond, Set<Long> expected) throws Exception {
+    int lastPins = Integer.MAX_VALUE;
+    final AtomicInteger pins = new AtomicInteger();
+    for (int pages : PAGES) {
+      pins.set(0);
+      SystemDefs.JavabaseBM.setPinTrace(pid -> pins.incrementAndGet());
+      long t0 = System.nanoTime();
+      Set<Long> got = new HashSet<Long>();
+      int n = 0;
+      FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+                         new FldSpec(new RelSpec(RelSpec.innerRel), 1) };
+      FileScan outer = new FileScan("joinbench_outer", TYPES, null, (short) 3, 3,
+                                    outerProj(), null);
+      NestedLoopsJoins nlj = new NestedLoopsJoins(TYPES, 3, null, TYPES, 3, null, pages,
+                                                  outer, "joinbench_inner", cond, null,
+                                                  proj, 2);
+      Tuple t;
+      while ((t = nlj.get_next()) != null) {
+        got.add(pair(t.getIntFld(1), t.getIntFld(2)));
+        n++;
+      }
+      nlj.close();
+      long ms = (System.nanoTime() - t0) / 1000000;
+      SystemDefs.JavabaseBM.setPinTrace(null);
+      System.out.printf("  %3d pages  %6d ms  %7d pins  %6d tuples%n",
+                        pages, ms, pins.get(), n);
+
+      if (n != expected.size() || !got.equals(expected)) {
+        System.out.println("  *** " + n + " tuples, " + expected.size() + " expected");
+        return FAIL;
+      }
+      if (pins.get() >= lastPins) {
+        System.out.println("  *** as many pages pinned with more buffer pages");
+        return FAIL;
+      }
+      lastPins = pins.get();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    System.out.println("  Test " + test + " completed successfully.");
+    return OK;
+  }
+
+  private static FldSpec[] outerProj() {
+    return new FldSpec[] { new FldSpec(new RelSpec(RelSpec.outer), 1),
+                           new FldSpec(new RelSpec(RelSpec.outer), 2),
+                           new FldSpec(new RelSpec(RelSpec.outer), 3) };
+  }
+
+  // The outer tuple at place i joined with the inner one at j
+  private static long pair(int i, int j) {
+    return ((long) i << 32) | j;
+  }
+
+  // Inserts (i, keys[i], vecs[i]) for each place i, drawing the keys
+  // from KEYS and the vectors at random
+  private void load(String rel, int[] keys, int[][] vecs, Random rnd) throws Exception {
+    Heapfile hf = new Heapfile(rel);
+    Tuple t = new Tuple();
+    t.setHdr((short) 3, TYPES, null);
+    t = new Tuple(t.size());
+    t.setHdr((short) 3, TYPES, null);
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = rnd.nextInt(KEYS);
+      vecs[i] = new int[100];
+      for (int j = 0; j < 100; j++) {
+        vecs[i][j] = rnd.nextInt(201) - 100;
+      }
+      t.setIntFld(1, i);
+      t.setIntFld(2, keys[i]);
+      t.setVectorFld(3, vecs[i]);
+      hf.insertRecord(t.getTupleByteArray());
+    }
+  }
+
+  // Inserts (i, 0, vecs[i]) for each place i, with the vectors at random
+  // places along a line, and a little apart from it
+  private void loadSpread(String rel, int[][] vecs, Random rnd) throws Exception {
+    Heapfile hf = new Heapfile(rel);
+    Tuple t = new Tuple();
+    t.setHdr((short) 3, TYPES, null);
+    t = new Tuple(t.size());
+    t.setHdr((short) 3, TYPES, null);
+    for (int i = 0; i < vecs.length; i++) {
+      int along = rnd.nextInt(10000) - 5000;
+      vecs[i] = new int[100];
+      for (int j = 0; j < 100; j++) {
+        vecs[i][j] = along + rnd.nextInt(41) - 20;
+      }
+      t.setIntFld(1, i);
+      t.setIntFld(2, 0);
+      t.setVectorFld(3, vecs[i]);
+      hf.insertRecord(t.getTupleByteArray());
+    }
+  }
+
+  // Inserts (i, 0, vecs[i]) for each place i
+  private void loadVectors(String rel, int[][] vecs) throws Exception {
+    Heapfile hf = new Heapfile(rel);
+    Tuple t = new Tuple();
+    t.setHdr((short) 3, TYPES, null);
+    t = new Tuple(t.size());
+    t.setHdr((short) 3, TYPES, null);
+    for (int i = 0; i < vecs.length; i++) {
+      t.setIntFld(1, i);
+      t.setIntFld(2, 0);
+      t.setVectorFld(3, vecs[i]);
+      hf.insertRecord(t.getTupleByteArray());
+    }
+  }
+
+  protected String testName() {
+    return "Nested Loops Join";
+  }
+}
+
+public class JoinBench {
+
+  public static void main(String argv[]) {
+
+    JoinBenchDriver jb = new JoinBenchDriver();
+    boolean status = jb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during join benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,322 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import LSHFIndex.*;
+
+/**
+ * Builds LSH indexes on a relation of (key, 100-D vector) tuples by
+ * inserting one record at a time and by bulk loading, with the hashing
+ * split over several tasks, and checks that searches of the indexes
+ * return the same records.
+ */
+class LSHBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final AttrType[] TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrVector100D) };
+  private static final int RECORDS = 10000;
+  private static final int CENTERS = 50;
+  private static final int H = 8;
+  private static final int L = 6;
+  private static final int H_WIDE = 12;
+  private static final int POOL = 300;
+  private static final int QUERIES = 10;
+  private static final int RANGE = 3000;
+  private static final SortedSet<Integer> TASKS = new TreeSet<Integer>(
+    Arrays.asList(1, 2, 4, Runtime.getRuntime().availableProcessors()));
+
+  private Heapfile rel;
+  private int[][] vecs = new int[RECORDS][];
+
+  public LSHBenchDriver() {
+    super("lshbench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Builds an index by insert and one by bulk load: every range and
+   * nearest-neighbor search must return the same records from both.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: build on " + RECORDS + " vectors, h=" + H + " L=" + L);
+    try {
+      new SystemDefs(dbpath, 60000, POOL, "Clock");
+      rel = new Heapfile("lshbench_rel");
+      Random rnd = new Random(19);
+      int[][] centers = new int[CENTERS][100];
+      for (int[] c : centers) {
+        for (int j = 0; j < 100; j++) {
+          c[j] = rnd.nextInt(16001) - 8000;
+        }
+      }
+      Tuple t = new Tuple();
+      t.setHdr((short) 2, TYPES, null);
+      t = new Tuple(t.size());
+      t.setHdr((short) 2, TYPES, null);
+      for (int i = 0; i < RECORDS; i++) {
+        int[] c = centers[rnd.nextInt(CENTERS)];
+        int[] v = new int[100];
+        for (int j = 0; j < 100; j++) {
+          v[j] = c[j] + rnd.nextInt(801) - 400;
+        }
+        vecs[i] = v;
+        t.setIntFld(1, i);
+        t.setVectorFld(2, v);
+        rel.insertRecord(t.getTupleByteArray());
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      LSHFIndex inserted = new LSHFIndex("lshbench_ins", H, L);
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      Scan scan = rel.openScan();
+      RID rid = new RID();
+      Tuple r;
+      while ((r = scan.getNext(rid)) != null) {
+        r.setHdr((short) 2, TYPES, null);
+        inserted.insert(new Vector100DKey(new Vector100Dtype(r.getVectorFld(2))),
+                        new RID(rid.pageNo, rid.slotNo));
+      }
+      scan.closescan();
+      SystemDefs.JavabaseBM.flushAllPages();
+      report("insert", t0);
+
+      LSHFIndex loaded = new LSHFIndex("lshbench_bulk", H, L);
+      PCounter.initialize();
+      t0 = System.nanoTime();
+      int n = loaded.bulkLoad(rel, TYPES, null, 2, Runtime.getRuntime().availableProcessors());
+      SystemDefs.JavabaseBM.flushAllPages();
+      report("bulk load", t0);
+
+      if (n != RECORDS) {
+        System.out.println("  *** " + n + " records indexed");
+        return FAIL;
+      }
+      String error = compare(inserted, loaded);
+      if (error != null) {
+        System.out.println("  *** " + error);
+        return FAIL;
+      }
+      inserted.destroyIndex();
+      loaded.destroyIndex();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Bulk loads with the hashing split into more and more tasks; the
+   * index must come out the same each time.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: bulk load with the hashing in 1 to "
+                       + TASKS.last() + " tasks ("
+                       + Runtime.getRuntime().availableProcessors() + " processors)");
+    try {
+      LSHFIndex first = null;
+      for (int tasks : TASKS) {
+        LSHFIndex loaded = new LSHFIndex("lshbench_tasks" + tasks, H, L);
+        long t0 = System.nanoTime();
+        loaded.bulkLoad(rel, TYPES, null, 2, tasks);
+        System.out.printf("  %2d tasks %6d ms%n", tasks, (System.nanoTime() - t0) / 1000000);
+        if (first == null) {
+          first = loaded;
+          continue;
+        }
+        String error = compare(first, loaded);
+        if (error != null) {
+          System.out.println("  *** " + tasks + " tasks: " + error);
+          return FAIL;
+        }
+        loaded.destroyIndex();
+      }
+      first.destroyIndex();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Inserts into a bulk loaded index and bulk loads into it again, and
+   * does the same in another order on a second index: the buckets must
+   * stay whole, so both find the same records.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: insert and bulk load into the same index");
+    try {
+      LSHFIndex inserted = new LSHFIndex("lshbench_ins3", H, L);
+      LSHFIndex mixed = new LSHFIndex("lshbench_mixed", H, L);
+      mixed.bulkLoad(rel, TYPES, null, 2, 2);
+      insertSome(mixed, 1000);
+      mixed.bulkLoad(rel, TYPES, null, 2, 2);
+      insertSome(inserted, 1000);
+      inserted.bulkLoad(rel, TYPES, null, 2, 1);
+      inserted.bulkLoad(rel, TYPES, null, 2, 1);
+
+      String error = compare(inserted, mixed);
+      if (error != null) {
+        System.out.println("  *** " + error);
+        return FAIL;
+      }
+      inserted.destroyIndex();
+      mixed.destroyIndex();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Builds an index with many buckets per layer, then opens it again
+   * from its pages: the reopened index must answer as the first did.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: reopen an index with h=" + H_WIDE);
+    try {
+      LSHFIndex built = new LSHFIndex("lshbench_wide", H_WIDE, L);
+      built.bulkLoad(rel, TYPES, null, 2, 2);
+      insertSome(built, 500);
+      LSHFIndex reopened = new LSHFIndex("lshbench_wide");
+      String error = compare(built, reopened);
+      built.close();
+      if (error == null) {
+        // Appending to the reopened index must find the ends of the chains
+        insertSome(reopened, 500);
+        reopened.bulkLoad(rel, TYPES, null, 2, 2);
+        reopened.close();
+        reopened = new LSHFIndex("lshbench_wide");
+        LSHFIndex fresh = new LSHFIndex("lshbench_wide2", H_WIDE, L);
+        fresh.bulkLoad(rel, TYPES, null, 2, 1);
+        fresh.bulkLoad(rel, TYPES, null, 2, 1);
+        insertSome(fresh, 500);
+        insertSome(fresh, 500);
+        error = compare(reopened, fresh);
+        fresh.destroyIndex();
+      }
+      reopened.destroyIndex();
+      if (error != null) {
+        System.out.println("  *** " + error);
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  // Inserts the first n records of the relation one at a time
+  private void insertSome(LSHFIndex index, int n) throws Exception {
+    Scan scan = rel.openScan();
+    RID rid = new RID();
+    Tuple r;
+    for (int i = 0; i < n && (r = scan.getNext(rid)) != null; i++) {
+      r.setHdr((short) 2, TYPES, null);
+      index.insert(new Vector100DKey(new Vector100Dtype(r.getVectorFld(2))),
+                   new RID(rid.pageNo, rid.slotNo));
+    }
+    scan.closescan();
+  }
+
+  // Runs the same searches on both indexes and says what differs
+  private String compare(LSHFIndex a, LSHFIndex b) throws Exception {
+    Random rnd = new Random(20);
+    for (int q = 0; q < QUERIES; q++) {
+      Vector100DKey key = new Vector100DKey(new Vector100Dtype(vecs[rnd.nextInt(RECORDS)]));
+      List<String> ra = ridStrings(a.rangeSearch(key, RANGE));
+      List<String> rb = ridStrings(b.rangeSearch(key, RANGE));
+      if (!ra.equals(rb)) {
+        return "query " + q + ": range search found " + ra.size() + " and " + rb.size();
+      }
+      for (LSHSearchParams params : new LSHSearchParams[] {
+             new LSHSearchParams(), new LSHSearchParams(4, 0) }) {
+        List<RIDDistancePair> na = a.nearestNeighborSearch(key, 10, params);
+        List<RIDDistancePair> nb = b.nearestNeighborSearch(key, 10, params);
+        for (int i = 0; i < Math.max(na.size(), nb.size()); i++) {
+          if (i >= na.size() || i >= nb.size() || na.get(i).distance != nb.get(i).distance) {
+            return "query " + q + ": neighbor " + i + " differs"
+              + (params.isMultiProbe() ? " with multi-probe" : "");
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static List<String> ridStrings(List<RID> rids) {
+    List<String> s = new ArrayList<String>();
+    for (RID rid : rids) {
+      s.add(rid.pageNo.pid + "," + rid.slotNo);
+    }
+    Collections.sort(s);
+    return s;
+  }
+
+  private static void report(String what, long t0) {
+    System.out.printf("  %-10s %6d ms  %6d pages read  %6d written%n",
+                      what, (System.nanoTime() - t0) / 1000000, PCounter.getRCount(),
+                      PCounter.getWCount());
+  }
+
+  protected String testName() {
+    return "LSH Index Build";
+  }
+}
+
+public class LSHBench {
+
+  public static void main(String argv[]) {
+
+    LSHBenchDriver lb = new LSHBenchDriver();
+    boolean status = lb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during LSH index benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,376 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import LSHFIndex.*;
+
+/**
+ * Searches an LSH index kept on pages of the DB file: checks a full
+ * nearest-neighbor search against a scan of the relation, also after the
+ * database is closed and opened again; checks that multi-probe searches
+ * read fewer index pages the smaller their probe budget, and match the
+ * full search when the budget covers every bucket; and checks that the
+ * layers searched in parallel give the same answers as searched one
+ * after another. A create that runs out of space must leave no index
+ * and no pages behind.
+ */
+class LSHSearchBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final AttrType[] TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrVector100D) };
+  private static final int RECORDS = 5000;
+  private static final int CENTERS = 40;
+  private static final int H = 6;
+  private static final int L = 4;
+  private static final int DB_PAGES = 20000;
+  private static final int POOL = 40;
+  private static final int QUERIES = 10;
+  private static final int K = 10;
+  private static final int RANGE = 3000;
+  private static final int[] PROBES = { 1, 4, 16, 1 << H };
+
+  private int[][] vecs = new int[RECORDS][];
+  private RID[] rids = new RID[RECORDS];
+  private boolean[] deleted = new boolean[RECORDS];
+
+  public LSHSearchBenchDriver() {
+    super("lshsearchbench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Builds an index by insert, deletes some records from it, and closes
+   * the database: opened again, the index must find exactly the nearest
+   * records a scan finds, and range searches only records in range.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: index " + RECORDS + " vectors, reopen the database and search");
+    try {
+      new SystemDefs(dbpath, DB_PAGES, POOL, "Clock");
+      Heapfile rel = new Heapfile("lshsearchbench_rel");
+      Random rnd = new Random(31);
+      int[][] centers = new int[CENTERS][100];
+      for (int[] c : centers) {
+        for (int j = 0; j < 100; j++) {
+          c[j] = rnd.nextInt(16001) - 8000;
+        }
+      }
+      Tuple t = new Tuple();
+      t.setHdr((short) 2, TYPES, null);
+      t = new Tuple(t.size());
+      t.setHdr((short) 2, TYPES, null);
+      LSHFIndex index = new LSHFIndex("lshsearchbench_idx", H, L);
+      for (int i = 0; i < RECORDS; i++) {
+        int[] c = centers[rnd.nextInt(CENTERS)];
+        int[] v = new int[100];
+        for (int j = 0; j < 100; j++) {
+          v[j] = c[j] + rnd.nextInt(801) - 400;
+        }
+        vecs[i] = v;
+        t.setIntFld(1, i);
+        t.setVectorFld(2, v);
+        rids[i] = rel.insertRecord(t.getTupleByteArray());
+        index.insert(new Vector100DKey(new Vector100Dtype(v)), rids[i]);
+      }
+      for (int i = 0; i < RECORDS; i += 7) {
+        index.delete(new Vector100DKey(new Vector100Dtype(vecs[i])), rids[i]);
+        deleted[i] = true;
+      }
+      index.close();
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+
+      new SystemDefs(dbpath, 0, POOL, "Clock");
+      index = new LSHFIndex("lshsearchbench_idx");
+      rnd = new Random(32);
+      for (int q = 0; q < QUERIES; q++) {
+        int[] target = vecs[rnd.nextInt(RECORDS)];
+        Vector100DKey key = new Vector100DKey(new Vector100Dtype(target));
+        double[] want = nearest(target);
+        List<RIDDistancePair> got = index.nearestNeighborSearch(key, K);
+        if (!sameDistances(got, want)) {
+          System.out.println("  *** query " + q + ": nearest neighbors differ from a scan");
+          return FAIL;
+        }
+        Set<String> inRange = new HashSet<String>();
+        for (int i = 0; i < RECORDS; i++) {
+          if (!deleted[i] && VectorKernel.distance(vecs[i], target) <= RANGE) {
+            inRange.add(ridString(rids[i]));
+          }
+        }
+        for (RID rid : index.rangeSearch(key, RANGE)) {
+          if (!inRange.contains(ridString(rid))) {
+            System.out.println("  *** query " + q + ": range search found " + ridString(rid));
+            return FAIL;
+          }
+        }
+      }
+      index.close();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Searches with larger and larger probe budgets. The pages read must
+   * not go down as the budget goes up, every answer must be a real
+   * neighbor distance, and a budget of every bucket (or of every record,
+   * as a candidate budget) must give the answers of the full search.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: multi-probe searches with probe budgets "
+                       + Arrays.toString(PROBES));
+    try {
+      LSHFIndex index = new LSHFIndex("lshsearchbench_idx");
+      long lastReads = -1;
+      for (int probes : PROBES) {
+        LSHSearchParams params = new LSHSearchParams(probes, 0);
+        Random rnd = new Random(33);
+        long reads = 0;
+        int hits = 0;
+        for (int q = 0; q < QUERIES; q++) {
+          int[] target = vecs[rnd.nextInt(RECORDS)];
+          Vector100DKey key = new Vector100DKey(new Vector100Dtype(target));
+          double[] want = nearest(target);
+          SystemDefs.JavabaseBM.flushAllPages();
+          PCounter.initialize();
+          List<RIDDistancePair> got = index.nearestNeighborSearch(key, K, params);
+          reads += PCounter.getRCount();
+          for (RIDDistancePair p : got) {
+            if (Arrays.binarySearch(want, p.distance) >= 0) {
+              hits++;
+            }
+          }
+          if (probes == 1 << H && !sameDistances(got, want)) {
+            System.out.println("  *** query " + q + ": probing every bucket differs from a scan");
+            return FAIL;
+          }
+          if (got.size() > K) {
+            System.out.println("  *** query " + q + ": " + got.size() + " neighbors returned");
+            return FAIL;
+          }
+        }
+        System.out.printf("  %3d probes  %6d pages read  recall %.2f%n",
+                          probes, reads, (double) hits / (QUERIES * K));
+        if (reads < lastReads) {
+          System.out.println("  *** more probes read fewer pages");
+          return FAIL;
+        }
+        lastReads = reads;
+      }
+
+      // A candidate budget alone drains the buckets best first until it runs out
+      Random rnd = new Random(33);
+      for (int q = 0; q < QUERIES; q++) {
+        int[] target = vecs[rnd.nextInt(RECORDS)];
+        Vector100DKey key = new Vector100DKey(new Vector100Dtype(target));
+        if (!sameDistances(index.nearestNeighborSearch(key, K, new LSHSearchParams(0, RECORDS)),
+                           nearest(target))) {
+          System.out.println("  *** query " + q + ": a candidate budget of every record differs from a scan");
+          return FAIL;
+        }
+      }
+      index.close();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Runs the same searches with the layers on 1 to L threads; every
+   * parallelism must return the same records.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: search the " + L + " layers on 1 to " + L + " threads");
+    try {
+      LSHFIndex index = new LSHFIndex("lshsearchbench_idx");
+      Random rnd = new Random(34);
+      for (int q = 0; q < QUERIES; q++) {
+        Vector100DKey key = new Vector100DKey(new Vector100Dtype(vecs[rnd.nextInt(RECORDS)]));
+        for (int probes : new int[] { 0, 4 }) {
+          List<String> first = null;
+          for (int parallelism = 1; parallelism <= L; parallelism++) {
+            LSHSearchParams params = new LSHSearchParams(probes, 0, parallelism);
+            List<String> got = new ArrayList<String>();
+            for (RID rid : index.rangeSearch(key, RANGE, params)) {
+              got.add(ridString(rid));
+            }
+            Collections.sort(got);
+            for (RIDDistancePair p : index.nearestNeighborSearch(key, K, params)) {
+              got.add(Double.toString(p.distance));
+            }
+            if (first == null) {
+              first = got;
+            }
+            else if (!got.equals(first)) {
+              System.out.println("  *** query " + q + ": " + parallelism + " threads differ"
+                                 + (probes > 0 ? " with multi-probe" : ""));
+              return FAIL;
+            }
+          }
+        }
+      }
+
+      // Runs many queries at once, as several scans sharing the pool would
+      List<Thread> threads = new ArrayList<Thread>();
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      for (int th = 0; th < 4; th++) {
+        final int seed = 35 + th;
+        threads.add(new Thread(() -> {
+          try {
+            Random r = new Random(seed);
+            for (int q = 0; q < QUERIES; q++) {
+              int[] target = vecs[r.nextInt(RECORDS)];
+              List<RIDDistancePair> got = index.nearestNeighborSearch(
+                new Vector100DKey(new Vector100Dtype(target)), K, new LSHSearchParams(0, 0, 2));
+              if (!sameDistances(got, nearest(target))) {
+                throw new IllegalStateException("concurrent query differs from a scan");
+              }
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        }));
+      }
+      for (Thread th : threads) {
+        th.start();
+      }
+      for (Thread th : threads) {
+        th.join();
+      }
+      if (!errors.isEmpty()) {
+        errors.get(0).printStackTrace();
+        return FAIL;
+      }
+      index.destroyIndex();
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Creates an index with more layers than the database has pages for:
+   * the create must fail, and leave neither the file entry nor any of
+   * the pages it took, so the same space holds a smaller index after.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: run out of space creating an index");
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      SystemDefs.JavabaseDB.closeDB();
+      new File(dbpath).delete();
+      new SystemDefs(dbpath, 200, POOL, "Clock");
+      try {
+        new LSHFIndex("lshsearchbench_big", H, 1000);
+        System.out.println("  *** 1000 layers fit in 200 pages");
+        return FAIL;
+      }
+      catch (LSHFIndexException e) {
+        System.out.println("  Create failed as expected");
+      }
+      if (LSHFIndex.exists("lshsearchbench_big")) {
+        System.out.println("  *** the failed index is still registered");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+      // Nearly every page is needed again here
+      LSHFIndex index = new LSHFIndex("lshsearchbench_big", H, 150);
+      index.destroyIndex();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  // The K smallest distances from target to a record not deleted, ascending
+  private double[] nearest(int[] target) {
+    double[] d = new double[RECORDS];
+    int n = 0;
+    for (int i = 0; i < RECORDS; i++) {
+      if (!deleted[i]) {
+        d[n++] = VectorKernel.distance(vecs[i], target);
+      }
+    }
+    Arrays.sort(d, 0, n);
+    return Arrays.copyOf(d, Math.min(K, n));
+  }
+
+  private static boolean sameDistances(List<RIDDistancePair> got, double[] want) {
+    if (got.size() != want.length) {
+      return false;
+    }
+    for (int i = 0; i < want.length; i++) {
+      if (got.get(i).distance != want[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String ridString(RID rid) {
+    return rid.pageNo.pid + "," + rid.slotNo;
+  }
+
+  protected String testName() {
+    return "LSH Index Search";
+  }
+}
+
+public class LSHSearchBench {
+
+  public static void main(String argv[]) {
+
+    LSHSearchBenchDriver lb = new LSHSearchBenchDriver();
+    boolean status = lb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during LSH index search benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
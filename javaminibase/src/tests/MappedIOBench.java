@@ -0,0 +1,206 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+
+/**
+ * Compares reading the database file with calls on the file and
+ * through a memory mapping (SystemDefs' "File" and "Mapped" access
+ * methods): times scans of a relation much larger than the pool and
+ * fetches of its records by RID at random, which must give the same
+ * records either way. Then checks that pages written through the
+ * mapping are in the file.
+ */
+class MappedIOBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final String[] ACCESS = { "File", "Mapped" };
+  private static final int RECORDS = 60000;
+  private static final int RECORD_SIZE = 200;
+  private static final int DB_PAGES = 20000;
+  private static final int POOL = 100;
+  private static final int ROUNDS = 2;
+  private static final int SCANS = 3;
+  private static final int FETCHES = 50000;
+
+  private RID[] rids = new RID[RECORDS];
+
+  public MappedIOBenchDriver() {
+    super("mappediobench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Loads the relation, then opens the database each way in turn and
+   * scans the relation through a small pool.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: scan " + RECORDS + " records through a pool of "
+                       + POOL + " frames");
+    try {
+      new SystemDefs(dbpath, DB_PAGES, 4000, "Clock");
+      Heapfile rel = new Heapfile("mappediobench_rel");
+      byte[] rec = new byte[RECORD_SIZE];
+      for (int key = 0; key < RECORDS; key++) {
+        Convert.setIntValue(key, 0, rec);
+        rids[key] = rel.insertRecord(rec);
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      long expected = (long) RECORDS * (RECORDS - 1) / 2 * SCANS;
+      for (int round = 0; round < ROUNDS; round++) {
+        for (String access : ACCESS) {
+          rel = reopen(access, "mappediobench_rel");
+          PCounter.initialize();
+          long t0 = System.nanoTime();
+          long sum = 0;
+          for (int s = 0; s < SCANS; s++) {
+            Scan scan = rel.openScan();
+            RID rid = new RID();
+            Tuple t;
+            while ((t = scan.getNext(rid)) != null) {
+              sum += Convert.getIntValue(0, t.getTupleByteArray());
+            }
+            scan.closescan();
+          }
+          report(access, t0);
+          if (sum != expected) {
+            System.out.println("  *** " + access + ": scans summed to " + sum
+                               + ", not " + expected);
+            return FAIL;
+          }
+          if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+            System.out.println("  *** pages left pinned");
+            return FAIL;
+          }
+        }
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Fetches records at random by RID, each way in turn: nearly every
+   * fetch misses the pool.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: fetch " + FETCHES + " records at random by RID");
+    try {
+      for (int round = 0; round < ROUNDS; round++) {
+        for (String access : ACCESS) {
+          Heapfile rel = reopen(access, "mappediobench_rel");
+          Random rnd = new Random(23);
+          PCounter.initialize();
+          long t0 = System.nanoTime();
+          for (int i = 0; i < FETCHES; i++) {
+            int key = rnd.nextInt(RECORDS);
+            Tuple t = rel.getRecord(rids[key]);
+            if (Convert.getIntValue(0, t.getTupleByteArray()) != key) {
+              System.out.println("  *** " + access + ": record " + key + " fetched wrong");
+              return FAIL;
+            }
+          }
+          report(access, t0);
+          if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+            System.out.println("  *** pages left pinned");
+            return FAIL;
+          }
+        }
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Creates a database through the mapping and loads a relation into
+   * it, then reads it back with calls on the file.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: read with calls on the file what was written mapped");
+    try {
+      new File(dbpath).delete();
+      new SystemDefs(dbpath, DB_PAGES, POOL, "Clock", "Mapped");
+      Heapfile rel = new Heapfile("mappediobench_mapped");
+      byte[] rec = new byte[RECORD_SIZE];
+      for (int key = 0; key < RECORDS; key++) {
+        Convert.setIntValue(key, 0, rec);
+        Convert.setIntValue(~key, RECORD_SIZE - 4, rec);
+        rids[key] = rel.insertRecord(rec);
+      }
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      rel = reopen("File", "mappediobench_mapped");
+      for (int key = 0; key < RECORDS; key++) {
+        byte[] data = rel.getRecord(rids[key]).getTupleByteArray();
+        if (Convert.getIntValue(0, data) != key
+            || Convert.getIntValue(RECORD_SIZE - 4, data) != ~key) {
+          System.out.println("  *** record " + key + " read back wrong");
+          return FAIL;
+        }
+      }
+      System.out.println("  " + RECORDS + " records read back");
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  // Opens the database again the given way, with a small pool
+  private Heapfile reopen(String access, String name) throws Exception {
+    SystemDefs.MINIBASE_RESTART_FLAG = true;
+    new SystemDefs(dbpath, 0, POOL, "Clock", access);
+    SystemDefs.MINIBASE_RESTART_FLAG = false;
+    return new Heapfile(name);
+  }
+
+  private static void report(String access, long t0) {
+    System.out.printf("  %-6s %6d ms  %7d pages read  %7d read calls%n",
+                      access, (System.nanoTime() - t0) / 1000000,
+                      PCounter.getRCount(), PCounter.getPhysicalRCount());
+  }
+
+  protected String testName() {
+    return "Mapped I/O";
+  }
+}
+
+public class MappedIOBench {
+
+  public static void main(String argv[]) {
+
+    MappedIOBenchDriver mb = new MappedIOBenchDriver();
+    boolean status = mb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during mapped I/O benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
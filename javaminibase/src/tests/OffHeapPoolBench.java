@@ -0,0 +1,207 @@
+package tests;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import btree.*;
+import iterator.*;
+
+/**
+ * Runs the same work with the buffer pool's frames in byte arrays and
+ * off the Java heap (SystemDefs' "Heap" and "OffHeap" pools): loads a
+ * relation of (key, 100-D vector) tuples, updates and deletes some of
+ * them, scans it, bulk loads a B+ tree on its keys and looks keys up,
+ * and sorts it in runs. Both pools must give the same answers; the
+ * time, the heap in use and the collector's work are reported. The
+ * sort's buffer pages are arrays of its own with the off-heap pool, so
+ * it must not hold frames for them as well.
+ */
+class OffHeapPoolBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final AttrType[] TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrVector100D) };
+  private static final String[] POOLS = { "Heap", "OffHeap" };
+  private static final int RECORDS = 30000;
+  private static final int DB_PAGES = 30000;
+  private static final int POOL = 8000;
+  private static final int SORT_PAGES = 100;
+  private static final int LOOKUPS = 5000;
+
+  private long[] answers;
+  private int frames;
+
+  public OffHeapPoolBenchDriver() {
+    super("offheappoolbench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Does the work with each pool in turn, each time in a new database,
+   * and checks the answers against the first pool's.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: load, update, delete, scan, index and sort "
+                       + RECORDS + " vectors with a pool of " + POOL + " frames");
+    try {
+      for (String pool : POOLS) {
+        new File(dbpath).delete();
+        new SystemDefs(dbpath, DB_PAGES, POOL, "Clock", null, pool);
+        long gcs = gcCount(), gcMs = gcTime();
+        long t0 = System.nanoTime();
+        long[] got = work();
+        long ms = (System.nanoTime() - t0) / 1000000;
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf("  %-7s %6d ms  %4d MB heap in use  %4d collections  %5d ms collecting%n",
+                          pool, ms, (rt.totalMemory() - rt.freeMemory()) >> 20,
+                          gcCount() - gcs, gcTime() - gcMs);
+
+        System.out.println("  " + frames + " frames pinned by the sort");
+        if (pool.equals("OffHeap") && frames >= SORT_PAGES) {
+          System.out.println("  *** " + pool + ": the sort took frames for its own arrays");
+          return FAIL;
+        }
+        if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+          System.out.println("  *** " + pool + ": pages left pinned");
+          return FAIL;
+        }
+        if (answers == null) {
+          answers = got;
+        }
+        else if (!Arrays.equals(got, answers)) {
+          System.out.println("  *** " + pool + ": answers differ: " + Arrays.toString(got)
+                             + " vs " + Arrays.toString(answers));
+          return FAIL;
+        }
+        SystemDefs.JavabaseDB.closeDB();
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  // Runs the work and returns a digest of each step's answers
+  private long[] work() throws Exception {
+    Heapfile rel = new Heapfile("offheappoolbench_rel");
+    Random rnd = new Random(24);
+    Tuple t = new Tuple();
+    t.setHdr((short) 2, TYPES, null);
+    t = new Tuple(t.size());
+    t.setHdr((short) 2, TYPES, null);
+    int[] v = new int[100];
+    RID[] rids = new RID[RECORDS];
+    for (int i = 0; i < RECORDS; i++) {
+      for (int j = 0; j < 100; j++) {
+        v[j] = rnd.nextInt(20001) - 10000;
+      }
+      t.setIntFld(1, rnd.nextInt(RECORDS));
+      t.setVectorFld(2, v);
+      rids[i] = rel.insertRecord(t.getTupleByteArray());
+    }
+
+    for (int i = 0; i < RECORDS; i += 3) {
+      Tuple r = rel.getRecord(rids[i]);
+      r.setHdr((short) 2, TYPES, null);
+      t.setIntFld(1, r.getIntFld(1) + RECORDS);
+      t.setVectorFld(2, r.getVectorFld(2));
+      rel.updateRecord(rids[i], t);
+    }
+    for (int i = 0; i < RECORDS; i += 5) {
+      rel.deleteRecord(rids[i]);
+    }
+
+    long scanned = 0;
+    Scan scan = rel.openScan();
+    RID rid = new RID();
+    Tuple r;
+    while ((r = scan.getNext(rid)) != null) {
+      r.setHdr((short) 2, TYPES, null);
+      scanned = 31 * scanned + r.getIntFld(1) + r.getVectorFld(2)[99];
+    }
+    scan.closescan();
+
+    BTreeFile btf = new BTreeFile("offheappoolbench_idx", AttrType.attrInteger, 4,
+                                  DeleteFashion.NAIVE_DELETE);
+    BTreeBulkLoader.load(btf, rel, TYPES, null, 1, SORT_PAGES, 1.0f);
+    long found = 0;
+    for (int i = 0; i < LOOKUPS; i++) {
+      IntegerKey key = new IntegerKey(rnd.nextInt(2 * RECORDS));
+      BTFileScan bscan = btf.new_scan(key, key);
+      KeyDataEntry entry;
+      while ((entry = bscan.get_next()) != null) {
+        Tuple m = rel.getRecord(((LeafData) entry.data).getData());
+        m.setHdr((short) 2, TYPES, null);
+        found += 1 + m.getIntFld(1) + m.getVectorFld(2)[0];
+      }
+      bscan.DestroyBTreeFileScan();
+    }
+    btf.close();
+
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+                       new FldSpec(new RelSpec(RelSpec.outer), 2) };
+    FileScan fscan = new FileScan("offheappoolbench_rel", TYPES, null, (short) 2, 2, proj, null);
+    Sort sort = new Sort(TYPES, (short) 2, null, fscan, 1, new TupleOrder(TupleOrder.Ascending),
+                         4, SORT_PAGES);
+    frames = POOL - SystemDefs.JavabaseBM.getNumUnpinnedBuffers();
+    long sorted = 0;
+    while ((r = sort.get_next()) != null) {
+      sorted = 31 * sorted + r.getIntFld(1);
+    }
+    sort.close();
+
+    SystemDefs.JavabaseBM.flushAllPages();
+    return new long[] { rel.getRecCnt(), scanned, found, sorted };
+  }
+
+  private static long gcCount() {
+    long n = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      n += gc.getCollectionCount();
+    }
+    return n;
+  }
+
+  private static long gcTime() {
+    long ms = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      ms += gc.getCollectionTime();
+    }
+    return ms;
+  }
+
+  protected String testName() {
+    return "Off-Heap Pool";
+  }
+}
+
+public class OffHeapPoolBench {
+
+  public static void main(String argv[]) {
+
+    OffHeapPoolBenchDriver ob = new OffHeapPoolBenchDriver();
+    boolean status = ob.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during off-heap pool benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,283 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import btree.*;
+
+/**
+ * Loads the same relation of (key, 100-D vector) tuples and a B+ tree
+ * on its keys into databases made with larger and larger pages, with
+ * the database and the buffer pool the same number of bytes each time,
+ * and counts the pages read by scans of the relation and by lookups in
+ * the tree. Every page size must give the same answers. Then checks
+ * that bad page sizes are refused, and tuples and heap pages at their
+ * limits.
+ */
+class PageSizeBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final AttrType[] TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrVector100D) };
+  private static final int[] PAGE_SIZES = { 4096, 16384, 65536 };
+  private static final int RECORDS = 20000;
+  private static final long DB_BYTES = 96L << 20;
+  private static final int POOL_BYTES = 4 << 20;
+  private static final int SORT_BYTES = 1 << 20;
+  private static final int SCANS = 2;
+  private static final int LOOKUPS = 2000;
+
+  private long scanSum = -1;
+  private long lookupSum = -1;
+
+  public PageSizeBenchDriver() {
+    super("pagesizebench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Loads the relation and the tree with each page size, then opens
+   * the database again without giving a page size: the one it was
+   * made with must be read back from it.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: scan " + RECORDS + " vectors and look up "
+                       + LOOKUPS + " keys with " + (POOL_BYTES >> 20) + "MB of buffers");
+    try {
+      for (int size : PAGE_SIZES) {
+        new File(dbpath).delete();
+        new SystemDefs(dbpath, (int) (DB_BYTES / size), POOL_BYTES / size,
+                       "Clock", null, size);
+        load();
+
+        SystemDefs.MINIBASE_RESTART_FLAG = true;
+        new SystemDefs(dbpath, 0, POOL_BYTES / size, "Clock");
+        SystemDefs.MINIBASE_RESTART_FLAG = false;
+        if (SystemDefs.JavabaseDB.db_page_size() != size) {
+          System.out.println("  *** database made with " + size + " byte pages opened with "
+                             + SystemDefs.JavabaseDB.db_page_size());
+          return FAIL;
+        }
+        if (!scanAndLookUp(size)) {
+          return FAIL;
+        }
+        if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL_BYTES / size) {
+          System.out.println("  *** pages left pinned");
+          return FAIL;
+        }
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Asks for page sizes that are not allowed: each must be refused.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: refuse page sizes out of range or not a power of two");
+    for (int size : new int[] { 2048, 12288, 131072 }) {
+      new File(dbpath).delete();
+      try {
+        new SystemDefs(dbpath, 100, 10, "Clock", null, size);
+        System.out.println("  *** page size " + size + " accepted");
+        return FAIL;
+      }
+      catch (DiskMgrException e) {
+        System.out.println("  " + size + " refused as expected");
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+        return FAIL;
+      }
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Takes the tuple limit from the open database, copies a tuple that
+   * lies deep in a 64K page, and empties a 64K heap page, whose used
+   * pointer is then stored as 0.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: tuple limits and an empty 64K page");
+    AttrType[] types = { new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrString) };
+    try {
+      for (int size : new int[] { 4096, 65536 }) {
+        new File(dbpath).delete();
+        new SystemDefs(dbpath, 100, 10, "Clock", null, size);
+        int limit = Math.min(size, Short.MAX_VALUE);
+        if (Tuple.maxSize() != limit) {
+          System.out.println("  *** tuple limit " + Tuple.maxSize() + " with "
+                             + size + " byte pages, not " + limit);
+          return FAIL;
+        }
+        short[] big = { (short) (2 * MINIBASE_PAGESIZE) };
+        boolean fits = true;
+        try {
+          new Tuple().setHdr((short) 2, types, big);
+        }
+        catch (InvalidTupleSizeException e) {
+          fits = false;
+        }
+        if (fits != (size > 2 * MINIBASE_PAGESIZE)) {
+          System.out.println("  *** a " + big[0] + " byte string " + (fits ? "fits" : "does not fit")
+                             + " with " + size + " byte pages");
+          return FAIL;
+        }
+      }
+
+      // A tuple over the end of a 64K page, and a copy of it
+      byte[] page = new byte[65536];
+      short[] len = { 100 };
+      Tuple t = new Tuple(page, 65536 - 200, 200);
+      t.setHdr((short) 2, types, len);
+      t.setIntFld(1, 25);
+      t.setStrFld(2, "deep in the page");
+      Tuple copy = new Tuple(t);
+      if (copy.getIntFld(1) != 25 || !copy.getStrFld(2).equals("deep in the page")) {
+        System.out.println("  *** the copy of a tuple at offset " + t.getOffset() + " reads "
+                           + copy.getIntFld(1) + ", " + copy.getStrFld(2));
+        return FAIL;
+      }
+
+      HFPage hfp = new HFPage();
+      Page frame = new Page();
+      PageId pid = SystemDefs.JavabaseBM.newPage(frame, 1);
+      hfp.init(pid, frame);
+      RID rid = hfp.insertRecord(new byte[1000]);
+      hfp.deleteRecord(rid);
+      int free = hfp.available_space();
+      if (frame.getShortValue(HFPage.USED_PTR) != 0 || free < 65536 - HFPage.DPFIXED - 8
+          || hfp.insertRecord(new byte[free]) == null) {
+        System.out.println("  *** an emptied 64K page has used pointer "
+                           + frame.getShortValue(HFPage.USED_PTR) + " and room for a record of "
+                           + free + " bytes");
+        return FAIL;
+      }
+      SystemDefs.JavabaseBM.unpinPage(pid, false);
+      SystemDefs.JavabaseBM.freePage(pid);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  // Fills the relation and bulk loads the tree on its keys
+  private void load() throws Exception {
+    Heapfile rel = new Heapfile("pagesizebench_rel");
+    Random rnd = new Random(25);
+    Tuple t = new Tuple();
+    t.setHdr((short) 2, TYPES, null);
+    t = new Tuple(t.size());
+    t.setHdr((short) 2, TYPES, null);
+    int[] v = new int[100];
+    for (int i = 0; i < RECORDS; i++) {
+      for (int j = 0; j < 100; j++) {
+        v[j] = rnd.nextInt(20001) - 10000;
+      }
+      t.setIntFld(1, rnd.nextInt(RECORDS));
+      t.setVectorFld(2, v);
+      rel.insertRecord(t.getTupleByteArray());
+    }
+    BTreeFile btf = new BTreeFile("pagesizebench_idx", AttrType.attrInteger, 4,
+                                  DeleteFashion.NAIVE_DELETE);
+    BTreeBulkLoader.load(btf, rel, TYPES, null, 1,
+                         SORT_BYTES / SystemDefs.JavabasePageSize, 1.0f);
+    btf.close();
+    SystemDefs.JavabaseBM.flushAllPages();
+  }
+
+  // Scans the relation and looks keys up in the tree, counting the
+  // pages read each way, and checks the answers against the first
+  // page size's
+  private boolean scanAndLookUp(int size) throws Exception {
+    Heapfile rel = new Heapfile("pagesizebench_rel");
+    PCounter.initialize();
+    long t0 = System.nanoTime();
+    long sum = 0;
+    for (int s = 0; s < SCANS; s++) {
+      Scan scan = rel.openScan();
+      RID rid = new RID();
+      Tuple r;
+      while ((r = scan.getNext(rid)) != null) {
+        r.setHdr((short) 2, TYPES, null);
+        sum += r.getIntFld(1) + r.getVectorFld(2)[99];
+      }
+      scan.closescan();
+    }
+    report(size, "scan", t0);
+
+    BTreeFile btf = new BTreeFile("pagesizebench_idx");
+    Random rnd = new Random(26);
+    PCounter.initialize();
+    t0 = System.nanoTime();
+    long found = 0;
+    for (int i = 0; i < LOOKUPS; i++) {
+      IntegerKey key = new IntegerKey(rnd.nextInt(RECORDS));
+      BTFileScan scan = btf.new_scan(key, key);
+      KeyDataEntry entry;
+      while ((entry = scan.get_next()) != null) {
+        found += 1 + ((IntegerKey) entry.key).getKey();
+      }
+      scan.DestroyBTreeFileScan();
+    }
+    report(size, "lookup", t0);
+    btf.close();
+
+    if (scanSum < 0) {
+      scanSum = sum;
+      lookupSum = found;
+    }
+    else if (sum != scanSum || found != lookupSum) {
+      System.out.println("  *** " + size + " byte pages: scans or lookups differ");
+      return false;
+    }
+    return true;
+  }
+
+  private static void report(int size, String what, long t0) {
+    System.out.printf("  %5d byte pages  %-6s %6d ms  %6d pages read  %6d read calls%n",
+                      size, what, (System.nanoTime() - t0) / 1000000,
+                      PCounter.getRCount(), PCounter.getPhysicalRCount());
+  }
+
+  protected String testName() {
+    return "Page Size";
+  }
+}
+
+public class PageSizeBench {
+
+  public static void main(String argv[]) {
+
+    PageSizeBenchDriver pb = new PageSizeBenchDriver();
+    boolean status = pb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during page size benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,258 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import btree.*;
+
+/**
+ * Replays page reference traces through the buffer manager under each
+ * replacement policy and reports the hit ratios.
+ *
+ * With no arguments the trace is recorded first, from a workload that
+ * mixes B-tree lookups on a hot range of keys with full scans of the
+ * relation, and saved next to the database. Traces saved earlier can
+ * be replayed instead:
+ *   java tests.ReplacerBench /tmp/some.trace ...
+ */
+class ReplacerBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final String[] POLICIES = { "Clock", "LRU", "MRU", "2Q", "ARC", "LRU-2" };
+  private static final int[] POOL_SIZES = { 64, 128, 256, 512 };
+
+  private static final int RECORDS = 20000;
+  private static final int RECORD_SIZE = 120;
+  private static final int HOT_KEYS = 6000;
+  private static final int ROUNDS = 20;
+  private static final int LOOKUPS_PER_ROUND = 1000;
+
+  private String[] traceFiles;
+  private List<int[]> traces = new ArrayList<int[]>();
+
+  public ReplacerBenchDriver(String[] traceFiles) {
+    super("replacerbench");
+    this.traceFiles = traceFiles;
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    new File(dbpath + ".replay").delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * Records the pages pinned by B-tree lookups of hot keys, each
+   * followed by a fetch of the record, with a full scan of the relation
+   * after every batch of lookups. Loads saved traces instead if any
+   * were given.
+   */
+  protected boolean test1() {
+    try {
+      if (traceFiles.length > 0) {
+        System.out.println("\n  Test 1: load traces");
+        for (String f : traceFiles) {
+          traces.add(readTrace(f));
+          describe(f, traces.get(traces.size() - 1));
+        }
+        System.out.println("  Test 1 completed successfully.");
+        return OK;
+      }
+
+      System.out.println("\n  Test 1: record lookups of " + HOT_KEYS + " hot keys mixed with scans");
+      new File(dbpath).delete();
+      new SystemDefs(dbpath, 4000, 400, "Clock");
+
+      Heapfile rel = new Heapfile("replacerbench_rel");
+      BTreeFile index = new BTreeFile("replacerbench_idx", AttrType.attrInteger,
+                                      4, DeleteFashion.NAIVE_DELETE);
+      byte[] rec = new byte[RECORD_SIZE];
+      for (int key = 0; key < RECORDS; key++) {
+        Convert.setIntValue(key, 0, rec);
+        RID rid = rel.insertRecord(rec);
+        index.insert(new IntegerKey(key), rid);
+      }
+
+      final IntList trace = new IntList();
+      SystemDefs.JavabaseBM.setPinTrace(pid -> trace.add(pid));
+      Random rnd = new Random(9);
+      int found = 0;
+      for (int r = 0; r < ROUNDS; r++) {
+        for (int i = 0; i < LOOKUPS_PER_ROUND; i++) {
+          IntegerKey key = new IntegerKey(rnd.nextInt(HOT_KEYS));
+          BTFileScan scan = index.new_scan(key, key);
+          KeyDataEntry entry = scan.get_next();
+          if (entry != null) {
+            Tuple t = rel.getRecord(((LeafData) entry.data).getData());
+            if (Convert.getIntValue(0, t.getTupleByteArray()) == key.getKey().intValue()) {
+              found++;
+            }
+          }
+          scan.DestroyBTreeFileScan();
+        }
+        Scan scan = rel.openScan();
+        RID rid = new RID();
+        while (scan.getNext(rid) != null) {
+        }
+        scan.closescan();
+      }
+      SystemDefs.JavabaseBM.setPinTrace(null);
+      index.close();
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      if (found != ROUNDS * LOOKUPS_PER_ROUND) {
+        System.out.println("  *** lookups found " + found + " records");
+        return FAIL;
+      }
+
+      int[] refs = trace.toArray();
+      String file = dbpath + ".trace";
+      writeTrace(file, refs);
+      traces.add(refs);
+      describe(file, refs);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Replays each trace, pinning and unpinning every page in turn, under
+   * every policy and pool size. The hit ratio is the share of pins that
+   * did not read the page from disk; most pins of a page come right
+   * after another, so the pages read are shown too.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: hit ratio (pages read) by policy and pool size");
+    for (int[] refs : traces) {
+      System.out.printf("  %-6s", "frames");
+      for (String policy : POLICIES) {
+        System.out.printf("%16s", policy);
+      }
+      System.out.println();
+      for (int frames : POOL_SIZES) {
+        System.out.printf("  %-6d", frames);
+        for (String policy : POLICIES) {
+          int reads = replay(refs, frames, policy);
+          if (reads < 0) {
+            return FAIL;
+          }
+          System.out.printf("%8.2f%% %6d", 100.0 - 100.0 * reads / refs.length, reads);
+        }
+        System.out.println();
+      }
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  // Pages read replaying refs under policy with a pool of frames, or -1 on error
+  private int replay(int[] refs, int frames, String policy) {
+    int maxPid = 0;
+    for (int pid : refs) {
+      maxPid = Math.max(maxPid, pid);
+    }
+    String path = dbpath + ".replay";
+    PrintStream out = System.out;
+    try {
+      new File(path).delete();
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      new SystemDefs(path, maxPid + 1, frames, policy);
+      System.setOut(out);
+
+      Page page = new Page();
+      PageId pid = new PageId();
+      PCounter.initialize();
+      for (int ref : refs) {
+        pid.pid = ref;
+        SystemDefs.JavabaseBM.pinPage(pid, page, false);
+        SystemDefs.JavabaseBM.unpinPage(pid, false);
+      }
+      int reads = PCounter.getRCount();
+
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != frames) {
+        System.out.println("  *** pages left pinned under " + policy);
+        return -1;
+      }
+      return reads;
+    }
+    catch (Exception e) {
+      System.setOut(out);
+      e.printStackTrace();
+      return -1;
+    }
+  }
+
+  private static void describe(String file, int[] refs) {
+    int distinct = (int) Arrays.stream(refs).distinct().count();
+    System.out.println("  " + file + ": " + refs.length + " pins of "
+                       + distinct + " pages");
+  }
+
+  private static void writeTrace(String file, int[] refs) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+           new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(refs.length);
+      for (int pid : refs) {
+        out.writeInt(pid);
+      }
+    }
+  }
+
+  private static int[] readTrace(String file) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+           new BufferedInputStream(new FileInputStream(file)))) {
+      int[] refs = new int[in.readInt()];
+      for (int i = 0; i < refs.length; i++) {
+        refs[i] = in.readInt();
+      }
+      return refs;
+    }
+  }
+
+  // A growable int array, so recording does not box every page number
+  private static class IntList {
+    private int[] a = new int[1 << 16];
+    private int n;
+
+    void add(int v) {
+      if (n == a.length) {
+        a = Arrays.copyOf(a, 2 * n);
+      }
+      a[n++] = v;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(a, n);
+    }
+  }
+
+  protected String testName() {
+    return "Replacement Policy";
+  }
+}
+
+public class ReplacerBench {
+
+  public static void main(String argv[]) {
+
+    ReplacerBenchDriver rb = new ReplacerBenchDriver(argv);
+    boolean status = rb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during replacement policy benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
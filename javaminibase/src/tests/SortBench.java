@@ -0,0 +1,335 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import heap.*;
+import iterator.*;
+
+/**
+ * Sorts a relation of 100-D vectors on their distance to a target: all
+ * of it, and only the k nearest or farthest, which are kept in memory
+ * during one scan of the relation when they fit. Then sorts a relation
+ * on fields of each type, in memory and in runs, and finds more nearest
+ * tuples than the sort has memory for.
+ */
+class SortBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final AttrType[] TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrVector100D) };
+  private static final int SMALL = 2000;
+  private static final int LARGE = 40000;
+  private static final int K = 50;
+  private static final int K_PAGES = 10;
+  private static final int BIG_K = 1000;
+  private static final int BIG_K_PAGES = 60;
+  private static final int POOL = 1000;
+  private static final int MIXED = 5000;
+
+  private static final AttrType[] MIXED_TYPES = {
+    new AttrType(AttrType.attrInteger), new AttrType(AttrType.attrReal),
+    new AttrType(AttrType.attrString), new AttrType(AttrType.attrVector100D) };
+  private static final short[] MIXED_STR_SIZES = { 12 };
+
+  private int[] target;
+  private List<Long> large;
+
+  public SortBenchDriver() {
+    super("sortbench");
+  }
+
+  public boolean runTests() {
+    System.out.println("\nRunning " + testName() + " tests....");
+    new File(dbpath).delete();
+    boolean status = runAllTests();
+    new File(dbpath).delete();
+    System.out.println("\n..." + testName() + " tests "
+                       + (status ? "completely successfully" : "failed"));
+    return status;
+  }
+
+  /**
+   * The k nearest and k farthest tuples must be at the k smallest and
+   * largest distances, also when many vectors are equal; the full sort
+   * must agree with the k nearest.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: top k of a relation with many equal vectors");
+    try {
+      new SystemDefs(dbpath, 20000, POOL, "Clock");
+      Random rnd = new Random(14);
+      target = randomVector(rnd);
+      List<Long> nearest = load("sortbench_small", SMALL, 40, rnd);
+      Collections.sort(nearest);
+      List<Long> farthest = new ArrayList<Long>(nearest);
+      Collections.reverse(farthest);
+
+      if (!distances("sortbench_small", TupleOrder.Ascending, 0, 400).equals(nearest)) {
+        System.out.println("  *** the full sort is out of order");
+        return FAIL;
+      }
+      for (int k : new int[] { 1, K, SMALL, 2 * SMALL, Integer.MAX_VALUE }) {
+        int n = Math.min(k, SMALL);
+        if (!distances("sortbench_small", TupleOrder.Ascending, k, 400).equals(nearest.subList(0, n))
+            || !distances("sortbench_small", TupleOrder.Descending, k, 400).equals(farthest.subList(0, n))) {
+          System.out.println("  *** wrong tuples for k=" + k);
+          return FAIL;
+        }
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Finds the k nearest of a relation many times larger than the
+   * memory given to the sort, which has room for k tuples: it must read
+   * the relation once and write nothing.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: " + K + " nearest of " + LARGE + " tuples in "
+                       + K_PAGES + " pages");
+    try {
+      large = load("sortbench_large", LARGE, LARGE, new Random(15));
+      Collections.sort(large);
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      List<Long> top = distances("sortbench_large", TupleOrder.Ascending, K, K_PAGES);
+      long ms = (System.nanoTime() - t0) / 1000000;
+      System.out.println("  " + top.size() + " tuples in " + ms + " ms, "
+                         + PCounter.getRCount() + " pages read, "
+                         + PCounter.getWCount() + " written");
+
+      if (!top.equals(large.subList(0, K))) {
+        System.out.println("  *** wrong tuples");
+        return FAIL;
+      }
+      if (PCounter.getWCount() != 0) {
+        System.out.println("  *** pages were written");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Sorts a relation on a field of each type, both ways, with memory
+   * for all of it and for a small part, which makes the sort write runs
+   * and merge them.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: sort on each type of field, in memory and in runs");
+    try {
+      Random rnd = new Random(16);
+      Heapfile hf = new Heapfile("sortbench_mixed");
+      Tuple t = new Tuple();
+      t.setHdr((short) 4, MIXED_TYPES, MIXED_STR_SIZES);
+      t = new Tuple(t.size());
+      t.setHdr((short) 4, MIXED_TYPES, MIXED_STR_SIZES);
+      for (int i = 0; i < MIXED; i++) {
+        t.setIntFld(1, rnd.nextInt(MIXED));
+        t.setFloFld(2, rnd.nextFloat() * 2000 - 1000);
+        t.setStrFld(3, Long.toString(rnd.nextLong() & 0xffffffffL, 36));
+        t.setVectorFld(4, randomVector(rnd));
+        hf.insertRecord(t.getTupleByteArray());
+      }
+
+      String[] names = { "int", "real", "string", "vector" };
+      for (int fld = 1; fld <= 4; fld++) {
+        for (int pages : new int[] { 600, 30 }) {
+          for (int tupleOrder : new int[] { TupleOrder.Ascending, TupleOrder.Descending }) {
+            long t0 = System.nanoTime();
+            String error = sortMixed(fld, tupleOrder, pages);
+            long ms = (System.nanoTime() - t0) / 1000000;
+            System.out.printf("  %-6s %-10s %3d pages  %5d ms%n", names[fld - 1],
+                              new TupleOrder(tupleOrder), pages, ms);
+            if (error != null) {
+              System.out.println("  *** " + error);
+              return FAIL;
+            }
+          }
+        }
+      }
+      hf.deleteFile();
+
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Finds more nearest tuples of the relation of test 2 than the
+   * memory given to the sort holds. It must sort in runs, and keep
+   * only the first k tuples of each, so it writes less than sorting
+   * all of the relation does.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: " + BIG_K + " nearest of " + LARGE + " tuples in "
+                       + BIG_K_PAGES + " pages");
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      List<Long> all = distances("sortbench_large", TupleOrder.Ascending, 0, BIG_K_PAGES);
+      int allWrites = PCounter.getWCount();
+
+      SystemDefs.JavabaseBM.flushAllPages();
+      PCounter.initialize();
+      long t0 = System.nanoTime();
+      List<Long> top = distances("sortbench_large", TupleOrder.Ascending, BIG_K, BIG_K_PAGES);
+      long ms = (System.nanoTime() - t0) / 1000000;
+      int writes = PCounter.getWCount();
+      System.out.println("  " + top.size() + " tuples in " + ms + " ms, " + writes
+                         + " pages written, " + allWrites + " to sort all");
+
+      if (!all.equals(large) || !top.equals(large.subList(0, BIG_K))) {
+        System.out.println("  *** wrong tuples");
+        return FAIL;
+      }
+      if (writes == 0 || writes >= allWrites) {
+        System.out.println("  *** expected fewer pages written in runs than to sort all");
+        return FAIL;
+      }
+      if (SystemDefs.JavabaseBM.getNumUnpinnedBuffers() != POOL) {
+        System.out.println("  *** pages left pinned");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  // Sorts the mixed relation on fld and checks the order, or says what is wrong
+  private String sortMixed(int fld, int tupleOrder, int pages) throws Exception {
+    FldSpec[] proj = new FldSpec[4];
+    for (int i = 0; i < 4; i++) {
+      proj[i] = new FldSpec(new RelSpec(RelSpec.outer), i + 1);
+    }
+    FileScan scan = new FileScan("sortbench_mixed", MIXED_TYPES, MIXED_STR_SIZES,
+                                 (short) 4, 4, proj, null);
+    Sort sort = new Sort(MIXED_TYPES, (short) 4, MIXED_STR_SIZES, scan, fld,
+                         new TupleOrder(tupleOrder), fld == 3 ? 12 : 4, pages);
+    int sign = tupleOrder == TupleOrder.Ascending ? 1 : -1;
+    Tuple prev = null;
+    Tuple t;
+    int n = 0;
+    String error = null;
+    while ((t = sort.get_next()) != null) {
+      if (prev != null && error == null
+          && sign * TupleUtils.CompareTupleWithTuple(MIXED_TYPES[fld - 1], prev, fld, t, fld) > 0) {
+        error = "tuple " + n + " out of order";
+      }
+      prev = new Tuple(t);
+      n++;
+    }
+    sort.close();
+    if (error == null && n != MIXED) {
+      error = n + " tuples returned";
+    }
+    return error;
+  }
+
+  // Inserts n tuples (key, vector), drawing the vectors from a set of
+  // distinct ones, and returns their squared distances to the target
+  private List<Long> load(String rel, int n, int distinct, Random rnd) throws Exception {
+    int[][] vectors = new int[distinct][];
+    for (int i = 0; i < distinct; i++) {
+      vectors[i] = randomVector(rnd);
+    }
+    Heapfile hf = new Heapfile(rel);
+    Tuple t = new Tuple();
+    t.setHdr((short) 2, TYPES, null);
+    t = new Tuple(t.size());
+    t.setHdr((short) 2, TYPES, null);
+    List<Long> distances = new ArrayList<Long>();
+    for (int key = 0; key < n; key++) {
+      int[] v = vectors[rnd.nextInt(distinct)];
+      t.setIntFld(1, key);
+      t.setVectorFld(2, v);
+      hf.insertRecord(t.getTupleByteArray());
+      distances.add(VectorKernel.squaredDistance(v, target));
+    }
+    return distances;
+  }
+
+  // The squared distances of the tuples of rel in the order the sort
+  // returns them; the same tuple must not come twice
+  private List<Long> distances(String rel, int tupleOrder, int k, int pages) throws Exception {
+    FldSpec[] proj = { new FldSpec(new RelSpec(RelSpec.outer), 1),
+                       new FldSpec(new RelSpec(RelSpec.outer), 2) };
+    FileScan scan = new FileScan(rel, TYPES, null, (short) 2, 2, proj, null);
+    Sort sort = new Sort(TYPES, (short) 2, null, scan, 2, new TupleOrder(tupleOrder),
+                         400, pages, new Vector100Dtype(target), k);
+    List<Long> distances = new ArrayList<Long>();
+    HashSet<Integer> keys = new HashSet<Integer>();
+    Tuple t;
+    while ((t = sort.get_next()) != null) {
+      if (!keys.add(t.getIntFld(1))) {
+        throw new Exception("tuple " + t.getIntFld(1) + " returned twice");
+      }
+      distances.add(t.vectorSquaredDistanceTo(2, target));
+    }
+    sort.close();
+    return distances;
+  }
+
+  private static int[] randomVector(Random rnd) {
+    int[] v = new int[100];
+    for (int j = 0; j < v.length; j++) {
+      v[j] = rnd.nextInt(20001) - 10000;
+    }
+    return v;
+  }
+
+  protected String testName() {
+    return "Sort";
+  }
+}
+
+public class SortBench {
+
+  public static void main(String argv[]) {
+
+    SortBenchDriver sb = new SortBenchDriver();
+    boolean status = sb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during sort benchmark:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}
@@ -0,0 +1,320 @@
+package tests;
+
+import java.util.*;
+import global.*;
+import heap.*;
+
+/**
+ * Checks and times the shared vector distance kernel (global.VectorKernel)
+ * on 100-D int vectors, and distances read in place from tuple bytes
+ * (global.VectorView).
+ *
+ * Run it twice to compare the two implementations:
+ *   java --add-modules jdk.incubator.vector tests.VectorBench   (simd)
+ *   java tests.VectorBench                                      (scalar)
+ */
+class VectorBenchDriver extends TestDriver implements GlobalConst {
+
+  private static final int DIM = 100;
+  private static final int NVEC = 4096;
+  private static final int ROUNDS = 7;
+  private static final int OPS_PER_ROUND = 4000000;
+
+  private int[][] vectors;
+  private Vector100Dtype[] typed;
+  private long sink;
+
+  public VectorBenchDriver() {
+    super("vectorbench");
+    Random rnd = new Random(510);
+    vectors = new int[NVEC][DIM];
+    typed = new Vector100Dtype[NVEC];
+    for (int i = 0; i < NVEC; i++) {
+      for (int j = 0; j < DIM; j++) {
+        vectors[i][j] = rnd.nextInt(20001) - 10000;
+      }
+      typed[i] = new Vector100Dtype(vectors[i]);
+    }
+  }
+
+  /**
+   * The kernel must agree with the plain loop, including lengths that
+   * do not fill a whole SIMD register and extreme components, over int
+   * arrays and over vectors stored in bytes.
+   */
+  protected boolean test1() {
+    System.out.println("\n  Test 1: kernel (" + VectorKernel.implementation()
+                       + ") agrees with the scalar loop");
+    Random rnd = new Random(7);
+    for (int len = 0; len <= 130; len++) {
+      int[] a = new int[len];
+      int[] b = new int[len];
+      for (int t = 0; t < 20; t++) {
+        for (int j = 0; j < len; j++) {
+          a[j] = (t == 0) ? 10000 : rnd.nextInt(20001) - 10000;
+          b[j] = (t == 0) ? -10000 : rnd.nextInt(20001) - 10000;
+        }
+        // The same vectors stored at odd offsets, as in a tuple's bytes
+        byte[] ab = new byte[3 + 4 * len];
+        byte[] bb = new byte[5 + 4 * len];
+        for (int j = 0; j < len; j++) {
+          java.nio.ByteBuffer.wrap(ab).putInt(3 + 4 * j, a[j]);
+          java.nio.ByteBuffer.wrap(bb).putInt(5 + 4 * j, b[j]);
+        }
+        long sq = scalarSquaredDistance(a, b);
+        if (VectorKernel.squaredDistance(a, b) != sq
+            || VectorKernel.dot(a, b) != scalarDot(a, b)
+            || VectorKernel.squaredDistance(ab, 3, b, len) != sq
+            || VectorKernel.squaredDistance(ab, 3, bb, 5, len) != sq
+            || VectorKernel.dot(ab, 3, b, len) != scalarDot(a, b)) {
+          System.out.println("  *** mismatch at length " + len);
+          return FAIL;
+        }
+      }
+    }
+    System.out.println("  Test 1 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Times Vector100Dtype.distanceTo as it was (copying both arrays through
+   * getValues() and summing into a double) against the kernel.
+   */
+  protected boolean test2() {
+    System.out.println("\n  Test 2: 100-D distance, ns/op (best of " + ROUNDS + " rounds)");
+    double before = time(() -> {
+      long acc = 0;
+      for (int i = 0; i < OPS_PER_ROUND; i++) {
+        acc += (long) oldDistance(typed[i & (NVEC - 1)], typed[(i * 7 + 1) & (NVEC - 1)]);
+      }
+      return acc;
+    });
+    double after = time(() -> {
+      long acc = 0;
+      for (int i = 0; i < OPS_PER_ROUND; i++) {
+        acc += (long) typed[i & (NVEC - 1)].distanceTo(typed[(i * 7 + 1) & (NVEC - 1)]);
+      }
+      return acc;
+    });
+    report("distanceTo", before, after);
+    System.out.println("  Test 2 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Times the hyperplane dot product used by the LSH hash.
+   */
+  protected boolean test3() {
+    System.out.println("\n  Test 3: 100-D dot product, ns/op (best of " + ROUNDS + " rounds)");
+    double before = time(() -> {
+      long acc = 0;
+      for (int i = 0; i < OPS_PER_ROUND; i++) {
+        acc += scalarDot(vectors[i & (NVEC - 1)], vectors[(i * 7 + 1) & (NVEC - 1)]);
+      }
+      return acc;
+    });
+    double after = time(() -> {
+      long acc = 0;
+      for (int i = 0; i < OPS_PER_ROUND; i++) {
+        acc += VectorKernel.dot(vectors[i & (NVEC - 1)], vectors[(i * 7 + 1) & (NVEC - 1)]);
+      }
+      return acc;
+    });
+    report("dot", before, after);
+    System.out.println("  Test 3 completed successfully.");
+    return OK;
+  }
+
+  /**
+   * Distances read through the tuple's vector view must match decoding
+   * the field with getVectorFld, and must not allocate per call.
+   */
+  protected boolean test4() {
+    System.out.println("\n  Test 4: distance straight from tuple bytes, ns/op (best of "
+                       + ROUNDS + " rounds)");
+    final int ntup = 256;
+    final Tuple[] tuples = new Tuple[ntup];
+    try {
+      AttrType[] types = { new AttrType(AttrType.attrInteger),
+                           new AttrType(AttrType.attrVector100D) };
+      for (int i = 0; i < ntup; i++) {
+        Tuple t = new Tuple();
+        t.setHdr((short) 2, types, null);
+        t.setIntFld(1, i);
+        t.setVectorFld(2, vectors[i]);
+        tuples[i] = new Tuple(t);
+        tuples[i].setHdr((short) 2, types, null);
+      }
+      for (int i = 0; i < ntup; i++) {
+        Tuple a = tuples[i];
+        Tuple b = tuples[(i * 7 + 1) % ntup];
+        int[] target = vectors[NVEC - 1 - i];
+        if (!Arrays.equals(a.getVectorFld(2), vectors[i])
+            || !Arrays.equals(convertVectorFld(a, 2), vectors[i])
+            || a.vectorSquaredDistanceTo(2, target)
+               != VectorKernel.squaredDistance(a.getVectorFld(2), target)
+            || a.vectorDistanceTo(2, b, 2)
+               != VectorKernel.distance(a.getVectorFld(2), b.getVectorFld(2))) {
+          System.out.println("  *** view disagrees with getVectorFld for tuple " + i);
+          return FAIL;
+        }
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    final int[] target = vectors[NVEC - 1];
+    // the Convert path is an order of magnitude slower; time fewer ops
+    final int slowOps = OPS_PER_ROUND / 16;
+    double before = time(slowOps, () -> {
+      long acc = 0;
+      try {
+        for (int i = 0; i < slowOps; i++) {
+          acc += VectorKernel.squaredDistance(convertVectorFld(tuples[i & (ntup - 1)], 2), target);
+        }
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return acc;
+    });
+    double after = time(() -> {
+      long acc = 0;
+      try {
+        for (int i = 0; i < OPS_PER_ROUND; i++) {
+          acc += tuples[i & (ntup - 1)].vectorSquaredDistanceTo(2, target);
+        }
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return acc;
+    });
+    System.out.printf("  %-12s Convert %.2f  view %.2f  speedup %.2fx%n",
+                      "tuple dist", before, after, before / after);
+
+    long perCall = allocatedPerCall(() -> {
+      long acc = 0;
+      try {
+        for (int i = 0; i < OPS_PER_ROUND; i++) {
+          acc += tuples[i & (ntup - 1)].vectorSquaredDistanceTo(2, target);
+        }
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      return acc;
+    });
+    if (perCall >= 0) {
+      System.out.println("  bytes allocated per view distance: " + perCall);
+      if (perCall > 0) {
+        System.out.println("  *** the view path allocates");
+        return FAIL;
+      }
+    }
+    System.out.println("  Test 4 completed successfully.");
+    return OK;
+  }
+
+  // Bytes the current thread allocates per op in body, or -1 if the JVM cannot tell
+  private long allocatedPerCall(Body body) {
+    java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+    if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+    long tid = Thread.currentThread().getId();
+    sink += body.run();
+    long start = tmx.getThreadAllocatedBytes(tid);
+    sink += body.run();
+    return (tmx.getThreadAllocatedBytes(tid) - start) / OPS_PER_ROUND;
+  }
+
+  private interface Body {
+    long run();
+  }
+
+  // One warm-up round, then the best of ROUNDS timed rounds
+  private double time(Body body) {
+    return time(OPS_PER_ROUND, body);
+  }
+
+  private double time(int ops, Body body) {
+    sink += body.run();
+    long best = Long.MAX_VALUE;
+    for (int r = 0; r < ROUNDS; r++) {
+      long start = System.nanoTime();
+      sink += body.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return (double) best / ops;
+  }
+
+  private void report(String what, double before, double after) {
+    System.out.printf("  %-12s loop %.2f  kernel(%s) %.2f  speedup %.2fx%n",
+                      what, before, VectorKernel.implementation(), after, before / after);
+  }
+
+  private static double oldDistance(Vector100Dtype x, Vector100Dtype y) {
+    int[] a = x.getValues();
+    int[] b = y.getValues();
+    double sum = 0;
+    for (int i = 0; i < DIM; i++) {
+      int diff = a[i] - b[i];
+      sum += diff * diff;
+    }
+    return Math.sqrt(sum);
+  }
+
+  // getVectorFld as it was: one Convert.getIntValue per component
+  private static int[] convertVectorFld(Tuple t, int fldNo) throws Exception {
+    byte[] data = t.returnTupleByteArray();
+    // the header holds the field count, then each field's start offset
+    int offset = Convert.getShortValue(t.getOffset() + 2 * fldNo, data);
+    int[] vector = new int[DIM];
+    for (int i = 0; i < DIM; i++) {
+      vector[i] = Convert.getIntValue(offset, data);
+      offset += 4;
+    }
+    return vector;
+  }
+
+  private static long scalarSquaredDistance(int[] a, int[] b) {
+    long sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      long diff = a[i] - b[i];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  private static long scalarDot(int[] a, int[] b) {
+    long sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      sum += (long) a[i] * b[i];
+    }
+    return sum;
+  }
+
+  protected String testName() {
+    return "Vector Kernel";
+  }
+}
+
+public class VectorBench {
+
+  public static void main(String argv[]) {
+
+    VectorBenchDriver vb = new VectorBenchDriver();
+    boolean status = vb.runTests();
+
+    if (status != true) {
+      System.err.println("Error encountered during vector kernel tests:\n");
+      Runtime.getRuntime().exit(1);
+    }
+
+    Runtime.getRuntime().exit(0);
+  }
+}